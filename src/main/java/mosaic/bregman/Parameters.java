@@ -11,6 +11,12 @@ public class Parameters implements Serializable {
     // ================================ General parameters
     public String wd = null; // Last working dir
     public int nthreads = 4; // Number of threads
+    public boolean persistentSolverWorkers = false; // Solver zone workers live for whole solve
+    public int patchThreads = 1; // Number of patches processed concurrently
+    public int tileSize = 0; // Size (x/y) of tiles segmented separately (bounds solver memory, not output images), 0 - no tiling
+    public int frameThreads = 1; // Number of frames segmented concurrently
+    public int maxFramesInFlight = 0; // Max number of segmented frames waiting for output, 0 - same as frameThreads
+    public int maxFramesMemoryMB = 0; // Max memory (MB) used by segmented frames waiting for output, 0 - half of max heap
     
     // ================================ parameters changed in GUI
     // Segmentation options
@@ -57,6 +63,12 @@ public class Parameters implements Serializable {
         // ================================ General parameters
         wd = s.wd;
         nthreads = s.nthreads;
+        persistentSolverWorkers = s.persistentSolverWorkers;
+        patchThreads = s.patchThreads;
+        tileSize = s.tileSize;
+        frameThreads = s.frameThreads;
+        maxFramesInFlight = s.maxFramesInFlight;
+        maxFramesMemoryMB = s.maxFramesMemoryMB;
         
         // ================================ parameters changed in GUI
         // Segmentation options
@@ -4,7 +4,10 @@ package mosaic.bregman;
 import java.awt.Color;
 import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -12,6 +15,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
@@ -43,6 +50,8 @@ import mosaic.bregman.segmentation.SegmentationParameters;
 import mosaic.bregman.segmentation.SegmentationParameters.IntensityMode;
 import mosaic.bregman.segmentation.SegmentationParameters.NoiseModel;
 import mosaic.bregman.segmentation.SquasshSegmentation;
+import mosaic.bregman.segmentation.TiledSquasshSegmentation;
+import mosaic.bregman.segmentation.TiledSquasshSegmentation.WholeImageCollector;
 import mosaic.core.detection.Particle;
 import mosaic.core.imageUtils.MaskOnSpaceMapper;
 import mosaic.core.imageUtils.Point;
@@ -69,6 +78,7 @@ public class SquasshLauncher {
     private int nz;
     private int iNumOfChannels = -1;
     private int iOutputImgScale = 1;
+    private int iNumOfFrameThreads = 1;
     
     private ImagePlus[] iInputImages;
     private double[][][][] iNormalizedImages;
@@ -116,12 +126,6 @@ public class SquasshLauncher {
         
         // Initiate structures
         iNumOfChannels = numOfChannels;
-        iInputImages = new ImagePlus[iNumOfChannels];
-        iNormalizedImages = new double[iNumOfChannels][][][];
-        iRegionsList = new ArrayList<List<Region>>(iNumOfChannels);
-        for (int i = 0; i < iNumOfChannels; i++) iRegionsList.add(null);
-        iLabeledRegions = new short[iNumOfChannels][][][];
-        iSoftMasks = new double[iNumOfChannels][][][];
         iOutSoftMasks = new ImagePlus[iNumOfChannels];
         iOutOutlines = new ImagePlus[iNumOfChannels];
         iOutIntensities = new ImagePlus[iNumOfChannels];
@@ -133,34 +137,34 @@ public class SquasshLauncher {
         iOutColoc = new ImagePlus[iAnalysisPairs.size()];
         
         String outFileName = SysOps.removeExtension(title);
-        for (int frame = 1; frame <= numOfFrames; frame++) {
-            aImage.setPosition(aImage.getChannel(), aImage.getSlice(), frame);      
-
-            segmentFrame(aImage, frame, title);
-            
-            displayAndUpdateImages(outFileName);
-            if (iParameters.save_images) {
-                writeImageDataCsv(aOutputDir, title, outFileName, frame - 1);
-                writeObjectDataCsv(aOutputDir, title, outFileName, frame - 1);
-                
-                // Compute and apply colocalization mask
-                Mask mask = new Mask(iGlobalNormalizationMin, iGlobalNormalizationMax);
-                for (int i = 0; i < iNumOfChannels; i++) {
-                    if (i == 0 && iParameters.usecellmaskX) mask.generateMasks(i, iInputImages[i], iParameters.thresholdcellmask);
-                    else if (i == 1 && iParameters.usecellmaskY) mask.generateMasks(i, iInputImages[i], iParameters.thresholdcellmasky);
-                    else {
-                        // TODO: Currently parameters provided only 'old' set of information for channels 0 and 1
-                        //       only. It will be refactored to sth supporting n-channels.
-                    }
+        // Frames are segmented (possibly concurrently) ahead of output, but outputs are always generated in
+        // frame order so all files are same as in serial processing.
+        // All frame tasks run on one fork-join pool, patches and other fork-join work of segmentation are forked
+        // into same pool so frame threads are not multiplied by threads of each segmentation. Only split Bregman
+        // solver (blocking zone threads) uses its own nthreads threads in each frame.
+        final int numOfFrameThreads = Math.max(1, Math.min(iParameters.frameThreads, numOfFrames));
+        final long frameMemory = estimateFrameMemory(ni, nj, nz, numOfChannels, iParameters.subpixel, iParameters.tileSize, keepsSoftMask(ni, nj));
+        final long memoryBudget = (iParameters.maxFramesMemoryMB > 0) ? iParameters.maxFramesMemoryMB * (1L << 20) : Runtime.getRuntime().maxMemory() / 2;
+        final int maxFramesInFlight = maxFramesInFlight(iParameters.maxFramesInFlight, numOfFrameThreads, frameMemory, memoryBudget);
+        // no more frames than can be kept in memory are segmented at once
+        iNumOfFrameThreads = Math.min(numOfFrameThreads, maxFramesInFlight);
+        logger.debug("Frame threads: " + iNumOfFrameThreads + ", max frames in flight: " + maxFramesInFlight + ", estimated frame memory [B]: " + frameMemory);
+        final ExecutorService executor = (iNumOfFrameThreads > 1) ? new ForkJoinPool(iNumOfFrameThreads) : null;
+        final Deque<FrameSegmentation> framesInFlight = new ArrayDeque<FrameSegmentation>();
+        try {
+            for (int frame = 1; frame <= numOfFrames; frame++) {
+                aImage.setPosition(aImage.getChannel(), aImage.getSlice(), frame);
+                framesInFlight.add(segmentFrame(aImage, frame, title, executor));
+                while (framesInFlight.size() >= maxFramesInFlight || (frame == numOfFrames && !framesInFlight.isEmpty())) {
+                    FrameSegmentation fs = framesInFlight.poll();
+                    fs.waitForResults();
+                    processFrame(fs, aOutputDir, title, outFileName);
                 }
-                List<List<Region>> maskedRegionList = mask.applyMask(iRegionsList, iOutputImgScale, nz, ni, nj);
-
-                ColocalizationAnalysis ca = new ColocalizationAnalysis((nz > 1) ? iOutputImgScale : 1, iOutputImgScale, iOutputImgScale);
-                Map<ChannelPair, ColocResult> allColocs = ca.calculateAll(iAnalysisPairs, maskedRegionList, iLabeledRegions, iNormalizedImages);
-                writeImageColoc(aOutputDir, title, outFileName, frame - 1, allColocs);
-                writeObjectsColocCsv(aOutputDir, title, outFileName, frame - 1, allColocs);
             }
         }
+        finally {
+            if (executor != null) executor.shutdownNow();
+        }
 
         if (iParameters.save_images) {
             saveAllImages(aOutputDir);
@@ -172,6 +176,48 @@ public class SquasshLauncher {
         }
     }
     
+    /**
+     * @return estimated memory (in bytes) needed to segment all channels of one frame and keep its results
+     */
+    static long estimateFrameMemory(int aNi, int aNj, int aNz, int aNumOfChannels, boolean aSubpixel) {
+        return estimateFrameMemory(aNi, aNj, aNz, aNumOfChannels, aSubpixel, 0, true);
+    }
+
+    /**
+     * @param aTileSize - size of tiles (0 - no tiling), solver works only on one tile (with halo) at a time
+     * @param aKeepSoftMask - if whole image soft mask is kept for output
+     * @return estimated memory (in bytes) needed to segment all channels of one frame and keep its results
+     */
+    static long estimateFrameMemory(int aNi, int aNj, int aNz, int aNumOfChannels, boolean aSubpixel, int aTileSize, boolean aKeepSoftMask) {
+        final long numOfPixels = (long) aNi * aNj * aNz;
+        // input copy (float), normalized image and soft mask (double)
+        final long bytesPerPixel = 4 + 8 + (aKeepSoftMask ? 8 : 0);
+        // about 15 double arrays of split Bregman solver, with tiling only for one tile (halo is never bigger than tile)
+        final boolean isTiled = aTileSize > 0 && (aNi > aTileSize || aNj > aTileSize);
+        final long solverPixels = isTiled ? (long) Math.min(aNi, 3 * aTileSize) * Math.min(aNj, 3 * aTileSize) * aNz : numOfPixels;
+        final long solverBytes = 15 * 8 * solverPixels;
+        // labeled regions are kept in oversampled resolution (short)
+        final int interpolation = interpolation(aSubpixel, aNz);
+        final long scaleXY = (interpolation > 1) ? 2 * interpolation : 1;
+        final long scaleZ = (aNz > 1) ? scaleXY : 1;
+        final long labelsBytes = 2 * numOfPixels * scaleXY * scaleXY * scaleZ;
+        return aNumOfChannels * (numOfPixels * bytesPerPixel + solverBytes + labelsBytes);
+    }
+
+    /**
+     * @return number of frames which can be segmented ahead of output - limited by requested number (or number of
+     *         frame threads if not provided) and by memory budget, at least one
+     */
+    static int maxFramesInFlight(int aRequested, int aNumOfFrameThreads, long aFrameMemory, long aMemoryBudget) {
+        final int requested = (aRequested > 0) ? aRequested : aNumOfFrameThreads;
+        final long fitting = aMemoryBudget / Math.max(1, aFrameMemory);
+        return (int) Math.max(1, Math.min(requested, fitting));
+    }
+
+    private static int interpolation(boolean aSubpixel, int aNz) {
+        return (aSubpixel) ? ((aNz > 1) ? 2 : 4) : 1;
+    }
+
     /**
      * @return list of files that were created and saved by SquashLauncher
      */
@@ -314,17 +360,108 @@ public class SquasshLauncher {
         }
     }
 
-    private void segmentFrame(ImagePlus aImage, int aCurrentFrame, String aTitle) {
+    /**
+     * Segmentation input and results of all channels of one frame.
+     */
+    private class FrameSegmentation {
+        final int iFrame;
+        final ImagePlus[] iInputImgs = new ImagePlus[iNumOfChannels];
+        final double[][][][] iNormalizedImgs = new double[iNumOfChannels][][][];
+        final short[][][][] iLabels = new short[iNumOfChannels][][][];
+        final List<List<Region>> iRegions = new ArrayList<List<Region>>(Collections.nCopies(iNumOfChannels, (List<Region>) null));
+        final double[][][][] iMasks = new double[iNumOfChannels][][][];
+        final List<List<float[][][]>> iMasksEvolution = new ArrayList<List<float[][][]>>(Collections.nCopies(iNumOfChannels, Collections.<float[][][]>emptyList()));
+        final List<Future<?>> iChannelTasks = new ArrayList<Future<?>>(iNumOfChannels);
+        int iScale = 1;
+
+        FrameSegmentation(int aFrame) {
+            iFrame = aFrame;
+        }
+
+        void waitForResults() {
+            try {
+                for (Future<?> f : iChannelTasks) {
+                    f.get();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Segmentation of frame " + iFrame + " interrupted", e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException("Segmentation of frame " + iFrame + " failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Segments all channels of given frame. If executor is provided channels are segmented as a separate tasks
+     * and results must be waited for with {@link FrameSegmentation#waitForResults()}.
+     */
+    private FrameSegmentation segmentFrame(ImagePlus aImage, final int aCurrentFrame, final String aTitle, ExecutorService aExecutor) {
+        final FrameSegmentation fs = new FrameSegmentation(aCurrentFrame);
         for (int channel = 0; channel < iNumOfChannels; channel++) {
-            logger.debug("------------------- Segmentation of [" + aTitle + "] channel: " + channel + ", frame: " + aCurrentFrame);
-            iInputImages[channel] =  ImgUtils.extractFrameAsImage(aImage, aCurrentFrame, channel + 1 /* 1-based */, true /* make copy */);
-            iNormalizedImages[channel] = ImgUtils.ImgToZXYarray(iInputImages[channel]);
-            ArrayOps.normalize(iNormalizedImages[channel]);
-            
-            double[][][] mask = (iParameters.patches_from_file != null) ? generateMaskFromPatches(iParameters.patches_from_file, nz, ni, nj, aCurrentFrame) : null;
-            
-            segmentChannel(channel, mask);
-            logger.debug("------------------- End of Segmentation ---------------------------");
+            // Extraction changes position of input image so it must be done in caller thread
+            fs.iInputImgs[channel] =  ImgUtils.extractFrameAsImage(aImage, aCurrentFrame, channel + 1 /* 1-based */, true /* make copy */);
+            final int ch = channel;
+            final Runnable task = () -> {
+                logger.debug("------------------- Segmentation of [" + aTitle + "] channel: " + ch + ", frame: " + aCurrentFrame);
+                fs.iNormalizedImgs[ch] = ImgUtils.ImgToZXYarray(fs.iInputImgs[ch]);
+                ArrayOps.normalize(fs.iNormalizedImgs[ch]);
+
+                double[][][] mask = (iParameters.patches_from_file != null) ? generateMaskFromPatches(iParameters.patches_from_file, nz, ni, nj, aCurrentFrame) : null;
+
+                segmentChannel(fs, ch, mask);
+                logger.debug("------------------- End of Segmentation ---------------------------");
+            };
+            if (aExecutor != null) {
+                fs.iChannelTasks.add(aExecutor.submit(task));
+            }
+            else {
+                task.run();
+            }
+        }
+        return fs;
+    }
+
+    /**
+     * Generates all outputs (images, CSV files, colocalization) of segmented frame.
+     */
+    private void processFrame(FrameSegmentation aFrame, String aOutputDir, String aTitle, String aOutFileName) {
+        final int frame = aFrame.iFrame;
+        iInputImages = aFrame.iInputImgs;
+        iNormalizedImages = aFrame.iNormalizedImgs;
+        iLabeledRegions = aFrame.iLabels;
+        iRegionsList = aFrame.iRegions;
+        iSoftMasks = aFrame.iMasks;
+        iOutputImgScale = aFrame.iScale;
+        for (int channel = 0; channel < iNumOfChannels; channel++) {
+            logger.debug("------------------- Found " + iRegionsList.get(channel).size() + " object(s) in channel " + channel + ", frame: " + frame);
+            ImagePlus maskImg = generateMaskImg(aFrame.iMasksEvolution.get(channel));
+            if (maskImg != null) {maskImg.setTitle("Mask Evol");maskImg.show();}
+        }
+
+        displayAndUpdateImages(aOutFileName);
+        if (iParameters.save_images) {
+            writeImageDataCsv(aOutputDir, aTitle, aOutFileName, frame - 1);
+            writeObjectDataCsv(aOutputDir, aTitle, aOutFileName, frame - 1);
+
+            // Compute and apply colocalization mask
+            Mask mask = new Mask(iGlobalNormalizationMin, iGlobalNormalizationMax);
+            for (int i = 0; i < iNumOfChannels; i++) {
+                if (i == 0 && iParameters.usecellmaskX) mask.generateMasks(i, iInputImages[i], iParameters.thresholdcellmask);
+                else if (i == 1 && iParameters.usecellmaskY) mask.generateMasks(i, iInputImages[i], iParameters.thresholdcellmasky);
+                else {
+                    // TODO: Currently parameters provided only 'old' set of information for channels 0 and 1
+                    //       only. It will be refactored to sth supporting n-channels.
+                }
+            }
+            List<List<Region>> maskedRegionList = mask.applyMask(iRegionsList, iOutputImgScale, nz, ni, nj);
+
+            ColocalizationAnalysis ca = new ColocalizationAnalysis((nz > 1) ? iOutputImgScale : 1, iOutputImgScale, iOutputImgScale);
+            Map<ChannelPair, ColocResult> allColocs = ca.calculateAll(iAnalysisPairs, maskedRegionList, iLabeledRegions, iNormalizedImages);
+            writeImageColoc(aOutputDir, aTitle, aOutFileName, frame - 1, allColocs);
+            writeObjectsColocCsv(aOutputDir, aTitle, aOutFileName, frame - 1, allColocs);
         }
     }
 
@@ -368,8 +505,8 @@ public class SquasshLauncher {
         }
     }
 
-    private void segmentChannel(int channel, double[][][] aMask) {
-        final ImagePlus img = iInputImages[channel];
+    private void segmentChannel(FrameSegmentation aFrame, int channel, double[][][] aMask) {
+        final ImagePlus img = aFrame.iInputImgs[channel];
 
         if (iParameters.removebackground) {
             for (int z = 0; z < nz; z++) {
@@ -399,8 +536,10 @@ public class SquasshLauncher {
         int tempChannel = channel;
         if (channel > 1) channel = 1;
         SegmentationParameters sp = new SegmentationParameters(
+                // number of solver zones must not depend on frame threads - it would change zone partition
+                // (and order of floating point summation) so results would differ from serial run
                 iParameters.nthreads,
-                ((iParameters.subpixel) ? ((nz > 1) ? 2 : 4) : 1),
+                interpolation(iParameters.subpixel, nz),
                 iParameters.lreg_[channel],
                 minIntensity,
                 iParameters.exclude_z_edges,
@@ -409,27 +548,54 @@ public class SquasshLauncher {
                 iParameters.sigma_gaussian,
                 iParameters.sigma_gaussian / iParameters.zcorrec,
                 iParameters.min_region_filter_intensities, 
-                iParameters.min_region_filter_size);
+                iParameters.min_region_filter_size,
+                iParameters.persistentSolverWorkers,
+                iParameters.patchThreads);
         
         //  ============== SEGMENTATION
-        SquasshSegmentation rg = new SquasshSegmentation(image, sp, min, max);
-        if (aMask == null) {
-            rg.run();
+        channel = tempChannel;
+        if (iParameters.tileSize > 0 && (ni > iParameters.tileSize || nj > iParameters.tileSize)) {
+            // Big image - segment it tile by tile. Only solver and patches memory is bounded by tile size: 
+            // segmentation itself keeps only seam bands, but labels (and normalized image) of whole image are
+            // still collected here since colocalization and outputs need them. Soft mask is collected only if shown.
+            WholeImageCollector results = new WholeImageCollector(image, keepsSoftMask(ni, nj));
+            TiledSquasshSegmentation rg = new TiledSquasshSegmentation(image, sp, min, max, iParameters.tileSize, results);
+            if (aMask == null) {
+                rg.run();
+            }
+            else {
+                rg.runWithProvidedMask(aMask);
+            }
+            setSegmentationResults(aFrame, channel, results.iLabeledRegions, results.iRegionsList, results.iSoftMask);
         }
         else {
-            rg.runWithProvidedMask(aMask);
+            SquasshSegmentation rg = new SquasshSegmentation(image, sp, min, max);
+            if (aMask == null) {
+                rg.run();
+            }
+            else {
+                rg.runWithProvidedMask(aMask);
+            }
+            setSegmentationResults(aFrame, channel, rg.iLabeledRegions, rg.iRegionsList, rg.iSoftMask);
+            aFrame.iMasksEvolution.set(channel, rg.iAllMasks);
         }
-        channel = tempChannel;
-        iOutputImgScale = rg.iLabeledRegions[0].length / ni;
-        
-        iLabeledRegions[channel] = rg.iLabeledRegions; 
-        iRegionsList.set(channel, rg.iRegionsList);
-        
-        logger.debug("------------------- Found " + rg.iRegionsList.size() + " object(s) in channel " + channel);
         // =============================
-        iSoftMasks[channel] = rg.iSoftMask;
-        ImagePlus maskImg = generateMaskImg(rg.iAllMasks); 
-        if (maskImg != null) {maskImg.setTitle("Mask Evol");maskImg.show();}
+    }
+    
+    /**
+     * @return false if soft mask of whole image is not needed (tiled segmentation without soft mask output)
+     */
+    private boolean keepsSoftMask(int aNi, int aNj) {
+        final boolean isTiled = iParameters.tileSize > 0 && (aNi > iParameters.tileSize || aNj > iParameters.tileSize);
+        return !isTiled || iParameters.dispSoftMask;
+    }
+
+    private void setSegmentationResults(FrameSegmentation aFrame, int aChannel, short[][][] aLabeledRegions, List<Region> aRegionsList, double[][][] aSoftMask) {
+        aFrame.iScale = aLabeledRegions[0].length / ni;
+
+        aFrame.iLabels[aChannel] = aLabeledRegions;
+        aFrame.iRegions.set(aChannel, aRegionsList);
+        aFrame.iMasks[aChannel] = aSoftMask;
     }
 
     // ============================== Mask from particles ======================================
@@ -151,7 +151,8 @@ class AnalysePatch {
                                                              SolverParameters.NoiseModel.valueOf(iParameters.noiseModel.name()),
                                                              betaMleIntensities[1], 
                                                              betaMleIntensities[0], 
-                                                             iRegulariztionPatch);
+                                                             iRegulariztionPatch,
+                                                             iParameters.persistentSolverWorkers);
         ASplitBregmanSolver solver = ASplitBregmanSolver.create(solverParams, iPatch, w3kpatch, iPsf);
 
         final int numOfIterations = 101;
@@ -163,7 +164,7 @@ class AnalysePatch {
             isDone = solver.performIteration(lastIteration);
             if (iteration % 10 == 0) logger.debug("Iteration: " + iteration);
             if (iParameters.intensityMode == IntensityMode.AUTOMATIC && (iteration == 40 || iteration == 70)) {
-                estimateIntensity(solver.w3k);
+                estimateIntensity(solver.getMask());
                 solver.betaMle[0] = Math.max(0, cout);
                 solver.betaMle[1] = Math.max(0.75 * iNormalizedMinObjectIntensity, cin);
                 solver.init();
@@ -177,23 +178,24 @@ class AnalysePatch {
         solver.postprocess();
     
         cin = solver.getBetaMleIn();
+        final double[][][] bestMask = solver.getBestMask();
     
         double threshold = 0;
         if (iParameters.intensityMode == IntensityMode.HIGH) {
-            estimateIntensityClustering(solver.w3kbest, 3, true);
+            estimateIntensityClustering(bestMask, 3, true);
             threshold = cin - 0.04;
         }
         else {
             double minThreshold = (iParameters.intensityMode == IntensityMode.MEDIUM) ? 0.25 : iRescaledMinIntensityAll * 0.96;
-            threshold = findBestThreshold(solver.w3kbest, minThreshold);
+            threshold = findBestThreshold(bestMask, minThreshold);
         }
         logger.debug("Best found threshold: " + threshold + " in region: " + iInputRegion.iLabel);
         
         if (iInterpolationXY == 1) {
-            generateThresholdedObject(solver.w3kbest, threshold);
+            generateThresholdedObject(bestMask, threshold);
         }
         else {
-            result = createInterpolatedObject(solver.w3kbest, threshold);
+            result = createInterpolatedObject(bestMask, threshold);
         }
     
         // assemble result into full image
@@ -36,6 +36,8 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ByteProcessor;
+import mosaic.core.imageUtils.ConnectedComponents;
+import mosaic.core.imageUtils.Connectivity;
 
 
 class FindConnectedRegions {
@@ -44,14 +46,10 @@ class FindConnectedRegions {
     private short[][][] iLabeledRegions;
     private final ArrayList<Region> iFoundRegions = new ArrayList<Region>();
 
-    private static final byte IN_QUEUE = 1;
-    private static final byte ADDED = 2;
-
     FindConnectedRegions(ImagePlus aInputImg) {
         iInputImg = aInputImg;
     }
 
-    @SuppressWarnings("null")
     void run(int aMaximumPointsInRegion, int aMinimumPointsInRegion, float aMinThreshold, boolean exclude_z_edges, int oversampling2ndstep, int interpolation) {
         if (iInputImg == null) {
             IJ.error("No image to operate on.");
@@ -78,137 +76,73 @@ class FindConnectedRegions {
         byte[][] sliceDataBytes = new byte[depth][];
         for (int z = 0; z < depth; ++z) {
             final ByteProcessor bp = (ByteProcessor) stack.getProcessor(z + 1);
-            sliceDataBytes[z] = (byte[]) bp.getPixelsCopy();
+            sliceDataBytes[z] = (byte[]) bp.getPixels();
         }
 
-        int tag = 0;
-        int queueArrayLength = 128 * 1024;
-        int[] queue = new int[queueArrayLength];
-        int pixelsCount = 0;
-        while (pixelsCount < width * height * depth) {
-            // Find one pixel that's above the minimum, or find the maximum in the case where we're
-            // not insisting that all regions are made up of the same color. These are set in all cases...
-            int initial_x = -1;
-            int initial_y = -1;
-            int initial_z = -1;
-
-            int maxValueInt = -1;
-
-            for (int z = 0; z < depth; ++z) {
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        final int value = sliceDataBytes[z][y * width + x] & 0xFF;
-                        if (value > maxValueInt && value >= aMinThreshold) {
-                            initial_x = x;
-                            initial_y = y;
-                            initial_z = z;
-                            maxValueInt = value;
-                        }
-                    }
-                }
+        // Regions are 18-connected (for single slice it is same as 8-connectivity in 2D) pixels not below threshold
+        final int sliceSize = width * height;
+        final boolean[] foreground = new boolean[sliceSize * depth];
+        for (int z = 0; z < depth; ++z) {
+            for (int i = 0; i < sliceSize; ++i) {
+                foreground[z * sliceSize + i] = (sliceDataBytes[z][i] & 0xFF) >= aMinThreshold;
             }
-
-            // If the maximum value is below the level we care about, we're done.
-            if (maxValueInt < 0) {
-                break;
+        }
+        final int[] components = new int[foreground.length];
+        final int numOfComponents = new ConnectedComponents(new int[] {width, height, depth}, new Connectivity(3, 1)).label(foreground, components, 1);
+
+        // Size of each component and its first pixel with maximum value
+        final int[] sizes = new int[numOfComponents];
+        final int[] maxValues = new int[numOfComponents];
+        final int[] maxIndices = new int[numOfComponents];
+        Arrays.fill(maxValues, -1);
+        for (int i = 0; i < components.length; ++i) {
+            if (!foreground[i]) continue;
+            final int c = components[i] - 1;
+            ++sizes[c];
+            final int value = sliceDataBytes[i / sliceSize][i % sliceSize] & 0xFF;
+            if (value > maxValues[c]) {
+                maxValues[c] = value;
+                maxIndices[c] = i;
             }
+        }
 
-            int pointsInQueue = 0;
-            Arrays.fill(queue, 0);
-            
-            final byte[] pointState = new byte[depth * width * height];
-            final int i = width * (initial_z * height + initial_y) + initial_x;
-            pointState[i] = IN_QUEUE;
-            queue[pointsInQueue++] = i;
-
-            int pointsInThisRegion = 0;
-
-            while (pointsInQueue > 0) {
-                final int nextIndex = queue[--pointsInQueue];
-
-                final int currentPointStateIndex = nextIndex;
-                final int pz = nextIndex / (width * height);
-                final int currentSliceIndex = nextIndex % (width * height);
-                final int py = currentSliceIndex / width;
-                final int px = currentSliceIndex % width;
-
-                pointState[currentPointStateIndex] = ADDED;
-
-                sliceDataBytes[pz][currentSliceIndex] = 0;
-                ++pointsInThisRegion;
-
-                final int x_unchecked_min = px - 1;
-                final int y_unchecked_min = py - 1;
-                final int z_unchecked_min = pz - 1;
-
-                final int x_unchecked_max = px + 1;
-                final int y_unchecked_max = py + 1;
-                final int z_unchecked_max = pz + 1;
-
-                final int x_min = (x_unchecked_min < 0) ? 0 : x_unchecked_min;
-                final int y_min = (y_unchecked_min < 0) ? 0 : y_unchecked_min;
-                final int z_min = (z_unchecked_min < 0) ? 0 : z_unchecked_min;
-
-                final int x_max = (x_unchecked_max >= width) ? width - 1 : x_unchecked_max;
-                final int y_max = (y_unchecked_max >= height) ? height - 1 : y_unchecked_max;
-                final int z_max = (z_unchecked_max >= depth) ? depth - 1 : z_unchecked_max;
-
-                for (int z = z_min; z <= z_max; ++z) {
-                    for (int y = y_min; y <= y_max; ++y) {
-                        for (int x = x_min; x <= x_max; ++x) {
-
-                            // If we're not including diagonals, skip those points.
-                            if ((x == x_unchecked_min || x == x_unchecked_max) && (y == y_unchecked_min || y == y_unchecked_max) && (z == z_unchecked_min || z == z_unchecked_max)) {
-                                continue;
-                            }
-                            
-                            final int newSliceIndex = y * width + x;
-
-                            final int neighbourValue = sliceDataBytes[z][newSliceIndex] & 0xFF;
-                            if (neighbourValue < aMinThreshold) {
-                                continue;
-                            }
-
-                            final int newPointStateIndex = z * width * height + newSliceIndex;
-                            if (0 == pointState[newPointStateIndex]) {
-                                pointState[newPointStateIndex] = IN_QUEUE;
-                                if (pointsInQueue == queueArrayLength) {
-                                    final int newArrayLength = queueArrayLength * 2;
-                                    final int[] newArray = new int[newArrayLength];
-                                    System.arraycopy(queue, 0, newArray, 0, queueArrayLength);
-                                    queue = newArray;
-                                    queueArrayLength = newArrayLength;
-                                }
-                                queue[pointsInQueue++] = newPointStateIndex;
-                            }
-                        }
-                    }
-                }
-            }
-            pixelsCount += pointsInThisRegion;
-            // So now pointState should have no IN_QUEUE status points...
+        // Pixels of each component in memory order (component c has pixels [pixelsStart[c], pixelsStart[c + 1]))
+        final int[] pixelsStart = new int[numOfComponents + 1];
+        for (int c = 0; c < numOfComponents; ++c) {
+            pixelsStart[c + 1] = pixelsStart[c] + sizes[c];
+        }
+        final int[] pixelsPos = Arrays.copyOf(pixelsStart, numOfComponents);
+        final int[] pixels = new int[pixelsStart[numOfComponents]];
+        for (int i = 0; i < components.length; ++i) {
+            if (foreground[i]) pixels[pixelsPos[components[i] - 1]++] = i;
+        }
+
+        // Regions are tagged in order of their maximum value (and first pixel with that value), the same order
+        // as when filling regions from the brightest remaining pixel.
+        final long[] order = new long[numOfComponents];
+        for (int c = 0; c < numOfComponents; ++c) {
+            order[c] = ((long) (255 - maxValues[c]) << 32) | maxIndices[c];
+        }
+        Arrays.sort(order);
+
+        int tag = 0;
+        for (final long key : order) {
+            final int c = components[(int) key] - 1;
+            final int pointsInThisRegion = sizes[c];
             if (pointsInThisRegion < aMinimumPointsInRegion || pointsInThisRegion > aMaximumPointsInRegion) {
                 continue;
             }
 
             // tag only if region not too small or big
             tag++;
-            ArrayList<Pix> pixels = new ArrayList<Pix>(pointsInThisRegion);
-            for (int z = 0; z < depth; ++z) {
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        final byte status = pointState[width * (z * height + y) + x];
-                        if (status == ADDED) {
-                            pixels.add(new Pix(z, x, y));
-                        }
-                        else if (status == IN_QUEUE) {
-                            IJ.log("BUG: point " + x + "," + y + "," + z + " is still marked as IN_QUEUE");
-                        }
-                    }
-                }
+            ArrayList<Pix> regionPixels = new ArrayList<Pix>(pointsInThisRegion);
+            for (int p = pixelsStart[c]; p < pixelsStart[c + 1]; ++p) {
+                final int index = pixels[p];
+                final int sliceIndex = index % sliceSize;
+                regionPixels.add(new Pix(index / sliceSize, sliceIndex % width, sliceIndex / width));
             }
             
-            Region region = new Region(tag, pixels);
+            Region region = new Region(tag, regionPixels);
 
             // Check for z Edge
             boolean regionAdded = false;
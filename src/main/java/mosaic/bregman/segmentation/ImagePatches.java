@@ -3,9 +3,14 @@ package mosaic.bregman.segmentation;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -92,22 +97,15 @@ class ImagePatches {
         // ---------------------------------------------------------------------
         // - Compute Patches and Regions in each patch 
         // --------------------------------------------------------------------
-        int numberOfJobs = iRegionsList.size();
-        int numOfDoneJobs = 0;
+        // Labels are assigned after all patches are done and in order of input regions, so
+        // output does not depend on number of patch threads.
+        final List<ArrayList<Region>> patchesRegions = computePatchesRegions();
         int newLabel = 1;
-        for (final Region inputRegion : iRegionsList) {
-            AnalysePatch ap = new AnalysePatch(iImage, inputRegion, iParameters, iOversampling, w3kbest, iRegularization, iMinObjectIntensity, iPsf);
-            final ArrayList<Region> regions = ap.calculateRegions();
-            
+        for (final ArrayList<Region> regions : patchesRegions) {
             for (final Region r : regions) {
                 r.iLabel = newLabel++;
                 iOutputRegionsList.add(r);
             }
-            numOfDoneJobs++;
-            
-            double progress = 55 + (45 * ((double) numOfDoneJobs) / (numberOfJobs));
-            IJ.showStatus("Computing segmentation  " + SegmentationTools.round(progress, 2) + "%");
-            IJ.showProgress(progress/100);
         }
         generateLabeledRegions(iOutputRegionsList, iOutputLabeledRegions);
         logger.debug("number of found regions:                      " + iOutputRegionsList.size() + ", output label regions: " + Debug.getArrayDims(iOutputLabeledRegions));
@@ -193,6 +191,74 @@ class ImagePatches {
         logger.debug("number of found regions after filtering:      " + iOutputRegionsList.size());
     }
 
+    /**
+     * Computes regions found in each patch. Patches are independent so with more than one patch thread
+     * they are processed on bounded fork-join pool. If segmentation itself runs in fork-join pool (e.g. frames
+     * segmented concurrently) patches are forked into that pool instead of creating new one. In both cases
+     * not more than numOfPatchThreads patches are processed at once.
+     * @return list of regions found in each patch, in same order as input regions
+     */
+    private List<ArrayList<Region>> computePatchesRegions() {
+        final int numberOfJobs = iRegionsList.size();
+        final List<ArrayList<Region>> result = new ArrayList<ArrayList<Region>>(numberOfJobs);
+        
+        final int numOfPatchThreads = Math.min(iParameters.numOfPatchThreads, numberOfJobs);
+        if (numOfPatchThreads <= 1) {
+            int numOfDoneJobs = 0;
+            for (final Region inputRegion : iRegionsList) {
+                result.add(computePatchRegions(inputRegion));
+                showProgress(++numOfDoneJobs, numberOfJobs);
+            }
+            return result;
+        }
+        
+        // Lazily generated PSF images are shared by all patches, generate them before going parallel
+        iPsf.getSeparableImageAsDoubleArray(0);
+        if (iImage.length > 1) iPsf.getImage3DAsDoubleArray(); else iPsf.getImage2DAsDoubleArray();
+        
+        // Each of numOfPatchThreads tasks takes next not processed patch until all are done
+        final List<ArrayList<Region>> patchesRegions = new ArrayList<ArrayList<Region>>(Collections.nCopies(numberOfJobs, (ArrayList<Region>) null));
+        final AtomicInteger nextJob = new AtomicInteger(0);
+        final AtomicInteger numOfDoneJobs = new AtomicInteger(0);
+        final Runnable patchWorker = () -> {
+            int job;
+            while ((job = nextJob.getAndIncrement()) < numberOfJobs) {
+                patchesRegions.set(job, computePatchRegions(iRegionsList.get(job)));
+                showProgress(numOfDoneJobs.incrementAndGet(), numberOfJobs);
+            }
+        };
+        
+        final ForkJoinPool callerPool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : null;
+        final ForkJoinPool pool = (callerPool != null) ? callerPool : new ForkJoinPool(numOfPatchThreads);
+        try {
+            final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(numOfPatchThreads);
+            for (int t = 0; t < numOfPatchThreads; t++) {
+                final ForkJoinTask<?> task = ForkJoinTask.adapt(patchWorker);
+                tasks.add((callerPool != null) ? task.fork() : pool.submit(task));
+            }
+            for (final ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+        finally {
+            if (pool != callerPool) pool.shutdown();
+        }
+        result.addAll(patchesRegions);
+        
+        return result;
+    }
+
+    private ArrayList<Region> computePatchRegions(Region aInputRegion) {
+        AnalysePatch ap = new AnalysePatch(iImage, aInputRegion, iParameters, iOversampling, w3kbest, iRegularization, iMinObjectIntensity, iPsf);
+        return ap.calculateRegions();
+    }
+    
+    private void showProgress(int aNumOfDoneJobs, int aNumberOfJobs) {
+        double progress = 55 + (45 * ((double) aNumOfDoneJobs) / (aNumberOfJobs));
+        IJ.showStatus("Computing segmentation  " + SegmentationTools.round(progress, 2) + "%");
+        IJ.showProgress(progress/100);
+    }
+
     /**
      * Generate labeled regions from provided list of regions
      */
@@ -59,11 +59,16 @@ public class Region implements Comparable<Region> {
             sumy += p.py;
             sumz += p.pz;
         }
-        int count = iPixels.size();
-
-        cx = (float) (sumx / count);
-        cy = (float) (sumy / count);
-        cz = (float) (sumz / count);
+        setRegionCenter(sumx, sumy, sumz, iPixels.size(), aScaleXY, aScaleZ);
+    }
+    
+    /**
+     * Sets region center from sums of coordinates of aCount pixels
+     */
+    void setRegionCenter(double aSumX, double aSumY, double aSumZ, int aCount, int aScaleXY, int aScaleZ) {
+        cx = (float) (aSumX / aCount);
+        cy = (float) (aSumY / aCount);
+        cz = (float) (aSumZ / aCount);
 
         cx = cx / (aScaleXY);
         cy = cy / (aScaleXY);
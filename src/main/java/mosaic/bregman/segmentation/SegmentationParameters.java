@@ -24,6 +24,8 @@ public class SegmentationParameters {
     // General settings
     final int numOfThreads;
     final int interpolation;
+    final boolean persistentSolverWorkers;
+    final int numOfPatchThreads;
     
     // Segmentation parameters (from segmentation GUI)
     final double lambdaRegularization;
@@ -47,8 +49,27 @@ public class SegmentationParameters {
                                     double aSigmaGaussianZ,
                                     double aMinRegionIntensity,
                                     int aMinRegionSize)
+    {
+        this(aNumOfThreads, aInterpolation, aRegularization, aMinObjectIntensity, aExcludeZedges, aIntensityMode, aNoiseModel, aSigmaGaussianXY, aSigmaGaussianZ, aMinRegionIntensity, aMinRegionSize, false, 1);
+    }
+    
+    public SegmentationParameters(  int aNumOfThreads,
+                                    int aInterpolation,
+                                    double aRegularization,
+                                    double aMinObjectIntensity,
+                                    boolean aExcludeZedges,
+                                    IntensityMode aIntensityMode, 
+                                    NoiseModel aNoiseModel, 
+                                    double aSigmaGaussianXY,
+                                    double aSigmaGaussianZ,
+                                    double aMinRegionIntensity,
+                                    int aMinRegionSize,
+                                    boolean aPersistentSolverWorkers,
+                                    int aNumOfPatchThreads)
     {
         numOfThreads = aNumOfThreads;
+        persistentSolverWorkers = aPersistentSolverWorkers;
+        numOfPatchThreads = aNumOfPatchThreads;
         interpolation = aInterpolation;
         
         lambdaRegularization = aRegularization;
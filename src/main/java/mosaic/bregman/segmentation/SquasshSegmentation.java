@@ -37,6 +37,7 @@ public class SquasshSegmentation {
     private final double[][][] iMask;
     private final psf<DoubleType> iPsf;
     private final ASplitBregmanSolver iSolver;
+    private double[][][] iBestMask;
     
     // Output of segmentation
     // TODO: Make it accessible via getters
@@ -72,7 +73,8 @@ public class SquasshSegmentation {
                                                              SolverParameters.NoiseModel.valueOf(iParameters.noiseModel.name()),
                                                              iParameters.defaultBetaMleIn, 
                                                              iParameters.defaultBetaMleOut, 
-                                                             iParameters.lambdaRegularization);
+                                                             iParameters.lambdaRegularization,
+                                                             iParameters.persistentSolverWorkers);
         iSolver = ASplitBregmanSolver.create(solverParams, iImage, iMask, iPsf);
     }
 
@@ -96,26 +98,28 @@ public class SquasshSegmentation {
         while (iteration < numOfIterations && !isDone) {
             final boolean lastIteration = (iteration == numOfIterations - 1);
             isDone = iSolver.performIteration(lastIteration);
-            if (iParameters.debug) iAllMasks.add(ConvertArray.toFloat(iSolver.w3k));
+            if (iParameters.debug) iAllMasks.add(ConvertArray.toFloat(iSolver.getMask()));
             // Will progress  from 0 to 50 percent for step one.
             setProgress((50 * iteration)/(numOfIterations - 1));
             iteration++;
         }
         iSolver.postprocess();
+        iBestMask = iSolver.getBestMask();
     }
 
     private void stepOneFromPatches(double[][][] aInputMask) {
-        SegmentationTools.copytab(iSolver.w3kbest, aInputMask);
+        iBestMask = new double[nz][ni][nj];
+        SegmentationTools.copytab(iBestMask, aInputMask);
     }
 
     private void stepTwoSegmentation() {
-        iSoftMask = iSolver.w3kbest.clone();
-        computeConnectedRegions(iSolver.w3kbest);
+        iSoftMask = iBestMask.clone();
+        computeConnectedRegions(iBestMask);
         
         setProgress(51);
     
         computeVoronoiRegions();
-        final ImagePatches ipatches = new ImagePatches(iParameters, iRegionsList, iImage, iSolver.w3kbest, iGlobalMin, iGlobalMax, iParameters.lambdaRegularization, iParameters.minObjectIntensity, iPsf);
+        final ImagePatches ipatches = new ImagePatches(iParameters, iRegionsList, iImage, iBestMask, iGlobalMin, iGlobalMax, iParameters.lambdaRegularization, iParameters.minObjectIntensity, iPsf);
         ipatches.processPatches();
         iRegionsList = ipatches.getRegionsList();
         iLabeledRegions = ipatches.getLabeledRegions();
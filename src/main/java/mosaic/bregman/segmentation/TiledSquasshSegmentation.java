@@ -0,0 +1,425 @@
+package mosaic.bregman.segmentation;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import mosaic.utils.Debug;
+
+
+/**
+ * Squassh segmentation done tile by tile. Image is divided (in x/y) into tiles, each tile is extended
+ * by halo of PSF size and segmented by {@link SquasshSegmentation} independently. Results of each tile core
+ * (without halo) are passed to {@link TileConsumer} as soon as tile is ready, so solver and patches need only
+ * memory proportional to tile size. Only labels of halo-wide bands along seams and per region properties are
+ * kept between tiles. Memory needed for output depends on consumer (input image must be provided as a whole).
+ *
+ * Region found in a tile gets label of already labeled region (in cores of previous tiles) it overlaps most
+ * in the halo. Because of that one object cut by seam gets one label, but different objects which only touch
+ * each other across the seam keep different labels (same as in non-tiled segmentation).
+ */
+public class TiledSquasshSegmentation {
+    private static final Logger logger = Logger.getLogger(TiledSquasshSegmentation.class);
+
+    /**
+     * Segmentation results of tile core.
+     */
+    public static class TileResult {
+        // Position of first pixel of tile core in input image coordinates
+        public final int iX0;
+        public final int iY0;
+        // Scale of output (labels) with respect to input image
+        public final int iScaleXY;
+        public final int iScaleZ;
+        // Final labels of tile core [z][x][y] in output coordinates
+        public final short[][][] iLabels;
+        // Soft mask of tile core [z][x][y] in input coordinates
+        public final double[][][] iSoftMask;
+        // Parts of regions lying in tile core, labels are final labels of regions and pixels are in output
+        // coordinates of whole image
+        public final List<Region> iRegionParts;
+
+        TileResult(int aX0, int aY0, int aScaleXY, int aScaleZ, short[][][] aLabels, double[][][] aSoftMask, List<Region> aRegionParts) {
+            iX0 = aX0;
+            iY0 = aY0;
+            iScaleXY = aScaleXY;
+            iScaleZ = aScaleZ;
+            iLabels = aLabels;
+            iSoftMask = aSoftMask;
+            iRegionParts = aRegionParts;
+        }
+    }
+
+    /**
+     * Receives results of tiles as soon as they are segmented.
+     */
+    public interface TileConsumer {
+        void tileSegmented(TileResult aTile);
+
+        /**
+         * Called after last tile.
+         * @param aRegions - all regions (ordered by label) with properties computed from all their parts.
+         *                   Pixels are not included, they were provided with tiles.
+         */
+        void segmentationFinished(List<Region> aRegions);
+    }
+
+    /**
+     * Collects results of all tiles into whole image label image, soft mask and regions list
+     * (same as output of {@link SquasshSegmentation}). It keeps image sized buffers so memory used by it
+     * is not bounded by tile size.
+     */
+    public static class WholeImageCollector implements TileConsumer {
+        private final int ni, nj, nz;
+        private final boolean iCollectSoftMask;
+        private final Map<Integer, List<Pix>> iPixels = new HashMap<Integer, List<Pix>>();
+
+        public short[][][] iLabeledRegions;
+        public ArrayList<Region> iRegionsList;
+        public double[][][] iSoftMask;
+
+        /**
+         * @param aInputImg - segmented image [z][x][y] (only its dimensions are used)
+         */
+        public WholeImageCollector(double[][][] aInputImg) {
+            this(aInputImg, true);
+        }
+
+        /**
+         * @param aInputImg - segmented image [z][x][y] (only its dimensions are used)
+         * @param aCollectSoftMask - if false soft mask is not collected (iSoftMask stays null)
+         */
+        public WholeImageCollector(double[][][] aInputImg, boolean aCollectSoftMask) {
+            ni = aInputImg[0].length;
+            nj = aInputImg[0][0].length;
+            nz = aInputImg.length;
+            iCollectSoftMask = aCollectSoftMask;
+        }
+
+        @Override
+        public void tileSegmented(TileResult aTile) {
+            if (iLabeledRegions == null) {
+                iLabeledRegions = new short[nz * aTile.iScaleZ][ni * aTile.iScaleXY][nj * aTile.iScaleXY];
+                if (iCollectSoftMask) iSoftMask = new double[nz][ni][nj];
+            }
+            copy(aTile.iLabels, iLabeledRegions, aTile.iX0 * aTile.iScaleXY, aTile.iY0 * aTile.iScaleXY);
+            if (iCollectSoftMask) copy(aTile.iSoftMask, iSoftMask, aTile.iX0, aTile.iY0);
+            for (Region part : aTile.iRegionParts) {
+                List<Pix> pixels = iPixels.get(part.iLabel);
+                if (pixels == null) {
+                    pixels = new ArrayList<Pix>();
+                    iPixels.put(part.iLabel, pixels);
+                }
+                pixels.addAll(part.iPixels);
+            }
+        }
+
+        @Override
+        public void segmentationFinished(List<Region> aRegions) {
+            iRegionsList = new ArrayList<Region>(aRegions.size());
+            for (Region r : aRegions) {
+                r.iPixels.addAll(iPixels.remove(r.iLabel));
+                iRegionsList.add(r);
+            }
+        }
+
+        private static void copy(short[][][] aSrc, short[][][] aDst, int aX0, int aY0) {
+            for (int z = 0; z < aSrc.length; z++) {
+                for (int x = 0; x < aSrc[0].length; x++) {
+                    System.arraycopy(aSrc[z][x], 0, aDst[z][aX0 + x], aY0, aSrc[0][0].length);
+                }
+            }
+        }
+
+        private static void copy(double[][][] aSrc, double[][][] aDst, int aX0, int aY0) {
+            for (int z = 0; z < aSrc.length; z++) {
+                for (int x = 0; x < aSrc[0].length; x++) {
+                    System.arraycopy(aSrc[z][x], 0, aDst[z][aX0 + x], aY0, aSrc[0][0].length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Properties of region summed up from its parts found in tiles.
+     */
+    private static class RegionParts {
+        int iNumOfParts = 0;
+        int iNumOfPixels = 0;
+        double iIntensity = 0;
+        double iPerimeter = 0;
+        double iLength = 0;
+        double iSumX = 0, iSumY = 0, iSumZ = 0;
+        // Region found in tile if it was not cut (its properties are used as they are)
+        Region iWholeRegion = null;
+
+        void add(Region aRegion, List<Pix> aPixels) {
+            if (iNumOfParts++ == 0 && aPixels.size() == aRegion.iPixels.size()) {
+                iWholeRegion = aRegion;
+            }
+            else {
+                iWholeRegion = null;
+            }
+            final double fraction = (double) aPixels.size() / aRegion.iPixels.size();
+            iNumOfPixels += aPixels.size();
+            iIntensity += aRegion.intensity * aPixels.size();
+            iPerimeter += aRegion.perimeter * fraction;
+            iLength += aRegion.length * fraction;
+            for (Pix p : aPixels) {
+                iSumX += p.px;
+                iSumY += p.py;
+                iSumZ += p.pz;
+            }
+        }
+    }
+
+    // Input parameters
+    private final double[][][] iImage;
+    private final SegmentationParameters iParameters;
+    private final double iGlobalMin;
+    private final double iGlobalMax;
+    private final int iTileSize;
+    private final int iHalo;
+    private final TileConsumer iConsumer;
+
+    private final int ni, nj, nz;
+
+    // Scale of output, known after first tile is segmented
+    private int iScaleXY = 0;
+    private int iScaleZ = 0;
+    // Final labels of halo wide band on the right side of previous column of tiles [z][x][y] (all y)
+    private short[][][] iPrevColumnBand;
+    // Same band for current column (filled tile by tile)
+    private short[][][] iColumnBand;
+    // Final labels of halo wide band on the bottom of previous tile in current column [z][x][y] (tile x only)
+    private short[][][] iPrevTileBand;
+    // Parts of regions for each label (label - 1)
+    private final List<RegionParts> iRegions = new ArrayList<RegionParts>();
+
+    /**
+     * @param aInputImg image to segment [z][x][y]
+     * @param aTileSize size of tile (in x and y) without halo
+     * @param aConsumer receives results of tiles
+     */
+    public TiledSquasshSegmentation(double[][][] aInputImg, SegmentationParameters aParameters, double aGlobalMin, double aGlobalMax, int aTileSize, TileConsumer aConsumer) {
+        iImage = aInputImg;
+        iParameters = aParameters;
+        iGlobalMin = aGlobalMin;
+        iGlobalMax = aGlobalMax;
+        iTileSize = aTileSize;
+        iHalo = haloSize(iParameters.sigmaGaussianXY);
+        iConsumer = aConsumer;
+
+        ni = aInputImg[0].length;
+        nj = aInputImg[0][0].length;
+        nz = aInputImg.length;
+
+        logger.debug("Tiled segmentation of image (z/x/y): " + Debug.getArrayDims(aInputImg) + ", tile size: " + iTileSize + ", halo: " + iHalo);
+    }
+
+    public void run() {
+        segment(null);
+    }
+
+    public void runWithProvidedMask(double[][][] aMask) {
+        segment(aMask);
+    }
+
+    /**
+     * @return size of halo for given PSF sigma - it is equal to size of PSF kernel used in segmentation
+     */
+    static int haloSize(double aSigma) {
+        final int size = (int) (aSigma * 8.0) + 1;
+        return (size % 2 == 0) ? size + 1 : size;
+    }
+
+    /**
+     * @return borders of tiles (first is 0, last is aLength), tiles have (almost) same size not bigger than aTileSize
+     *         but not smaller than aHalo (so halo of tile reaches only neighbouring tiles)
+     */
+    static int[] tileBorders(int aLength, int aTileSize, int aHalo) {
+        final int numOfTiles = Math.max(1, Math.min((aLength + aTileSize - 1) / aTileSize, aLength / aHalo));
+        final int[] borders = new int[numOfTiles + 1];
+        for (int t = 0; t <= numOfTiles; t++) {
+            borders[t] = (int) ((long) aLength * t / numOfTiles);
+        }
+        return borders;
+    }
+
+    private void segment(double[][][] aMask) {
+        final int[] bordersX = tileBorders(ni, iTileSize, iHalo);
+        final int[] bordersY = tileBorders(nj, iTileSize, iHalo);
+
+        int tile = 0;
+        for (int tx = 0; tx < bordersX.length - 1; tx++) {
+            for (int ty = 0; ty < bordersY.length - 1; ty++, tile++) {
+                // core of tile and tile extended with halo
+                final int x0 = bordersX[tx], x1 = bordersX[tx + 1];
+                final int y0 = bordersY[ty], y1 = bordersY[ty + 1];
+                final int ex0 = Math.max(0, x0 - iHalo), ex1 = Math.min(ni, x1 + iHalo);
+                final int ey0 = Math.max(0, y0 - iHalo), ey1 = Math.min(nj, y1 + iHalo);
+                logger.debug("Segmenting tile " + tile + " x: " + ex0 + "-" + ex1 + " y: " + ey0 + "-" + ey1);
+
+                final SquasshSegmentation ss = new SquasshSegmentation(crop(iImage, ex0, ex1, ey0, ey1), iParameters, iGlobalMin, iGlobalMax);
+                if (aMask == null) {
+                    ss.run();
+                }
+                else {
+                    ss.runWithProvidedMask(crop(aMask, ex0, ex1, ey0, ey1));
+                }
+                processTile(ss, x0, x1, y0, y1, ex0, ey0);
+            }
+            // right band of this column is left band for next one
+            final short[][][] band = iPrevColumnBand;
+            iPrevColumnBand = iColumnBand;
+            iColumnBand = band;
+        }
+
+        finish();
+        logger.debug("Number of regions found in all tiles: " + iRegions.size());
+    }
+
+    private double[][][] crop(double[][][] aImage, int aX0, int aX1, int aY0, int aY1) {
+        final double[][][] result = new double[nz][aX1 - aX0][aY1 - aY0];
+        for (int z = 0; z < nz; z++) {
+            for (int x = aX0; x < aX1; x++) {
+                System.arraycopy(aImage[z][x], aY0, result[z][x - aX0], 0, aY1 - aY0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gives final labels to regions found in tile, passes core of tile to consumer and keeps bands needed by next tiles.
+     */
+    private void processTile(SquasshSegmentation aTile, int aX0, int aX1, int aY0, int aY1, int aEx0, int aEy0) {
+        if (iScaleXY == 0) {
+            iScaleXY = aTile.iLabeledRegions[0].length / aTile.iSoftMask[0].length;
+            iScaleZ = aTile.iLabeledRegions.length / nz;
+            iPrevColumnBand = new short[nz * iScaleZ][iHalo * iScaleXY][nj * iScaleXY];
+            iColumnBand = new short[nz * iScaleZ][iHalo * iScaleXY][nj * iScaleXY];
+        }
+        final int s = iScaleXY;
+        final int halo = iHalo * s;
+        final int x0 = aX0 * s, x1 = aX1 * s, y0 = aY0 * s, y1 = aY1 * s, ex0 = aEx0 * s, ey0 = aEy0 * s;
+        final short[][][] labels = aTile.iLabeledRegions;
+        final int zSize = labels.length;
+        final int ex1 = ex0 + labels[0].length, ey1 = ey0 + labels[0][0].length;
+
+        // Overlap of tile regions with final labels in halo (cores of left columns and of previous tile in this column)
+        final Map<Long, Integer> overlaps = new HashMap<Long, Integer>();
+        for (int z = 0; z < zSize; z++) {
+            for (int x = ex0; x < Math.min(x1, ex1); x++) {
+                final int yEnd = (x < x0) ? ey1 : y0;
+                for (int y = ey0; y < yEnd; y++) {
+                    final int local = labels[z][x - ex0][y - ey0];
+                    if (local == 0) continue;
+                    final int known = (x < x0) ? iPrevColumnBand[z][x - (x0 - halo)][y] : iPrevTileBand[z][x - x0][y - (y0 - halo)];
+                    if (known == 0) continue;
+                    final long key = ((long) local << 32) | known;
+                    final Integer count = overlaps.get(key);
+                    overlaps.put(key, (count == null) ? 1 : count + 1);
+                }
+            }
+        }
+        final int numOfLocalRegions = aTile.iRegionsList.size();
+        final int[] finalLabels = new int[numOfLocalRegions + 1];
+        final int[] bestOverlaps = new int[numOfLocalRegions + 1];
+        for (Map.Entry<Long, Integer> e : overlaps.entrySet()) {
+            final int local = (int) (e.getKey() >>> 32);
+            final int known = (int) (long) e.getKey();
+            final int count = e.getValue();
+            if (count > bestOverlaps[local] || (count == bestOverlaps[local] && known < finalLabels[local])) {
+                bestOverlaps[local] = count;
+                finalLabels[local] = known;
+            }
+        }
+
+        // Parts of regions in tile core, regions not overlapping any known region get new labels
+        final List<Region> parts = new ArrayList<Region>();
+        for (Region r : aTile.iRegionsList) {
+            final List<Pix> pixels = new ArrayList<Pix>();
+            for (Pix p : r.iPixels) {
+                final int x = p.px + ex0;
+                final int y = p.py + ey0;
+                if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+                    pixels.add(new Pix(p.pz, x, y));
+                }
+            }
+            if (pixels.isEmpty()) continue;
+            if (finalLabels[r.iLabel] == 0) {
+                if (iRegions.size() >= Short.MAX_VALUE) {
+                    throw new RuntimeException("Too many regions to be stored in labeled image: " + (iRegions.size() + 1));
+                }
+                iRegions.add(new RegionParts());
+                finalLabels[r.iLabel] = iRegions.size();
+            }
+            final int label = finalLabels[r.iLabel];
+            iRegions.get(label - 1).add(r, pixels);
+            parts.add(new Region(label, pixels));
+        }
+
+        // Core of tile with final labels
+        final short[][][] coreLabels = new short[zSize][x1 - x0][y1 - y0];
+        for (int z = 0; z < zSize; z++) {
+            for (int x = x0; x < x1; x++) {
+                for (int y = y0; y < y1; y++) {
+                    coreLabels[z][x - x0][y - y0] = (short) finalLabels[labels[z][x - ex0][y - ey0]];
+                }
+            }
+        }
+        final double[][][] coreSoftMask = new double[nz][aX1 - aX0][aY1 - aY0];
+        for (int z = 0; z < nz; z++) {
+            for (int x = aX0; x < aX1; x++) {
+                System.arraycopy(aTile.iSoftMask[z][x - aEx0], aY0 - aEy0, coreSoftMask[z][x - aX0], 0, aY1 - aY0);
+            }
+        }
+
+        // Keep bands of core needed by next column and next tile in this column
+        if (iPrevTileBand == null || iPrevTileBand[0].length != x1 - x0) {
+            iPrevTileBand = new short[zSize][x1 - x0][halo];
+        }
+        // (when image is smaller than halo in some dimension there is only one tile there and band is not used)
+        final int bandHeight = Math.min(halo, y1 - y0);
+        for (int z = 0; z < zSize; z++) {
+            for (int x = Math.max(x0, x1 - halo); x < x1; x++) {
+                System.arraycopy(coreLabels[z][x - x0], 0, iColumnBand[z][x - (x1 - halo)], y0, y1 - y0);
+            }
+            for (int x = x0; x < x1; x++) {
+                System.arraycopy(coreLabels[z][x - x0], (y1 - y0) - bandHeight, iPrevTileBand[z][x - x0], halo - bandHeight, bandHeight);
+            }
+        }
+
+        iConsumer.tileSegmented(new TileResult(aX0, aY0, iScaleXY, iScaleZ, coreLabels, coreSoftMask, parts));
+    }
+
+    /**
+     * Creates final regions from their parts and passes them to consumer.
+     */
+    private void finish() {
+        final List<Region> regions = new ArrayList<Region>(iRegions.size());
+        for (int i = 0; i < iRegions.size(); i++) {
+            final RegionParts rp = iRegions.get(i);
+            final Region region = new Region(i + 1, new ArrayList<Pix>(rp.iNumOfPixels));
+            if (rp.iWholeRegion != null) {
+                region.intensity = rp.iWholeRegion.intensity;
+                region.perimeter = rp.iWholeRegion.perimeter;
+                region.length = rp.iWholeRegion.length;
+                region.realSize = rp.iWholeRegion.realSize;
+            }
+            else {
+                region.intensity = rp.iIntensity / rp.iNumOfPixels;
+                region.perimeter = rp.iPerimeter;
+                region.length = rp.iLength;
+                region.realSize = rp.iNumOfPixels / ((float) iScaleXY * iScaleXY * iScaleZ);
+            }
+            region.setRegionCenter(rp.iSumX, rp.iSumY, rp.iSumZ, rp.iNumOfPixels, iScaleXY, iScaleZ);
+            regions.add(region);
+        }
+        iConsumer.segmentationFinished(regions);
+    }
+}
@@ -17,7 +17,7 @@ public abstract class ASplitBregmanSolver {
     
     // Input parameters
     protected final SolverParameters iParameters;
-    protected final double[][][] iImage;
+    protected final double[] iImage;
     protected double iBetaMleOut;
     protected double iBetaMleIn;
     final double iRegularization;
@@ -27,28 +27,33 @@ public abstract class ASplitBregmanSolver {
     protected final int ni, nj, nz;
     protected final SolverTools iLocalTools;
     protected final ExecutorService executor;
+    // Long-lived zone workers, created on first step if persistent workers mode is chosen
+    protected ZoneWorkers iZoneWorkers = null;
     protected final double iEnergies[];
     // betaMleOut/betaMleIn are being updated in 2D case but not in 3D. In 3d only returned
     // getBetaMLE() is based on updated stuff
     public final double[] betaMle = new double[2];
 
+    // All data below is kept in flat arrays of size nz * ni * nj, element [z][i][j] is stored
+    // at index (z * ni + i) * nj + j (see SolverTools).
+    
     // Segmentation masks
-    public final double[][][] w3k;
-    public final double[][][] w3kbest;
+    protected final double[] w3k;
+    protected final double[] w3kbest;
     
     // Used by superclasses and utils
     protected final NoiseModel iNoiseModel;
-    protected final double[][][] w1k;
-    protected final double[][][] w2xk;
-    protected final double[][][] w2yk;
-    protected final double[][][] b2xk;
-    protected final double[][][] b2yk;
-    protected final double[][][] b1k;
-    protected final double[][][] b3k;
-    protected double[][][] temp1;
-    protected double[][][] temp2;
-    protected double[][][] temp3;
-    protected double[][][] temp4;
+    protected final double[] w1k;
+    protected final double[] w2xk;
+    protected final double[] w2yk;
+    protected final double[] b2xk;
+    protected final double[] b2yk;
+    protected final double[] b1k;
+    protected final double[] b3k;
+    protected final double[] temp1;
+    protected final double[] temp2;
+    protected final double[] temp3;
+    protected final double[] temp4;
     
     
     public static ASplitBregmanSolver create(SolverParameters aParameters, double[][][] aImage, double[][][] aMask, psf<DoubleType> aPsf) {
@@ -59,7 +64,6 @@ public abstract class ASplitBregmanSolver {
     
     ASplitBregmanSolver(SolverParameters aParameters, double[][][] aImage, double[][][] aMask, psf<DoubleType> aPsf) {
         iParameters = aParameters;
-        iImage = aImage;
         iBetaMleOut = iParameters.betaMleOut;
         iBetaMleIn = iParameters.betaMleIn;
         iRegularization = iParameters.lambdaRegularization;
@@ -67,10 +71,13 @@ public abstract class ASplitBregmanSolver {
         ni = aImage[0].length; 
         nj = aImage[0][0].length;
         nz = aImage.length; 
-
-        w3k = new double[nz][ni][nj];
-        SolverTools.copytab(w3k, aMask);
-        w3kbest = new double[nz][ni][nj];
+        final int size = flatSize(nz, ni, nj);
+        
+        iImage = new double[size];
+        SolverTools.copyToFlat(iImage, aImage);
+        w3k = new double[size];
+        SolverTools.copyToFlat(w3k, aMask);
+        w3kbest = new double[size];
         
         iLocalTools = new SolverTools(ni, nj, nz);
         executor = Executors.newFixedThreadPool(iParameters.numOfThreads);
@@ -79,17 +86,49 @@ public abstract class ASplitBregmanSolver {
         betaMle[1] = iBetaMleIn;
         
         iNoiseModel = iParameters.noiseModel;
-        w1k = new double[nz][ni][nj];
-        b2xk = new double[nz][ni][nj];
-        b2yk = new double[nz][ni][nj];
-        b1k = new double[nz][ni][nj];
-        b3k = new double[nz][ni][nj];
-        w2xk = new double[nz][ni][nj];
-        w2yk = new double[nz][ni][nj];
-        temp1 = new double[nz][ni][nj];
-        temp2 = new double[nz][ni][nj];
-        temp3 = new double[nz][ni][nj];
-        temp4 = new double[nz][ni][nj];
+        w1k = new double[size];
+        b2xk = new double[size];
+        b2yk = new double[size];
+        b1k = new double[size];
+        b3k = new double[size];
+        w2xk = new double[size];
+        w2yk = new double[size];
+        temp1 = new double[size];
+        temp2 = new double[size];
+        temp3 = new double[size];
+        temp4 = new double[size];
+    }
+
+    /**
+     * @return number of elements of flat array keeping [z][i][j] data
+     * @throws IllegalArgumentException if data does not fit into one array
+     */
+    static int flatSize(int aNz, int aNi, int aNj) {
+        final long size = (long) aNz * aNi * aNj;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image " + aNi + "x" + aNj + "x" + aNz + " is too big for split Bregman solver (" + size + " elements)");
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return copy of current mask as [z][x][y] array
+     */
+    public final double[][][] getMask() {
+        return toArray(w3k);
+    }
+
+    /**
+     * @return copy of mask with lowest energy found so far as [z][x][y] array
+     */
+    public final double[][][] getBestMask() {
+        return toArray(w3kbest);
+    }
+
+    private double[][][] toArray(double[] aValues) {
+        final double[][][] result = new double[nz][ni][nj];
+        SolverTools.copyFromFlat(result, aValues);
+        return result;
     }
 
     public final double getBetaMleIn() {
@@ -109,7 +148,14 @@ public abstract class ASplitBregmanSolver {
             step(energyEvaluation);
         }
         catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            shutdownWorkers();
+            throw new RuntimeException("Split Bregman solver interrupted", e);
+        }
+        catch (RuntimeException | Error e) {
+            // Zone failed - solver cannot continue
+            shutdownWorkers();
+            throw e;
         }
 
         if (energyEvaluation) {
@@ -153,12 +199,24 @@ public abstract class ASplitBregmanSolver {
             logger.debug("Best energy : " + SolverTools.round(iBestEnergy, 3) + ", found at step " + iBestIterationNum);
         }
         try {
+            if (iZoneWorkers != null) {
+                iZoneWorkers.stop();
+            }
             executor.shutdown();
             executor.awaitTermination(1, TimeUnit.DAYS);
         }
         catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            shutdownWorkers();
+            throw new RuntimeException("Split Bregman solver interrupted", e);
+        }
+    }
+
+    private void shutdownWorkers() {
+        if (iZoneWorkers != null) {
+            iZoneWorkers.terminate();
         }
+        executor.shutdownNow();
     }
 
     abstract protected void step(boolean aEvaluateEnergy) throws InterruptedException;
@@ -1,36 +1,38 @@
 package mosaic.bregman.solver;
 
 
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
+import edu.emory.mathcs.jtransforms.dct.DoubleDCT_1D;
 import edu.emory.mathcs.jtransforms.dct.DoubleDCT_2D;
 import mosaic.core.psf.psf;
-import mosaic.utils.ArrayOps;
 import net.imglib2.type.numeric.real.DoubleType;
 
 
 class ASplitBregmanSolver2D extends ASplitBregmanSolver {
 
-    private final double[][] eigenPsf2D;
+    private final double[] eigenPsf2D;
     private final DoubleDCT_2D dct2d;
-    private final double[][] eigenLaplacian;
+    private final double[] eigenLaplacian;
     
     ASplitBregmanSolver2D(SolverParameters aParameters, double[][][] image, double[][][] mask, psf<DoubleType> aPsf) {
         super(aParameters, image, mask, aPsf);
         dct2d = new DoubleDCT_2D(ni, nj);
 
-        eigenLaplacian = new double[ni][nj];
+        eigenLaplacian = new double[ni * nj];
         for (int i = 0; i < ni; i++) {
             for (int j = 0; j < nj; j++) {
-                eigenLaplacian[i][j] = (2 - 2 * Math.cos((j) * Math.PI / (nj)) + (2 - 2 * Math.cos((i) * Math.PI / (ni))));
+                eigenLaplacian[i * nj + j] = (2 - 2 * Math.cos((j) * Math.PI / (nj)) + (2 - 2 * Math.cos((i) * Math.PI / (ni))));
             }
         }
         
-        eigenPsf2D = new double[ni][nj];
+        eigenPsf2D = new double[ni * nj];
         compute_eigenPSF();
         
-        convolveAndScale(mask[0]);
-        calculateGradients(mask);
+        // w3k holds (flat) copy of provided mask
+        convolveAndScale(w3k);
+        calculateGradients(w3k);
     }
 
     @Override
@@ -39,28 +41,32 @@ class ASplitBregmanSolver2D extends ASplitBregmanSolver {
         iBetaMleIn = betaMle[1];
         compute_eigenPSF();
         
-        convolveAndScale(w3k[0]);
+        convolveAndScale(w3k);
         calculateGradients(w3k);
     }
 
-    private void convolveAndScale(double[][] aValues) {
-        SolverTools.convolve2D(temp3[0], aValues, ni, nj, iPsf);
-        for (int z = 0; z < nz; z++) {
-            for (int i = 0; i < ni; i++) {
-                for (int j = 0; j < nj; j++) {
-                    w1k[z][i][j] = (iBetaMleIn - iBetaMleOut) * temp3[z][i][j] + iBetaMleOut;
-                }
-            }
+    private void convolveAndScale(double[] aValues) {
+        SolverTools.convolve2D(temp3, aValues, ni, nj, iPsf);
+        for (int idx = 0; idx < ni * nj; idx++) {
+            w1k[idx] = (iBetaMleIn - iBetaMleOut) * temp3[idx] + iBetaMleOut;
         }
     }
 
-    private void calculateGradients(double[][][] aValues) {
+    private void calculateGradients(double[] aValues) {
         iLocalTools.fgradx2D(w2xk, aValues);
         iLocalTools.fgrady2D(w2yk, aValues);
     }
 
     @Override
     protected void step(boolean aEvaluateEnergy) throws InterruptedException {
+        if (iParameters.persistentWorkers) {
+            if (iZoneWorkers == null) {
+                iZoneWorkers = createZoneWorkers();
+            }
+            iZoneWorkers.step(aEvaluateEnergy);
+            return;
+        }
+        
         // WARNING !! : temp1 and temp2 (resp =w2xk and =w2yk) passed from iteration to next iteration : do not change .
         final CountDownLatch ZoneDoneSignal = new CountDownLatch(iParameters.numOfThreads);// subprob 1 and 3
         final CountDownLatch Sync1 = new CountDownLatch(iParameters.numOfThreads);
@@ -84,63 +90,144 @@ class ASplitBregmanSolver2D extends ASplitBregmanSolver {
         int iStart = 0;
         int jStart = 0;
 
-        for (int nt = 0; nt < iParameters.numOfThreads - 1; nt++) {
-            final ZoneTask2D task = new ZoneTask2D(ZoneDoneSignal, Sync1, Sync2, Sync3, Sync4, Dct, Sync5, Sync6, Sync7, Sync8, Sync9, Sync10, Sync11, Sync12, iStart, iStart + ichunk, jStart, jStart + jchunk, nt,
-                    this, iLocalTools, aEvaluateEnergy);
+        for (int nt = 0; nt < iParameters.numOfThreads; nt++) {
+            final boolean isLast = (nt == iParameters.numOfThreads - 1);
+            final int iEnd = iStart + (isLast ? ilastchunk : ichunk);
+            final int jEnd = jStart + (isLast ? jlastchunk : jchunk);
+            final ZoneTask2D task = new ZoneTask2D(ZoneDoneSignal, SyncPoint.of(Sync1), SyncPoint.of(Sync2), SyncPoint.of(Sync3), SyncPoint.signal(Sync4), SyncPoint.waitFor(Dct), null, 
+                    SyncPoint.of(Sync5), SyncPoint.of(Sync6), SyncPoint.of(Sync7), SyncPoint.of(Sync8), SyncPoint.of(Sync9), SyncPoint.of(Sync10), SyncPoint.of(Sync11), SyncPoint.of(Sync12), 
+                    iStart, iEnd, jStart, jEnd, nt, this, iLocalTools, aEvaluateEnergy);
             executor.execute(task);
-            iStart += ichunk;
-            jStart += jchunk;
+            iStart = iEnd;
+            jStart = jEnd;
         }
-        final ZoneTask2D task = new ZoneTask2D(ZoneDoneSignal, Sync1, Sync2, Sync3, Sync4, Dct, Sync5, Sync6, Sync7, Sync8, Sync9, Sync10, Sync11, Sync12, iStart, iStart + ilastchunk, jStart, jStart + jlastchunk,
-                iParameters.numOfThreads - 1, this, iLocalTools, aEvaluateEnergy);
-        executor.execute(task);
         // temp1=uk
         Sync4.await();
 
         // Check match here
-        dct2d.forward(temp1[0], true);
+        dct2d.forward(temp1, true);
         // inversion int DCT space
-        for (int i = 0; i < ni; i++) {
-            for (int j = 0; j < nj; j++) {
-                final double denominator = 1 + eigenLaplacian[i][j] + eigenPsf2D[i][j];
-                if (denominator != 0) {
-                    temp1[0][i][j] = temp1[0][i][j] / denominator;
-                }
+        for (int idx = 0; idx < ni * nj; idx++) {
+            final double denominator = 1 + eigenLaplacian[idx] + eigenPsf2D[idx];
+            if (denominator != 0) {
+                temp1[idx] = temp1[idx] / denominator;
             }
         }
-        dct2d.inverse(temp1[0], true);
+        dct2d.inverse(temp1, true);
         Dct.countDown();
         
         ZoneDoneSignal.await();
     }
 
+    /**
+     * Creates zones with all synchronization points backed by one reusable barrier and starts them.
+     */
+    private ZoneWorkers createZoneWorkers() {
+        final int numOfZones = iParameters.numOfThreads;
+        final ZoneWorkers workers = new ZoneWorkers(numOfZones);
+        final SyncPoint sync = workers.getSyncPoint();
+        
+        final int ichunk = ni / numOfZones;
+        final int ilastchunk = ni - ichunk * (numOfZones - 1);
+        final int jchunk = nj / numOfZones;
+        final int jlastchunk = nj - jchunk * (numOfZones - 1);
+        int iStart = 0;
+        int jStart = 0;
+        
+        final ZoneTask2D[] zones = new ZoneTask2D[numOfZones];
+        for (int nt = 0; nt < numOfZones; nt++) {
+            final boolean isLast = (nt == numOfZones - 1);
+            final int iEnd = iStart + (isLast ? ilastchunk : ichunk);
+            final int jEnd = jStart + (isLast ? jlastchunk : jchunk);
+            zones[nt] = new ZoneTask2D(null, sync, sync, sync, sync, sync, new ZoneDct(sync), sync, sync, sync, sync, sync, sync, sync, sync, 
+                    iStart, iEnd, jStart, jEnd, nt, this, iLocalTools, false);
+            iStart = iEnd;
+            jStart = jEnd;
+        }
+        workers.start(zones, executor);
+        
+        return workers;
+    }
+
+    /**
+     * Inversion in DCT space done by one zone. 2D DCT is separable so each zone transforms its own
+     * rows and then (after all rows are ready) its own columns. Division by eigenvalues and inverse 
+     * transform of columns is done in same pass.
+     */
+    class ZoneDct {
+        private final SyncPoint iSync;
+        private final DoubleDCT_1D iRowDct = new DoubleDCT_1D(nj);
+        private final DoubleDCT_1D iColumnDct = new DoubleDCT_1D(ni);
+        private final double[] iColumn = new double[ni];
+        
+        ZoneDct(SyncPoint aSync) {
+            iSync = aSync;
+        }
+        
+        void invert(int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
+            final double[] data = temp1;
+            for (int i = iStart; i < iEnd; i++) {
+                iRowDct.forward(data, i * nj, true);
+            }
+            
+            iSync.sync();
+            
+            for (int j = jStart; j < jEnd; j++) {
+                for (int i = 0; i < ni; i++) {
+                    iColumn[i] = data[i * nj + j];
+                }
+                iColumnDct.forward(iColumn, true);
+                for (int i = 0; i < ni; i++) {
+                    final double denominator = 1 + eigenLaplacian[i * nj + j] + eigenPsf2D[i * nj + j];
+                    if (denominator != 0) {
+                        iColumn[i] = iColumn[i] / denominator;
+                    }
+                }
+                iColumnDct.inverse(iColumn, true);
+                for (int i = 0; i < ni; i++) {
+                    data[i * nj + j] = iColumn[i];
+                }
+            }
+            
+            iSync.sync();
+            
+            for (int i = iStart; i < iEnd; i++) {
+                iRowDct.inverse(data, i * nj, true);
+            }
+        }
+    }
+
     private void compute_eigenPSF() {
         final int[] sz = iPsf.getSuggestedImageSize();
-        final int xmin = Math.min(sz[0], eigenPsf2D.length);
-        final int ymin = Math.min(sz[1], eigenPsf2D[0].length);
-        SolverTools.convolve2D(eigenPsf2D, iPsf.getImage2DAsDoubleArray(), xmin, ymin, iPsf);
+        final int xmin = Math.min(sz[0], ni);
+        final int ymin = Math.min(sz[1], nj);
+        
+        // PSF is convolved with itself in (xmin, ymin) area
+        final double[][] psfImage = iPsf.getImage2DAsDoubleArray();
+        final double[] psfArea = new double[xmin * ymin];
+        for (int i = 0; i < xmin; i++) {
+            System.arraycopy(psfImage[i], 0, psfArea, i * ymin, ymin);
+        }
+        final double[] psfConvolved = new double[xmin * ymin];
+        SolverTools.convolve2D(psfConvolved, psfArea, xmin, ymin, iPsf);
 
-        ArrayOps.fill(temp1, 0);
+        Arrays.fill(temp1, 0);
         for (int i = 0; i < xmin; i++) {
-            for (int j = 0; j < ymin; j++) {
-                temp1[0][i][j] = eigenPsf2D[i][j];
-            }
+            System.arraycopy(psfConvolved, i * ymin, temp1, i * nj, ymin);
         }
 
         final int cc = (sz[0] / 2) + 1;
         final int cr = (sz[1] / 2) + 1;
 
-        iLocalTools.dctshift(temp3[0], temp1[0], cc, cr);
-        dct2d.forward(temp3[0], true);
+        SolverTools.dctshift(temp3, temp1, ni, nj, cc, cr);
+        dct2d.forward(temp3, true);
 
-        ArrayOps.fill(temp2, 0);
-        temp2[0][0][0] = 1;
-        dct2d.forward(temp2[0], true);
+        Arrays.fill(temp2, 0);
+        temp2[0] = 1;
+        dct2d.forward(temp2, true);
 
-        for (int i = 0; i < ni; i++) {
-            for (int j = 0; j < nj; j++) {
-                eigenPsf2D[i][j] = Math.pow(iBetaMleIn - iBetaMleOut, 2) * temp3[0][i][j] / temp2[0][i][j];
-            } 
+        for (int idx = 0; idx < ni * nj; idx++) {
+            eigenPsf2D[idx] = Math.pow(iBetaMleIn - iBetaMleOut, 2) * temp3[idx] / temp2[idx];
         }
     }
 }
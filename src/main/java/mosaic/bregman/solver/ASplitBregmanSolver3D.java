@@ -1,53 +1,49 @@
 package mosaic.bregman.solver;
 
 
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
+import edu.emory.mathcs.jtransforms.dct.DoubleDCT_1D;
 import edu.emory.mathcs.jtransforms.dct.DoubleDCT_3D;
 import mosaic.core.psf.psf;
-import mosaic.utils.ArrayOps;
 import net.imglib2.type.numeric.real.DoubleType;
 
 
 class ASplitBregmanSolver3D extends ASplitBregmanSolver {
 
-    final double[][][] w2zk;
-    final double[][][] b2zk;
-    final double[][][] ukz;
+    final double[] w2zk;
+    final double[] b2zk;
+    final double[] ukz;
     
-    private final double[][][] eigenPsf3D;
-    private final double[][][] eigenLaplacian3D;
+    private final double[] eigenPsf3D;
+    private final double[] eigenLaplacian3D;
     private final DoubleDCT_3D dct3d;
 
     ASplitBregmanSolver3D(SolverParameters aParameters, double[][][] image, double[][][] mask, psf<DoubleType> aPsf) {
         super(aParameters, image, mask, aPsf);
-        w2zk = new double[nz][ni][nj];
-        b2zk = new double[nz][ni][nj];
-        ukz = new double[nz][ni][nj];
-        // Old comment: Reallocate temps. Unfortunatelly is allocated in ASplitBregmanSolver
-        // TODO: This must be fixed, not "fixed"
-        final int[] sz = iPsf.getSuggestedImageSize();
-        temp4 = new double[Math.max(sz[2], nz)][Math.max(sz[0], ni)][Math.max(sz[1], nj)];
-        temp3 = new double[Math.max(sz[2], nz)][Math.max(sz[0], ni)][Math.max(sz[1], nj)];
-        temp2 = new double[Math.max(sz[2], nz)][Math.max(sz[0], ni)][Math.max(sz[1], nj)];
-        temp1 = new double[Math.max(sz[2], nz)][Math.max(sz[0], ni)][Math.max(sz[1], nj)];
+        final int size = iImage.length;
+        w2zk = new double[size];
+        b2zk = new double[size];
+        ukz = new double[size];
 
         dct3d = new DoubleDCT_3D(nz, ni, nj);
 
-        eigenLaplacian3D = new double[nz][ni][nj];
+        eigenLaplacian3D = new double[size];
         for (int z = 0; z < nz; z++) {
             for (int i = 0; i < ni; i++) {
                 for (int j = 0; j < nj; j++) {
-                    eigenLaplacian3D[z][i][j] = (2 - 2 * Math.cos((j) * Math.PI / (nj))) + (2 - 2 * Math.cos((i) * Math.PI / (ni))) + (2 - 2 * Math.cos((z) * Math.PI / (nz)));
+                    eigenLaplacian3D[(z * ni + i) * nj + j] = (2 - 2 * Math.cos((j) * Math.PI / (nj))) + (2 - 2 * Math.cos((i) * Math.PI / (ni))) + (2 - 2 * Math.cos((z) * Math.PI / (nz)));
                 }
             }
         }
 
-        eigenPsf3D = new double[Math.max(sz[2], nz)][Math.max(sz[0], ni)][Math.max(sz[1], nj)];
+        eigenPsf3D = new double[size];
         compute_eigenPSF3D();
 
-        convolveAndScale(mask);
-        calculateGradients(mask);
+        // w3k holds (flat) copy of provided mask
+        convolveAndScale(w3k);
+        calculateGradients(w3k);
     }
     
     @Override
@@ -63,25 +59,28 @@ class ASplitBregmanSolver3D extends ASplitBregmanSolver {
         calculateGradients(w3k);
     }
 
-    private void calculateGradients(double[][][] aValues) {
+    private void calculateGradients(double[] aValues) {
         iLocalTools.fgradx2D(w2xk, aValues);
         iLocalTools.fgrady2D(w2yk, aValues);
         iLocalTools.fgradz2D(w2zk, aValues);
     }
 
-    private void convolveAndScale(double[][][] aValues) {
+    private void convolveAndScale(double[] aValues) {
         SolverTools.convolve3Dseparable(temp3, aValues, ni, nj, nz, iPsf, temp4);
-        for (int z = 0; z < nz; z++) {
-            for (int i = 0; i < ni; i++) {
-                for (int j = 0; j < nj; j++) {
-                    w1k[z][i][j] = (iBetaMleIn - iBetaMleOut) * temp3[z][i][j] + iBetaMleOut;
-                }
-            }
+        for (int idx = 0; idx < nz * ni * nj; idx++) {
+            w1k[idx] = (iBetaMleIn - iBetaMleOut) * temp3[idx] + iBetaMleOut;
         }
     }
 
     @Override
     protected void step(boolean aEvaluateEnergy) throws InterruptedException {
+        if (iParameters.persistentWorkers) {
+            if (iZoneWorkers == null) {
+                iZoneWorkers = createZoneWorkers();
+            }
+            iZoneWorkers.step(aEvaluateEnergy);
+            return;
+        }
 
         final CountDownLatch ZoneDoneSignal = new CountDownLatch(iParameters.numOfThreads);// subprob 1 and 3
         final CountDownLatch Sync1 = new CountDownLatch(iParameters.numOfThreads);
@@ -106,30 +105,26 @@ class ASplitBregmanSolver3D extends ASplitBregmanSolver {
         final int jchunk = nj / iParameters.numOfThreads;
         final int jlastchunk = nj - jchunk * (iParameters.numOfThreads - 1);
 
-        for (int nt = 0; nt < iParameters.numOfThreads - 1; nt++) {
-            // Check if we can create threads
-            final ZoneTask3D task = new ZoneTask3D(ZoneDoneSignal, Sync1, Sync2, Sync3, Sync4, Sync5, Sync6, Sync7, Sync8, Sync9, Sync10, Sync11, Sync12, Sync13, Dct, iStart, iStart + ichunk, jStart,
-                    jStart + jchunk, nt, this, iLocalTools, aEvaluateEnergy);
+        for (int nt = 0; nt < iParameters.numOfThreads; nt++) {
+            final boolean isLast = (nt == iParameters.numOfThreads - 1);
+            final int iEnd = iStart + (isLast ? ilastchunk : ichunk);
+            final int jEnd = jStart + (isLast ? jlastchunk : jchunk);
+            final ZoneTask3D task = new ZoneTask3D(ZoneDoneSignal, SyncPoint.of(Sync1), SyncPoint.of(Sync2), SyncPoint.of(Sync3), SyncPoint.signal(Sync4), SyncPoint.of(Sync5), SyncPoint.of(Sync6), 
+                    SyncPoint.of(Sync7), SyncPoint.of(Sync8), SyncPoint.of(Sync9), SyncPoint.of(Sync10), SyncPoint.of(Sync11), SyncPoint.of(Sync12), SyncPoint.of(Sync13), SyncPoint.waitFor(Dct), null, 
+                    iStart, iEnd, jStart, jEnd, nt, this, iLocalTools, aEvaluateEnergy);
             executor.execute(task);
-            iStart += ichunk;
-            jStart += jchunk;
+            iStart = iEnd;
+            jStart = jEnd;
         }
-        final ZoneTask3D task = new ZoneTask3D(ZoneDoneSignal, Sync1, Sync2, Sync3, Sync4, Sync5, Sync6, Sync7, Sync8, Sync9, Sync10, Sync11, Sync12, Sync13, Dct, iStart, iStart + ilastchunk,
-                jStart, jStart + jlastchunk, iParameters.numOfThreads - 1, this, iLocalTools, aEvaluateEnergy);
-        executor.execute(task);
         Sync4.await();
 
      // Check match here
         dct3d.forward(temp1, true);
      // inversion int DCT space
-        for (int z = 0; z < nz; z++) {
-            for (int i = 0; i < ni; i++) {
-                for (int j = 0; j < nj; j++) {
-                    final double denominator = 1 + eigenLaplacian3D[z][i][j] + eigenPsf3D[z][i][j];
-                    if (denominator != 0) {
-                        temp1[z][i][j] = temp1[z][i][j] / denominator;
-                    }
-                }
+        for (int idx = 0; idx < nz * ni * nj; idx++) {
+            final double denominator = 1 + eigenLaplacian3D[idx] + eigenPsf3D[idx];
+            if (denominator != 0) {
+                temp1[idx] = temp1[idx] / denominator;
             }
         }
         dct3d.inverse(temp1, true);
@@ -138,18 +133,146 @@ class ASplitBregmanSolver3D extends ASplitBregmanSolver {
         ZoneDoneSignal.await();
     }
 
+    /**
+     * Creates zones with all synchronization points backed by one reusable barrier and starts them.
+     */
+    private ZoneWorkers createZoneWorkers() {
+        final int numOfZones = iParameters.numOfThreads;
+        final ZoneWorkers workers = new ZoneWorkers(numOfZones);
+        final SyncPoint sync = workers.getSyncPoint();
+
+        final int ichunk = ni / numOfZones;
+        final int ilastchunk = ni - ichunk * (numOfZones - 1);
+        final int jchunk = nj / numOfZones;
+        final int jlastchunk = nj - jchunk * (numOfZones - 1);
+        int iStart = 0;
+        int jStart = 0;
+
+        final ZoneTask3D[] zones = new ZoneTask3D[numOfZones];
+        for (int nt = 0; nt < numOfZones; nt++) {
+            final boolean isLast = (nt == numOfZones - 1);
+            final int iEnd = iStart + (isLast ? ilastchunk : ichunk);
+            final int jEnd = jStart + (isLast ? jlastchunk : jchunk);
+            zones[nt] = new ZoneTask3D(null, sync, sync, sync, sync, sync, sync, sync, sync, sync, sync, sync, sync, sync, sync, new ZoneDct(sync), 
+                    iStart, iEnd, jStart, jEnd, nt, this, iLocalTools, false);
+            iStart = iEnd;
+            jStart = jEnd;
+        }
+        workers.start(zones, executor);
+
+        return workers;
+    }
+
+    /**
+     * Inversion in DCT space done by one zone. 3D DCT is separable so it is done as 1D transforms
+     * along j, i and z with synchronization between dimensions. Each zone takes its own part of
+     * rows/columns. Division by eigenvalues is done together with transforms along z.
+     */
+    class ZoneDct {
+        private final SyncPoint iSync;
+        private final DoubleDCT_1D iDctJ = new DoubleDCT_1D(nj);
+        private final DoubleDCT_1D iDctI = new DoubleDCT_1D(ni);
+        private final DoubleDCT_1D iDctZ = new DoubleDCT_1D(nz);
+        private final double[] iLineI = new double[ni];
+        private final double[] iLineZ = new double[nz];
+
+        ZoneDct(SyncPoint aSync) {
+            iSync = aSync;
+        }
+
+        void invert(int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
+            for (int z = 0; z < nz; z++) {
+                for (int i = iStart; i < iEnd; i++) {
+                    iDctJ.forward(temp1, (z * ni + i) * nj, true);
+                }
+            }
+
+            iSync.sync();
+
+            transformAlongI(jStart, jEnd, true);
+
+            iSync.sync();
+
+            final int sliceSize = ni * nj;
+            for (int i = iStart; i < iEnd; i++) {
+                for (int j = 0; j < nj; j++) {
+                    final int offset = i * nj + j;
+                    for (int z = 0; z < nz; z++) {
+                        iLineZ[z] = temp1[z * sliceSize + offset];
+                    }
+                    iDctZ.forward(iLineZ, true);
+                    for (int z = 0; z < nz; z++) {
+                        final double denominator = 1 + eigenLaplacian3D[z * sliceSize + offset] + eigenPsf3D[z * sliceSize + offset];
+                        if (denominator != 0) {
+                            iLineZ[z] = iLineZ[z] / denominator;
+                        }
+                    }
+                    iDctZ.inverse(iLineZ, true);
+                    for (int z = 0; z < nz; z++) {
+                        temp1[z * sliceSize + offset] = iLineZ[z];
+                    }
+                }
+            }
+
+            iSync.sync();
+
+            transformAlongI(jStart, jEnd, false);
+
+            iSync.sync();
+
+            for (int z = 0; z < nz; z++) {
+                for (int i = iStart; i < iEnd; i++) {
+                    iDctJ.inverse(temp1, (z * ni + i) * nj, true);
+                }
+            }
+        }
+
+        private void transformAlongI(int jStart, int jEnd, boolean aForward) {
+            for (int z = 0; z < nz; z++) {
+                for (int j = jStart; j < jEnd; j++) {
+                    final int offset = z * ni * nj + j;
+                    for (int i = 0; i < ni; i++) {
+                        iLineI[i] = temp1[offset + i * nj];
+                    }
+                    if (aForward) {
+                        iDctI.forward(iLineI, true);
+                    }
+                    else {
+                        iDctI.inverse(iLineI, true);
+                    }
+                    for (int i = 0; i < ni; i++) {
+                        temp1[offset + i * nj] = iLineI[i];
+                    }
+                }
+            }
+        }
+    }
+
     private void compute_eigenPSF3D() {
         int[] sz = iPsf.getSuggestedImageSize();
-        final int xmin = Math.min(sz[0], eigenPsf3D[0].length);
-        final int ymin = Math.min(sz[1], eigenPsf3D[0][0].length);
-        final int zmin = Math.min(sz[2], eigenPsf3D.length);
-        SolverTools.convolve3Dseparable(eigenPsf3D, iPsf.getImage3DAsDoubleArray(), xmin, ymin, zmin, iPsf, temp4);
-        ArrayOps.fill(temp1, 0);
+        final int xmin = sz[0];
+        final int ymin = sz[1];
+        final int zmin = sz[2];
+        
+        // PSF is convolved with itself in area of its size
+        final double[][][] psfImage = iPsf.getImage3DAsDoubleArray();
+        final double[] psfArea = new double[zmin * xmin * ymin];
         for (int z = 0; z < zmin; z++) {
             for (int i = 0; i < xmin; i++) {
-                for (int j = 0; j < ymin; j++) {
-                    temp1[z][i][j] = eigenPsf3D[z][i][j];
-                }
+                System.arraycopy(psfImage[z][i], 0, psfArea, (z * xmin + i) * ymin, ymin);
+            }
+        }
+        final double[] psfConvolved = new double[zmin * xmin * ymin];
+        SolverTools.convolve3Dseparable(psfConvolved, psfArea, xmin, ymin, zmin, iPsf, new double[zmin * xmin * ymin]);
+        
+        // PSF can be bigger than image, dct shift must be done in area containing both of them
+        final int slices = Math.max(sz[2], nz);
+        final int cols = Math.max(sz[0], ni);
+        final int rows = Math.max(sz[1], nj);
+        final double[] psfPadded = new double[slices * cols * rows];
+        for (int z = 0; z < zmin; z++) {
+            for (int i = 0; i < xmin; i++) {
+                System.arraycopy(psfConvolved, (z * xmin + i) * ymin, psfPadded, (z * cols + i) * rows, ymin);
             }
         }
 
@@ -157,19 +280,21 @@ class ASplitBregmanSolver3D extends ASplitBregmanSolver {
         final int cc = (sz[1] / 2) + 1;
         final int cs = (sz[2] / 2) + 1;
 
-        iLocalTools.dctshift3D(temp3, temp1, cr, cc, cs);
+        final double[] psfShifted = new double[slices * cols * rows];
+        SolverTools.dctshift3D(psfShifted, psfPadded, slices, cols, rows, cr, cc, cs);
+        for (int z = 0; z < nz; z++) {
+            for (int i = 0; i < ni; i++) {
+                System.arraycopy(psfShifted, (z * cols + i) * rows, temp3, (z * ni + i) * nj, nj);
+            }
+        }
         dct3d.forward(temp3, true);
         
-        ArrayOps.fill(temp2, 0);
-        temp2[0][0][0] = 1;
+        Arrays.fill(temp2, 0);
+        temp2[0] = 1;
         dct3d.forward(temp2, true);
 
-        for (int z = 0; z < nz; z++) {
-            for (int i = 0; i < ni; i++) {
-                for (int j = 0; j < nj; j++) {
-                    eigenPsf3D[z][i][j] = Math.pow(iBetaMleIn - iBetaMleOut, 2) * temp3[z][i][j] / temp2[z][i][j];
-                }
-            }
+        for (int idx = 0; idx < nz * ni * nj; idx++) {
+            eigenPsf3D[idx] = Math.pow(iBetaMleIn - iBetaMleOut, 2) * temp3[idx] / temp2[idx];
         }
     }
 }
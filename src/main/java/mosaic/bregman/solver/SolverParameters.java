@@ -17,6 +17,8 @@ public class SolverParameters {
 
     // General settings
     final int numOfThreads;
+    // If set zone workers live for the whole solve and synchronize on reusable barriers
+    final boolean persistentWorkers;
 
     // Segmentation parameters (from segmentation GUI)
     final NoiseModel noiseModel;
@@ -29,8 +31,19 @@ public class SolverParameters {
                              double aBetaMleIn,
                              double aBetaMleOut,
                              double aRegularization ) 
+    {
+        this(aNumOfThreads, aNoiseModel, aBetaMleIn, aBetaMleOut, aRegularization, false);
+    }
+    
+    public SolverParameters( int aNumOfThreads, 
+                             NoiseModel aNoiseModel,
+                             double aBetaMleIn,
+                             double aBetaMleOut,
+                             double aRegularization,
+                             boolean aPersistentWorkers ) 
     {
         numOfThreads = aNumOfThreads;
+        persistentWorkers = aPersistentWorkers;
         noiseModel = aNoiseModel;
         betaMleIn = aBetaMleIn;
         betaMleOut = aBetaMleOut;
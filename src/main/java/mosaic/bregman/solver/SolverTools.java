@@ -1,14 +1,17 @@
 package mosaic.bregman.solver;
 
 
-import java.util.concurrent.CountDownLatch;
+import java.util.Arrays;
 
 import mosaic.bregman.solver.SolverParameters.NoiseModel;
 import mosaic.core.psf.psf;
-import mosaic.utils.ArrayOps;
 import net.imglib2.type.numeric.real.DoubleType;
 
 
+/**
+ * Helper operations of split Bregman solver. All 3D data is kept in flat arrays, element [z][i][j] 
+ * of (nz, ni, nj) volume is stored at index (z * ni + i) * nj + j.
+ */
 class SolverTools {
     final private int ni, nj, nz;
     
@@ -19,7 +22,7 @@ class SolverTools {
     }
 
     // convolution with symmetric boundaries extension
-    static void convolve2D(double[][] out, double[][] in, int icols, int irows, psf<DoubleType> psf) {
+    static void convolve2D(double[] out, double[] in, int icols, int irows, psf<DoubleType> psf) {
         // find center position of kernel (half of kernel size)
         final int sz[] = psf.getSuggestedImageSize();
         int kCenterX = sz[0] / 2;
@@ -44,7 +47,7 @@ class SolverTools {
                         int rowIndex = j + n - kCenterY;
 
                         if (rowIndex >= 0 && rowIndex < irows && colIndex >= 0 && colIndex < icols) {
-                            sum += in[colIndex][rowIndex] * kernel[mm][nn];
+                            sum += in[colIndex * irows + rowIndex] * kernel[mm][nn];
                         }
                         else {
                             do {
@@ -62,18 +65,18 @@ class SolverTools {
                                     colIndex = icols - (colIndex - icols) - 1;
                                 }
                             } while  (!(rowIndex >= 0 && rowIndex < irows && colIndex >= 0 && colIndex < icols));
-                            sum += in[colIndex][rowIndex] * kernel[mm][nn];
+                            sum += in[colIndex * irows + rowIndex] * kernel[mm][nn];
                         }
 
                     }
                 }
-                out[i][j] = sum;
+                out[i * irows + j] = sum;
             }
         }
         return;
     }
 
-    static void convolve2Dseparable(double[][] out, double[][] in, int icols, int irows, psf<DoubleType> psf, double[][] temp, int iStart, int iEnd) {
+    static void convolve2Dseparable(double[] out, double[] in, int icols, int irows, psf<DoubleType> psf, double[] temp, int iStart, int iEnd) {
         final int[] sz = psf.getSuggestedImageSize();
         int kCenterX = sz[0] / 2;
         int kCenterY = sz[1] / 2;
@@ -91,10 +94,9 @@ class SolverTools {
 
                     // index of input signal, used for checking boundary
                     int colIndex = i + m - kCenterX;
-                    int rowIndex = j;
 
                     if (colIndex >= 0 && colIndex < icols) {
-                        sum += in[colIndex][rowIndex] * kernelx[mm];
+                        sum += in[colIndex * irows + j] * kernelx[mm];
                     }
                     else {
                         do {
@@ -105,17 +107,18 @@ class SolverTools {
                                 colIndex = icols - (colIndex - icols) - 1;
                             }
                         } while (!(colIndex >= 0 && colIndex < icols));
-                        sum += in[colIndex][rowIndex] * kernelx[mm];
+                        sum += in[colIndex * irows + j] * kernelx[mm];
                     }
 
                 }
-                temp[i][j] = sum;
+                temp[i * irows + j] = sum;
             }
         }
 
         // convolve in y (j coordinate), vertical
         for (int i = iStart; i < iEnd; ++i) // columns
         {
+            final int colOffset = i * irows;
             for (int j = 0; j < irows; ++j) // rows
             {
                 double sum = 0; // init to 0 before sum
@@ -124,11 +127,10 @@ class SolverTools {
                     int nn = sz[1] - 1 - n; // row index of flipped kernel
 
                     // index of input signal, used for checking boundary
-                    int colIndex = i;
                     int rowIndex = j + n - kCenterY;
 
                     if (rowIndex >= 0 && rowIndex < irows) {
-                        sum += temp[colIndex][rowIndex] * kernely[nn];
+                        sum += temp[colOffset + rowIndex] * kernely[nn];
                     }
                     else {
                         do {
@@ -139,22 +141,22 @@ class SolverTools {
                                 rowIndex = irows - (rowIndex - irows) - 1;
                             }
                         } while(!(rowIndex >= 0 && rowIndex < irows));
-                        sum += temp[colIndex][rowIndex] * kernely[nn];
+                        sum += temp[colOffset + rowIndex] * kernely[nn];
                     }
 
                 }
-                out[i][j] = sum;
+                out[colOffset + j] = sum;
             }
         }
 
         return;
     }
 
-    static void convolve3Dseparable(double[][][] out, double[][][] in, int icols, int irows, int islices, psf<DoubleType> psf, double temp[][][]) {
+    static void convolve3Dseparable(double[] out, double[] in, int icols, int irows, int islices, psf<DoubleType> psf, double temp[]) {
         convolve3Dseparable(out, in, icols, irows, islices, psf, temp, 0, icols);
     }
 
-    static void convolve3Dseparable(double[][][] out, double[][][] in, int icols, int irows, int islices, psf<DoubleType> psf, double temp[][][], int iStart, int iEnd) {
+    static void convolve3Dseparable(double[] out, double[] in, int icols, int irows, int islices, psf<DoubleType> psf, double temp[], int iStart, int iEnd) {
         int i, j, k, m, n, l, mm, nn, ll;
         int kCenterX, kCenterY, kCenterZ; // center index of kernel
         double sum; // temp accumulation buffer
@@ -168,10 +170,14 @@ class SolverTools {
         kCenterX = sz[0] / 2;
         kCenterY = sz[1] / 2;
         kCenterZ = sz[2] / 2;
+        
+        // distance between neighbouring slices in flat array
+        final int sliceSize = icols * irows;
 
         // convolve in x (i coordinate), horizontal
         for (k = 0; k < islices; ++k) // columns
         {
+            final int sliceOffset = k * sliceSize;
             for (i = iStart; i < iEnd; ++i) // columns
             {
                 for (j = 0; j < irows; ++j) // rows
@@ -183,10 +189,9 @@ class SolverTools {
 
                         // index of input signal, used for checking boundary
                         colIndex = i + m - kCenterX;
-                        rowIndex = j;
 
                         if (colIndex >= 0 && colIndex < icols) {
-                            sum += in[k][colIndex][rowIndex] * kernelx[mm];
+                            sum += in[sliceOffset + colIndex * irows + j] * kernelx[mm];
                         }
                         else {
                             if (colIndex < 0) {
@@ -195,11 +200,11 @@ class SolverTools {
                             if (colIndex > icols - 1) {
                                 colIndex = icols - (colIndex - icols) - 1;
                             }
-                            sum += in[k][colIndex][rowIndex] * kernelx[mm];
+                            sum += in[sliceOffset + colIndex * irows + j] * kernelx[mm];
                         }
 
                     }
-                    out[k][i][j] = sum;
+                    out[sliceOffset + i * irows + j] = sum;
                 }
             }
         }
@@ -209,6 +214,7 @@ class SolverTools {
         {
             for (i = iStart; i < iEnd; ++i) // columns
             {
+                final int colOffset = k * sliceSize + i * irows;
                 for (j = 0; j < irows; ++j) // rows
                 {
                     sum = 0; // init to 0 before sum
@@ -217,11 +223,10 @@ class SolverTools {
                         nn = sz[1] - 1 - n; // row index of flipped kernel
 
                         // index of input signal, used for checking boundary
-                        colIndex = i;
                         rowIndex = j + n - kCenterY;
 
                         if (rowIndex >= 0 && rowIndex < irows) {
-                            sum += out[k][colIndex][rowIndex] * kernely[nn];
+                            sum += out[colOffset + rowIndex] * kernely[nn];
                         }
                         else {
                             if (rowIndex < 0) {
@@ -230,12 +235,12 @@ class SolverTools {
                             if (rowIndex > irows - 1) {
                                 rowIndex = irows - (rowIndex - irows) - 1;
                             }
-                            sum += out[k][colIndex][rowIndex] * kernely[nn];
+                            sum += out[colOffset + rowIndex] * kernely[nn];
                         }
 
                     }
 
-                    temp[k][i][j] = sum;
+                    temp[colOffset + j] = sum;
                 }
             }
         }
@@ -245,6 +250,7 @@ class SolverTools {
         {
             for (i = iStart; i < iEnd; ++i) // columns
             {
+                final int colOffset = i * irows;
                 for (j = 0; j < irows; ++j) // rows
                 {
                     sum = 0; // init to 0 before sum
@@ -253,12 +259,10 @@ class SolverTools {
                         ll = sz[2] - 1 - l; // row index of flipped kernel
 
                         // index of input signal, used for checking boundary
-                        colIndex = i;
-                        rowIndex = j;
                         sliceIndex = k + l - kCenterZ;
 
                         if (sliceIndex >= 0 && sliceIndex < islices) {
-                            sum += temp[sliceIndex][colIndex][rowIndex] * kernelz[ll];
+                            sum += temp[sliceIndex * sliceSize + colOffset + j] * kernelz[ll];
                         }
                         else {
                             if (sliceIndex < 0) {
@@ -267,10 +271,10 @@ class SolverTools {
                             if (sliceIndex > islices - 1) {
                                 sliceIndex = Math.max(0, islices - (sliceIndex - islices) - 1);
                             }
-                            sum += temp[sliceIndex][colIndex][rowIndex] * kernelz[ll];
+                            sum += temp[sliceIndex * sliceSize + colOffset + j] * kernelz[ll];
                         }
                     }
-                    out[k][i][j] = sum;
+                    out[k * sliceSize + colOffset + j] = sum;
                 }
             }
         }
@@ -278,38 +282,32 @@ class SolverTools {
         return;
     }
 
-    void dctshift(double[][] result, double[][] PSF, int cc, int cr) {
+    static void dctshift(double[] result, double[] PSF, int cols, int rows, int cc, int cr) {
         // check if non square image
-        final int cols = PSF.length;
-        final int rows = PSF[0].length;
         final int k = Math.min(cr - 1, Math.min(cc - 1, Math.min(rows - cr, cols - cc)));
 
-        ArrayOps.fill(result, 0);
+        Arrays.fill(result, 0);
         for (int rowShift = 0; rowShift <= 1; rowShift++) 
         for (int colShift = 0; colShift <= 1; colShift++)
         {
             for (int i = 0; i < 1 + k - colShift; i++) {
                 for (int j = 0; j < 1 + k - rowShift; j++) {
-                    result[i][j] += PSF[k + i + colShift][k + j + rowShift];
+                    result[i * rows + j] += PSF[(k + i + colShift) * rows + k + j + rowShift];
                 }
             }
         }
 
         for (int i = 2 * k + 1; i < cols; i++) {
             for (int j = 2 * k + 1; j < rows; j++) {
-                result[i][j] = 0;
+                result[i * rows + j] = 0;
             }
         }
     }
 
-    void dctshift3D(double[][][] result, double[][][] PSF, int cr, int cc, int cs) {
-        final int slices = PSF.length;
-        final int cols = PSF[0].length;
-        final int rows = PSF[0][0].length;
-
+    static void dctshift3D(double[] result, double[] PSF, int slices, int cols, int rows, int cr, int cc, int cs) {
         final int k = Math.min(cr - 1, Math.min(cc - 1, Math.min(rows - cr, Math.min(cols - cc, Math.min(cs - 1, slices - cs)))));
 
-        ArrayOps.fill(result, 0);
+        Arrays.fill(result, 0);
         for (int sliShift = 0; sliShift <= 1; sliShift++)
         for (int rowShift = 0; rowShift <= 1; rowShift++) 
         for (int colShift = 0; colShift <= 1; colShift++)
@@ -317,7 +315,7 @@ class SolverTools {
             for (int z = 0; z <  1 + k - sliShift; z++) {
                 for (int i = 0; i < 1 + k - colShift; i++) {
                     for (int j = 0; j < 1 + k - rowShift; j++) {
-                        result[z][i][j] += PSF[k + z + sliShift][k + i + colShift][k + j + rowShift];
+                        result[(z * cols + i) * rows + j] += PSF[((k + z + sliShift) * cols + k + i + colShift) * rows + k + j + rowShift];
                     }
                 }
             }
@@ -326,51 +324,65 @@ class SolverTools {
         for (int z = 2 * k + 1; z < slices; z++) {
             for (int i = 2 * k + 1; i < cols; i++) {
                 for (int j = 2 * k + 1; j < rows; j++) {
-                    result[z][i][j] = 0;
+                    result[(z * cols + i) * rows + j] = 0;
                 }
             }
         }
     }
     
-    void addtab(double[][][] res, double[][][] m1, double[][][] m2, int iStart, int iEnd) {
+    void addtab(double[] res, double[] m1, double[] m2, int iStart, int iEnd) {
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = m1[z][i][j] + m2[z][i][j];
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                res[idx] = m1[idx] + m2[idx];
             }
         }
     }
 
-    void subtab(double[][][] res, double[][][] m1, double[][][] m2, int iStart, int iEnd) {
+    void subtab(double[] res, double[] m1, double[] m2, int iStart, int iEnd) {
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = m1[z][i][j] - m2[z][i][j];
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                res[idx] = m1[idx] - m2[idx];
             }
         }
     }
 
-    static void copytab(double[][][] res, double[][][] m1) {
-        int nz = res.length;
-        int ni = res[0].length;
-        int nj = res[0][0].length;
-        for (int z = 0; z < nz; z++) {
-            for (int i = 0; i < ni; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = m1[z][i][j];
-                }
+    static void copytab(double[] res, double[] m1) {
+        System.arraycopy(m1, 0, res, 0, res.length);
+    }
+
+    /**
+     * Copies [z][i][j] array into flat array (element [z][i][j] goes to (z * ni + i) * nj + j)
+     */
+    static void copyToFlat(double[] res, double[][][] m1) {
+        int idx = 0;
+        for (final double[][] slice : m1) {
+            for (final double[] row : slice) {
+                System.arraycopy(row, 0, res, idx, row.length);
+                idx += row.length;
             }
         }
     }
 
-    private void nllMean(double[][][] res, double[][][] image, double[][][] mu, int iStart, int iEnd, NoiseModel aNoiseModel) {
+    /**
+     * Copies flat array into [z][i][j] array, reverse of {@link #copyToFlat(double[], double[][][])}
+     */
+    static void copyFromFlat(double[][][] res, double[] m1) {
+        int idx = 0;
+        for (final double[][] slice : res) {
+            for (final double[] row : slice) {
+                System.arraycopy(m1, idx, row, 0, row.length);
+                idx += row.length;
+            }
+        }
+    }
+
+    private void nllMean(double[] res, double[] image, double[] mu, int iStart, int iEnd, NoiseModel aNoiseModel) {
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = noise(image[z][i][j], mu[z][i][j], aNoiseModel);
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                res[idx] = noise(image[idx], mu[idx], aNoiseModel);
             }
         }
     }
@@ -400,190 +412,179 @@ class SolverTools {
         return res;
     }
 
-    void fgradz2D(double[][][] res, double[][][] im) {
+    void fgradz2D(double[] res, double[] im) {
         fgradz2D(res, im, 0, ni);
     }
 
-    void fgradz2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
+    void fgradz2D(double[] res, double[] im, int tStart, int tEnd) {
+        final int sliceSize = ni * nj;
         for (int z = 0; z < nz - 1; z++) {
-            for (int i = tStart; i < tEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = im[z + 1][i][j] - im[z][i][j];
-                }
+            final int end = (z * ni + tEnd) * nj;
+            for (int idx = (z * ni + tStart) * nj; idx < end; idx++) {
+                res[idx] = im[idx + sliceSize] - im[idx];
             }
         }
 
         // von neumann boundary topslice
-        for (int i = tStart; i < tEnd; i++) {
-            for (int j = 0; j < nj; j++) {
-                res[nz - 1][i][j] = 0;
-            }
+        final int end = ((nz - 1) * ni + tEnd) * nj;
+        for (int idx = ((nz - 1) * ni + tStart) * nj; idx < end; idx++) {
+            res[idx] = 0;
         }
 
     }
 
-    void fgradx2D(double[][][] res, double[][][] im) {
+    void fgradx2D(double[] res, double[] im) {
         fgradx2D(res, im, 0, nj);
     }
 
-    void fgradx2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
+    void fgradx2D(double[] res, double[] im, int tStart, int tEnd) {
         for (int z = 0; z < nz; z++) {
             for (int i = 0; i < ni - 1; i++) {
+                final int offset = (z * ni + i) * nj;
                 for (int j = tStart; j < tEnd; j++) {
-                    res[z][i][j] = im[z][i + 1][j] - im[z][i][j];
+                    res[offset + j] = im[offset + nj + j] - im[offset + j];
                 }
             }
 
             // von neumann boundary right
+            final int offset = (z * ni + ni - 1) * nj;
             for (int j = tStart; j < tEnd; j++) {
-                res[z][ni - 1][j] = 0;
+                res[offset + j] = 0;
             }
         }
 
     }
 
-    void fgrady2D(double[][][] res, double[][][] im) {
+    void fgrady2D(double[] res, double[] im) {
         fgrady2D(res, im, 0, ni);
     }
 
     // if x and y do same chunk : possibility to remove one synchronization
     // after each gradient computation
-    void fgrady2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
+    void fgrady2D(double[] res, double[] im, int tStart, int tEnd) {
         for (int z = 0; z < nz; z++) {
             for (int i = tStart; i < tEnd; i++) {
+                final int offset = (z * ni + i) * nj;
                 for (int j = 0; j < nj - 1; j++) {
-                    res[z][i][j] = im[z][i][j + 1] - im[z][i][j];
+                    res[offset + j] = im[offset + j + 1] - im[offset + j];
                 }
-            }
-            // von neumann boundary bottom
-            for (int i = tStart; i < tEnd; i++) {
-                res[z][i][nj - 1] = 0;
+                // von neumann boundary bottom
+                res[offset + nj - 1] = 0;
             }
         }
     }
 
-    private void bgradxdbc2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
+    private void bgradxdbc2D(double[] res, double[] im, int tStart, int tEnd) {
         for (int z = 0; z < nz; z++) {
             for (int i = 1; i < ni - 1; i++) {
+                final int offset = (z * ni + i) * nj;
                 for (int j = tStart; j < tEnd; j++) {
-                    res[z][i][j] = -im[z][i - 1][j] + im[z][i][j];
+                    res[offset + j] = -im[offset - nj + j] + im[offset + j];
                 }
             }
 
+            final int first = z * ni * nj;
+            final int last = (z * ni + ni - 1) * nj;
             for (int j = tStart; j < tEnd; j++) {
                 // dirichlet boundary right
-                res[z][ni - 1][j] = -im[z][ni - 2][j];
+                res[last + j] = -im[last - nj + j];
                 // dirichlet boundary left
-                res[z][0][j] = im[z][0][j];
+                res[first + j] = im[first + j];
             }
         }
     }
 
-    private void bgradzdbc2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
-
+    private void bgradzdbc2D(double[] res, double[] im, int tStart, int tEnd) {
+        final int sliceSize = ni * nj;
         for (int z = 1; z < nz - 1; z++) {
-            for (int i = tStart; i < tEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    res[z][i][j] = -im[z - 1][i][j] + im[z][i][j];
-                }
+            final int end = (z * ni + tEnd) * nj;
+            for (int idx = (z * ni + tStart) * nj; idx < end; idx++) {
+                res[idx] = -im[idx - sliceSize] + im[idx];
             }
         }
 
         // bottom slice dirichlet
-        for (int i = tStart; i < tEnd; i++) {
-            for (int j = 0; j < nj; j++) {
-                // dirichlet boundary left
-                res[0][i][j] = im[0][i][j];
-            }
+        for (int idx = tStart * nj; idx < tEnd * nj; idx++) {
+            // dirichlet boundary left
+            res[idx] = im[idx];
         }
 
         // upper slice dirichlet
-        for (int i = tStart; i < tEnd; i++) {
-            for (int j = 0; j < nj; j++) {
-                // dirichlet boundary right
-                res[nz - 1][i][j] = -im[nz - 2][i][j];
-            }
+        final int end = ((nz - 1) * ni + tEnd) * nj;
+        for (int idx = ((nz - 1) * ni + tStart) * nj; idx < end; idx++) {
+            // dirichlet boundary right
+            res[idx] = -im[idx - sliceSize];
         }
     }
 
-    private void bgradydbc2D(double[][][] res, double[][][] im, int tStart, int tEnd) {
+    private void bgradydbc2D(double[] res, double[] im, int tStart, int tEnd) {
         for (int z = 0; z < nz; z++) {
             for (int i = tStart; i < tEnd; i++) {
+                final int offset = (z * ni + i) * nj;
                 for (int j = 1; j < nj - 1; j++) {
-                    res[z][i][j] = -im[z][i][j - 1] + im[z][i][j];
+                    res[offset + j] = -im[offset + j - 1] + im[offset + j];
                 }
-            }
-            // dirich boundary
-            for (int i = tStart; i < tEnd; i++) {
-                res[z][i][nj - 1] = 0;// ??
-
                 // dirichlet boundary top
-                res[z][i][nj - 1] = -im[z][i][nj - 2];
+                res[offset + nj - 1] = -im[offset + nj - 2];
                 // dirichlet boundary top
-                res[z][i][0] = im[z][i][0];
+                res[offset] = im[offset];
             }
         }
     }
 
-    void shrink2D(double[][][] res1, double[][][] res2, double[][][] u1, double[][][] u2, double t, int iStart, int iEnd) {
+    void shrink2D(double[] res1, double[] res2, double[] u1, double[] u2, double t, int iStart, int iEnd) {
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    double u1tmp = u1[z][i][j];
-                    double u2tmp = u2[z][i][j];
-                    double norm = Math.sqrt(u1tmp * u1tmp + u2tmp * u2tmp);
-                    if (norm >= t) {
-                        res1[z][i][j] = u1tmp - t * u1tmp / norm;
-                        res2[z][i][j] = u2tmp - t * u2tmp / norm;
-                    }
-                    else {
-                        res1[z][i][j] = 0;
-                        res2[z][i][j] = 0;
-                    }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                double u1tmp = u1[idx];
+                double u2tmp = u2[idx];
+                double norm = Math.sqrt(u1tmp * u1tmp + u2tmp * u2tmp);
+                if (norm >= t) {
+                    res1[idx] = u1tmp - t * u1tmp / norm;
+                    res2[idx] = u2tmp - t * u2tmp / norm;
+                }
+                else {
+                    res1[idx] = 0;
+                    res2[idx] = 0;
                 }
             }
         }
     }
 
-    void shrink3D(double[][][] res1, double[][][] res2, double[][][] res3, double[][][] u1, double[][][] u2, double[][][] u3, double t, int iStart, int iEnd) {
+    void shrink3D(double[] res1, double[] res2, double[] res3, double[] u1, double[] u2, double[] u3, double t, int iStart, int iEnd) {
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    double u1tmp = u1[z][i][j];
-                    double u2tmp = u2[z][i][j];
-                    double u3tmp = u3[z][i][j];
-                    double norm = Math.sqrt(u1tmp * u1tmp + u2tmp * u2tmp + u3tmp * u3tmp);
-                    if (norm >= t) {
-                        res1[z][i][j] = u1tmp - t * u1tmp / norm;
-                        res2[z][i][j] = u2tmp - t * u2tmp / norm;
-                        res3[z][i][j] = u3tmp - t * u3tmp / norm;
-                    }
-                    else {
-                        res1[z][i][j] = 0;
-                        res2[z][i][j] = 0;
-                        res3[z][i][j] = 0;
-                    }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                double u1tmp = u1[idx];
+                double u2tmp = u2[idx];
+                double u3tmp = u3[idx];
+                double norm = Math.sqrt(u1tmp * u1tmp + u2tmp * u2tmp + u3tmp * u3tmp);
+                if (norm >= t) {
+                    res1[idx] = u1tmp - t * u1tmp / norm;
+                    res2[idx] = u2tmp - t * u2tmp / norm;
+                    res3[idx] = u3tmp - t * u3tmp / norm;
+                }
+                else {
+                    res1[idx] = 0;
+                    res2[idx] = 0;
+                    res3[idx] = 0;
                 }
             }
         }
     }
 
-    double computeEnergyPSF(double[][][] speedData, double[][][] mask, double[][][] maskx, double[][][] masky, double ldata, double lreg, psf<DoubleType> aPsf, double c0, double c1, double[][][] image,
-            int iStart, int iEnd, int jStart, int jEnd, CountDownLatch Sync8, CountDownLatch Sync9, NoiseModel aNoiseModel) throws InterruptedException {
-        SolverTools.convolve2Dseparable(speedData[0], mask[0], ni, nj, aPsf, maskx[0], iStart, iEnd);
+    double computeEnergyPSF(double[] speedData, double[] mask, double[] maskx, double[] masky, double ldata, double lreg, psf<DoubleType> aPsf, double c0, double c1, double[] image,
+            int iStart, int iEnd, int jStart, int jEnd, SyncPoint Sync8, SyncPoint Sync9, NoiseModel aNoiseModel) throws InterruptedException {
+        SolverTools.convolve2Dseparable(speedData, mask, ni, nj, aPsf, maskx, iStart, iEnd);
 
-        for (int i = iStart; i < iEnd; i++) {
-            for (int j = 0; j < nj; j++) {
-                speedData[0][i][j] = (c1 - c0) * speedData[0][i][j] + c0;
-            }
+        for (int idx = iStart * nj; idx < iEnd * nj; idx++) {
+            speedData[idx] = (c1 - c0) * speedData[idx] + c0;
         }
 
         nllMean(speedData, image, speedData, iStart, iEnd, aNoiseModel);
         double energyData = 0;
-        for (int i = iStart; i < iEnd; i++) {
-            for (int j = 0; j < nj; j++) {
-                energyData += speedData[0][i][j];
-            }
+        for (int idx = iStart * nj; idx < iEnd * nj; idx++) {
+            energyData += speedData[idx];
         }
 
         synchronizedWait(Sync8);
@@ -595,12 +596,11 @@ class SolverTools {
         double energyPrior = 0;
         double mkx, mky;
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    mkx = maskx[z][i][j];
-                    mky = masky[z][i][j];
-                    energyPrior += Math.sqrt(mkx * mkx + mky * mky);
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                mkx = maskx[idx];
+                mky = masky[idx];
+                energyPrior += Math.sqrt(mkx * mkx + mky * mky);
             }
         }
 
@@ -609,26 +609,24 @@ class SolverTools {
         return energy;
     }
 
-    double computeEnergyPSF3D(double[][][] speedData, double[][][] mask, double[][][] temp, double[][][] temp2, double ldata, double lreg, psf<DoubleType> aPsf, double c0, double c1, double[][][] image,
-            int iStart, int iEnd, int jStart, int jEnd, CountDownLatch Sync8, CountDownLatch Sync9, CountDownLatch Sync10, NoiseModel aNoiseModel) throws InterruptedException {
+    double computeEnergyPSF3D(double[] speedData, double[] mask, double[] temp, double[] temp2, double ldata, double lreg, psf<DoubleType> aPsf, double c0, double c1, double[] image,
+            int iStart, int iEnd, int jStart, int jEnd, SyncPoint Sync8, SyncPoint Sync9, SyncPoint Sync10, NoiseModel aNoiseModel) throws InterruptedException {
 
         SolverTools.convolve3Dseparable(speedData, mask, ni, nj, nz, aPsf, temp, iStart, iEnd);
 
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    speedData[z][i][j] = (c1 - c0) * speedData[z][i][j] + c0;
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                speedData[idx] = (c1 - c0) * speedData[idx] + c0;
             }
         }
 
         nllMean(speedData, image, speedData, iStart, iEnd, aNoiseModel);
         double energyData = 0;
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    energyData += speedData[z][i][j];
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                energyData += speedData[idx];
             }
         }
 
@@ -638,9 +636,10 @@ class SolverTools {
         double tmp;
         for (int z = 0; z < nz; z++) {
             for (int i = 0; i < ni; i++) {
+                final int offset = (z * ni + i) * nj;
                 for (int j = jStart; j < jEnd; j++) {
-                    tmp = temp[z][i][j];
-                    temp2[z][i][j] = tmp * tmp;
+                    tmp = temp[offset + j];
+                    temp2[offset + j] = tmp * tmp;
                 }
             }
         }
@@ -649,20 +648,18 @@ class SolverTools {
         
         fgrady2D(temp, mask, iStart, iEnd);
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    tmp = temp[z][i][j];
-                    temp2[z][i][j] += tmp * tmp;
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                tmp = temp[idx];
+                temp2[idx] += tmp * tmp;
             }
         }
         fgradz2D(temp, mask, iStart, iEnd);
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    tmp = temp[z][i][j];
-                    temp2[z][i][j] += tmp * tmp;
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                tmp = temp[idx];
+                temp2[idx] += tmp * tmp;
             }
         }
 
@@ -670,10 +667,9 @@ class SolverTools {
         
         double energyPrior = 0;
         for (int z = 0; z < nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < nj; j++) {
-                    energyPrior += Math.sqrt(temp2[z][i][j]);
-                }
+            final int end = (z * ni + iEnd) * nj;
+            for (int idx = (z * ni + iStart) * nj; idx < end; idx++) {
+                energyPrior += Math.sqrt(temp2[idx]);
             }
         }
 
@@ -681,14 +677,14 @@ class SolverTools {
         return energy;
     }
 
-    void mydivergence(double[][][] res, double[][][] m1, double[][][] m2, double[][][] temp, CountDownLatch Sync2, int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
+    void mydivergence(double[] res, double[] m1, double[] m2, double[] temp, SyncPoint Sync2, int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
         bgradxdbc2D(res, m1, jStart, jEnd);
         bgradydbc2D(temp, m2, iStart, iEnd);
         synchronizedWait(Sync2);
         addtab(res, res, temp, iStart, iEnd);
     }
 
-    void mydivergence3D(double[][][] res, double[][][] m1, double[][][] m2, double[][][] m3, double[][][] temp, CountDownLatch Sync2, int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
+    void mydivergence3D(double[] res, double[] m1, double[] m2, double[] m3, double[] temp, SyncPoint Sync2, int iStart, int iEnd, int jStart, int jEnd) throws InterruptedException {
         bgradxdbc2D(res, m1, jStart, jEnd);
         bgradydbc2D(temp, m2, iStart, iEnd);
         synchronizedWait(Sync2);
@@ -697,10 +693,9 @@ class SolverTools {
         addtab(res, res, m1, iStart, iEnd);
     }
 
-    static void synchronizedWait(final CountDownLatch aSyncLatch) throws InterruptedException {
-        if (aSyncLatch != null) {
-            aSyncLatch.countDown();
-            aSyncLatch.await();
+    static void synchronizedWait(final SyncPoint aSyncPoint) throws InterruptedException {
+        if (aSyncPoint != null) {
+            aSyncPoint.sync();
         }
     }
 
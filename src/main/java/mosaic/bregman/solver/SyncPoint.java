@@ -0,0 +1,43 @@
+package mosaic.bregman.solver;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+
+
+/**
+ * Synchronization point used by zone tasks of split Bregman solver.
+ * It can be backed by one-shot CountDownLatch (created for each step of solver) or by reusable
+ * Phaser shared by long-lived zone workers.
+ */
+interface SyncPoint {
+    void sync() throws InterruptedException;
+
+    /**
+     * @return sync point which counts down latch and waits for all other tasks
+     */
+    static SyncPoint of(final CountDownLatch aLatch) {
+        return () -> { aLatch.countDown(); aLatch.await(); };
+    }
+
+    /**
+     * @return sync point which only counts down latch without waiting
+     */
+    static SyncPoint signal(final CountDownLatch aLatch) {
+        return () -> aLatch.countDown();
+    }
+
+    /**
+     * @return sync point which only waits for latch to be released
+     */
+    static SyncPoint waitFor(final CountDownLatch aLatch) {
+        return () -> aLatch.await();
+    }
+
+    /**
+     * @return sync point waiting on (reusable) phaser, it throws InterruptedException when phaser is terminated
+     */
+    static SyncPoint of(final Phaser aPhaser) {
+        return () -> ZoneWorkers.awaitPhase(aPhaser);
+    }
+}
@@ -6,30 +6,31 @@ import java.util.concurrent.CountDownLatch;
 import mosaic.bregman.solver.SolverParameters.NoiseModel;
 
 
-class ZoneTask2D implements Runnable {
+class ZoneTask2D implements Runnable, ZoneWorkers.Zone {
 
     private final CountDownLatch ZoneDoneSignal;
-    private final CountDownLatch Sync1;
-    private final CountDownLatch Sync2;
-    private final CountDownLatch Sync3;
-    private final CountDownLatch Sync4;
-    private final CountDownLatch Sync5;
-    private final CountDownLatch Sync6;
-    private final CountDownLatch Sync7;
-    private final CountDownLatch Sync8;
-    private final CountDownLatch Sync9;
-    private final CountDownLatch Sync10;
-    private final CountDownLatch Sync11;
-    private final CountDownLatch Sync12;
+    private final SyncPoint Sync1;
+    private final SyncPoint Sync2;
+    private final SyncPoint Sync3;
+    private final SyncPoint Sync4;
+    private final SyncPoint Sync5;
+    private final SyncPoint Sync6;
+    private final SyncPoint Sync7;
+    private final SyncPoint Sync8;
+    private final SyncPoint Sync9;
+    private final SyncPoint Sync10;
+    private final SyncPoint Sync11;
+    private final SyncPoint Sync12;
     
-    private final CountDownLatch Dct;
+    private final SyncPoint Dct;
+    private final ASplitBregmanSolver2D.ZoneDct iZoneDct;
     private final ASplitBregmanSolver2D AS;
     private final int iStart, iEnd, jStart, jEnd, nt;
     private final SolverTools LocalTools;
     private final boolean iEvaluateEnergy;
     
-    ZoneTask2D(CountDownLatch ZoneDoneSignal, CountDownLatch Sync1, CountDownLatch Sync2, CountDownLatch Sync3, CountDownLatch Sync4, CountDownLatch Dct, CountDownLatch Sync5, CountDownLatch Sync6,
-            CountDownLatch Sync7, CountDownLatch Sync8, CountDownLatch Sync9, CountDownLatch Sync10, CountDownLatch Sync11, CountDownLatch Sync12, int iStart, int iEnd, int jStart, int jEnd, int num,
+    ZoneTask2D(CountDownLatch ZoneDoneSignal, SyncPoint Sync1, SyncPoint Sync2, SyncPoint Sync3, SyncPoint Sync4, SyncPoint Dct, ASplitBregmanSolver2D.ZoneDct aZoneDct, SyncPoint Sync5, SyncPoint Sync6,
+            SyncPoint Sync7, SyncPoint Sync8, SyncPoint Sync9, SyncPoint Sync10, SyncPoint Sync11, SyncPoint Sync12, int iStart, int iEnd, int jStart, int jEnd, int num,
             ASplitBregmanSolver2D AS, SolverTools tTools, boolean aEvaluateEnergy) {
         this.LocalTools = tTools;
         this.ZoneDoneSignal = ZoneDoneSignal;
@@ -47,6 +48,7 @@ class ZoneTask2D implements Runnable {
         this.Sync12 = Sync12;
         
         this.Dct = Dct;
+        iZoneDct = aZoneDct;
         this.AS = AS;
         this.nt = num;
         this.iStart = iStart;
@@ -59,14 +61,15 @@ class ZoneTask2D implements Runnable {
     @Override
     public void run() {
         try {
-            doWork();
+            doWork(iEvaluateEnergy);
         }
         catch (final InterruptedException ex) {}
 
         ZoneDoneSignal.countDown();
     }
 
-    private void doWork() throws InterruptedException {
+    @Override
+    public void doWork(boolean aEvaluateEnergy) throws InterruptedException {
         LocalTools.subtab(AS.temp1, AS.w2xk, AS.b2xk, iStart, iEnd);
         LocalTools.subtab(AS.temp2, AS.w2yk, AS.b2yk, iStart, iEnd);
 
@@ -79,38 +82,36 @@ class ZoneTask2D implements Runnable {
         SolverTools.synchronizedWait(Sync12);
 
         for (int z = 0; z < AS.nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < AS.nj; j++) {
-                    AS.temp2[z][i][j] = AS.w1k[z][i][j] - AS.b1k[z][i][j] - AS.iBetaMleOut;
-                }
+            final int end = (z * AS.ni + iEnd) * AS.nj;
+            for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                AS.temp2[idx] = AS.w1k[idx] - AS.b1k[idx] - AS.iBetaMleOut;
             }
         }
         
         SolverTools.synchronizedWait(Sync3);
 
-        SolverTools.convolve2Dseparable(AS.temp4[0], AS.temp2[0], AS.ni, AS.nj, AS.iPsf, AS.temp1[0], iStart, iEnd);
+        SolverTools.convolve2Dseparable(AS.temp4, AS.temp2, AS.ni, AS.nj, AS.iPsf, AS.temp1, iStart, iEnd);
 
         SolverTools.synchronizedWait(Sync11);
 
-        for (int i = iStart; i < iEnd; i++) {
-            for (int j = 0; j < AS.nj; j++) {
-                AS.temp1[0][i][j] = -AS.temp3[0][i][j] + AS.w3k[0][i][j] - AS.b3k[0][i][j] + (AS.iBetaMleIn - AS.iBetaMleOut) * AS.temp4[0][i][j];
-            }
+        for (int idx = iStart * AS.nj; idx < iEnd * AS.nj; idx++) {
+            AS.temp1[idx] = -AS.temp3[idx] + AS.w3k[idx] - AS.b3k[idx] + (AS.iBetaMleIn - AS.iBetaMleOut) * AS.temp4[idx];
         }
 
-        Sync4.countDown();
-        
-        Dct.await();
+        Sync4.sync();
+        if (iZoneDct != null) {
+            // inversion in DCT space split between all zones
+            iZoneDct.invert(iStart, iEnd, jStart, jEnd);
+        }
+        Dct.sync();
 
-        SolverTools.convolve2Dseparable(AS.temp2[0], AS.temp1[0], AS.ni, AS.nj, AS.iPsf, AS.temp3[0], iStart, iEnd);
+        SolverTools.convolve2Dseparable(AS.temp2, AS.temp1, AS.ni, AS.nj, AS.iPsf, AS.temp3, iStart, iEnd);
 
         SolverTools.synchronizedWait(Sync10);
 
         
-        for (int i = iStart; i < iEnd; i++) {
-            for (int j = 0; j < AS.nj; j++) {
-                AS.temp2[0][i][j] = (AS.iBetaMleIn - AS.iBetaMleOut) * AS.temp2[0][i][j] + AS.iBetaMleOut;
-            }
+        for (int idx = iStart * AS.nj; idx < iEnd * AS.nj; idx++) {
+            AS.temp2[idx] = (AS.iBetaMleIn - AS.iBetaMleOut) * AS.temp2[idx] + AS.iBetaMleOut;
         }
 
         
@@ -120,18 +121,16 @@ class ZoneTask2D implements Runnable {
             // temp3=detw2
             // detw2 = (lambda*gamma.*weightData-b2k-muk).^2+4*lambda*gamma*weightData.*image;
             for (int z = 0; z < AS.nz; z++) {
-                for (int i = iStart; i < iEnd; i++) {
-                    for (int j = 0; j < AS.nj; j++) {
-                        AS.temp3[0][i][j] = Math.pow(((AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma - AS.b1k[0][i][j] - AS.temp2[0][i][j]), 2) + 
-                                         4 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma * AS.iImage[0][i][j];
-                    }
+                final int end = (z * AS.ni + iEnd) * AS.nj;
+                for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                    AS.temp3[idx] = Math.pow(((AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma - AS.b1k[idx] - AS.temp2[idx]), 2) +
+                            4 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma * AS.iImage[idx];
                 }
             }
             for (int z = 0; z < AS.nz; z++) {
-                for (int i = iStart; i < iEnd; i++) {
-                    for (int j = 0; j < AS.nj; j++) {
-                        AS.w1k[0][i][j] = 0.5 * (AS.b1k[z][i][j] + AS.temp2[z][i][j] - (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma + Math.sqrt(AS.temp3[z][i][j]));
-                    }
+                final int end = (z * AS.ni + iEnd) * AS.nj;
+                for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                    AS.w1k[idx] = 0.5 * (AS.b1k[idx] + AS.temp2[idx] - (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma + Math.sqrt(AS.temp3[idx]));
                 }
             }
         }
@@ -139,29 +138,26 @@ class ZoneTask2D implements Runnable {
             // gaussian
             // w2k = (b2k+muk+2*lambda*gamma*weightData.*image)./(1+2*lambda*gamma*weightData);
             for (int z = 0; z < AS.nz; z++) {
-                for (int i = iStart; i < iEnd; i++) {
-                    for (int j = 0; j < AS.nj; j++) {
-                        AS.w1k[0][i][j] = (AS.b1k[z][i][j] + AS.temp2[z][i][j] + 2 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma * AS.iImage[0][i][j])
-                                / (1 + 2 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma);
-                    }
+                final int end = (z * AS.ni + iEnd) * AS.nj;
+                for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                    AS.w1k[idx] = (AS.b1k[idx] + AS.temp2[idx] + 2 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma * AS.iImage[idx])
+                            / (1 + 2 * (AS.iParameters.lambdaData / AS.iRegularization) * AS.iParameters.gamma);
                 }
             }
         }
         // %-- w3k subproblem
         for (int z = 0; z < AS.nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < AS.nj; j++) {
-                    AS.w3k[z][i][j] = Math.max(Math.min(AS.temp1[z][i][j] + AS.b3k[z][i][j], 1), 0);
-                }
+            final int end = (z * AS.ni + iEnd) * AS.nj;
+            for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                AS.w3k[idx] = Math.max(Math.min(AS.temp1[idx] + AS.b3k[idx], 1), 0);
             }
         }
 
         for (int z = 0; z < AS.nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < AS.nj; j++) {
-                    AS.b1k[z][i][j] = AS.b1k[z][i][j] + AS.temp2[z][i][j] - AS.w1k[z][i][j];
-                    AS.b3k[z][i][j] = AS.b3k[z][i][j] + AS.temp1[z][i][j] - AS.w3k[z][i][j];
-                }
+            final int end = (z * AS.ni + iEnd) * AS.nj;
+            for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                AS.b1k[idx] = AS.b1k[idx] + AS.temp2[idx] - AS.w1k[idx];
+                AS.b3k[idx] = AS.b3k[idx] + AS.temp1[idx] - AS.w3k[idx];
             }
         }
 
@@ -179,12 +175,10 @@ class ZoneTask2D implements Runnable {
         
         
         for (int z = 0; z < AS.nz; z++) {
-            for (int i = iStart; i < iEnd; i++) {
-                for (int j = 0; j < AS.nj; j++) {
-                    AS.b2xk[z][i][j] = AS.b2xk[z][i][j] + AS.temp3[z][i][j] - AS.w2xk[z][i][j];
-                    AS.b2yk[z][i][j] = AS.b2yk[z][i][j] + AS.temp4[z][i][j] - AS.w2yk[z][i][j];
-                    
-                }
+            final int end = (z * AS.ni + iEnd) * AS.nj;
+            for (int idx = (z * AS.ni + iStart) * AS.nj; idx < end; idx++) {
+                AS.b2xk[idx] = AS.b2xk[idx] + AS.temp3[idx] - AS.w2xk[idx];
+                AS.b2yk[idx] = AS.b2yk[idx] + AS.temp4[idx] - AS.w2yk[idx];
             }
         }
 
@@ -192,7 +186,7 @@ class ZoneTask2D implements Runnable {
 
         // faire le menage dans les tableaux ici w2xk utilise comme temp
         // Google translation: do the household in here w2xk tables used as Temp
-        if (iEvaluateEnergy) {
+        if (aEvaluateEnergy) {
             AS.iEnergies[nt] = LocalTools.computeEnergyPSF(AS.temp1, AS.w3k, AS.temp3, AS.temp4, AS.iParameters.lambdaData, AS.iRegularization, AS.iPsf, AS.iBetaMleOut, AS.iBetaMleIn, AS.iImage, iStart,
                     iEnd, jStart, jEnd, Sync8, Sync9, AS.iNoiseModel);
         }
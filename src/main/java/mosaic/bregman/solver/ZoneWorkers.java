@@ -0,0 +1,134 @@
+package mosaic.bregman.solver;
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Long-lived zone workers of split Bregman solver. Workers are started once and they live until
+ * {@link #stop()} is called, each call to {@link #step(boolean)} runs one iteration of all zones.
+ * Instead of creating new tasks and latches for each iteration, all synchronization is done on
+ * reusable phasers.
+ * If any zone fails all workers are terminated and failure is rethrown by {@link #step(boolean)}.
+ */
+class ZoneWorkers {
+
+    interface Zone {
+        void doWork(boolean aEvaluateEnergy) throws InterruptedException;
+    }
+
+    // Phaser of all workers + stepping thread, used to start and finish each step
+    private final Phaser iStepPhaser;
+    // Phaser of all workers, used for synchronization points inside of step
+    private final Phaser iZonePhaser;
+
+    private volatile boolean iEvaluateEnergy = false;
+    private volatile boolean iStopped = false;
+    // First failure of any zone (workers are terminated when set)
+    private final AtomicReference<Throwable> iFailure = new AtomicReference<Throwable>();
+
+    ZoneWorkers(int aNumOfZones) {
+        iStepPhaser = new Phaser(aNumOfZones + 1);
+        iZonePhaser = new Phaser(aNumOfZones);
+    }
+
+    /**
+     * @return sync point shared by all zones (to be used inside of zone's work)
+     */
+    SyncPoint getSyncPoint() {
+        return SyncPoint.of(iZonePhaser);
+    }
+
+    /**
+     * Starts provided zones on executor. Executor must be able to run all of them concurrently.
+     */
+    void start(Zone[] aZones, ExecutorService aExecutor) {
+        for (final Zone zone : aZones) {
+            aExecutor.execute(() -> runZone(zone));
+        }
+    }
+
+    /**
+     * Runs one step of all zones.
+     * @throws RuntimeException failure of zone (original one if it was RuntimeException)
+     * @throws InterruptedException if stepping thread was interrupted (all workers are terminated then)
+     */
+    void step(boolean aEvaluateEnergy) throws InterruptedException {
+        iEvaluateEnergy = aEvaluateEnergy;
+        // start and wait for end of step
+        awaitStep();
+        awaitStep();
+    }
+
+    void stop() throws InterruptedException {
+        if (iStopped) return;
+        iStopped = true;
+        if (!iStepPhaser.isTerminated()) awaitStep();
+    }
+
+    /**
+     * Terminates all workers (they stop at nearest sync point).
+     */
+    void terminate() {
+        iStopped = true;
+        iStepPhaser.forceTermination();
+        iZonePhaser.forceTermination();
+    }
+
+    private void runZone(Zone aZone) {
+        try {
+            while (true) {
+                awaitPhase(iStepPhaser);
+                if (iStopped) break;
+                aZone.doWork(iEvaluateEnergy);
+                awaitPhase(iStepPhaser);
+            }
+        }
+        catch (InterruptedException e) {
+            // Terminated by other zone or by stepping thread - nothing more to do
+            if (iStepPhaser.isTerminated()) return;
+            // Interrupted - release all other parties
+            fail(e);
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException | Error e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable aCause) {
+        iFailure.compareAndSet(null, aCause);
+        terminate();
+    }
+
+    private void awaitStep() throws InterruptedException {
+        try {
+            awaitPhase(iStepPhaser);
+        }
+        catch (InterruptedException e) {
+            if (iFailure.get() == null) {
+                // stepping thread interrupted, workers would wait forever for it
+                terminate();
+                throw e;
+            }
+        }
+        final Throwable failure = iFailure.get();
+        if (failure != null) {
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+            throw new IllegalStateException("Solver zone worker failed", failure);
+        }
+    }
+
+    /**
+     * Arrives at phaser and waits for all other parties.
+     * @throws InterruptedException if interrupted or phaser was terminated
+     */
+    static void awaitPhase(Phaser aPhaser) throws InterruptedException {
+        if (aPhaser.awaitAdvanceInterruptibly(aPhaser.arrive()) < 0) {
+            throw new InterruptedException("Solver zone workers terminated");
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.apache.log4j.Logger;
 
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.stream.IntStream;
 
 /**
  * FeaturePointDetector detects the "real" particles in provided frames.
@@ -34,9 +35,11 @@ public class FeaturePointDetector {
     private float iAbsIntensityThreshold;
     private Mode iThresholdMode = Mode.PERCENTILE_MODE;
     private boolean iUseCLIJ = false;
+    // Pairs of particles with score contribution smaller than epsilon are skipped in non particle
+    // discrimination (0 means that exact score is calculated)
+    private double iDiscriminationEpsilon = 0;
 
     // Internal stuff
-    private Vector<Particle> iParticles;
     private int[][] iMask;
     
     
@@ -54,7 +57,9 @@ public class FeaturePointDetector {
      * First phase of the algorithm - time and memory consuming !! <br>
      * Determines the "real" particles in this frame (only for frame constructed from Image) <br>
      * Converts the <code>original_ip</code> to <code>FloatProcessor</code>, normalizes it, convolutes and dilates it,
-     * finds the particles, refine their position and filters out non particles
+     * finds the particles, refine their position and filters out non particles <br>
+     * Detector state is not changed so detection can be run concurrently for different frames 
+     * (as long as CLIJ is not used).
      * @return container with disovered particles
      */
     public Vector<Particle> featurePointDetection(ImageStack original_ips) {
@@ -83,15 +88,15 @@ public class FeaturePointDetector {
         // new StackWindow(new ImagePlus("after restoration",mosaic.core.utils.MosaicUtils.GetSubStackCopyInFloat(restored_fps, 1, restored_fps.getSize())));
 
         /* Estimation of the point location - Step 2 of the algorithm */
-        pointLocationsEstimation(restored_fps);
+        Vector<Particle> particles = pointLocationsEstimation(restored_fps);
         
         /* Refinement of the point location - Step 3 of the algorithm */
-        pointLocationsRefinement(restored_fps);
+        pointLocationsRefinement(restored_fps, particles);
         
         /* Non Particle Discrimination(set a flag to particles) - Step 4 of the algorithm */
-        nonParticleDiscrimination();
+        nonParticleDiscrimination(particles);
 
-        return iParticles;
+        return particles;
     }
 
     /**
@@ -191,8 +196,9 @@ public class FeaturePointDetector {
      * Mostly adapted from Ingo Oppermann implementation
      * 
      * @param ips ImageProcessor, should be after conversion, normalization and restoration
+     * @return found particles
      */
-    private void pointLocationsEstimation(ImageStack ips) {
+    private Vector<Particle> pointLocationsEstimation(ImageStack ips) {
         float threshold = findThreshold(ips, iPercentile, iAbsIntensityThreshold);
         /* do a grayscale dilation */
 
@@ -202,7 +208,7 @@ public class FeaturePointDetector {
 
         // new StackWindow(new ImagePlus("dilated ", dilated_ips));
 
-        iParticles = new Vector<Particle>();
+        final Vector<Particle> particles = new Vector<Particle>();
         /* loop over all pixels */
         final int height = ips.getHeight();
         final int width = ips.getWidth();
@@ -220,15 +226,17 @@ public class FeaturePointDetector {
 
                         /* and add each particle that meets the criteria to the particles array */
                         // (the starting point is the middle of the pixel and exactly on a focal plane:)
-                        iParticles.add(new Particle(j + 0.5f, i + .5f, s + depthShift, -1));
+                        particles.add(new Particle(j + 0.5f, i + .5f, s + depthShift, -1));
                     }
                 }
             }
         }
-        logger.info("Detected " + iParticles.size() + " particles.");
+        logger.info("Detected " + particles.size() + " particles.");
+        
+        return particles;
     }
 
-    private void pointLocationsRefinement(ImageStack ips) {
+    private void pointLocationsRefinement(ImageStack ips, Vector<Particle> aParticles) {
         final int mask_width = 2 * iRadius + 1;
         final int imageWidth = ips.getWidth();
         final int imageHeight = ips.getHeight();
@@ -244,8 +252,8 @@ public class FeaturePointDetector {
             }
         }
 
-        for (int m = 0; m < iParticles.size(); ++m) {
-            final Particle currentParticle = iParticles.elementAt(m);
+        for (int m = 0; m < aParticles.size(); ++m) {
+            final Particle currentParticle = aParticles.elementAt(m);
             float epsx = 0;
             float epsy = 0;
             float epsz = 0;
@@ -353,19 +361,19 @@ public class FeaturePointDetector {
      * Particles with lower final score than the user-defined cutoff are discarded <br>
      * Adapted "as is" from Ingo Oppermann implementation
      */
-    private void nonParticleDiscrimination() {
-        if (iParticles.size() == 1) {
+    void nonParticleDiscrimination(Vector<Particle> aParticles) {
+        if (aParticles.size() == 1) {
             // If there is only one particle it should not be discriminated - big enough value will do the job.
-            iParticles.elementAt(0).nonParticleDiscriminationScore = Float.MAX_VALUE;
-            iParticles.elementAt(0).special = true;
+            aParticles.elementAt(0).nonParticleDiscriminationScore = Float.MAX_VALUE;
+            aParticles.elementAt(0).special = true;
         }
         
         // Find maximum coordinates of particles and clear/set proper features of particle.
         int maxX = 1;
         int maxY = 1;
         int maxZ = 1;
-        for (int j = 0; j < iParticles.size(); ++j) {
-            final Particle pJ = iParticles.elementAt(j);
+        for (int j = 0; j < aParticles.size(); ++j) {
+            final Particle pJ = aParticles.elementAt(j);
             pJ.special = true;
             pJ.nonParticleDiscriminationScore = 0;
             maxX = Math.max((int) pJ.iX, maxX);
@@ -380,8 +388,8 @@ public class FeaturePointDetector {
         // +1 to have ghost layer on left and 
         // +1 to have ghost layer on right
         final boolean[][][] takenPositions = new boolean[maxZ + 3][maxY + 3][maxX + 3];
-        for (int j = 0; j < iParticles.size(); ++j) {
-            final Particle pJ = iParticles.elementAt(j);
+        for (int j = 0; j < aParticles.size(); ++j) {
+            final Particle pJ = aParticles.elementAt(j);
             boolean particleInNeighborhood = false;
             for (int oz = -1; !particleInNeighborhood && oz <= 1; ++oz) {
                 for (int oy = -1; !particleInNeighborhood && oy <= 1; ++oy) {
@@ -403,30 +411,35 @@ public class FeaturePointDetector {
         
         // Calculate Nt - number of valid particles
         int Nt = 0;
-        for (int j = 0; j < iParticles.size(); ++j) {
-            if (iParticles.elementAt(j).special == true) ++Nt;
+        for (int j = 0; j < aParticles.size(); ++j) {
+            if (aParticles.elementAt(j).special == true) ++Nt;
         }
         logger.debug("Detected " + Nt + " non duplicated particles.");
         
         // Calculate score for each valid particle
-        int countValid = 0;
         double sigma0 = 0.1;
         double sigma2 = 0.1;
-        for (int j = 0; j < iParticles.size(); ++j) {
-            final Particle pJ = iParticles.elementAt(j);
+        if (iDiscriminationEpsilon > 0 && Nt > 0) {
+            calculateDiscriminationScoresWithCells(aParticles, Nt, sigma0, sigma2);
+        }
+        int countValid = 0;
+        for (int j = 0; j < aParticles.size(); ++j) {
+            final Particle pJ = aParticles.elementAt(j);
             if (!pJ.special) continue; // Skip not valid particle
 
-            for (int k = j; k < iParticles.size(); ++k) {
-                final Particle pK = iParticles.elementAt(k);
-                if (!pK.special) continue; // Skip not valid particle
-                double score = (1.0 / (2.0 * Math.PI * sigma0 * sigma2 * Nt)) * Math.exp(- Math.pow((pJ.m0 - pK.m0), 2) / (2.0 * sigma0 * sigma0) - Math.pow((pJ.m2 - pK.m2), 2) / (2.0 * sigma2 * sigma2));
-                pJ.nonParticleDiscriminationScore += score;
-                if (j != k) pK.nonParticleDiscriminationScore += score;
+            if (iDiscriminationEpsilon <= 0) {
+                for (int k = j; k < aParticles.size(); ++k) {
+                    final Particle pK = aParticles.elementAt(k);
+                    if (!pK.special) continue; // Skip not valid particle
+                    double score = (1.0 / (2.0 * Math.PI * sigma0 * sigma2 * Nt)) * Math.exp(- Math.pow((pJ.m0 - pK.m0), 2) / (2.0 * sigma0 * sigma0) - Math.pow((pJ.m2 - pK.m2), 2) / (2.0 * sigma2 * sigma2));
+                    pJ.nonParticleDiscriminationScore += score;
+                    if (j != k) pK.nonParticleDiscriminationScore += score;
+                }
+
+                // Normalize score
+                pJ.nonParticleDiscriminationScore /= 1/(2.0 * Math.PI * sigma0 * sigma2);
             }
             
-            // Normalize score
-            pJ.nonParticleDiscriminationScore /= 1/(2.0 * Math.PI * sigma0 * sigma2);
-            
             if (pJ.nonParticleDiscriminationScore < iCutoff) {
                 pJ.special = false;  // Mark particle as not valid
             }
@@ -437,6 +450,84 @@ public class FeaturePointDetector {
         logger.info("Detected " + countValid + " after non particle discrimination phase.");
     }
 
+    /**
+     * Calculates normalized non particle discrimination scores of valid particles skipping pairs with
+     * contribution exp(-dm0^2/(2*sigma0^2) - dm2^2/(2*sigma2^2)) smaller than epsilon. Particles are binned
+     * into cells of (m0/sigma0, m2/sigma2) space with size equal to the cut off distance sqrt(2*ln(1/epsilon)) so
+     * only particles from neighbour cells are checked. Score of each particle is calculated independently
+     * (in parallel). Since each of skipped contributions is smaller than epsilon and score is normalized by Nt
+     * the absolute difference to the exact score is smaller than epsilon (up to rounding of float scores).
+     */
+    private void calculateDiscriminationScoresWithCells(Vector<Particle> aParticles, int aNt, double aSigma0, double aSigma2) {
+        final double[] u = new double[aNt];
+        final double[] v = new double[aNt];
+        final Particle[] valid = new Particle[aNt];
+        int n = 0;
+        for (final Particle p : aParticles) {
+            if (!p.special) continue;
+            valid[n] = p;
+            u[n] = p.m0 / aSigma0;
+            v[n] = p.m2 / aSigma2;
+            n++;
+        }
+        final double cutoffDistance2 = 2.0 * Math.log(1.0 / Math.min(iDiscriminationEpsilon, 1.0));
+        final double cellSize = Math.max(Math.sqrt(cutoffDistance2), Double.MIN_NORMAL);
+
+        // Sort particles by their cell keys
+        final long[] keys = new long[aNt];
+        final Integer[] order = new Integer[aNt];
+        for (int i = 0; i < aNt; ++i) {
+            keys[i] = cellKey((long) Math.floor(u[i] / cellSize), (long) Math.floor(v[i] / cellSize));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        final long[] sortedKeys = new long[aNt];
+        final int[] sortedIndices = new int[aNt];
+        for (int k = 0; k < aNt; ++k) {
+            sortedIndices[k] = order[k];
+            sortedKeys[k] = keys[order[k]];
+        }
+
+        final double[] scores = new double[aNt];
+        IntStream.range(0, aNt).parallel().forEach(i -> {
+            final long cu = (long) Math.floor(u[i] / cellSize);
+            final long cv = (long) Math.floor(v[i] / cellSize);
+            double sum = 0;
+            for (long a = cu - 1; a <= cu + 1; ++a) {
+                for (long b = cv - 1; b <= cv + 1; ++b) {
+                    final long key = cellKey(a, b);
+                    for (int k = lowerBound(sortedKeys, key); k < aNt && sortedKeys[k] == key; ++k) {
+                        final int j = sortedIndices[k];
+                        final double du = u[i] - u[j];
+                        final double dv = v[i] - v[j];
+                        final double distance2 = du * du + dv * dv;
+                        if (distance2 <= cutoffDistance2) {
+                            sum += Math.exp(-distance2 / 2.0);
+                        }
+                    }
+                }
+            }
+            scores[i] = sum / aNt;
+        });
+        for (int i = 0; i < aNt; ++i) {
+            valid[i].nonParticleDiscriminationScore = (float) scores[i];
+        }
+    }
+
+    private static long cellKey(long aU, long aV) {
+        return (aU << 32) ^ (aV & 0xFFFFFFFFL);
+    }
+
+    private static int lowerBound(long[] aKeys, long aKey) {
+        int lo = 0;
+        int hi = aKeys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (aKeys[mid] < aKey) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
     /**
      * Corrects imperfections in the given <code>ImageStack</code> by
      * convolving it (slice by slice, not 3D) with the pre calculated <code>kernel</code>
@@ -656,6 +747,26 @@ public class FeaturePointDetector {
         return iThresholdMode;
     }
     
+    public boolean isUsingCLIJ() {
+        return iUseCLIJ;
+    }
+
+    /**
+     * Sets epsilon of non particle discrimination. If it is bigger than 0 then pairs of particles with
+     * contribution to score smaller than epsilon are skipped, which gives scores within epsilon of exact ones
+     * and allows to process dense frames much faster.
+     * @return true if value has changed
+     */
+    public boolean setDiscriminationEpsilon(double aEpsilon) {
+        final boolean changed = aEpsilon != iDiscriminationEpsilon;
+        iDiscriminationEpsilon = aEpsilon;
+        return changed;
+    }
+
+    public double getDiscriminationEpsilon() {
+        return iDiscriminationEpsilon;
+    }
+
     public float getGlobalMax() {
         return iGlobalMax;
     }
@@ -45,10 +45,12 @@ public class GUIhelper {
         final double cut = gd.getNextNumber();
         final float per = ((float) gd.getNextNumber()) / 100;
         final float intThreshold = per * 100;
+        final double epsilon = gd.getNextNumber();
         final boolean absolute = gd.getNextBoolean();
         final boolean useCLIJ = isClijAvailable() && gd.getNextBoolean();
 
-        return fpd.setDetectionParameters(cut, per, rad, intThreshold, absolute, useCLIJ);
+        final boolean epsilonChanged = fpd.setDiscriminationEpsilon(epsilon);
+        return fpd.setDetectionParameters(cut, per, rad, intThreshold, absolute, useCLIJ) || epsilonChanged;
     }
 
     /**
@@ -66,10 +68,12 @@ public class GUIhelper {
         final double cut = Double.parseDouble((vec.elementAt(1)).getText());
         final float per = (Float.parseFloat((vec.elementAt(2)).getText())) / 100;
         final float intThreshold = per * 100;
+        final double epsilon = Double.parseDouble((vec.elementAt(3)).getText());
         final boolean absolute = vecb.elementAt(0).getState();
         final boolean useClij = isClijAvailable() && vecb.elementAt(1).getState();
 
-        return fpd.setDetectionParameters(cut, per, rad, intThreshold, absolute, useClij);
+        final boolean epsilonChanged = fpd.setDiscriminationEpsilon(epsilon);
+        return fpd.setDetectionParameters(cut, per, rad, intThreshold, absolute, useClij) || epsilonChanged;
     }
     
     public static void addUserDefinedParametersDialog(GenericDialog gd, FeaturePointDetector fpd) {
@@ -78,6 +82,7 @@ public class GUIhelper {
         gd.addNumericField("Radius", fpd.getRadius(), 0, 7, null);
         gd.addNumericField("Cutoff [0-1]", fpd.getCutoff(), 3, 7, null);
         gd.addNumericField("Per/Abs", fpd.getPercentile() * 100, 3, 7, null);
+        gd.addNumericField("Discrimination_epsilon (0 = exact)", fpd.getDiscriminationEpsilon(), 6, 7, null);
 
         gd.addCheckbox("Absolute", fpd.getThresholdMode() == FeaturePointDetector.Mode.ABS_THRESHOLD_MODE);
         if (isClijAvailable()) {
@@ -0,0 +1,272 @@
+package mosaic.core.imageUtils;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Connected component labeling with two-pass union-find working on flat int arrays.
+ * In first pass every foreground pixel is joined with its already visited (preceding in memory order) foreground
+ * neighbours, in second pass each pixel gets label of its component. Root of every component is its first pixel
+ * so components are numbered in order of their first pixel - exactly like flood filling from seeds found by
+ * scanning image in memory order.
+ * Big images are split into slabs along last dimension, slabs are processed concurrently and joined along seams.
+ * Slabs are forked into fork-join pool of caller (or common pool) so no threads are created by labeling itself.
+ *
+ * Any connectivity can be used (e.g. FG or BG connectivity of LabelImage).
+ */
+public class ConnectedComponents {
+    // Minimum number of pixels in slab processed by one thread
+    private static final int MinSlabSize = 1 << 16;
+
+    private final int[] iDims;
+    private final int iSize;
+    // number of pixels in one hyperplane orthogonal to last dimension (e.g. slice in 3D)
+    private final int iPlaneSize;
+
+    // Neighbours preceding pixel in memory order (as point and index offsets)
+    private final int[][] iBackOffsets;
+    private final int[] iBackIndexOffsets;
+    // true if neighbour lays in previous plane
+    private final boolean[] iInPreviousPlane;
+
+    /**
+     * @param aDimensions - dimensions of image (e.g. {width, height, depth})
+     * @param aConnectivity - connectivity of components with same number of dimensions as image
+     */
+    public ConnectedComponents(int[] aDimensions, Connectivity aConnectivity) {
+        if (aConnectivity.getNumOfDimensions() != aDimensions.length) {
+            throw new IllegalArgumentException("Connectivity " + aConnectivity + " does not match number of image dimensions: " + aDimensions.length);
+        }
+        iDims = aDimensions.clone();
+        final int[] strides = new int[iDims.length];
+        int size = 1;
+        for (int d = 0; d < iDims.length; ++d) {
+            strides[d] = size;
+            size *= iDims[d];
+        }
+        iSize = size;
+        iPlaneSize = strides[iDims.length - 1];
+
+        final List<int[]> backOffsets = new ArrayList<int[]>();
+        for (final Point p : aConnectivity.getPointOffsets()) {
+            // neighbour precedes pixel when its highest non-zero coordinate is negative
+            int d = p.iCoords.length - 1;
+            while (p.iCoords[d] == 0) --d;
+            if (p.iCoords[d] < 0) backOffsets.add(p.iCoords.clone());
+        }
+        iBackOffsets = backOffsets.toArray(new int[backOffsets.size()][]);
+        iBackIndexOffsets = new int[iBackOffsets.length];
+        iInPreviousPlane = new boolean[iBackOffsets.length];
+        for (int n = 0; n < iBackOffsets.length; ++n) {
+            for (int d = 0; d < iDims.length; ++d) {
+                iBackIndexOffsets[n] += iBackOffsets[n][d] * strides[d];
+            }
+            iInPreviousPlane[n] = iBackOffsets[n][iDims.length - 1] < 0;
+        }
+    }
+
+    /**
+     * Labels connected components of foreground using all threads of fork-join pool of caller (or of common pool).
+     * @see #label(boolean[], int[], int, int)
+     */
+    public int label(boolean[] aForeground, int[] aLabels, int aFirstLabel) {
+        final int numOfThreads = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        return label(aForeground, aLabels, aFirstLabel, numOfThreads);
+    }
+
+    /**
+     * Labels connected components of foreground. Components get consecutive labels starting from aFirstLabel in
+     * order of their first pixel.
+     * @param aForeground - foreground mask
+     * @param aLabels - output labels (can be same array as labeled image), labels of background pixels are not modified
+     * @param aFirstLabel - label of first component
+     * @param aNumOfThreads - maximum number of threads used
+     * @return number of found components
+     */
+    public int label(boolean[] aForeground, int[] aLabels, int aFirstLabel, int aNumOfThreads) {
+        if (aForeground.length != iSize || aLabels.length != iSize) {
+            throw new IllegalArgumentException("Size of input (" + aForeground.length + ") or output (" + aLabels.length + ") differs from image size: " + iSize);
+        }
+        if (iSize == 0) return 0;
+
+        // Slabs consist of whole planes so seams are only between neighbouring planes
+        final int numOfPlanes = iDims[iDims.length - 1];
+        final int numOfSlabs = Math.max(1, Math.min(Math.min(aNumOfThreads, numOfPlanes), iSize / MinSlabSize));
+        final int[] slabStarts = new int[numOfSlabs + 1];
+        for (int s = 0; s <= numOfSlabs; ++s) {
+            slabStarts[s] = (int) ((long) numOfPlanes * s / numOfSlabs) * iPlaneSize;
+        }
+
+        // aLabels keeps parent of each foreground pixel (parent index is always smaller than pixel index)
+        runForEachSlab(numOfSlabs, s -> unionSlab(aForeground, aLabels, slabStarts[s], slabStarts[s + 1]));
+        for (int s = 1; s < numOfSlabs; ++s) {
+            unionSeam(aForeground, aLabels, slabStarts[s]);
+        }
+
+        // Point every pixel directly to its root and count roots in each slab
+        final int[] numOfRoots = new int[numOfSlabs + 1];
+        runForEachSlab(numOfSlabs, s -> numOfRoots[s + 1] = flattenSlab(aForeground, aLabels, slabStarts[s], slabStarts[s + 1]));
+        for (int s = 0; s < numOfSlabs; ++s) {
+            numOfRoots[s + 1] += numOfRoots[s];
+        }
+
+        // Roots get (negated) number of component, then it is propagated to rest of pixels. Finally real labels are set.
+        runForEachSlab(numOfSlabs, s -> {
+            int component = numOfRoots[s];
+            for (int i = slabStarts[s]; i < slabStarts[s + 1]; ++i) {
+                if (aForeground[i] && aLabels[i] == i) aLabels[i] = ~component++;
+            }
+        });
+        runForEachSlab(numOfSlabs, s -> {
+            for (int i = slabStarts[s]; i < slabStarts[s + 1]; ++i) {
+                if (aForeground[i] && aLabels[i] >= 0) aLabels[i] = aLabels[aLabels[i]];
+            }
+        });
+        runForEachSlab(numOfSlabs, s -> {
+            for (int i = slabStarts[s]; i < slabStarts[s + 1]; ++i) {
+                if (aForeground[i]) aLabels[i] = aFirstLabel + ~aLabels[i];
+            }
+        });
+
+        return numOfRoots[numOfSlabs];
+    }
+
+    /**
+     * First pass for pixels [aFrom, aTo) - only neighbours inside of this range are joined.
+     */
+    private void unionSlab(boolean[] aForeground, int[] aParents, int aFrom, int aTo) {
+        final int[] coords = indexToCoords(aFrom);
+        final int lastX = iDims[0] - 1;
+        boolean isInteriorRow = isInteriorRow(coords);
+        for (int i = aFrom; i < aTo; ++i) {
+            if (aForeground[i]) {
+                aParents[i] = i;
+                final boolean isInterior = isInteriorRow && coords[0] > 0 && coords[0] < lastX;
+                for (int n = 0; n < iBackOffsets.length; ++n) {
+                    final int neighbour = i + iBackIndexOffsets[n];
+                    if (neighbour >= aFrom && (isInterior || isInBound(coords, iBackOffsets[n])) && aForeground[neighbour]) {
+                        union(aParents, i, neighbour);
+                    }
+                }
+            }
+            if (nextCoords(coords)) isInteriorRow = isInteriorRow(coords);
+        }
+    }
+
+    /**
+     * Joins first plane of slab starting at aSlabStart with last plane of previous slab.
+     */
+    private void unionSeam(boolean[] aForeground, int[] aParents, int aSlabStart) {
+        final int[] coords = indexToCoords(aSlabStart);
+        for (int i = aSlabStart; i < aSlabStart + iPlaneSize; ++i) {
+            if (aForeground[i]) {
+                for (int n = 0; n < iBackOffsets.length; ++n) {
+                    final int neighbour = i + iBackIndexOffsets[n];
+                    if (iInPreviousPlane[n] && isInBound(coords, iBackOffsets[n]) && aForeground[neighbour]) {
+                        union(aParents, i, neighbour);
+                    }
+                }
+            }
+            nextCoords(coords);
+        }
+    }
+
+    /**
+     * Sets root as a parent of each foreground pixel in [aFrom, aTo). Other slabs may be flattened concurrently,
+     * it is safe since parents are only replaced by their ancestors and roots do not change.
+     * @return number of roots in range
+     */
+    private static int flattenSlab(boolean[] aForeground, int[] aParents, int aFrom, int aTo) {
+        int numOfRoots = 0;
+        for (int i = aFrom; i < aTo; ++i) {
+            if (!aForeground[i]) continue;
+            int root = aParents[i];
+            while (aParents[root] != root) root = aParents[root];
+            aParents[i] = root;
+            if (root == i) ++numOfRoots;
+        }
+        return numOfRoots;
+    }
+
+    private static int find(int[] aParents, int aIndex) {
+        int i = aIndex;
+        while (aParents[i] != i) {
+            // path halving
+            aParents[i] = aParents[aParents[i]];
+            i = aParents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Joins sets of given pixels, smaller root index always becomes root of joined set.
+     */
+    private static void union(int[] aParents, int aIndex1, int aIndex2) {
+        final int root1 = find(aParents, aIndex1);
+        final int root2 = find(aParents, aIndex2);
+        if (root1 < root2) aParents[root2] = root1;
+        else if (root2 < root1) aParents[root1] = root2;
+    }
+
+    private int[] indexToCoords(int aIndex) {
+        final int[] coords = new int[iDims.length];
+        int remainder = aIndex;
+        for (int d = 0; d < iDims.length; ++d) {
+            coords[d] = remainder % iDims[d];
+            remainder /= iDims[d];
+        }
+        return coords;
+    }
+
+    /**
+     * Moves coordinates to next pixel in memory order.
+     * @return true if new row was started
+     */
+    private boolean nextCoords(int[] aCoords) {
+        for (int d = 0; d < aCoords.length; ++d) {
+            if (++aCoords[d] < iDims[d]) return d > 0;
+            aCoords[d] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if all coordinates except first one are not on image border
+     */
+    private boolean isInteriorRow(int[] aCoords) {
+        for (int d = 1; d < aCoords.length; ++d) {
+            if (aCoords[d] <= 0 || aCoords[d] >= iDims[d] - 1) return false;
+        }
+        return true;
+    }
+
+    private boolean isInBound(int[] aCoords, int[] aOffset) {
+        for (int d = 0; d < aCoords.length; ++d) {
+            final int c = aCoords[d] + aOffset[d];
+            if (c < 0 || c >= iDims[d]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs aTask for every slab, concurrently if there is more than one slab.
+     */
+    private static void runForEachSlab(int aNumOfSlabs, IntConsumer aTask) {
+        if (aNumOfSlabs == 1) {
+            aTask.accept(0);
+            return;
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(aNumOfSlabs);
+        for (int s = 0; s < aNumOfSlabs; ++s) {
+            final int slab = s;
+            tasks.add(ForkJoinTask.adapt(() -> aTask.accept(slab)).fork());
+        }
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+}
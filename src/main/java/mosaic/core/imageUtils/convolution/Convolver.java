@@ -1,5 +1,9 @@
 package mosaic.core.imageUtils.convolution;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
 import ij.ImageStack;
 import ij.process.FloatProcessor;
 import mosaic.core.imageUtils.images.IntensityImage;
@@ -10,10 +14,16 @@ import mosaic.core.imageUtils.images.IntensityImage;
  * N is odd (1, 3, 5, ...). 
  * It uses extended edge handling where pixels outside boundaries have values same
  * as pixels on edge.
+ * Convolutions are calculated row by row (x, y and z passes read whole source rows so they are cache
+ * friendly) and for big enough images rows are processed in parallel.
  * @author Krzysztof Gonciarz <gonciarz@mpi-cbg.de>
  * TODO: extend convolution to any size of kernel 
  */
 public class Convolver {
+    // Minimum number of multiplications for which convolution is run in parallel
+    static final long ParallelCostThreshold = 1 << 18;
+    private static final int SlabsPerThread = 4;
+    
     private double[][][] iData; // format [z][y][x]
     
     private int iDepth;
@@ -215,86 +225,133 @@ public class Convolver {
     }
 
     public void x1D(Convolver aSrcConv, Kernel1D aKernel) {
-        int hw = aKernel.iHalfWidth;
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    iData[z][y][x] = 0;
-                    for (int k = -hw; k <= hw; ++k) {
-                        int xc = x + k; if (xc < 0) xc = 0; else if (xc >= iWidth) xc = iWidth - 1;
-                        iData[z][y][x] += aSrcConv.iData[z][y][xc] * aKernel.k[k+hw];
-                    }
+        final int hw = aKernel.iHalfWidth;
+        final double[] kernel = aKernel.k;
+        forEachRow(2 * hw + 1, iWidth + 2 * hw, (z, y, padded) -> {
+            extendRow(aSrcConv.iData[z][y], hw, padded);
+            final double[] out = iData[z][y];
+            for (int x = 0; x < iWidth; ++x) {
+                double sum = 0;
+                for (int k = 0; k <= 2 * hw; ++k) {
+                    sum += padded[x + k] * kernel[k];
                 }
+                out[x] = sum;
             }
-        }
+        });
     }
     
     public void y1D(Convolver aSrcConv, Kernel1D aKernel) {
-        int hw = aKernel.iHalfWidth;
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    iData[z][y][x] = 0;
-                    for (int k = -hw; k <= hw; ++k) {
-                        int yc = y + k; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
-                        iData[z][y][x] += aSrcConv.iData[z][yc][x] * aKernel.k[k+hw];
-                    }
-                }
+        final int hw = aKernel.iHalfWidth;
+        final double[] kernel = aKernel.k;
+        forEachRow(2 * hw + 1, 0, (z, y, buffer) -> {
+            final double[] out = iData[z][y];
+            Arrays.fill(out, 0);
+            for (int k = -hw; k <= hw; ++k) {
+                int yc = y + k; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
+                addScaledRow(aSrcConv.iData[z][yc], 0, kernel[k + hw], out);
             }
-        }
+        });
     }
     
     public void z1D(Convolver aSrcConv, Kernel1D aKernel) {
-        int hw = aKernel.iHalfWidth;
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    iData[z][y][x] = 0;
-                    for (int k = -hw; k <= hw; ++k) {
-                        int zc = z + k; if (zc < 0) zc = 0; else if (zc >= iDepth) zc = iDepth - 1;
-                        iData[z][y][x] += aSrcConv.iData[zc][y][x] * aKernel.k[k+hw];
-                    }
-                }
+        final int hw = aKernel.iHalfWidth;
+        final double[] kernel = aKernel.k;
+        forEachRow(2 * hw + 1, 0, (z, y, buffer) -> {
+            final double[] out = iData[z][y];
+            Arrays.fill(out, 0);
+            for (int k = -hw; k <= hw; ++k) {
+                int zc = z + k; if (zc < 0) zc = 0; else if (zc >= iDepth) zc = iDepth - 1;
+                addScaledRow(aSrcConv.iData[zc][y], 0, kernel[k + hw], out);
             }
-        }
+        });
     }
     
     public void xy2D(Convolver aSrcConv, Kernel2D aKernel) {
-        int hw = aKernel.iHalfWidth;
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    iData[z][y][x] = 0;
-                    for (int m = -hw; m <= hw; ++m) {
-                        int yc = y + m; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
-                        for (int k = -hw; k <= hw; ++k) {
-                            int xc = x + k; if (xc < 0) xc = 0; else if (xc >= iWidth) xc = iWidth - 1;
-                            iData[z][y][x] += aSrcConv.iData[z][yc][xc] * aKernel.k[m+hw][k+hw];
-                        }
-                    }
+        final int hw = aKernel.iHalfWidth;
+        final double[][] kernel = aKernel.k;
+        forEachRow((2 * hw + 1) * (2 * hw + 1), iWidth + 2 * hw, (z, y, padded) -> {
+            final double[] out = iData[z][y];
+            Arrays.fill(out, 0);
+            for (int m = -hw; m <= hw; ++m) {
+                int yc = y + m; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
+                extendRow(aSrcConv.iData[z][yc], hw, padded);
+                for (int k = 0; k <= 2 * hw; ++k) {
+                    addScaledRow(padded, k, kernel[m + hw][k], out);
                 }
             }
-        }
+        });
     }
     
     public void xyz3D(Convolver aSrcConv, Kernel3D aKernel) {
-        int hw = aKernel.iHalfWidth;
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    iData[z][y][x] = 0;
-                    for (int n = -hw; n <= hw; ++n) {
-                        int zc = z + n; if (zc < 0) zc = 0; else if (zc >= iDepth) zc = iDepth - 1;
-                        for (int m = -hw; m <= hw; ++m) {
-                            int yc = y + m; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
-                            for (int k = -hw; k <= hw; ++k) {
-                                int xc = x + k; if (xc < 0) xc = 0; else if (xc >= iWidth) xc = iWidth - 1;
-                                iData[z][y][x] += aSrcConv.iData[zc][yc][xc] * aKernel.k[n+hw][m+hw][k+hw];
-                            }
-                        }
+        final int hw = aKernel.iHalfWidth;
+        final double[][][] kernel = aKernel.k;
+        forEachRow((2 * hw + 1) * (2 * hw + 1) * (2 * hw + 1), iWidth + 2 * hw, (z, y, padded) -> {
+            final double[] out = iData[z][y];
+            Arrays.fill(out, 0);
+            for (int n = -hw; n <= hw; ++n) {
+                int zc = z + n; if (zc < 0) zc = 0; else if (zc >= iDepth) zc = iDepth - 1;
+                for (int m = -hw; m <= hw; ++m) {
+                    int yc = y + m; if (yc < 0) yc = 0; else if (yc >= iHeight) yc = iHeight - 1;
+                    extendRow(aSrcConv.iData[zc][yc], hw, padded);
+                    for (int k = 0; k <= 2 * hw; ++k) {
+                        addScaledRow(padded, k, kernel[n + hw][m + hw][k], out);
                     }
                 }
             }
+        });
+    }
+    
+    /**
+     * Operation calculating one output row (z, y). Buffer is private for the thread running operation.
+     */
+    private interface RowOperation {
+        void apply(int aZ, int aY, double[] aBuffer);
+    }
+    
+    /**
+     * Runs operation for all rows of data. Rows are split into contiguous ranges (slabs) which are 
+     * processed in parallel in common fork-join pool if amount of work is big enough.
+     * Each row is calculated always in same way so result does not depend on number of threads.
+     * @param aCostPerPixel - number of multiplications needed for each output pixel 
+     * @param aBufferLength - length of row buffer needed by operation
+     */
+    private void forEachRow(int aCostPerPixel, int aBufferLength, RowOperation aOperation) {
+        final int numOfRows = iDepth * iHeight;
+        final long cost = (long) numOfRows * iWidth * aCostPerPixel;
+        final int numOfSlabs = (cost < ParallelCostThreshold) ? 1 : Math.min(numOfRows, ForkJoinPool.getCommonPoolParallelism() * SlabsPerThread);
+        if (numOfSlabs <= 1) {
+            processRows(0, numOfRows, aBufferLength, aOperation);
+            return;
+        }
+        IntStream.range(0, numOfSlabs).parallel().forEach(slab -> processRows((int) ((long) slab * numOfRows / numOfSlabs), 
+                                                                               (int) ((long) (slab + 1) * numOfRows / numOfSlabs), 
+                                                                               aBufferLength, aOperation));
+    }
+    
+    private void processRows(int aFirstRow, int aEndRow, int aBufferLength, RowOperation aOperation) {
+        final double[] buffer = new double[aBufferLength];
+        for (int row = aFirstRow; row < aEndRow; ++row) {
+            aOperation.apply(row / iHeight, row % iHeight, buffer);
+        }
+    }
+    
+    /**
+     * Copies row into aPadded with aHalfWidth edge values on both sides (extended edge handling) so 
+     * convolution along x needs no bounds checks.
+     */
+    private static void extendRow(double[] aRow, int aHalfWidth, double[] aPadded) {
+        final int width = aRow.length;
+        Arrays.fill(aPadded, 0, aHalfWidth, aRow[0]);
+        System.arraycopy(aRow, 0, aPadded, aHalfWidth, width);
+        Arrays.fill(aPadded, aHalfWidth + width, width + 2 * aHalfWidth, aRow[width - 1]);
+    }
+    
+    /**
+     * aOut[x] += aRow[aOffset + x] * aWeight for whole output row
+     */
+    private static void addScaledRow(double[] aRow, int aOffset, double aWeight, double[] aOut) {
+        for (int x = 0; x < aOut.length; ++x) {
+            aOut[x] += aRow[aOffset + x] * aWeight;
         }
     }
 
@@ -326,35 +383,33 @@ public class Convolver {
         int kw = aKernel.iHalfWidth;
         
         // Image still can have depth for 2D. In such case each layer is treated as a seperate 2D image.
-        for (int z = 0; z < iDepth; z++) {
-            for (int y = 0; y < iHeight; y++) {
-                for (int x = 0; x < iWidth; x++) {
-                    if (x >= kw && y >= kw && x < iWidth - kw && y < iHeight - kw) {
-                        double dx = 0;
-                        double dy = 0;
-                        for (int l = -kw; l <= kw; l++) {
-                            int kx = l + kw;
-                            int vy = y + l;
-//                            int vy = y + l; if (vy < 0) vy = 0; else if (vy >= iHeight) vy = iHeight - 1;
-                            for (int k = -kw; k <= kw; k++) {
-                                int ky = k + kw;
-                                int vx = x + k;
-//                                int vx = x + k; if (vx < 0) vx = 0; else if (vx >= iWidth) vx = iWidth - 1;
-                                double val = volume[z][vy][vx];
-                                dx += val * kernel[kx][ky];
-                                dy += val * kernel[ky][kx];
-                            }
-                        }
-                        // TODO: remove (float) cast, it is kept for test currently
-                        //       since it is compared with other sobel output
-                        iData[z][y][x] = (float)Math.sqrt(dx*dx + dy*dy);
-                    }
-                    else {
-                        iData[z][y][x] = 0;
+        forEachRow(2 * (2 * kw + 1) * (2 * kw + 1), 0, (z, y, buffer) -> {
+            final double[] out = iData[z][y];
+            if (y < kw || y >= iHeight - kw) {
+                Arrays.fill(out, 0);
+                return;
+            }
+            for (int x = 0; x < Math.min(kw, iWidth); x++) out[x] = 0;
+            for (int x = Math.max(iWidth - kw, kw); x < iWidth; x++) out[x] = 0;
+            for (int x = kw; x < iWidth - kw; x++) {
+                double dx = 0;
+                double dy = 0;
+                for (int l = -kw; l <= kw; l++) {
+                    int kx = l + kw;
+                    int vy = y + l;
+                    for (int k = -kw; k <= kw; k++) {
+                        int ky = k + kw;
+                        int vx = x + k;
+                        double val = volume[z][vy][vx];
+                        dx += val * kernel[kx][ky];
+                        dy += val * kernel[ky][kx];
                     }
                 }
+                // TODO: remove (float) cast, it is kept for test currently
+                //       since it is compared with other sobel output
+                out[x] = (float)Math.sqrt(dx*dx + dy*dy);
             }
-        }
+        });
     }
     
     public void sobel3D(Convolver aSrcConv) {
@@ -398,39 +453,39 @@ public class Convolver {
         double[][][] kernel = aKernel.k;
         int kernelWidth = aKernel.iHalfWidth;
         
-        for (int z = 0; z < iDepth; ++z) {
-            for (int y = 0; y < iHeight; ++y) {
-                for (int x = 0; x < iWidth; ++x) {
-                    if (x >= kernelWidth && y >= kernelWidth && z >= kernelWidth && x < iWidth - kernelWidth && y < iHeight - kernelWidth && z < iDepth - kernelWidth) {
-                        double dx = 0;
-                        double dy = 0;
-                        double dz = 0;
-                        for (int m = -kernelWidth; m <= kernelWidth; ++m) {
-                            int kx = m + kernelWidth;
-                            int vz = z +m;
-                            for (int l = -kernelWidth; l <= kernelWidth; ++l) {
-                                int ky = l + kernelWidth;
-                                int vy = y + l;
-                                for (int k = -kernelWidth; k <= kernelWidth; ++k) {
-                                    int kz = k + kernelWidth;
-                                    int vx = x + k;
-                                    double val = volume[vz][vy][vx];
-                                    
-                                    dx += val * kernel[kx][ky][kz];
-                                    dy += val * kernel[kx][kz][ky];
-                                    dz += val * kernel[kz][ky][kx];
-                                }
-                            }
+        forEachRow(3 * (2 * kernelWidth + 1) * (2 * kernelWidth + 1) * (2 * kernelWidth + 1), 0, (z, y, buffer) -> {
+            final double[] out = iData[z][y];
+            if (z < kernelWidth || z >= iDepth - kernelWidth || y < kernelWidth || y >= iHeight - kernelWidth) {
+                Arrays.fill(out, 0);
+                return;
+            }
+            for (int x = 0; x < Math.min(kernelWidth, iWidth); ++x) out[x] = 0;
+            for (int x = Math.max(iWidth - kernelWidth, kernelWidth); x < iWidth; ++x) out[x] = 0;
+            for (int x = kernelWidth; x < iWidth - kernelWidth; ++x) {
+                double dx = 0;
+                double dy = 0;
+                double dz = 0;
+                for (int m = -kernelWidth; m <= kernelWidth; ++m) {
+                    int kx = m + kernelWidth;
+                    int vz = z +m;
+                    for (int l = -kernelWidth; l <= kernelWidth; ++l) {
+                        int ky = l + kernelWidth;
+                        int vy = y + l;
+                        for (int k = -kernelWidth; k <= kernelWidth; ++k) {
+                            int kz = k + kernelWidth;
+                            int vx = x + k;
+                            double val = volume[vz][vy][vx];
+                            
+                            dx += val * kernel[kx][ky][kz];
+                            dy += val * kernel[kx][kz][ky];
+                            dz += val * kernel[kz][ky][kx];
                         }
-                        // TODO: remove (float) cast, it is kept for test currently
-                        //       since it is compared with other sobel output
-                        iData[z][y][x] = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
                     }
-                    else {
-                        iData[z][y][x] = 0;
-                    }
-                }        
+                }
+                // TODO: remove (float) cast, it is kept for test currently
+                //       since it is compared with other sobel output
+                out[x] = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
             }
-        }
+        });
     }
 }
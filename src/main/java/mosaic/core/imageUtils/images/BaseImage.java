@@ -110,6 +110,10 @@ abstract public class BaseImage {
         return iIterator.indexToPoint(aIndex);
     }
     
+    public void indexToPoint(int aIndex, Point aPoint) {
+        iIterator.indexToPoint(aIndex, aPoint);
+    }
+    
     /**
      * Gets dimensions from input image 
      * @param aImage input image
@@ -18,9 +18,8 @@ import ij.gui.Roi;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ij.process.StackStatistics;
-import mosaic.core.binarize.BinarizedIntervalLabelImage;
+import mosaic.core.imageUtils.ConnectedComponents;
 import mosaic.core.imageUtils.Connectivity;
-import mosaic.core.imageUtils.FloodFill;
 import mosaic.core.imageUtils.Point;
 import mosaic.core.imageUtils.iterators.SpaceIterator;
 import mosaic.core.utils.MosaicUtils;
@@ -328,46 +327,26 @@ public class LabelImage extends BaseImage
      * @return 
      */
     public Set<Integer> connectedComponents() {
-        final HashSet<Integer> oldLabels = new HashSet<Integer>();
         final int size = getSize();
-        int minLabel = Integer.MAX_VALUE;
+        final boolean[] foreground = new boolean[size];
         int maxLabel = Integer.MIN_VALUE;
-        // what are the old labels?
+        // what are the old labels? (all not special labels are considered as one foreground)
         for (int i = 0; i < size; ++i) {
             final int l = getLabel(i);
             if (isSpecialLabel(l)) {
                 continue;
             }
-            if (l < minLabel) minLabel = l;
             if (l > maxLabel) maxLabel = l;
-            oldLabels.add(l);
+            foreground[i] = true;
         }
 
+        // relabel connected components, labels can be also negative, in such case start from 1
+        final int firstLabel = Math.max(maxLabel + 1, 1);
+        final int numOfComponents = new ConnectedComponents(getDimensions(), iConnectivityFG).label(foreground, iDataLabel, firstLabel);
+
         final Set<Integer> newLabels = new HashSet<Integer>();
-        // relabel connected components
-        final BinarizedIntervalLabelImage aMultiThsFunctionPtr = new BinarizedIntervalLabelImage(this);
-        if (minLabel < BGLabel && maxLabel > BGLabel) {
-            // Case when we initialize with previous segmentation result (it contains +/- label values and we cannot
-            // take BGLabel into range of threshold).
-            aMultiThsFunctionPtr.AddThresholdBetween(BGLabel + 1, maxLabel);
-            aMultiThsFunctionPtr.AddThresholdBetween(minLabel, BGLabel - 1);
-        }
-        else {
-            aMultiThsFunctionPtr.AddThresholdBetween(minLabel, maxLabel);
-        }
-        // labels can be also negative, in such case start from 1
-        int newLabel = Math.max(maxLabel + 1, 1);
-        for (int idx = 0; idx < size; ++idx) {
-            final int label = getLabel(idx);
-            if (oldLabels.contains(label)) {
-                final FloodFill ff = new FloodFill(this, aMultiThsFunctionPtr, indexToPoint(idx));
-                // set region to new label
-                for (final int p : ff) {
-                    setLabel(p, newLabel);
-                }
-                newLabels.add(newLabel);
-                ++newLabel;
-            }
+        for (int i = 0; i < numOfComponents; ++i) {
+            newLabels.add(firstLabel + i);
         }
         return newLabels;
     }
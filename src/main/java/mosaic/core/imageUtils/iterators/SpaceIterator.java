@@ -68,6 +68,19 @@ public class SpaceIterator {
         return new Point(x);
     }
 
+    /**
+     * Converts an integer index into a Point index without allocation
+     * @param aIndex integer index
+     * @param aPoint output point (with same number of dimensions as this Iterator), its coordinates are overwritten
+     */
+    public void indexToPoint(int aIndex, Point aPoint) {
+        final int x[] = aPoint.iCoords;
+        for (int i = 0; i < iNumOfDimensions; ++i) {
+            x[i] = aIndex % iDimensions[i];
+            aIndex = aIndex / iDimensions[i];
+        }
+    }
+
     /**
      * Check is the point is inside the boundary
      * @param aPoint Point index
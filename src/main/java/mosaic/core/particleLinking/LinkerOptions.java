@@ -31,4 +31,8 @@ public class LinkerOptions {
     
     // dynamic cost term (how much objects change their dynamic from a given model)
     public float lDynamic = 1.0f;
+    
+    // Use sparse link costs - only pairs of particles which can be linked are considered (found with spatial grid)
+    // instead of full cost matrix. Used only if all cost terms are non-negative.
+    public boolean sparseCosts = false;
 }
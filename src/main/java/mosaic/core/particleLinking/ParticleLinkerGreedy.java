@@ -1,6 +1,7 @@
 package mosaic.core.particleLinking;
 
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
@@ -14,6 +15,11 @@ public class ParticleLinkerGreedy extends ParticleLinker {
 
     @Override
     protected void link(Vector<Particle> p1, Vector<Particle> p2, LinkerOptions aLinkOpts, int currFrame, final int NumOfFrames, int numOfParticles, int numOfLinkParticles, int currLinkLevel, final float maxCost) {
+        if (aLinkOpts.sparseCosts && SparseLinkCosts.canBeUsed(aLinkOpts)) {
+            linkSparse(p1, p2, aLinkOpts, currFrame, NumOfFrames, numOfParticles, numOfLinkParticles, currLinkLevel, maxCost);
+            return;
+        }
+        
         // --------------------------------------------------------------------------------
         logInfo("Initializing cost matrix: " + (currFrame + 1) + "/" + NumOfFrames + " with frame: " + (currFrame + currLinkLevel + 1));
         float[][] cost = initCostMatrix(aLinkOpts, p1, p2, currLinkLevel, maxCost);
@@ -39,6 +45,138 @@ public class ParticleLinkerGreedy extends ParticleLinker {
         linkParticles(aLinkOpts, p1, p2, currLinkLevel, gY, numOfParticles, numOfLinkParticles);
     }
 
+    /**
+     * Same as dense version but cost matrix is sparse (only possible links are stored) and relation matrix is not 
+     * created at all - it is fully described by gX/gY since every particle (except dummies) has exactly one link.
+     */
+    private void linkSparse(Vector<Particle> p1, Vector<Particle> p2, LinkerOptions aLinkOpts, int currFrame, final int NumOfFrames, int numOfParticles, int numOfLinkParticles, int currLinkLevel, final float maxCost) {
+        // --------------------------------------------------------------------------------
+        logInfo("Initializing sparse costs: " + (currFrame + 1) + "/" + NumOfFrames + " with frame: " + (currFrame + currLinkLevel + 1));
+        SparseLinkCosts cost = new SparseLinkCosts(this, p1, p2, aLinkOpts, currLinkLevel, maxCost);
+
+        // --------------------------------------------------------------------------------
+        logInfo("Initializing Relation: " + (currFrame + 1) + "/" + NumOfFrames);
+        int[] gX = new int[numOfLinkParticles + 1];
+        int[] gY = new int[numOfParticles + 1];
+        initSparseRelation(numOfParticles, numOfLinkParticles, maxCost, cost, gX, gY);
+
+        // --------------------------------------------------------------------------------
+        logInfo("Optimizing Relation: " + (currFrame + 1) + "/" + NumOfFrames);
+        optimizeSparseRelation(numOfParticles, numOfLinkParticles, maxCost, cost, gX, gY);
+
+        // --------------------------------------------------------------------------------
+        logInfo("Linking particles: " + (currFrame + 1) + "/" + NumOfFrames);
+        linkParticles(aLinkOpts, p1, p2, currLinkLevel, gY, numOfParticles, numOfLinkParticles);
+    }
+
+    /**
+     * Sparse version of {@link #initRelationMatrix(int, int, float, float[][])} followed by {@link #initHelperVectors(int, int, boolean[][])}
+     */
+    private void initSparseRelation(int aNumOfParticles, int aNumOfLinkParticles, final float aMaxCost, SparseLinkCosts aCosts, int[] gX, int[] gY) {
+        boolean[] isColumnAssigned = new boolean[aNumOfLinkParticles];
+
+        for (int i = 0; i < aNumOfParticles; ++i) {
+            IJ.showProgress(i, aNumOfParticles);
+            double min = aMaxCost;
+            int prev = -1;
+            for (int e = aCosts.rowStart(i); e < aCosts.rowEnd(i); ++e) {
+                final int j = aCosts.entryColumn(e);
+                if (!isColumnAssigned[j] && aCosts.entryCost(e) < min) {
+                    min = aCosts.entryCost(e);
+                    if (prev >= 0) {
+                        isColumnAssigned[prev] = false;
+                    }
+                    isColumnAssigned[j] = true;
+                    prev = j;
+                }
+            }
+            // Link it to dummy particle if nothing better found.
+            gY[i] = (min == aMaxCost) ? aNumOfLinkParticles : prev;
+        }
+
+        // Not linked columns are linked to 'from' dummy particle
+        Arrays.fill(gX, aNumOfParticles);
+        for (int i = 0; i < aNumOfParticles; ++i) {
+            if (gY[i] != aNumOfLinkParticles) {
+                gX[gY[i]] = i;
+            }
+        }
+        // Link dummy to dummy
+        gX[aNumOfLinkParticles] = aNumOfParticles;
+        gY[aNumOfParticles] = aNumOfLinkParticles;
+    }
+
+    /**
+     * Sparse version of {@link #optimizeRelationMatrix(int, int, float, float[][], boolean[][], int[], int[])}. Only
+     * possible links are checked (stored costs and links with dummy particles) in the same order as in dense version,
+     * so the result is the same.
+     */
+    private void optimizeSparseRelation(int aNumOfParticles, int aNumOfLinkParticles, final float aMaxCost, SparseLinkCosts aCosts, int[] gX, int[] gY) {
+        while (true) {
+            double minDeltaCost = 0.0;
+            int iOld = -1, jOld = -1;
+            
+            // Find the best possible optimization in current loop
+            for (int i = 0; i < aNumOfParticles + 1; ++i) {
+                final int rowStart = (i < aNumOfParticles) ? aCosts.rowStart(i) : 0;
+                // Row of 'from' dummy has all link particles, other rows have stored costs and 'to' dummy particle at the end
+                final int numOfEntries = (i < aNumOfParticles) ? aCosts.rowEnd(i) - rowStart + 1 : aNumOfLinkParticles;
+                for (int e = 0; e < numOfEntries; ++e) {
+                    final int j;
+                    final float costIJ;
+                    if (i < aNumOfParticles && e < numOfEntries - 1) {
+                        j = aCosts.entryColumn(rowStart + e);
+                        costIJ = aCosts.entryCost(rowStart + e);
+                    }
+                    else {
+                        j = (i < aNumOfParticles) ? aNumOfLinkParticles : e;
+                        costIJ = aMaxCost;
+                    }
+                    final boolean isLinked = (i < aNumOfParticles) ? gY[i] == j : gX[j] == i;
+                    if (!isLinked) {
+                        int x = gX[j];
+                        int y = gY[i];
+
+                        // Calculate the reduced cost of switching links as z = (new cost) - (old cost)
+                        double newDeltaCost = (costIJ + sparseCost(aCosts, aNumOfParticles, aNumOfLinkParticles, aMaxCost, x, y)) - 
+                                              (sparseCost(aCosts, aNumOfParticles, aNumOfLinkParticles, aMaxCost, i, y) + sparseCost(aCosts, aNumOfParticles, aNumOfLinkParticles, aMaxCost, x, j));
+                        
+                        if (newDeltaCost < minDeltaCost) {
+                            minDeltaCost = newDeltaCost;
+                            iOld = i;
+                            jOld = j;
+                        }
+                    }
+                }
+            }
+            
+            // If there are no possible optimizations break loop.
+            if (minDeltaCost >= 0) break;
+            
+            // relink to new minimized cost
+            final int xOld = gX[jOld];
+            final int yOld = gY[iOld];
+            gY[iOld] = jOld;
+            gX[jOld] = iOld;
+            gY[xOld] = yOld;
+            gX[yOld] = xOld;
+            // ensure the dummies still map to each other
+            gX[aNumOfLinkParticles] = aNumOfParticles;
+            gY[aNumOfParticles] = aNumOfLinkParticles;
+        }
+    }
+
+    private static float sparseCost(SparseLinkCosts aCosts, int aNumOfParticles, int aNumOfLinkParticles, final float aMaxCost, int aRow, int aColumn) {
+        if (aRow == aNumOfParticles) {
+            // right/low corner - dummy particles always linking to each other
+            return (aColumn == aNumOfLinkParticles) ? 0.0f : aMaxCost;
+        }
+        if (aColumn == aNumOfLinkParticles) {
+            return aMaxCost;
+        }
+        return aCosts.cost(aRow, aColumn);
+    }
+
     private void linkParticles(LinkerOptions aLinkOpts, Vector<Particle> p1, Vector<Particle> p2, int aLinkLevel, int[] gY, int aNumOfParticles, int aNumOfLinkParticles) {
         for (int i = 0; i < aNumOfParticles; ++i) {
             int j = gY[i];
@@ -14,6 +14,11 @@ public class ParticleLinkerHungarian extends ParticleLinker {
     
     @Override
     protected void link(Vector<Particle> p1, Vector<Particle> p2, LinkerOptions aLinkOpts, int currFrame, int NumOfFrames, int numOfParticles, int numOfLinkParticles, int currLinkLevel, float maxCost) {
+        if (aLinkOpts.sparseCosts && SparseLinkCosts.canBeUsed(aLinkOpts)) {
+            linkSparse(p1, p2, aLinkOpts, currFrame, NumOfFrames, numOfParticles, numOfLinkParticles, currLinkLevel, maxCost);
+            return;
+        }
+        
         // --------------------------------------------------------------------------------
         logInfo("Initializing cost: " + (currFrame + 1) + "/" + NumOfFrames + " with frame: " + (currFrame + currLinkLevel + 1));
         int n = numOfParticles > numOfLinkParticles ? numOfParticles : numOfLinkParticles;
@@ -49,6 +54,93 @@ public class ParticleLinkerHungarian extends ParticleLinker {
         }
     }
     
+    /**
+     * Links particles using sparse costs. Link with cost bigger than maxCost is never a part of optimal matching
+     * (linking both particles to dummies is cheaper), so particles connected by possible links form independent
+     * groups. Each group is optimized separately exactly as in dense version.
+     */
+    private void linkSparse(Vector<Particle> p1, Vector<Particle> p2, LinkerOptions aLinkOpts, int currFrame, int NumOfFrames, int numOfParticles, int numOfLinkParticles, int currLinkLevel, float maxCost) {
+        // --------------------------------------------------------------------------------
+        logInfo("Initializing sparse costs: " + (currFrame + 1) + "/" + NumOfFrames + " with frame: " + (currFrame + currLinkLevel + 1));
+        final SparseLinkCosts costs = new SparseLinkCosts(this, p1, p2, aLinkOpts, currLinkLevel, maxCost);
+
+        // Find groups of connected particles (nodes: particles followed by link particles)
+        final int numOfNodes = numOfParticles + numOfLinkParticles;
+        final int[] parent = new int[numOfNodes];
+        for (int i = 0; i < numOfNodes; ++i) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < numOfParticles; ++i) {
+            for (int e = costs.rowStart(i); e < costs.rowEnd(i); ++e) {
+                final int a = findRoot(parent, i);
+                final int b = findRoot(parent, numOfParticles + costs.entryColumn(e));
+                if (a != b) parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+
+        // Nodes of each group sorted by root (and by index within group)
+        final int[] groupSize = new int[numOfNodes + 1];
+        for (int i = 0; i < numOfNodes; ++i) {
+            groupSize[findRoot(parent, i) + 1]++;
+        }
+        for (int i = 0; i < numOfNodes; ++i) {
+            groupSize[i + 1] += groupSize[i];
+        }
+        final int[] groupStart = groupSize.clone();
+        final int[] nodes = new int[numOfNodes];
+        for (int i = 0; i < numOfNodes; ++i) {
+            nodes[groupStart[findRoot(parent, i)]++] = i;
+        }
+
+        // --------------------------------------------------------------------------------
+        logInfo("Optimizing: " + (currFrame + 1) + "/" + NumOfFrames);
+        final int[] rows = new int[numOfParticles];
+        final int[] columns = new int[numOfLinkParticles];
+        for (int root = 0; root < numOfNodes; ++root) {
+            int numOfRows = 0;
+            int numOfColumns = 0;
+            for (int k = groupSize[root]; k < groupSize[root + 1]; ++k) {
+                if (nodes[k] < numOfParticles) rows[numOfRows++] = nodes[k]; 
+                else columns[numOfColumns++] = nodes[k] - numOfParticles;
+            }
+            if (numOfRows == 0 || numOfColumns == 0) continue;
+
+            int n = numOfRows > numOfColumns ? numOfRows : numOfColumns;
+            n += numOfRows;
+            final BipartiteMatcher bm = new BipartiteMatcher(n);
+            for (int i = 0; i < n; ++i) {
+                for (int j = 0; j < n; ++j) {
+                    if (i < numOfRows && j < numOfColumns) {
+                        double cost = costs.cost(rows[i], columns[j]);
+                        bm.setWeight(i, j, -cost); // matcher is maximizing, therefore negative cost is applied.
+                    }
+                    else {
+                        bm.setWeight(i, j, -maxCost);
+                    }
+                }
+            }
+            final int[] matchingResult = bm.getMatching();
+
+            for (int i = 0; i < numOfRows; ++i) {
+                // if not linked to dummy particle
+                if (matchingResult[i] < numOfColumns && matchingResult[i] >= 0) {
+                    Particle pA = p1.elementAt(rows[i]);
+                    Particle pB = p2.elementAt(columns[matchingResult[i]]);
+                    pA.next[currLinkLevel - 1] = columns[matchingResult[i]]; // levels are in range 1..LinkRange
+                    handleCostFeatures(pA, pB, aLinkOpts, currLinkLevel); 
+                }
+            }
+        }
+    }
+
+    private static int findRoot(int[] aParent, int aNode) {
+        while (aParent[aNode] != aNode) {
+            aParent[aNode] = aParent[aParent[aNode]];
+            aNode = aParent[aNode];
+        }
+        return aNode;
+    }
+
     private void logInfo(String aLogStr) {
         IJ.showStatus(aLogStr);
         logger.info(aLogStr);
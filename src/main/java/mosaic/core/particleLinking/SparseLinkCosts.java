@@ -0,0 +1,191 @@
+package mosaic.core.particleLinking;
+
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import mosaic.core.detection.Particle;
+
+
+/**
+ * Sparse link costs between particles of two frames. Only pairs with cost not bigger than max cost
+ * (the only ones which can be linked) are stored. They are found with a uniform grid built on particles
+ * of second frame, so dense (numOfParticles x numOfLinkParticles) cost matrix is never created.
+ * Costs are kept row by row (compressed rows) with columns (link particles) sorted ascending.
+ * Cost of any pair not stored is calculated on demand.
+ */
+class SparseLinkCosts {
+    // Maximum number of grid cells in each dimension (cell coordinates are packed into one long key)
+    private static final int MaxCellsPerDim = 1 << 20;
+    private static final int CellBits = 21;
+
+    private final ParticleLinker iLinker;
+    private final Vector<Particle> iParticles;
+    private final Vector<Particle> iLinkParticles;
+    private final LinkerOptions iLinkOpts;
+    private final int iLinkLevel;
+
+    private final int[] iRowStart;
+    private int[] iColumns;
+    private float[] iCosts;
+
+    /**
+     * Sparse costs can be used only if every term of cost function is non-negative. Then cost of a pair
+     * is not smaller than its squared distance multiplied by lSpace and all pairs with cost not bigger than
+     * max cost lie within known radius.
+     */
+    static boolean canBeUsed(LinkerOptions aLinkOpts) {
+        return aLinkOpts.lSpace > 0 && aLinkOpts.lFeature >= 0 && aLinkOpts.lDynamic >= 0;
+    }
+
+    SparseLinkCosts(ParticleLinker aLinker, Vector<Particle> aParticles, Vector<Particle> aLinkParticles, LinkerOptions aLinkOpts, int aLinkLevel, float aMaxCost) {
+        iLinker = aLinker;
+        iParticles = aParticles;
+        iLinkParticles = aLinkParticles;
+        iLinkOpts = aLinkOpts;
+        iLinkLevel = aLinkLevel;
+
+        final int numOfParticles = aParticles.size();
+        iRowStart = new int[numOfParticles + 1];
+        iColumns = new int[Math.max(16, numOfParticles)];
+        iCosts = new float[iColumns.length];
+
+        final int numOfLinkParticles = aLinkParticles.size();
+        if (numOfLinkParticles == 0) return;
+
+        // Cell is a bit bigger than search radius so rounding of float costs can never hide a linkable pair
+        final double radius = Math.sqrt(aMaxCost / aLinkOpts.lSpace);
+        final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (final Particle p : aLinkParticles) {
+            final float[] pos = {p.iX, p.iY, p.iZ};
+            for (int d = 0; d < 3; ++d) {
+                min[d] = Math.min(min[d], pos[d]);
+                max[d] = Math.max(max[d], pos[d]);
+            }
+        }
+        double cellSize = radius * 1.01;
+        for (int d = 0; d < 3; ++d) {
+            cellSize = Math.max(cellSize, (max[d] - min[d]) / (MaxCellsPerDim - 1));
+        }
+        if (cellSize == 0) cellSize = 1;
+
+        // Sort link particles by their cell keys
+        final long[] keys = new long[numOfLinkParticles];
+        final Integer[] order = new Integer[numOfLinkParticles];
+        for (int j = 0; j < numOfLinkParticles; ++j) {
+            final Particle p = aLinkParticles.elementAt(j);
+            keys[j] = cellKey(cell(p.iX, min[0], cellSize), cell(p.iY, min[1], cellSize), cell(p.iZ, min[2], cellSize));
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        final long[] sortedKeys = new long[numOfLinkParticles];
+        final int[] sortedIndices = new int[numOfLinkParticles];
+        for (int k = 0; k < numOfLinkParticles; ++k) {
+            sortedIndices[k] = order[k];
+            sortedKeys[k] = keys[order[k]];
+        }
+
+        // For each particle check link particles in neighbour cells
+        int numOfCosts = 0;
+        for (int i = 0; i < numOfParticles; ++i) {
+            iRowStart[i] = numOfCosts;
+            final Particle pA = aParticles.elementAt(i);
+            final long cx = cell(pA.iX, min[0], cellSize);
+            final long cy = cell(pA.iY, min[1], cellSize);
+            final long cz = cell(pA.iZ, min[2], cellSize);
+            for (long z = cz - 1; z <= cz + 1; ++z) {
+                for (long y = cy - 1; y <= cy + 1; ++y) {
+                    for (long x = cx - 1; x <= cx + 1; ++x) {
+                        if (x < 0 || y < 0 || z < 0 || x >= MaxCellsPerDim || y >= MaxCellsPerDim || z >= MaxCellsPerDim) continue;
+                        final long key = cellKey(x, y, z);
+                        for (int k = lowerBound(sortedKeys, key); k < numOfLinkParticles && sortedKeys[k] == key; ++k) {
+                            final int j = sortedIndices[k];
+                            final float cost = aLinker.linkCost(pA, aLinkParticles.elementAt(j), aLinkOpts, aLinkLevel);
+                            if (cost <= aMaxCost) {
+                                if (numOfCosts == iColumns.length) {
+                                    iColumns = Arrays.copyOf(iColumns, numOfCosts * 2);
+                                    iCosts = Arrays.copyOf(iCosts, numOfCosts * 2);
+                                }
+                                iColumns[numOfCosts] = j;
+                                iCosts[numOfCosts] = cost;
+                                numOfCosts++;
+                            }
+                        }
+                    }
+                }
+            }
+            sortRow(iRowStart[i], numOfCosts);
+        }
+        iRowStart[numOfParticles] = numOfCosts;
+    }
+
+    private static long cell(float aCoord, float aMin, double aCellSize) {
+        // Particles of first frame may lie outside of grid, they get cells out of range
+        return (long) Math.floor((aCoord - aMin) / aCellSize);
+    }
+
+    private static long cellKey(long aX, long aY, long aZ) {
+        return (aZ << (2 * CellBits)) | (aY << CellBits) | aX;
+    }
+
+    private static int lowerBound(long[] aKeys, long aKey) {
+        int lo = 0;
+        int hi = aKeys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (aKeys[mid] < aKey) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Sorts entries of row by columns. Column and cost are packed into one long (column in upper bits) 
+     * so primitive sort can be used.
+     */
+    private void sortRow(int aStart, int aEnd) {
+        final int length = aEnd - aStart;
+        if (length < 2) return;
+        final long[] entries = new long[length];
+        for (int k = 0; k < length; ++k) {
+            entries[k] = ((long) iColumns[aStart + k] << 32) | (Float.floatToRawIntBits(iCosts[aStart + k]) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(entries);
+        for (int k = 0; k < length; ++k) {
+            iColumns[aStart + k] = (int) (entries[k] >>> 32);
+            iCosts[aStart + k] = Float.intBitsToFloat((int) entries[k]);
+        }
+    }
+
+    int rowStart(int aRow) {
+        return iRowStart[aRow];
+    }
+
+    int rowEnd(int aRow) {
+        return iRowStart[aRow + 1];
+    }
+
+    int entryColumn(int aEntry) {
+        return iColumns[aEntry];
+    }
+
+    float entryCost(int aEntry) {
+        return iCosts[aEntry];
+    }
+
+    /**
+     * @return cost of linking particle aRow with link particle aColumn (calculated if not stored)
+     */
+    float cost(int aRow, int aColumn) {
+        int lo = iRowStart[aRow];
+        int hi = iRowStart[aRow + 1] - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int column = iColumns[mid];
+            if (column < aColumn) lo = mid + 1;
+            else if (column > aColumn) hi = mid - 1;
+            else return iCosts[mid];
+        }
+        return iLinker.linkCost(iParticles.elementAt(aRow), iLinkParticles.elementAt(aColumn), iLinkOpts, iLinkLevel);
+    }
+}
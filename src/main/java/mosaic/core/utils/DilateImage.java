@@ -7,6 +7,7 @@ import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import org.apache.log4j.Logger;
 
+import java.util.Arrays;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -17,18 +18,37 @@ public class DilateImage {
     /**
      * Dilates all values and returns a copy of the input image.
      * A spherical structuring element of radius <code>radius</code> is used.
-     * Adapted as is from Ingo Oppermann implementation
+     * Ball is decomposed into running maxima along lines (van Herk/Gil-Werman) which gives exactly
+     * same result as {@link #dilateBruteForce(ImageStack, int, int)} but with O(radius^2) instead of
+     * O(radius^3) operations per voxel.
      * 
      * @param ips ImageProcessor to do the dilation with
      * @return the dilated copy of the given <code>ImageProcessor</code>
      */
     public static ImageStack dilate(ImageStack ips, int radius, int number_of_threads) {
+        return dilate(ips, radius, number_of_threads, false);
+    }
+
+    /**
+     * Dilates all values and returns a copy of the input image.
+     * A spherical structuring element of radius <code>radius</code> is used and maximum is found
+     * by checking every element of mask.
+     * Adapted as is from Ingo Oppermann implementation
+     * 
+     * @param ips ImageProcessor to do the dilation with
+     * @return the dilated copy of the given <code>ImageProcessor</code>
+     */
+    public static ImageStack dilateBruteForce(ImageStack ips, int radius, int number_of_threads) {
+        return dilate(ips, radius, number_of_threads, true);
+    }
+
+    private static ImageStack dilate(ImageStack ips, int radius, int number_of_threads, boolean aBruteForce) {
         logger.debug("dilate start");
         final FloatProcessor[] dilated_procs = new FloatProcessor[ips.getSize()];
         final AtomicInteger z = new AtomicInteger(-1);
         final Vector<Thread> threadsVector = new Vector<Thread>(number_of_threads);
         for (int thread_counter = 0; thread_counter < number_of_threads; thread_counter++) {
-            threadsVector.add(new DilateThread(ips, radius, dilated_procs, z));
+            threadsVector.add(aBruteForce ? new DilateThread(ips, radius, dilated_procs, z) : new LineMaxDilateThread(ips, radius, dilated_procs, z));
         }
         for (final Thread t : threadsVector) {
             t.start();
@@ -144,5 +164,141 @@ public class DilateImage {
         }
     }
     
+    /**
+     * Dilation with ball decomposed into lines. Voxel (a, b, s) belongs to ball if a^2 + b^2 + s^2 <= r^2 so
+     * for each slice offset s and row offset b the ball contains a line segment of half width
+     * floor(sqrt(r^2 - s^2 - b^2)) along x. Maxima over such segments are calculated for a whole row
+     * with van Herk/Gil-Werman algorithm (3 comparisons per pixel independently of segment length) and
+     * merged into output rows. Rows are padded with -Inf so no bounds checks are done per pixel, rows and
+     * slices outside of image are skipped as a whole.
+     */
+    static class LineMaxDilateThread extends Thread {
+        
+        private final ImageStack ips;
+        private final ImageProcessor[] dilated_ips;
+        private final AtomicInteger atomic_z;
+        private final int image_width;
+        private final int image_height;
+        private final int image_depth;
+        private final int radius;
+        
+        // Row padded with radius -Inf values on both sides
+        private final float[] padded_row;
+        // Block prefix/suffix maxima and resulting maxima of one row
+        private final float[] prefix_max;
+        private final float[] suffix_max;
+        private final float[] line_max;
+        
+        LineMaxDilateThread(ImageStack is, int aRadius, ImageProcessor[] dilated_is, AtomicInteger z) {
+            ips = is;
+            dilated_ips = dilated_is;
+            atomic_z = z;
+            radius = aRadius;
+            
+            image_width = ips.getWidth();
+            image_height = ips.getHeight();
+            image_depth = ips.getSize();
+            
+            padded_row = new float[image_width + 2 * radius];
+            Arrays.fill(padded_row, Float.NEGATIVE_INFINITY);
+            prefix_max = new float[padded_row.length];
+            suffix_max = new float[padded_row.length];
+            line_max = new float[image_width];
+        }
+        
+        @Override
+        public void run() {
+            int z;
+            while ((z = atomic_z.incrementAndGet()) < image_depth) {
+                final float[] output = new float[image_width * image_height];
+                Arrays.fill(output, Float.NEGATIVE_INFINITY);
+                for (int s = -radius; s <= radius; s++) {
+                    if (z + s < 0 || z + s >= image_depth) {
+                        continue;
+                    }
+                    dilateWithDisc((float[]) ips.getPixels(z + s + 1), radius * radius - s * s, output);
+                }
+                dilated_ips[z] = new FloatProcessor(image_width, image_height, output);
+            }
+        }
+        
+        /**
+         * Updates output with maxima of input slice over disc {(a, b): a^2 + b^2 <= aDiscRadius2}
+         */
+        private void dilateWithDisc(float[] aInput, int aDiscRadius2, float[] aOutput) {
+            final int discRadius = floorSqrt(aDiscRadius2);
+            for (int yy = 0; yy < image_height; yy++) {
+                // NaN values are never taken as maximum so they are replaced with -Inf
+                for (int x = 0; x < image_width; x++) {
+                    final float v = aInput[yy * image_width + x];
+                    padded_row[radius + x] = (v != v) ? Float.NEGATIVE_INFINITY : v;
+                }
+                // Row yy is used by output rows yy - b and yy + b
+                for (int b = 0; b <= discRadius; b++) {
+                    final int yUp = yy - b;
+                    final int yDown = yy + b;
+                    if (yUp < 0 && yDown >= image_height) {
+                        break;
+                    }
+                    calculateLineMax(floorSqrt(aDiscRadius2 - b * b));
+                    if (yUp >= 0) {
+                        mergeLineMax(aOutput, yUp * image_width);
+                    }
+                    if (b != 0 && yDown < image_height) {
+                        mergeLineMax(aOutput, yDown * image_width);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Calculates maxima of padded row over segments [x - aHalfWidth, x + aHalfWidth] (van Herk/Gil-Werman)
+         */
+        private void calculateLineMax(int aHalfWidth) {
+            if (aHalfWidth == 0) {
+                System.arraycopy(padded_row, radius, line_max, 0, image_width);
+                return;
+            }
+            final int start = radius - aHalfWidth;
+            final int length = image_width + 2 * aHalfWidth;
+            final int blockSize = 2 * aHalfWidth + 1;
+            for (int blockStart = 0; blockStart < length; blockStart += blockSize) {
+                final int blockEnd = Math.min(blockStart + blockSize, length) - 1;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = blockStart; i <= blockEnd; i++) {
+                    final float v = padded_row[start + i];
+                    if (v > max) max = v;
+                    prefix_max[i] = max;
+                }
+                max = Float.NEGATIVE_INFINITY;
+                for (int i = blockEnd; i >= blockStart; i--) {
+                    final float v = padded_row[start + i];
+                    if (v > max) max = v;
+                    suffix_max[i] = max;
+                }
+            }
+            final int window = 2 * aHalfWidth;
+            for (int x = 0; x < image_width; x++) {
+                final float a = suffix_max[x];
+                final float b = prefix_max[x + window];
+                line_max[x] = (a > b) ? a : b;
+            }
+        }
+        
+        private void mergeLineMax(float[] aOutput, int aRowOffset) {
+            for (int x = 0; x < image_width; x++) {
+                final float v = line_max[x];
+                if (v > aOutput[aRowOffset + x]) {
+                    aOutput[aRowOffset + x] = v;
+                }
+            }
+        }
+        
+        private static int floorSqrt(int aValue) {
+            int result = (int) Math.sqrt(aValue);
+            while (result * result > aValue) result--;
+            while ((result + 1) * (result + 1) <= aValue) result++;
+            return result;
+        }
+    }
 }
-
@@ -4,6 +4,11 @@ package mosaic.ia;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 import org.scijava.vecmath.Point3d;
@@ -20,6 +25,11 @@ import mosaic.utils.math.StatisticsUtils.MinMaxMean;
 
 public class Analysis {
     private static final Logger logger = Logger.getLogger(Analysis.class);
+    // Minimum cost (grid length * number of potential parameters taken for each grid point) of fit function evaluation 
+    // to evaluate CMA population in parallel
+    private static final long MinCostOfParallelEvaluation = 1 << 14;
+    // Seed of Monte Carlo runs of hypothesis testing in repetitive mode
+    private static final long HypothesisTestingSeed = 123456;
     
     private Potential iPotential;
     private DistanceCalculations iDistanceCalculations;
@@ -35,14 +45,25 @@ public class Analysis {
     private double[][] iBestPointsFound;
     private double[] iBestFunctionValue;
     private int iBestPointIndex = -1;
+    private boolean iUseDistanceTransform = false;
+    // Mode of last estimation, used also by hypothesis testing
+    private boolean iRepetitiveResults = false;
+    
+    /**
+     * @param aUseDistanceTransform if true context Q(d) is calculated with distance transform of grid instead of 
+     *        nearest neighbor search for each grid point (see {@link DistanceCalculations})
+     */
+    public void setUseDistanceTransform(boolean aUseDistanceTransform) {
+        iUseDistanceTransform = aUseDistanceTransform;
+    }
     
     public void calcDist(double gridSize, double kernelWeightq, double kernelWeightp, float[][][] genMask, ImagePlus iImageX, ImagePlus iImageY) {
-        iDistanceCalculations = new DistanceCalculationsImage(iImageX, iImageY, genMask, gridSize, kernelWeightq, kernelWeightp);
+        iDistanceCalculations = new DistanceCalculationsImage(iImageX, iImageY, genMask, gridSize, kernelWeightq, kernelWeightp, DistanceCalculations.NumberOfDistPoints, iUseDistanceTransform);
         calcDistributions(iDistanceCalculations);
     }
     
     public void calcDist(double gridSize, double kernelWeightq, double kernelWeightp, float[][][] genMask, Point3d[] particleXSetCoordUnfiltered, Point3d[] particleYSetCoordUnfiltered, double x1,double x2,double y1,double y2,double z1,double z2) {
-        iDistanceCalculations = new DistanceCalculationsCoords(particleXSetCoordUnfiltered, particleYSetCoordUnfiltered, genMask, x1, y1, z1, x2, y2, z2, gridSize, kernelWeightq, kernelWeightp);
+        iDistanceCalculations = new DistanceCalculationsCoords(particleXSetCoordUnfiltered, particleYSetCoordUnfiltered, genMask, x1, y1, z1, x2, y2, z2, gridSize, kernelWeightq, kernelWeightp, DistanceCalculations.NumberOfDistPoints, iUseDistanceTransform);
         calcDistributions(iDistanceCalculations);
     }
     
@@ -74,6 +95,7 @@ public class Analysis {
     }
     
     public void cmaOptimization(int cmaReRunTimes, boolean aRepetitiveResults) {
+        iRepetitiveResults = aRepetitiveResults;
         final FitFunction fitfun = new FitFunction(iContextQdPdf, iContextQdDistancesGrid, iNearestNeighborDistancesXtoYPdf, iNearestNeighborDistancesXtoY, iPotential);
         iBestPointsFound = new double[cmaReRunTimes][iPotential.numOfDimensions()];
         iBestFunctionValue = new double[cmaReRunTimes];
@@ -81,29 +103,9 @@ public class Analysis {
         double bestFitness = Double.MAX_VALUE;
         boolean diffFitness = false;
         
+        final CMAEvolutionStrategy[] cmaRuns = runCmaOptimizations(fitfun, cmaReRunTimes, aRepetitiveResults);
         for (int cmaRunNumber = 0; cmaRunNumber < cmaReRunTimes; cmaRunNumber++) {
-            final CMAEvolutionStrategy cma = createNewConfiguredCma(aRepetitiveResults);
-            final double[] fitness = cma.init();
-            
-            while (cma.stopConditions.getNumber() == 0) {
-                final double[][] populations = cma.samplePopulation(); // get a new population of solutions
-                for (int i = 0; i < populations.length; ++i) { 
-                    // for each candidate solution 'i' a simple way to handle constraints that define a convex feasible domain
-                    // (like box constraints, i.e. variable boundaries) via "blind re-sampling" assumes that the feasible domain 
-                    // is convex, the optimum is not located on (or very close to) the domain boundary,
-                    while (!fitfun.isFeasible(populations[i])) {
-                        populations[i] = cma.resampleSingle(i); // initialX is feasible
-                    }
-                    // and initialStandardDeviations are sufficiently small to
-                    // prevent quasi-infinite looping here compute fitness/objective value
-                    fitness[i] = fitfun.valueOf(populations[i]); // fitfun.valueOf() is to be minimized
-                }
-                cma.updateDistribution(fitness);
-                printCurrentIterationInfo(cma);
-            }
-            
-            // evaluate mean value as it is the best estimate for the optimum
-            cma.setFitnessOfMeanX(fitfun.valueOf(cma.getMeanX()));
+            final CMAEvolutionStrategy cma = cmaRuns[cmaRunNumber];
             logCmaResultInfo(cma);
 
             iBestFunctionValue[cmaRunNumber] = cma.getBestFunctionValue();
@@ -129,6 +131,86 @@ public class Analysis {
         StatisticsUtils.normalizePdf(iObservedModelFitPdPdf, iContextQdDistancesGrid, false);
     }
 
+    /**
+     * Runs CMA optimizations (reruns are independent so they are run concurrently). Each run gets its own random
+     * streams, in repetitive mode they are seeded with run number so results do not depend on number of threads.
+     * @return finished CMA optimizations in order of run number
+     */
+    private CMAEvolutionStrategy[] runCmaOptimizations(FitFunction aFitFunction, int aNumOfRuns, boolean aRepetitiveResults) {
+        final long[] cmaSeeds = new long[aNumOfRuns];
+        final long[] initialPointSeeds = new long[aNumOfRuns];
+        final Random seedGenerator = new Random();
+        for (int i = 0; i < aNumOfRuns; ++i) {
+            cmaSeeds[i] = aRepetitiveResults ? 1 + i : (seedGenerator.nextLong() >>> 2) + 1;
+            initialPointSeeds[i] = aRepetitiveResults ? 123456 + i : seedGenerator.nextLong();
+        }
+        
+        final CMAEvolutionStrategy[] cmaRuns = new CMAEvolutionStrategy[aNumOfRuns];
+        final int numOfThreads = Math.min(aNumOfRuns, Runtime.getRuntime().availableProcessors());
+        if (numOfThreads <= 1) {
+            for (int i = 0; i < aNumOfRuns; ++i) {
+                cmaRuns[i] = runCmaOptimization(aFitFunction, cmaSeeds[i], initialPointSeeds[i]);
+            }
+            return cmaRuns;
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            final List<Future<CMAEvolutionStrategy>> runs = new ArrayList<Future<CMAEvolutionStrategy>>(aNumOfRuns);
+            for (int i = 0; i < aNumOfRuns; ++i) {
+                final int run = i;
+                runs.add(executor.submit(() -> runCmaOptimization(aFitFunction, cmaSeeds[run], initialPointSeeds[run])));
+            }
+            for (int i = 0; i < aNumOfRuns; ++i) {
+                cmaRuns[i] = runs.get(i).get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("CMA optimization interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("CMA optimization failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        return cmaRuns;
+    }
+    
+    private CMAEvolutionStrategy runCmaOptimization(FitFunction aFitFunction, long aCmaSeed, long aInitialPointSeed) {
+        final CMAEvolutionStrategy cma = createNewConfiguredCma(aCmaSeed, aInitialPointSeed);
+        final double[] fitness = cma.init();
+        // Evaluate population in parallel only if fit function is expensive enough
+        final long costOfEvaluation = (long) iContextQdDistancesGrid.length * (iPotential.getType() == PotentialType.NONPARAM ? iPotential.numOfDimensions() : 1);
+        final boolean parallelEvaluation = costOfEvaluation >= MinCostOfParallelEvaluation;
+        
+        while (cma.stopConditions.getNumber() == 0) {
+            final double[][] populations = cma.samplePopulation(); // get a new population of solutions
+            for (int i = 0; i < populations.length; ++i) { 
+                // for each candidate solution 'i' a simple way to handle constraints that define a convex feasible domain
+                // (like box constraints, i.e. variable boundaries) via "blind re-sampling" assumes that the feasible domain 
+                // is convex, the optimum is not located on (or very close to) the domain boundary,
+                while (!aFitFunction.isFeasible(populations[i])) {
+                    populations[i] = cma.resampleSingle(i); // initialX is feasible
+                }
+                // and initialStandardDeviations are sufficiently small to
+                // prevent quasi-infinite looping here compute fitness/objective value
+            }
+            // fitfun.valueOf() is to be minimized
+            final IntStream candidates = IntStream.range(0, populations.length);
+            (parallelEvaluation ? candidates.parallel() : candidates).forEach(i -> fitness[i] = aFitFunction.valueOf(populations[i]));
+            cma.updateDistribution(fitness);
+            printCurrentIterationInfo(cma);
+        }
+        
+        // evaluate mean value as it is the best estimate for the optimum
+        cma.setFitnessOfMeanX(aFitFunction.valueOf(cma.getMeanX()));
+        
+        return cma;
+    }
+
     private void addNewOutputResult(List<CmaResult> aResultsOutput, double aBestFunctionValue, double[] aBestPointFound) {
         double strength = 0;
         double thresholdOrScale = 0;
@@ -153,12 +235,10 @@ public class Analysis {
         }
     }
 
-    private CMAEvolutionStrategy createNewConfiguredCma(boolean aRepetitiveResults) {
+    private CMAEvolutionStrategy createNewConfiguredCma(long aCmaSeed, long aInitialPointSeed) {
         final CMAEvolutionStrategy cma = new CMAEvolutionStrategy();
-        if (aRepetitiveResults) {
-            cma.setSeed(1);
-            cma.setRand(new Random(1));
-        }
+        cma.setSeed(aCmaSeed);
+        cma.setRand(new Random(aCmaSeed));
         cma.options.writeDisplayToFile = 0;
         cma.options.stopFitness = 1e-12; // optional setting
         cma.options.stopTolFun = 1e-15;
@@ -167,7 +247,7 @@ public class Analysis {
         
         final double[] initialX = new double[iPotential.numOfDimensions()];
         final double[] initialSigma = new double[iPotential.numOfDimensions()];
-        final Random rn = aRepetitiveResults ? new Random(123456) : new Random();
+        final Random rn = new Random(aInitialPointSeed);
         if (iPotential.getType() == PotentialType.NONPARAM) {
             for (int i = 0; i < iPotential.numOfDimensions(); i++) {
                 initialX[i] = iDistanceCalculations.getMeanXtoYdistance() * rn.nextDouble();
@@ -204,7 +284,19 @@ public class Analysis {
     }
  
     
+    /**
+     * Runs hypothesis testing, Monte Carlo runs are seeded with fixed seed if last estimation was run in repetitive mode
+     * (see {@link #cmaOptimization(int, boolean)}).
+     */
     public TestResult hypothesisTesting(int monteCarloRunsForTest, double alpha) {
+        return hypothesisTesting(monteCarloRunsForTest, alpha, iRepetitiveResults);
+    }
+    
+    /**
+     * @param aRepetitiveResults if true Monte Carlo runs are seeded with fixed seed (same result for same input 
+     *        regardless of number of threads), otherwise with random one
+     */
+    public TestResult hypothesisTesting(int monteCarloRunsForTest, double alpha, boolean aRepetitiveResults) {
         if (iBestPointsFound == null) {
             Utils.messageDialog("IA - hypothesis testing", "Error: Run estimation first");
             return null;
@@ -214,14 +306,15 @@ public class Analysis {
             return null;
         }
         else {
-            logger.debug("Running hypothesis testing with #runs=" + monteCarloRunsForTest + " alpha=" + alpha + " potential parameters=" + Debug.getString(iBestPointsFound[iBestPointIndex]));
+            final long seed = aRepetitiveResults ? HypothesisTestingSeed : new Random().nextLong();
+            logger.debug("Running hypothesis testing with #runs=" + monteCarloRunsForTest + " alpha=" + alpha + " seed=" + seed + " potential parameters=" + Debug.getString(iBestPointsFound[iBestPointIndex]));
             
             final HypothesisTesting ht = new HypothesisTesting(StatisticsUtils.calculateCdfFromPdf(iContextQdPdf, iContextQdDistancesGrid), 
                                                                iContextQdDistancesGrid, 
                                                                iNearestNeighborDistancesXtoY, 
                                                                iBestPointsFound[iBestPointIndex], 
                                                                iPotential, 
-                                                               monteCarloRunsForTest, alpha);
+                                                               monteCarloRunsForTest, alpha, seed);
             TestResult rankTest = ht.rankTest();
             logger.debug("Hypothesis testing result: [" + rankTest + "]");
             return rankTest;
@@ -2,12 +2,14 @@ package mosaic.ia;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 import org.scijava.vecmath.Point3d;
 
 import mosaic.ia.gui.Utils;
 import mosaic.utils.Debug;
+import mosaic.utils.math.DistanceTransform;
 import mosaic.utils.math.NearestNeighborTree;
 import mosaic.utils.math.StatisticsUtils;
 import mosaic.utils.math.StatisticsUtils.MinMaxMean;
@@ -18,6 +20,9 @@ public abstract class DistanceCalculations {
     private static final Logger logger = Logger.getLogger(DistanceCalculations.class);
     
     protected static final int NumberOfDistPoints = 1000;
+    private static final double KernelPrecision = 0.01;
+    // Distance transform is not used if (extended by Y particles lying outside of it) grid would be much bigger than original one
+    private static final int MaxDistanceTransformGridExtension = 8;
     
     // These guys should be set in derived classes
     protected Point3d[] iParticlesX;
@@ -32,6 +37,7 @@ public abstract class DistanceCalculations {
     private final double iKernelWeightP;
     private final int iNumberOfDistPoints;
     private final float[][][] iMaskImage3d; //[z][x][y]
+    private final boolean iUseDistanceTransform;
 
     // Internal data structures
     private double[] iContextQdPdf;
@@ -41,12 +47,24 @@ public abstract class DistanceCalculations {
     private double iMinXtoYdistance, iMaxXtoYdistance, iMeanXtoYdistance;
     
     DistanceCalculations(float[][][] aMaskImage3d, double aGridSpacing, double aKernelWeightQ, double aKernelWeightP, int aNumberOfDistPoints) {
-        logger.debug("aMaskImage3d(z/x/y): " + Debug.getArrayDims(aMaskImage3d) + " aGridSpacing: " + aGridSpacing + " aKernelWeightQ: " + aKernelWeightQ + " aKernelWeightP: " + aKernelWeightP + " aNumberOfDistPoints: " + aNumberOfDistPoints);
+        this(aMaskImage3d, aGridSpacing, aKernelWeightQ, aKernelWeightP, aNumberOfDistPoints, false);
+    }
+    
+    /**
+     * @param aUseDistanceTransform if true context Q(d) is calculated with Euclidean distance transform of whole grid
+     *        instead of nearest neighbor search for each grid point. Y particles are rasterized to nearest grid points
+     *        and exact distances to real particles rasterized close to the grid point are checked. It is exact for 
+     *        particles lying on grid points; for other particles it is exact unless grid point is almost equally 
+     *        distant from two of them, then it can be bigger than the true distance by at most grid cell diagonal.
+     */
+    DistanceCalculations(float[][][] aMaskImage3d, double aGridSpacing, double aKernelWeightQ, double aKernelWeightP, int aNumberOfDistPoints, boolean aUseDistanceTransform) {
+        logger.debug("aMaskImage3d(z/x/y): " + Debug.getArrayDims(aMaskImage3d) + " aGridSpacing: " + aGridSpacing + " aKernelWeightQ: " + aKernelWeightQ + " aKernelWeightP: " + aKernelWeightP + " aNumberOfDistPoints: " + aNumberOfDistPoints + " aUseDistanceTransform: " + aUseDistanceTransform);
         iMaskImage3d = aMaskImage3d;
         iGridSpacing = aGridSpacing;
         iKernelWeightQ = aKernelWeightQ;
         iKernelWeightP = aKernelWeightP;
         iNumberOfDistPoints = aNumberOfDistPoints;
+        iUseDistanceTransform = aUseDistanceTransform;
     }
     
     public double[] getContextQdPdf() {
@@ -96,7 +114,10 @@ public abstract class DistanceCalculations {
 
         // ----------------- Calculate context Q(d)
         final NearestNeighborTree nearestNeighbor = new NearestNeighborTree(iParticlesY);
-        final KernelEstimator kernelEstimator = new KernelEstimator(0.01 /* precision */);
+        final GridNearestParticles gridNearestParticles = iUseDistanceTransform ? gridNearestParticles(aMinX, aMinY, aMinZ, xGridSize, yGridSize, zGridSize) : null;
+        // Distances are collected as histogram of values rounded to kernel precision and given to kernel estimator in bulk
+        // (it would round them and merge equal values anyway).
+        long[] histogram = new long[1024];
         double maxDist = -Double.MAX_VALUE;
         double minDist = Double.MAX_VALUE;
         
@@ -106,21 +127,27 @@ public abstract class DistanceCalculations {
             position.y = aMinY;
             for (int j = 0; j < yGridSize; ++j) {
                 position.z = aMinZ;
-                for (int k = 0; k < zGridSize; ++k) {
+                for (int k = 0; k < zGridSize; ++k, position.z += iGridSpacing) {
                     // Skip points from outside of mask (if provided)
                     if (iMaskImage3d != null && !isInsideMask(position)) continue;
 
-                    double distance = nearestNeighbor.getDistanceToNearestNeighbor(position);
-                    kernelEstimator.addValue(distance, iKernelWeightQ);
+                    final double distance = (gridNearestParticles != null) 
+                            ? gridNearestParticles.distance(i, j, k, position)
+                            : nearestNeighbor.getDistanceToNearestNeighbor(position);
+                    final int bin = (int) Math.rint(distance / KernelPrecision);
+                    if (bin >= histogram.length) histogram = Arrays.copyOf(histogram, Math.max(bin + 1, 2 * histogram.length));
+                    histogram[bin]++;
                     if (distance > maxDist) maxDist = distance;
                     if (distance < minDist) minDist = distance;
-
-                    position.z += iGridSpacing;
                 }
                 position.y += iGridSpacing;
             }
             position.x += iGridSpacing;
         }
+        final KernelEstimator kernelEstimator = new KernelEstimator(KernelPrecision);
+        for (int bin = 0; bin < histogram.length; ++bin) {
+            if (histogram[bin] > 0) kernelEstimator.addValue(bin * KernelPrecision, histogram[bin] * iKernelWeightQ);
+        }
         logger.debug("Min-Max distance in context q(d): " + minDist + " - " + maxDist);
         
         // ----------------- Calculate observed distribution X to Y
@@ -144,7 +171,7 @@ public abstract class DistanceCalculations {
         }
 
         // ----------------- Calculate X to Y PDF 
-        final KernelEstimator kernelXtoY = new KernelEstimator(0.01 /*precision*/);
+        final KernelEstimator kernelXtoY = new KernelEstimator(KernelPrecision);
         for (double value : iNearestNeighborsDistancesXtoY) kernelXtoY.addValue(value, iKernelWeightP); 
         iNearestNeighborsDistancesXtoYPdf = new double[iContextQdDistancesGrid.length];
         for (int i = 0; i < iContextQdDistancesGrid.length; i++) {
@@ -158,6 +185,99 @@ public abstract class DistanceCalculations {
         }
     }
 
+    /**
+     * Rasterizes Y particles to nearest grid points and finds nearest rasterized particle of each grid point with
+     * distance transform of grid (grid point (i, j, k) is at (aMinX + i * iGridSpacing, aMinY + j * iGridSpacing, aMinZ + k * iGridSpacing)).
+     * Grid is extended to cover particles lying outside of it, so they are taken into account.
+     * @return nearest particles of grid points or null if distance transform cannot be used for given data 
+     *         (then nearest neighbor search should be used)
+     */
+    GridNearestParticles gridNearestParticles(double aMinX, double aMinY, double aMinZ, int aXgridSize, int aYgridSize, int aZgridSize) {
+        final long[][] seeds = new long[iParticlesY.length][];
+        final long[] min = {0, 0, 0};
+        final long[] max = {aXgridSize - 1, aYgridSize - 1, aZgridSize - 1};
+        for (int p = 0; p < iParticlesY.length; ++p) {
+            final Point3d particle = iParticlesY[p];
+            seeds[p] = new long[] {Math.round((particle.x - aMinX) / iGridSpacing), Math.round((particle.y - aMinY) / iGridSpacing), Math.round((particle.z - aMinZ) / iGridSpacing)};
+            for (int d = 0; d < 3; ++d) {
+                min[d] = Math.min(min[d], seeds[p][d]);
+                max[d] = Math.max(max[d], seeds[p][d]);
+            }
+        }
+        final long nx = max[0] - min[0] + 1;
+        final long ny = max[1] - min[1] + 1;
+        final long nz = max[2] - min[2] + 1;
+        final long extendedSize = nx * ny * nz;
+        final long gridSize = (long) aXgridSize * aYgridSize * aZgridSize;
+        if (nx > Integer.MAX_VALUE || ny > Integer.MAX_VALUE || nz > Integer.MAX_VALUE || extendedSize >= Integer.MAX_VALUE || extendedSize > MaxDistanceTransformGridExtension * gridSize) {
+            logger.info("Distance transform cannot be used for grid " + nx + "x" + ny + "x" + nz + ", using nearest neighbor search.");
+            return null;
+        }
+        
+        // Particles rasterized to the same grid point are chained, seed label is first particle of a chain
+        final float[] extendedGrid = new float[(int) extendedSize];
+        Arrays.fill(extendedGrid, Float.POSITIVE_INFINITY);
+        final int[] nearestSeed = new int[(int) extendedSize];
+        final int[] nextParticle = new int[iParticlesY.length];
+        for (int p = 0; p < iParticlesY.length; ++p) {
+            final int idx = (int) (((seeds[p][0] - min[0]) * ny + (seeds[p][1] - min[1])) * nz + (seeds[p][2] - min[2]));
+            nextParticle[p] = (extendedGrid[idx] == 0) ? nearestSeed[idx] : -1;
+            nearestSeed[idx] = p;
+            extendedGrid[idx] = 0;
+        }
+        DistanceTransform.squaredDistances(extendedGrid, nearestSeed, (int) nx, (int) ny, (int) nz);
+        
+        return new GridNearestParticles(nearestSeed, nextParticle, (int) -min[0], (int) -min[1], (int) -min[2], (int) ny, (int) nz);
+    }
+
+    /**
+     * Y particles rasterized to grid point nearest (in sense of rasterized positions) to each grid point.
+     */
+    class GridNearestParticles {
+        // Face neighbors (and point itself) which nearest particles are taken as candidates
+        private final int[][] iNeighbors = {{0, 0, 0}, {-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+        private final int[] iNearestSeed;
+        private final int[] iNextParticle;
+        private final int iOffsetX, iOffsetY, iOffsetZ;
+        private final int iNx, iNy, iNz;
+
+        GridNearestParticles(int[] aNearestSeed, int[] aNextParticle, int aOffsetX, int aOffsetY, int aOffsetZ, int aNy, int aNz) {
+            iNearestSeed = aNearestSeed;
+            iNextParticle = aNextParticle;
+            iOffsetX = aOffsetX;
+            iOffsetY = aOffsetY;
+            iOffsetZ = aOffsetZ;
+            iNx = aNearestSeed.length / (aNy * aNz);
+            iNy = aNy;
+            iNz = aNz;
+        }
+
+        /**
+         * Rasterized nearest particle is not always the real nearest one (rasterization moves particles by up to half
+         * of grid cell diagonal), so exact distances to particles rasterized to nearest seeds of grid point and its face
+         * neighbors are checked. Result is the true nearest neighbor distance except for rare grid points almost
+         * equally distant from two particles, where it is bigger by at most grid cell diagonal.
+         * @return distance from grid point (i, j, k) at aPosition to nearest of candidate particles
+         */
+        double distance(int i, int j, int k, Point3d aPosition) {
+            final int x = i + iOffsetX;
+            final int y = j + iOffsetY;
+            final int z = k + iOffsetZ;
+            double minSquaredDistance = Double.MAX_VALUE;
+            for (int[] n : iNeighbors) {
+                final int nx = x + n[0], ny = y + n[1], nz = z + n[2];
+                if (nx < 0 || nx >= iNx || ny < 0 || ny >= iNy || nz < 0 || nz >= iNz) continue;
+                for (int p = iNearestSeed[(nx * iNy + ny) * iNz + nz]; p >= 0; p = iNextParticle[p]) {
+                    final double dx = aPosition.x - iParticlesY[p].x;
+                    final double dy = aPosition.y - iParticlesY[p].y;
+                    final double dz = aPosition.z - iParticlesY[p].z;
+                    minSquaredDistance = Math.min(minSquaredDistance, dx * dx + dy * dy + dz * dz);
+                }
+            }
+            return Math.sqrt(minSquaredDistance);
+        }
+    }
+
     private boolean isInsideMask(Point3d coords) {
         try {
             if (iMaskImage3d[(int) coords.z][(int) coords.x][(int) coords.y] > 0) {
@@ -13,7 +13,11 @@ public class DistanceCalculationsCoords extends DistanceCalculations {
     }
     
     public DistanceCalculationsCoords(Point3d[] X, Point3d[] Y, float[][][] mask, double xmin, double ymin, double zmin, double xmax, double ymax, double zmax, double gridSize, double kernelWeightq, double kernelWeightP, int aNumberOfDistPoints) {
-        super(mask, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints);
+        this(X, Y, mask, xmin, ymin, zmin, xmax, ymax, zmax, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints, false);
+    }
+    
+    public DistanceCalculationsCoords(Point3d[] X, Point3d[] Y, float[][][] mask, double xmin, double ymin, double zmin, double xmax, double ymax, double zmax, double gridSize, double kernelWeightq, double kernelWeightP, int aNumberOfDistPoints, boolean aUseDistanceTransform) {
+        super(mask, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints, aUseDistanceTransform);
         this.X = X;
         this.Y = Y;
         x1 = xmin;
@@ -36,7 +36,11 @@ public class DistanceCalculationsImage extends DistanceCalculations {
     }
 
     public DistanceCalculationsImage(ImagePlus X, ImagePlus Y, float[][][] mask, double gridSize, double kernelWeightq, double kernelWeightP, int aNumberOfDistPoints) {
-        super(mask, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints);
+        this(X, Y, mask, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints, false);
+    }
+
+    public DistanceCalculationsImage(ImagePlus X, ImagePlus Y, float[][][] mask, double gridSize, double kernelWeightq, double kernelWeightP, int aNumberOfDistPoints, boolean aUseDistanceTransform) {
+        super(mask, gridSize, kernelWeightq, kernelWeightP, aNumberOfDistPoints, aUseDistanceTransform);
         this.X = X;
         this.Y = Y;
         
@@ -6,6 +6,7 @@ import org.apache.log4j.Logger;
 import fr.inria.optimization.cmaes.fitness.AbstractObjectiveFunction;
 import mosaic.ia.Potentials.Potential;
 import mosaic.ia.Potentials.PotentialNoParam;
+import mosaic.ia.Potentials.PotentialOfDistances;
 import mosaic.ia.Potentials.PotentialType;
 import mosaic.utils.math.StatisticsUtils;
 import mosaic.utils.math.StatisticsUtils.MinMaxMean;
@@ -13,6 +14,7 @@ import mosaic.utils.math.StatisticsUtils.MinMaxMean;
 /**
  * Fit function for CMA-ES minimization. Its value is l2 norm (squared) between nearest neighbor PDF
  * and observed NN distances PDF (calculated for given potential).
+ * {@link #valueOf(double[])} can be called concurrently - each thread uses its own buffers.
  */
 class FitFunction extends AbstractObjectiveFunction {
     private static final Logger logger = Logger.getLogger(FitFunction.class);
@@ -22,6 +24,9 @@ class FitFunction extends AbstractObjectiveFunction {
     private final double[] iNearestNeighborDistancesXtoYPdf;
     private final double[] iNearestNeighborDistancesXtoY;
     private final Potential iPotential;
+    // Potential is always calculated for distances grid so it can be prepared once
+    private final PotentialOfDistances iPotentialOfGrid;
+    private final ThreadLocal<Scratch> iScratch;
 
     private double[] iObservedModelFitPdPdf;
     private static final double MachineEpsilon = Math.ulp(1.0);
@@ -35,6 +40,8 @@ class FitFunction extends AbstractObjectiveFunction {
         iNearestNeighborDistancesXtoYPdf = aNearestNeighborDistancesXtoYPdf;
         iNearestNeighborDistancesXtoY = aNearestNeighborDistancesXtoY;
         iPotential = aPotential;
+        iPotentialOfGrid = aPotential.forDistances(aContextQdDistncesGrid);
+        iScratch = ThreadLocal.withInitial(() -> new Scratch(aContextQdDistncesGrid.length));
         
         MinMaxMean mmmDistanceGrid = StatisticsUtils.getMinMaxMean(iContextQdDistancesGrid);
         MinMaxMean mmmNNDistances = StatisticsUtils.getMinMaxMean(iNearestNeighborDistancesXtoY);
@@ -64,38 +71,45 @@ class FitFunction extends AbstractObjectiveFunction {
 
     @Override
     public double valueOf(double[] x) {
+        final Scratch scratch = iScratch.get();
+        final double value = l2Norm(x, scratch.iGibbsPotential, scratch.iObservedPdf, scratch.iSupport);
         if (iPotential.getType() == PotentialType.NONPARAM) {
-            return l2Norm(x) + nonParamPenalty(x, ((PotentialNoParam)iPotential).getSmoothness());
+            return value + nonParamPenalty(x, ((PotentialNoParam)iPotential).getSmoothness());
         }
         
-        return l2Norm(x);
+        return value;
     }
     
     public double l2Norm(double[] params) {
-        double[] gibbsPotential = iPotential.calculate(iContextQdDistancesGrid, params).getGibbsPotential();
-        final double Z = calculateNormalizationConstantZ(gibbsPotential);
         iObservedModelFitPdPdf = new double[iContextQdDistancesGrid.length];
+        final Scratch scratch = iScratch.get();
+        return l2Norm(params, scratch.iGibbsPotential, iObservedModelFitPdPdf, scratch.iSupport);
+    }
+    
+    private double l2Norm(double[] params, double[] aGibbsPotential, double[] aObservedModelFitPdPdf, double[] aSupport) {
+        iPotentialOfGrid.calculate(params, true, null, aGibbsPotential);
+        final double[] gibbsPotential = aGibbsPotential;
+        final double Z = calculateNormalizationConstantZ(gibbsPotential, aSupport);
         
         double value = 0;
         for (int i = 0; i < iContextQdDistancesGrid.length; i++) {
-            iObservedModelFitPdPdf[i] = gibbsPotential[i] * iContextQdPdf[i] * (1 / Z);
+            aObservedModelFitPdPdf[i] = gibbsPotential[i] * iContextQdPdf[i] * (1 / Z);
             // Sum squared errors
-            value += Math.pow((iObservedModelFitPdPdf[i] - iNearestNeighborDistancesXtoYPdf[i]), 2);
+            value += Math.pow((aObservedModelFitPdPdf[i] - iNearestNeighborDistancesXtoYPdf[i]), 2);
         }
         
         return value;
     }
     
-    private double calculateNormalizationConstantZ(double[] aGibbsPotential) {
-        final double[] support = new double[iContextQdDistancesGrid.length];
+    private double calculateNormalizationConstantZ(double[] aGibbsPotential, double[] aSupport) {
         for (int i = 0; i < iContextQdDistancesGrid.length; i++) {
-            support[i] = aGibbsPotential[i] * iContextQdPdf[i];
+            aSupport[i] = aGibbsPotential[i] * iContextQdPdf[i];
         }
         
         // Integrate
         double Z = 0;
         for (int i = 0; i < iContextQdDistancesGrid.length - 1; i++) {
-            Z += (support[i] + support[i + 1]) / 2 * (iContextQdDistancesGrid[i+1] - iContextQdDistancesGrid[i]);
+            Z += (aSupport[i] + aSupport[i + 1]) / 2 * (iContextQdDistancesGrid[i+1] - iContextQdDistancesGrid[i]);
         }
         
         return Z;
@@ -111,5 +125,19 @@ class FitFunction extends AbstractObjectiveFunction {
         
         return sum * Math.pow(aSmoothness, 2);
     }
-
+    
+    /**
+     * Per thread buffers used in calculations
+     */
+    private static class Scratch {
+        final double[] iGibbsPotential;
+        final double[] iObservedPdf;
+        final double[] iSupport;
+        
+        Scratch(int aGridLength) {
+            iGibbsPotential = new double[aGridLength];
+            iObservedPdf = new double[aGridLength];
+            iSupport = new double[aGridLength];
+        }
+    }
 }
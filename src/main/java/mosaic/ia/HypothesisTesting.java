@@ -2,7 +2,8 @@ package mosaic.ia;
 
 
 import java.util.Arrays;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 
@@ -12,6 +13,8 @@ import mosaic.ia.gui.Utils;
 
 class HypothesisTesting {
     private static final Logger logger = Logger.getLogger(HypothesisTesting.class);
+    // Distances of one Monte Carlo run are sampled and evaluated in chunks of that size
+    private static final int SampleChunkSize = 256;
     
     // Input Distributions
     private final double[] iContextQdCdf;
@@ -25,8 +28,21 @@ class HypothesisTesting {
     // Monte-Carlo params
     private final int iNumOfMcRuns;
     private final double iAlpha;
+    private final SplittableRandom iRandom;
 
     public HypothesisTesting(double[] aContextQdCdf, double[] aContextQdDistancesGrid, double[] aNearestNeighborDistancesXtoY, double[] aBestPointFound, Potential aPotential, int aNumOfMcRuns, double aAlpha) {
+        this(aContextQdCdf, aContextQdDistancesGrid, aNearestNeighborDistancesXtoY, aBestPointFound, aPotential, aNumOfMcRuns, aAlpha, new SplittableRandom());
+    }
+    
+    /**
+     * @param aSeed seed of random generator used for Monte Carlo runs (same seed gives same result regardless of number of threads)
+     */
+    public HypothesisTesting(double[] aContextQdCdf, double[] aContextQdDistancesGrid, double[] aNearestNeighborDistancesXtoY, double[] aBestPointFound, Potential aPotential, int aNumOfMcRuns, double aAlpha, long aSeed) {
+        this(aContextQdCdf, aContextQdDistancesGrid, aNearestNeighborDistancesXtoY, aBestPointFound, aPotential, aNumOfMcRuns, aAlpha, new SplittableRandom(aSeed));
+    }
+    
+    private HypothesisTesting(double[] aContextQdCdf, double[] aContextQdDistancesGrid, double[] aNearestNeighborDistancesXtoY, double[] aBestPointFound, Potential aPotential, int aNumOfMcRuns, double aAlpha, SplittableRandom aRandom) {
+        iRandom = aRandom;
         iContextQdCdf = aContextQdCdf;
         iContextQdDistancesGrid = aContextQdDistancesGrid;
         iNearestNeighborDistancesXtoY = aNearestNeighborDistancesXtoY;
@@ -90,38 +106,57 @@ class HypothesisTesting {
         }
     }
 
+    /**
+     * Calculates T for each Monte Carlo run. Runs are independent (each gets its own random stream split from 
+     * main generator in run order) so they are executed in parallel. Distances are sampled and potential
+     * is summed in chunks so run does not need buffer for whole sample.
+     */
     private double[] calculateT() {
-        double[] distancesSample = new double[iNearestNeighborDistancesXtoY.length];
-        double[] T = new double[iNumOfMcRuns];
+        final SplittableRandom[] runRandoms = new SplittableRandom[iNumOfMcRuns];
+        for (int i = 0; i < iNumOfMcRuns; ++i) runRandoms[i] = iRandom.split();
         
-        for (int i = 0; i < iNumOfMcRuns; ++i) {
-            sampleDistancesFromContextQd(distancesSample);
-            T[i] = -1 * Math.signum(iBestPointFound[0]) * iPotential.calculateWithoutEpsilon(distancesSample, iBestPointFound).getSumPotential();
-        }
+        final ThreadLocal<double[]> distancesChunk = ThreadLocal.withInitial(() -> new double[Math.min(SampleChunkSize, iNearestNeighborDistancesXtoY.length)]);
+        final double sign = -1 * Math.signum(iBestPointFound[0]);
+        double[] T = new double[iNumOfMcRuns];
+        IntStream.range(0, iNumOfMcRuns).parallel().forEach(i -> {
+            final double[] chunk = distancesChunk.get();
+            double sumPotential = 0;
+            for (int sampled = 0; sampled < iNearestNeighborDistancesXtoY.length; sampled += chunk.length) {
+                final int chunkLength = Math.min(chunk.length, iNearestNeighborDistancesXtoY.length - sampled);
+                sampleDistancesFromContextQd(chunk, chunkLength, runRandoms[i]);
+                sumPotential += iPotential.calculate(chunk, 0, chunkLength, iBestPointFound, false /* without epsilon */, null, null);
+            }
+            T[i] = sign * sumPotential;
+        });
         
         Arrays.sort(T);
         return T;
     }
 
-    private void sampleDistancesFromContextQd(double[] aSampleOfDistancesFromContextQd) {
-        final Random rng = new Random(System.nanoTime());
-
-        for (int i = 0; i < aSampleOfDistancesFromContextQd.length;) {
-            double R = rng.nextDouble();
+    private void sampleDistancesFromContextQd(double[] aSampleOfDistancesFromContextQd, int aLength, SplittableRandom aRandom) {
+        for (int i = 0; i < aLength;) {
+            double R = aRandom.nextDouble();
             // to make sure that random value will be in CDF range
             if (R >= iContextQdCdf[0]) {
-                aSampleOfDistancesFromContextQd[i] = findDistanceForPropability(R);
+                aSampleOfDistancesFromContextQd[i] = findDistanceForProbability(iContextQdCdf, iContextQdDistancesGrid, R);
                 ++i;
             }
         }
     }
 
-    private double findDistanceForPropability(double aProbabilityQd) {
-        int i = 0;
-        for (i = 0; i < iContextQdCdf.length - 1; ++i) {
-            if (aProbabilityQd >= iContextQdCdf[i] && aProbabilityQd < iContextQdCdf[i + 1]) break;
+    /**
+     * Inverse of CDF (linearly interpolated between grid points). Interval containing aProbabilityQd 
+     * (CDF[i] <= aProbabilityQd < CDF[i+1]) is found with binary search.
+     */
+    static double findDistanceForProbability(double[] aCdf, double[] aDistancesGrid, double aProbabilityQd) {
+        // find last i with aCdf[i] <= aProbabilityQd (limited to last interval)
+        int lo = 0;
+        int hi = aCdf.length - 2;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (aCdf[mid] <= aProbabilityQd) lo = mid; else hi = mid - 1;
         }
-        return linearInterpolation(iContextQdCdf[i], iContextQdCdf[i + 1], iContextQdDistancesGrid[i], iContextQdDistancesGrid[i + 1], aProbabilityQd);
+        return linearInterpolation(aCdf[lo], aCdf[lo + 1], aDistancesGrid[lo], aDistancesGrid[lo + 1], aProbabilityQd);
     }
     
     private static double linearInterpolation(double aXmin, double aXmax, double aYmin, double aYmax, double aXpoint) {
@@ -1,5 +1,7 @@
 package mosaic.ia;
 
+import java.util.Arrays;
+
 import mosaic.utils.math.Matlab;
 
 /**
@@ -54,19 +56,73 @@ public class Potentials {
     }
     
     /**
-     * Base class for all potentials
+     * Calculation of potential for fixed distances (like distances grid) repeated for different parameters. 
+     * Parts of calculation not depending on parameters may be precomputed. It does not keep any results 
+     * so it can be used concurrently.
+     */
+    @FunctionalInterface
+    public static interface PotentialOfDistances {
+        /**
+         * Calculates potential and Gibbs potential (exp(-potential)) of distances into provided buffers (any of them can be null if not needed)
+         * @return sum of potential
+         */
+        double calculate(double[] aParameters, boolean aWithEpsilon, double[] aPotential, double[] aGibbsPotential);
+    }
+    
+    /**
+     * Base class for all potentials. Results of calculation are kept in potential object (buffers are reused 
+     * by next calculation of the same length) so one object must not be used concurrently - use {@link #copy()} 
+     * or methods writing to caller provided buffers.
      */
-    public static abstract class Potential {
+    public static abstract class Potential implements Cloneable {
         
-        public abstract Potential calculate(double[] aDistances, double[] aParameters);
-        public abstract Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters);
         public abstract int numOfDimensions();
         public abstract PotentialType getType();
         
+        /**
+         * Calculates potential and Gibbs potential (exp(-potential)) of distances from chunk [aFrom, aTo) into provided 
+         * buffers (at same indices, any of them can be null if not needed). Does not change state of potential object.
+         * @param aEpsilon strength of potential (ignored by potentials without strength parameter)
+         * @return sum of potential over chunk
+         */
+        protected abstract double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential);
+        
         protected double[] potential;
         protected double[] gibbspotential;
         protected double sumPotential;
         
+        public Potential calculate(double[] aDistances, double[] aParameters) {
+            return calculateAll(aDistances, aParameters, true);
+        }
+        
+        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+            return calculateAll(aDistances, aParameters, false);
+        }
+        
+        private Potential calculateAll(double[] aDistances, double[] aParameters, boolean aWithEpsilon) {
+            clearResults(aDistances.length);
+            sumPotential = calculate(aDistances, 0, aDistances.length, aParameters, aWithEpsilon, potential, gibbspotential);
+            return this;
+        }
+        
+        /**
+         * Calculates potential and Gibbs potential (exp(-potential)) of distances from chunk [aFrom, aTo) into provided 
+         * buffers (at same indices, any of them can be null if not needed). Does not change state of potential object 
+         * so it can be used concurrently.
+         * @return sum of potential over chunk
+         */
+        public double calculate(double[] aDistances, int aFrom, int aTo, double[] aParameters, boolean aWithEpsilon, double[] aPotential, double[] aGibbsPotential) {
+            return calculateChunk(aDistances, aFrom, aTo, aParameters, aWithEpsilon ? aParameters[0] : 1, aPotential, aGibbsPotential);
+        }
+        
+        /**
+         * @return potential calculation for given distances which are not changed later. By default nothing is 
+         *         precomputed, potentials may override it.
+         */
+        public PotentialOfDistances forDistances(double[] aDistances) {
+            return (aParameters, aWithEpsilon, aPotential, aGibbsPotential) -> calculate(aDistances, 0, aDistances.length, aParameters, aWithEpsilon, aPotential, aGibbsPotential);
+        }
+        
         public double[] getGibbsPotential() {
             return gibbspotential;
         }
@@ -79,10 +135,36 @@ public class Potentials {
             return sumPotential;
         }
         
+        /**
+         * @return new potential with same type and parameters but with its own result buffers
+         */
+        public Potential copy() {
+            try {
+                final Potential copy = (Potential) clone();
+                copy.potential = null;
+                copy.gibbspotential = null;
+                copy.sumPotential = 0;
+                return copy;
+            }
+            catch (CloneNotSupportedException e) {
+                throw new RuntimeException("Cannot copy potential", e);
+            }
+        }
+        
         protected void clearResults(int aLenght) {
-            potential = new double[aLenght];
+            if (potential == null || potential.length != aLenght) {
+                potential = new double[aLenght];
+                gibbspotential = new double[aLenght];
+            }
             sumPotential = 0;
-            gibbspotential = new double[aLenght];
+        }
+        
+        /**
+         * Stores potential value at aIdx in provided buffers (if not null)
+         */
+        protected static void store(int aIdx, double aPotentialValue, double[] aPotential, double[] aGibbsPotential) {
+            if (aPotential != null) aPotential[aIdx] = aPotentialValue;
+            if (aGibbsPotential != null) aGibbsPotential[aIdx] = Math.exp(-1 * aPotentialValue);
         }
     }
     
@@ -103,25 +185,59 @@ public class Potentials {
         public int numOfDimensions() {return iSupportPoints.length - 1;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            calc(aDistances, aParameters);
-            return this;
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = nonParametric(aDistances[i], aParameters);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
+            }
+            return sum;
         }
         
+        /**
+         * Kernel weights (kappa) of support points do not depend on parameters so they are precomputed for each 
+         * distance. Only non zero ones are kept (at most few support points are closer than distance between them).
+         */
         @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
-            calc(aDistances, aParameters);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double[] aParameters) {
-            clearResults(aDistances.length);
+        public PotentialOfDistances forDistances(double[] aDistances) {
+            final int numOfWeights = numOfDimensions();
+            final double h = Math.abs(iSupportPoints[1] - iSupportPoints[0]);
+            final int[] start = new int[aDistances.length + 1];
+            int[] supportIdx = new int[2 * aDistances.length + 1];
+            double[] kappa = new double[supportIdx.length];
+            int numOfEntries = 0;
             for (int i = 0; i < aDistances.length; i++) {
-                final double[] weights = aParameters;
-                potential[i] = nonParametric(aDistances[i], weights);
-                sumPotential = sumPotential + potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+                start[i] = numOfEntries;
+                for (int j = 0; j < numOfWeights; j++) {
+                    final double z = Math.abs(aDistances[i] - iSupportPoints[j]);
+                    if (z <= h) {
+                        if (numOfEntries == supportIdx.length) {
+                            supportIdx = Arrays.copyOf(supportIdx, 2 * numOfEntries);
+                            kappa = Arrays.copyOf(kappa, 2 * numOfEntries);
+                        }
+                        supportIdx[numOfEntries] = j;
+                        kappa[numOfEntries] = z / h;
+                        numOfEntries++;
+                    }
+                }
             }
+            start[aDistances.length] = numOfEntries;
+            final int[] tableIdx = supportIdx;
+            final double[] tableKappa = kappa;
+            
+            return (aParameters, aWithEpsilon, aPotential, aGibbsPotential) -> {
+                double sum = 0;
+                for (int i = 0; i < aDistances.length; i++) {
+                    double value = 0;
+                    for (int e = start[i]; e < start[i + 1]; e++) {
+                        value = value + aParameters[tableIdx[e]] * tableKappa[e];
+                    }
+                    sum += value;
+                    store(i, value, aPotential, aGibbsPotential);
+                }
+                return sum;
+            };
         }
         
         double nonParametric(double di, double[] weights) {
@@ -153,28 +269,22 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = Math.abs(aParameters[1]);
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = Math.abs(aParameters[1]);
-            final double epsilon = 1.0;
-            calc(aDistances, threshold, epsilon);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * stepPotential(aDistances[i], threshold);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            // Potential has only two values so Gibbs potential is calculated once for each of them
+            final double potentialBelow = aEpsilon * -1d;
+            final double potentialAbove = aEpsilon * 0d;
+            final double gibbsBelow = Math.exp(-1 * potentialBelow);
+            final double gibbsAbove = Math.exp(-1 * potentialAbove);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final boolean below = stepPotential(aDistances[i], threshold) < 0;
+                final double value = below ? potentialBelow : potentialAbove;
+                sum += value;
+                if (aPotential != null) aPotential[i] = value;
+                if (aGibbsPotential != null) aGibbsPotential[i] = below ? gibbsBelow : gibbsAbove;
             }
+            return sum;
         }
         
         double stepPotential(double di, double threshold) {
@@ -195,30 +305,16 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = 0;
-            final double sigma = Math.abs(aParameters[1]); // if sigma is large, z=d/sigma= small => -1/(1+z) is large => will be chosen during maximum likelihood.
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = 0;
             final double sigma = Math.abs(aParameters[1]); // if sigma is large, z=d/sigma= small => -1/(1+z) is large => will be chosen during maximum likelihood.
-            final double epsilon = 1;
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon, double sigma) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * hernquistPotential(aDistances[i], threshold, sigma);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = aEpsilon * hernquistPotential(aDistances[i], threshold, sigma);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
             }
+            return sum;
         }
         
         double hernquistPotential(double di, double threshold, double sigma) {
@@ -240,30 +336,16 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = 0;
-            final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = 0;
             final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = 1;
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon, double sigma) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * linearType1(aDistances[i], threshold, sigma);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = aEpsilon * linearType1(aDistances[i], threshold, sigma);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
             }
+            return sum;
         }
         
         double linearType1(double di, double threshold, double sigma) {
@@ -285,30 +367,16 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = 0;
-            final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = 0;
             final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = 1;
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon, double sigma) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * linearType2(aDistances[i], threshold, sigma);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = aEpsilon * linearType2(aDistances[i], threshold, sigma);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
             }
+            return sum;
         }
         
         static double linearType2(double di, double threshold, double sigma) {
@@ -335,30 +403,16 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = 0;
-            final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = 0;
             final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = 1;
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon, double sigma) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * plummerPotential(aDistances[i], threshold, sigma);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = aEpsilon * plummerPotential(aDistances[i], threshold, sigma);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
             }
+            return sum;
         }
         
         static double plummerPotential(double di, double threshold, double sigma) {
@@ -380,30 +434,16 @@ public class Potentials {
         public int numOfDimensions() {return 2;}
         
         @Override
-        public Potential calculate(double[] aDistances, double[] aParameters) {
-            final double threshold = 0;
-            final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = aParameters[0];
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        @Override
-        public Potential calculateWithoutEpsilon(double[] aDistances, double[] aParameters) {
+        protected double calculateChunk(double[] aDistances, int aFrom, int aTo, double[] aParameters, double aEpsilon, double[] aPotential, double[] aGibbsPotential) {
             final double threshold = 0;
             final double sigma = Math.abs(aParameters[1]);
-            final double epsilon = 1;
-            calc(aDistances, threshold, epsilon, sigma);
-            return this;
-        }
-        
-        public void calc(double[] aDistances, double threshold, double epsilon, double sigma) {
-            clearResults(aDistances.length);
-            for (int i = 0; i < aDistances.length; i++) {
-                potential[i] = epsilon * coulomb(aDistances[i], threshold, sigma);
-                sumPotential += potential[i];
-                gibbspotential[i] = Math.exp(-1 * potential[i]);
+            double sum = 0;
+            for (int i = aFrom; i < aTo; i++) {
+                final double value = aEpsilon * coulomb(aDistances[i], threshold, sigma);
+                sum += value;
+                store(i, value, aPotential, aGibbsPotential);
             }
+            return sum;
         }
         
         double coulomb(double di, double threshold, double sigma) {
@@ -153,6 +153,12 @@ public class InteractionAnalysisGui extends InteractionAnalysisGuiBase {
     
     enum Tabs {IMG, COORD, ROI}
     
+    private Analysis createAnalysis() {
+        Analysis analysis = new Analysis();
+        analysis.setUseDistanceTransform(useDistanceTransform.isSelected());
+        return analysis;
+    }
+    
     private void calculateDistances() {
         double gridDelta = Double.parseDouble(gridSize.getText());
         double qkernelWeight = Double.parseDouble(kernelWeightQ.getText());
@@ -174,7 +180,7 @@ public class InteractionAnalysisGui extends InteractionAnalysisGuiBase {
             
             if (iCsvX != null && iCsvY != null) {
                 System.out.println("Boundary (x/y/z): " + xmin + " - " + xmax + "; " + ymin + " - " + ymax + "; " + zmin + " - " + zmax);
-                iAnalysis = new Analysis();
+                iAnalysis = createAnalysis();
                 iAnalysis.calcDist(gridDelta, qkernelWeight, pkernelWeight, mask3d, iCsvX, iCsvY, xmin, xmax, ymin, ymax, zmin, zmax);
             }
             else {
@@ -188,7 +194,7 @@ public class InteractionAnalysisGui extends InteractionAnalysisGuiBase {
                     Utils.messageDialog("IA - calculate distances", "Error: Image sizes/scale/unit do not match");
                 }
                 else {
-                    iAnalysis = new Analysis();
+                    iAnalysis = createAnalysis();
                     iAnalysis.calcDist(gridDelta, qkernelWeight, pkernelWeight, mask3d, iImgX, iImgY);
                 }
             }
@@ -215,7 +221,7 @@ public class InteractionAnalysisGui extends InteractionAnalysisGuiBase {
                 System.out.println("X=" + iCsvX.length + " Y=" + iCsvY.length);
                 System.out.println("Boundary (x/y/z): " + xmin + " - " + xmax + "; " + ymin + " - " + ymax + "; " + zmin + " - " + zmax);
                 
-                iAnalysis = new Analysis();
+                iAnalysis = createAnalysis();
                 iAnalysis.calcDist(gridDelta, qkernelWeight, pkernelWeight, mask3d, iCsvX, iCsvY, xmin, xmax, ymin, ymax, zmin, zmax);                
             }
         }
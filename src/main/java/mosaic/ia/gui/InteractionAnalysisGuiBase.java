@@ -9,6 +9,7 @@ import javax.swing.BorderFactory;
 import javax.swing.GroupLayout;
 import javax.swing.GroupLayout.Alignment;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFormattedTextField;
 import javax.swing.JFrame;
@@ -43,6 +44,7 @@ abstract public class InteractionAnalysisGuiBase implements ActionListener {
     protected JFormattedTextField  kernelWeightQ;
     protected JFormattedTextField  kernelWeightP;
     protected JButton calculateDistances;
+    protected JCheckBox useDistanceTransform;
     protected JComboBox<String> potentialComboBox;
     protected JFormattedTextField reRuns;
     protected JLabel numOfsupportPointsLabel, smoothnessLabel;
@@ -241,6 +243,9 @@ abstract public class InteractionAnalysisGuiBase implements ActionListener {
         calculateDistances = new JButton("Calculate distances");
         calculateDistances.setAlignmentX(SwingConstants.CENTER);
         
+        useDistanceTransform = new JCheckBox("Distance transform");
+        useDistanceTransform.setToolTipText("Calculate context distances with distance transform of grid (faster for big grids, may slightly overestimate distances close to points equally distant from two particles)");
+        
         gridSize = new JFormattedTextField();
         gridSize.setHorizontalAlignment(SwingConstants.CENTER);
         
@@ -277,6 +282,7 @@ abstract public class InteractionAnalysisGuiBase implements ActionListener {
                                                         .addPreferredGap(ComponentPlacement.RELATED, 0, Short.MAX_VALUE))
                                         .addGroup(
                                                 gl_panel_4.createSequentialGroup().addPreferredGap(ComponentPlacement.RELATED, 0, Short.MAX_VALUE).addComponent(calculateDistances)
+                                                        .addPreferredGap(ComponentPlacement.RELATED).addComponent(useDistanceTransform)
                                                         .addPreferredGap(ComponentPlacement.RELATED, 0, Short.MAX_VALUE))).addGap(0)));
         gl_panel_4.setVerticalGroup(gl_panel_4.createParallelGroup(Alignment.TRAILING).addGroup(
                 gl_panel_4
@@ -284,7 +290,8 @@ abstract public class InteractionAnalysisGuiBase implements ActionListener {
                         .addContainerGap(GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                         .addGroup(
                                 gl_panel_4.createParallelGroup(Alignment.BASELINE).addComponent(lblGridSize).addComponent(gridSize).addComponent(lblKernelWeightq).addComponent(kernelWeightQ)
-                                        .addComponent(lblKernelWeightp).addComponent(kernelWeightP)).addGap(21).addComponent(calculateDistances)));
+                                        .addComponent(lblKernelWeightp).addComponent(kernelWeightP)).addGap(21)
+                        .addGroup(gl_panel_4.createParallelGroup(Alignment.BASELINE).addComponent(calculateDistances).addComponent(useDistanceTransform))));
         panel_4.setLayout(gl_panel_4);
         kernelWeightP.addActionListener(this);
         
@@ -1,5 +1,7 @@
 package mosaic.plugins;
 
+import java.util.function.Function;
+
 import org.apache.log4j.Logger;
 
 import com.google.gson.Gson;
@@ -16,7 +18,7 @@ import mosaic.core.imageUtils.images.IntensityImage;
 import mosaic.core.imageUtils.images.LabelImage;
 import mosaic.core.utils.MosaicUtils;
 import mosaic.regions.RegionsUtils;
-import mosaic.regions.DRS.AlgorithmDRS;
+import mosaic.regions.DRS.MultiChainDRS;
 import mosaic.regions.DRS.PluginSettingsDRS;
 import mosaic.regions.DRS.SettingsDRS;
 import mosaic.regions.GUI.Controller;
@@ -31,6 +33,9 @@ import mosaic.utils.io.serialize.JsonDataFile;
 public class DiscreteRegionSampling implements PlugInFilter {
     private static final Logger logger = Logger.getLogger(DiscreteRegionSampling.class);
     
+    // Maximum number of iterations run by chains without checking progress and abort requests
+    private static final int MaxNumOfIterationsInBlock = 1000;
+    
     // Settings
     private static PluginSettingsDRS iMacroSettings = null;
     private PluginSettingsDRS iSettings = null;
@@ -153,7 +158,8 @@ public class DiscreteRegionSampling implements PlugInFilter {
         if (iIntensityImage == null) return false; // Abort execution
         iLabelImage = RegionsUtils.initLabelImage(iIntensityImage, iInputImageChosenByUser, iInputLabelImageChosenByUser, iPadSize, iSettings.initType, iSettings.initBoxRatio, iSettings.initBubblesRadius, iSettings.initBubblesDisplacement, iSettings.initLocalMaxGaussBlurSigma, iSettings.initLocalMaxTolerance, iSettings.initLocalMaxBubblesRadius, iSettings.initLocalMaxMinimumRegionSize);
         if (iLabelImage == null) return false; // Abort execution
-        ImageModel iImageModel = RegionsUtils.initEnergies(iIntensityImage, iLabelImage, iInputImageChosenByUser.getCalibration(), iSettings.energyFunctional, 0 /* merging not used in DRS */, iSettings.energyPsGaussEnergyRadius, iSettings.energyPsBalloonForceCoeff, iSettings.regularizationType, iSettings.energyCurvatureMaskRadius, iSettings.energyContourLengthCoeff);
+        // Every chain needs its own energies since they work on chain's label image
+        Function<LabelImage, ImageModel> imageModelFactory = aLabelImage -> RegionsUtils.initEnergies(iIntensityImage, aLabelImage, iInputImageChosenByUser.getCalibration(), iSettings.energyFunctional, 0 /* merging not used in DRS */, iSettings.energyPsGaussEnergyRadius, iSettings.energyPsBalloonForceCoeff, iSettings.regularizationType, iSettings.energyCurvatureMaskRadius, iSettings.energyContourLengthCoeff);
         Controller iController = new Controller(/* aShowWindow */ iShowGui);
 
         // Run segmentation
@@ -165,29 +171,42 @@ public class DiscreteRegionSampling implements PlugInFilter {
                                                   iSettings.useBiasedProposal,
                                                   iSettings.usePairProposal,
                                                   iSettings.burnInFactor);
+        drsSettings.useExactBiasedProposal = iSettings.useExactBiasedProposal;
         
-        AlgorithmDRS algorithm = new AlgorithmDRS(iIntensityImage, iLabelImage, iImageModel, drsSettings);
-        
+        final int numOfChains = Math.max(1, iSettings.numOfChains);
+        MultiChainDRS algorithm = new MultiChainDRS(iIntensityImage, iLabelImage, imageModelFactory, drsSettings, numOfChains, 1212);
         
         int modulo = iSettings.maxNumOfIterations / 20; // 5% steps
         if (modulo < 1) modulo = 1;
+        // Multiple chains are run concurrently in blocks of iterations (in between progress, abort and convergence are checked),
+        // single chain is run iteration by iteration so abort requests are handled immediately.
+        final int blockSize = (numOfChains > 1) ? Math.min(modulo, MaxNumOfIterationsInBlock) : 1;
+        // Convergence (potential scale reduction) can be checked only for multiple chains
+        final boolean checkConvergence = numOfChains > 1 && iSettings.maxPotentialScaleReduction > 0;
         
         boolean isDone = false;
         int iteration = 0;
         try {
             while (iteration < iSettings.maxNumOfIterations && !isDone) {
-                // Perform one iteration of RC
-                ++iteration;
-                if (iteration % modulo == 0) {
-                    logger.debug("Iteration progress: " + ((iteration * 100) /  iSettings.maxNumOfIterations) + "%");
-                    IJ.showStatus("Iteration: " + iteration + "/" + iSettings.maxNumOfIterations);
-                    IJ.showProgress(iteration, iSettings.maxNumOfIterations);
+                // Perform block of iterations of DRS in all chains
+                int numOfIterations = Math.min(blockSize, iSettings.maxNumOfIterations - iteration);
+                algorithm.runIterations(numOfIterations);
+                if ((iteration + numOfIterations) / modulo > iteration / modulo) {
+                    logger.debug("Iteration progress: " + (((iteration + numOfIterations) * 100) /  iSettings.maxNumOfIterations) + "%");
+                    IJ.showStatus("Iteration: " + (iteration + numOfIterations) + "/" + iSettings.maxNumOfIterations);
+                    IJ.showProgress(iteration + numOfIterations, iSettings.maxNumOfIterations);
                 }
-                algorithm.runOneIteration();
+                iteration += numOfIterations;
 
                 // Check if we should pause for a moment or if simulation is not aborted by user
                 // If aborted pretend that we have finished segmentation (isDone=true)
                 isDone = iController.hasAborted();
+                
+                // Convergence is not checked before burn-in phase of maxNumOfIterations is over (no samples collected yet)
+                if (checkConvergence && algorithm.hasConverged(iSettings.maxPotentialScaleReduction)) {
+                    logger.info("Chains converged after " + iteration + " iterations");
+                    isDone = true;
+                }
             }
         }
         catch (IllegalStateException e) {
@@ -39,8 +39,8 @@ public class GaussianCurvature3D extends PlugInFloat3DBase {
             ImgUtils.ImgToYX2Darray(aOrigImg[slice], img[slice], 1.0f);
         }
 
-        // Run filter on image data.
-        final CurvatureFilter3D filter = new NoSplitFilter3D(new FilterKernelGc3D());
+        // Run filter on image data (each pass concurrently on bands of rows, same result as single threaded).
+        final CurvatureFilter3D filter = new NoSplitFilter3D(new FilterKernelGc3D(), Runtime.getRuntime().availableProcessors());
         for (int iteration = 0; iteration < iNumberOfIterations; ++iteration) {
             IJ.showProgress((double)iteration/iNumberOfIterations);
             IJ.showStatus("Running iteration: " + (iteration + 1) + "/" + iNumberOfIterations);
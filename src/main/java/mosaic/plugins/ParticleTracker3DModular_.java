@@ -12,12 +12,18 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JLabel;
 
@@ -128,6 +134,10 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
     private float l_s = 1.0f; 
     private float l_f = 1.0f;
     private float l_d = 1.0f;
+    private boolean sparse_linking = false;
+    
+    /* detection (number of threads detecting particles in different frames concurrently, 1 - sequential) */
+    private int iNumOfDetectionThreads = Runtime.getRuntime().availableProcessors();
     private ParticleLinker iParticleLinker = new ParticleLinkerGreedy();
     
     /* results display and file */
@@ -260,6 +270,7 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         lo.lSpace = l_s;
         lo.lFeature = l_f;
         lo.lDynamic = l_d;
+        lo.sparseCosts = sparse_linking;
         int length = iFrames.length;
         List<Vector<Particle>> particles = new ArrayList<Vector<Particle>>(length);
         for (int i = 0; i < length; ++i) {
@@ -346,9 +357,8 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
                 iInputImageFileInfo.directory = files_dir;
             }
             iFrames = new MyFrame[iNumOfFrames];
-            for (int frame_i = 0, file_index = 0; frame_i < iNumOfFrames; frame_i++, file_index++) {
-                MyFrame current_frame = null;
-                if (iInputModeTextFileFrames) {
+            if (iInputModeTextFileFrames) {
+                for (int frame_i = 0, file_index = 0; frame_i < iNumOfFrames; frame_i++, file_index++) {
                     if (files_list[file_index].startsWith(".") || files_list[file_index].endsWith("~")) {
                         frame_i--;
                         continue;
@@ -356,28 +366,21 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
 
                     // text_files_mode: construct each frame from the corresponding text file
                     IJ.showStatus("Reading Particles from file " + files_list[file_index] + "(" + (frame_i) + "/" + files_list.length + ")");
-                    current_frame = new MyFrame(files_dir + files_list[file_index]);
+                    MyFrame current_frame = new MyFrame(files_dir + files_list[file_index]);
                     if (current_frame.getParticles() == null) {
                         return false;
                     }
+                    if (current_frame.iFrameNumber >= iFrames.length) {
+                        IJ.showMessage("Error, frame " + current_frame.iFrameNumber + "  is out of range, enumeration must not have hole, and must start from 0");
+                        return false;
+                    }
+                    iFrames[current_frame.iFrameNumber] = current_frame;
                 }
-                else {
-                    // sequence of images mode: construct each frame from the corresponding image
-                    ImageStack frameStack = MosaicUtils.getSubStackInFloat(iInputImage.getStack(), (frame_i) * iNumOfSlices + 1, (frame_i + 1) * iNumOfSlices, false /*duplicate*/);
-                    current_frame = new MyFrame(frame_i);
-
-                    // Detect feature points in this frame
-                    IJ.showStatus("Detecting Particles in Frame " + (frame_i + 1) + "/" + iNumOfFrames);
-                    logger.info("Detecting particles in frame: " + (frame_i + 1) + "/" + iNumOfFrames);
-                    Vector<Particle> detectedParticles = detector.featurePointDetection(frameStack);
-                    current_frame.setParticles(detectedParticles);
-                }
-                if (current_frame.iFrameNumber >= iFrames.length) {
-                    IJ.showMessage("Error, frame " + current_frame.iFrameNumber + "  is out of range, enumeration must not have hole, and must start from 0");
-                    return false;
-                }
-                iFrames[current_frame.iFrameNumber] = current_frame;
-            } // for
+            }
+            else {
+                // sequence of images mode: construct each frame from the corresponding image
+                detectParticlesInFrames();
+            }
 
             // Here check that all frames are created
             for (int i = 0; i < iFrames.length; ++i) {
@@ -406,6 +409,76 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         return true;
     }
 
+    /**
+     * Detects particles in all frames of input image.
+     */
+    private void detectParticlesInFrames() {
+        // CLIJ dilation uses shared GPU context, in such case frames are detected sequentially
+        final int numOfThreads = detector.isUsingCLIJ() ? 1 : iNumOfDetectionThreads;
+        detectParticlesInFrames(detector, iInputImage.getStack(), iNumOfSlices, iFrames, numOfThreads);
+    }
+
+    /**
+     * Detects particles in all frames of aStack (aNumOfSlices slices per frame) and stores them in aFrames. Detection 
+     * in each frame depends only on global min/max which are already known, so frames are detected concurrently with
+     * aNumOfThreads threads (1 - sequentially in calling thread). Number of frames in flight is limited to bound 
+     * memory used by frame stacks. Created frames are same as in sequential detection.
+     */
+    static void detectParticlesInFrames(final FeaturePointDetector aDetector, ImageStack aStack, int aNumOfSlices, MyFrame[] aFrames, int aNumOfThreads) {
+        final int numOfFrames = aFrames.length;
+        final int numOfThreads = Math.max(1, Math.min(aNumOfThreads, numOfFrames));
+        if (numOfThreads == 1) {
+            for (int frame_i = 0; frame_i < numOfFrames; frame_i++) {
+                IJ.showStatus("Detecting Particles in Frame " + (frame_i + 1) + "/" + numOfFrames);
+                logger.info("Detecting particles in frame: " + (frame_i + 1) + "/" + numOfFrames);
+                final MyFrame current_frame = new MyFrame(frame_i);
+                current_frame.setParticles(aDetector.featurePointDetection(getFrameStack(aStack, aNumOfSlices, frame_i)));
+                aFrames[frame_i] = current_frame;
+            }
+            return;
+        }
+        
+        final int maxFramesInFlight = 2 * numOfThreads;
+        final ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        final Deque<Future<Vector<Particle>>> framesInFlight = new ArrayDeque<Future<Vector<Particle>>>();
+        try {
+            int nextFrame = 0;
+            for (int frame_i = 0; frame_i < numOfFrames; frame_i++) {
+                while (nextFrame < numOfFrames && framesInFlight.size() < maxFramesInFlight) {
+                    final ImageStack frameStack = getFrameStack(aStack, aNumOfSlices, nextFrame);
+                    logger.info("Detecting particles in frame: " + (nextFrame + 1) + "/" + numOfFrames);
+                    framesInFlight.add(executor.submit(() -> aDetector.featurePointDetection(frameStack)));
+                    nextFrame++;
+                }
+                
+                IJ.showStatus("Detecting Particles in Frame " + (frame_i + 1) + "/" + numOfFrames);
+                final MyFrame current_frame = new MyFrame(frame_i);
+                current_frame.setParticles(waitForDetection(framesInFlight.poll(), frame_i));
+                aFrames[frame_i] = current_frame;
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ImageStack getFrameStack(ImageStack aStack, int aNumOfSlices, int aFrame) {
+        return MosaicUtils.getSubStackInFloat(aStack, aFrame * aNumOfSlices + 1, (aFrame + 1) * aNumOfSlices, false /*duplicate*/);
+    }
+
+    private static Vector<Particle> waitForDetection(Future<Vector<Particle>> aDetection, int aFrame) {
+        try {
+            return aDetection.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Detection of particles in frame " + (aFrame + 1) + " interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("Detection of particles in frame " + (aFrame + 1) + " failed", e.getCause());
+        }
+    }
+
     /**
      * Displays a dialog window to get user defined params and selections,
      * also initialize and sets other params according to the work mode.<br>
@@ -498,6 +571,7 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         }
         else {
             GUIhelper.addUserDefinedParametersDialog(gd, detector);
+            gd.addNumericField("Detection_threads (1 = sequential)", iNumOfDetectionThreads, 0, 7, null);
 
             gd.addPanel(GUIhelper.makePreviewPanel(this, iInputImage), GridBagConstraints.CENTER, new Insets(5, 0, 0, 0));
 
@@ -547,6 +621,7 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         // retrieve params from user
         if (!iInputModeTextFile) {
             final Boolean changed = GUIhelper.getUserDefinedParameters(gd, detector);
+            iNumOfDetectionThreads = Math.max(1, (int) gd.getNextNumber());
             // even if the frames were already processed (particles detected) but
             // the user changed the detection params then the frames needs to be processed again
             if (changed) {
@@ -1459,6 +1534,7 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         gd.addNumericField("Dynamics_", l_d, 3);
         final String sc[] = {"Greedy", "Hungarian"};
         gd.addChoice("Optimizer", sc, sc[0]);
+        gd.addCheckbox("Sparse_linking (only particles within max displacement)", sparse_linking);
 
         gd.showDialog();
         if (gd.wasCanceled() == true) {
@@ -1469,6 +1545,7 @@ public class ParticleTracker3DModular_ implements PlugInFilter, PreviewInterface
         l_f = (float) gd.getNextNumber();
         l_d = (float) gd.getNextNumber();
         final String linkerString = gd.getNextChoice();
+        sparse_linking = gd.getNextBoolean();
         iParticleLinker = linkerString.equals("Greedy") ? new ParticleLinkerGreedy() : new ParticleLinkerHungarian();
     }
     
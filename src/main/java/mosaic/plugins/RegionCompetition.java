@@ -191,7 +191,10 @@ public class RegionCompetition implements PlugInFilter {
                                                iSettings.allowHandles, 
                                                iSettings.maxNumOfIterations, 
                                                iSettings.oscillationThreshold, 
-                                               iSettings.energyFunctional == RegionsUtils.EnergyFunctionalType.e_DeconvolutionPC);
+                                               iSettings.energyFunctional == RegionsUtils.EnergyFunctionalType.e_DeconvolutionPC,
+                                               iSettings.useIndexedContainers);
+        rcSettings.numOfThreads = iSettings.numOfThreads;
+        rcSettings.deconvolutionRenewalInterval = iSettings.deconvolutionRenewalInterval;
         
         AlgorithmRC algorithm = new AlgorithmRC(intensityImage, iLabelImage, imageModel, rcSettings);
         
@@ -211,6 +214,7 @@ public class RegionCompetition implements PlugInFilter {
             // Add slice with iteration output
             iLabelImageStack.addSliceToStack(iLabelImage, "iteration " + iteration, algorithm.getBiggestLabel(), true);
         }
+        algorithm.close();
         IJ.showProgress(iSettings.maxNumOfIterations, iSettings.maxNumOfIterations);
 
         // Do some post process stuff
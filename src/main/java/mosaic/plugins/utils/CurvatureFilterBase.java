@@ -130,11 +130,13 @@ public abstract class CurvatureFilterBase extends PlugInFloatBase {
                 return false;
             }
 
+            // Each pass of filter is run concurrently on bands of rows (same result as single threaded)
+            final int numOfThreads = Runtime.getRuntime().availableProcessors();
             if (type.equals(types[0])) {
-                iCf = new SplitFilter(fk);
+                iCf = new SplitFilter(fk, numOfThreads);
             }
             else {
-                iCf = new NoSplitFilter(fk);
+                iCf = new NoSplitFilter(fk, numOfThreads);
             }
 
             if (iCf != null && iNumberOfIterations >= 0) {
@@ -2,12 +2,14 @@ package mosaic.regions.DRS;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -44,9 +46,11 @@ public class AlgorithmDRS {
 
     private int iAcceptedMoves = 0;
     private int iIterationCounter = 0;
+    // Sum of energy differences of all accepted moves (energy relative to the initial state)
+    private double iEnergy = 0;
     
-    private Rng iRng = new Rng(1212);
-    private Rng iDistrRng = new Rng();
+    private final Rng iRng;
+    private final Rng iDistrRng;
 
     // Connectivities
     private Point[] iFgNeighborsOffsets;
@@ -60,11 +64,12 @@ public class AlgorithmDRS {
     private IndexedDiscreteDistribution iEdgeImageDistr = null;
 
     private List<Integer> iLabels = new ArrayList<>();
-    private Map<Integer, Float> iParentsProposalNormalizer = new HashMap<>();
-    private Map<Integer, Float> iChildrenProposalNormalizer = new HashMap<>();
+    // Containers indexed by label. Normalizers of labels not registered (yet) are NaN.
+    private float[] iParentsProposalNormalizer;
+    private float[] iChildrenProposalNormalizer;
     private float iTotalNormalizer;
-    private Map<Integer, ParticleSet> iChildren = new HashMap<>();
-    private Map<Integer, ParticleSet> iParents = new HashMap<>();
+    private ParticleSet[] iChildren;
+    private ParticleSet[] iParents;
     private ParticleSet iFloatingParticles = new ParticleSet();
     private float iFloatingParticlesProposalNormalizer = 0;
 
@@ -89,18 +94,7 @@ public class AlgorithmDRS {
 
     private final HashMap<Integer, LabelStatistics> iLabelStatistics = new HashMap<Integer, LabelStatistics>();
     
-    private class McmcResult {
-        public int iteration;
-        public int previousLabel;
-
-        public McmcResult(int aIteration, int aPreviousLabel) { iteration = aIteration; previousLabel = aPreviousLabel; }
-
-        @Override
-        public String toString() {
-            return "Result{" + iteration + ", " + previousLabel + "}";
-        }
-    }
-    private Map<Integer, List<McmcResult>> iMcmcResults = new HashMap<>(); // <point index -> result>
+    private final LabelMarginals iLabelMarginals;
     
     
     private class LabelImageHistoryEvent {
@@ -133,11 +127,32 @@ public class AlgorithmDRS {
     private boolean[] isParticleAbFloating = new boolean[iMcmcStepSize];
     private boolean[] isParticleBbFloating = new boolean[iMcmcStepSize];
     
+    // Containers reused in every iteration to avoid allocations
+    private final ParticleSet iScratchParticles = new ParticleSet();
+    private final ParticleSet iFgNeighborhoodParticles = new ParticleSet();
+    private final ParticleSet iBgNeighborhoodParticles = new ParticleSet();
+    private final ParticleSet iPartnerParticles = new ParticleSet();
+    private final ParticleSet iAppliedParticles = new ParticleSet();
+    private final ArrayList<Integer> iAppliedParticleOrigLabels = new ArrayList<>();
+    private double[] iProposalsBuffer = new double[32];
+    private final IndexedDiscreteDistribution iProposalsDistr;
+    
     
     public AlgorithmDRS(IntensityImage aIntensityImage, LabelImage aLabelImage, ImageModel aModel, SettingsDRS aSettings) {
+        this(aIntensityImage, aLabelImage, aModel, aSettings, new Rng(1212), new Rng());
+    }
+    
+    /**
+     * @param aRng - generator used for sampling of moves and for acceptance test
+     * @param aDistrRng - generator used by discrete distributions (edge image and biased proposals)
+     */
+    public AlgorithmDRS(IntensityImage aIntensityImage, LabelImage aLabelImage, ImageModel aModel, SettingsDRS aSettings, Rng aRng, Rng aDistrRng) {
         logger.debug("DRS algorithm created with settings:" + Debug.getJsonString(aSettings));
 
         // Save input parameters
+        iRng = aRng;
+        iDistrRng = aDistrRng;
+        iProposalsDistr = new IndexedDiscreteDistribution(iDistrRng, iProposalsBuffer.length);
         iLabelImage = aLabelImage;
         iIntensityImage = aIntensityImage;
         logger.debug("Generating edge image");
@@ -158,6 +173,9 @@ public class AlgorithmDRS {
         initLabels();
         logger.debug("Initializing statistics");
         LabelStatisticToolbox.initStatistics(iLabelImage, iIntensityImage, iLabelStatistics);
+        
+        // Marginals are collected during whole run, burn-in phase is skipped when they are read
+        iLabelMarginals = new LabelMarginals(iLabelImage.getSize(), iSettings.numOfBurnInIterations());
     }
     
     /**
@@ -192,10 +210,23 @@ public class AlgorithmDRS {
      * Marks by -labelValue all places that are topoligaccly valid for change in label image
      */
     private void initLabels() {
+        // Allocate label indexed containers
+        int maxLabel = LabelImage.BGLabel;
+        for (int i = 0; i < iLabelImage.getSize(); ++i) {
+            int label = iLabelImage.getLabel(i);
+            if (!iLabelImage.isBorderLabel(label)) maxLabel = Math.max(maxLabel, iLabelImage.labelToAbs(label));
+        }
+        iParentsProposalNormalizer = new float[maxLabel + 1];
+        iChildrenProposalNormalizer = new float[maxLabel + 1];
+        Arrays.fill(iParentsProposalNormalizer, Float.NaN);
+        Arrays.fill(iChildrenProposalNormalizer, Float.NaN);
+        iParents = new ParticleSet[maxLabel + 1];
+        iChildren = new ParticleSet[maxLabel + 1];
+        
         // By default add background
         iLabels.add(LabelImage.BGLabel);
-        iParentsProposalNormalizer.put(LabelImage.BGLabel, 0f);
-        iChildrenProposalNormalizer.put(LabelImage.BGLabel, 0f);
+        iParentsProposalNormalizer[LabelImage.BGLabel] = 0f;
+        iChildrenProposalNormalizer[LabelImage.BGLabel] = 0f;
         iTotalNormalizer = 0.0f;
 
         // Register all labels from lableImage
@@ -212,11 +243,11 @@ public class AlgorithmDRS {
             if (!visitedLabels.contains(labelAbs)) {
                 visitedLabels.add(labelAbs);
                 iLabels.add(label);
-                iParentsProposalNormalizer.put(labelAbs, 0f);
-                iChildrenProposalNormalizer.put(labelAbs, 0f);
+                iParentsProposalNormalizer[labelAbs] = 0f;
+                iChildrenProposalNormalizer[labelAbs] = 0f;
             }
             // Add all regular particles at this spot
-            for (Particle particle : getRegularParticles(idx, new ParticleSet())) {
+            for (Particle particle : getRegularParticles(idx, cleared(iScratchParticles))) {
                 if (isParticleTopoValid(particle)) {
                     insertCandidatesToContainers(particle, label, false);
                     iLabelImage.setLabel(idx, -labelAbs);
@@ -236,6 +267,31 @@ public class AlgorithmDRS {
         }
     }
     
+    /**
+     * @return number of iterations run so far
+     */
+    public int getIterationCounter() {
+        return iIterationCounter;
+    }
+    
+    /**
+     * @return energy of current state relative to the initial state (sum of energy differences of accepted moves)
+     */
+    public double getEnergy() {
+        return iEnergy;
+    }
+    
+    /**
+     * @return number of non empty regions (without background) in current state
+     */
+    public int getNumOfRegions() {
+        int numOfRegions = 0;
+        for (LabelStatistics stats : iLabelStatistics.values()) {
+            if (stats.iLabel != LabelImage.BGLabel && stats.iLabelCount > 0) ++numOfRegions;
+        }
+        return numOfRegions;
+    }
+    
     private boolean runIteration() {
         // These list will help to revert the move in case it gets rejected.
         iParticlesHistory.clear();
@@ -261,7 +317,7 @@ public class AlgorithmDRS {
         // --------------------------------------------------- off-boundary handling
         if (iSettings.allowFission && iSettings.allowFusion && iSettings.offBoundarySampleProbability > 0) {
             // off-boundary probability decreases to 0 when burn-in phase ends
-            float offBoundaryPerc = iSettings.offBoundarySampleProbability * (1.0f - iIterationCounter / (iSettings.burnInFactor * iSettings.maxNumOfIterations));
+            float offBoundaryPerc = iSettings.offBoundarySampleProbability * (1.0f - (float) iIterationCounter / iSettings.numOfBurnInIterations());
             if ((offBoundaryPerc > 0) && (iRng.GetVariate() < offBoundaryPerc)) {
                 return sampleOffBoundary(sampledLabel);
             }
@@ -279,7 +335,7 @@ public class AlgorithmDRS {
         }
         else { 
             // divide range [probabilityOfFloatingParticle - 1] by 2 and decide children (growth) vs parents (shrink)
-            activeCandidates = (rand < (probabilityOfFloatingParticle + 1) / 2) ? iChildren.get(sampledLabel) : iParents.get(sampledLabel);
+            activeCandidates = (rand < (probabilityOfFloatingParticle + 1) / 2) ? iChildren[sampledLabel] : iParents[sampledLabel];
         }
         
         if (activeCandidates.size() == 0) {
@@ -293,23 +349,30 @@ public class AlgorithmDRS {
         // ------------------------------ For each particle within the region, calculate the proposal and create a discrete distribution over particles
         int approxedIndexOffset = 0;
         IndexedDiscreteDistribution candidatesProposalsDistr = null;
-        if (iSettings.useBiasedProposal && !particleAisFloating) {
+        // With exact biased proposals regular particle containers track proposals and particles are sampled directly from them
+        boolean sampleExactBiasedProposal = iSettings.useBiasedProposal && iSettings.useExactBiasedProposal && !particleAisFloating;
+        if (iSettings.useBiasedProposal && !particleAisFloating && !sampleExactBiasedProposal) {
             final int NumberOfSamplesForBiasedProposalApproximation = 30; // must be >= 1
             int size = activeCandidates.size() < NumberOfSamplesForBiasedProposalApproximation ? activeCandidates.size() : NumberOfSamplesForBiasedProposalApproximation;
             boolean approxedIndex = (size == NumberOfSamplesForBiasedProposalApproximation);
             if (approxedIndex) approxedIndexOffset = iRng.GetIntegerVariate(activeCandidates.size() - 1);
-            double[] allParticlesProposals = new double[size];
+            double[] allParticlesProposals = proposalsBuffer(size);
             for (int k = 0; k < size; ++k) {
                 int idx = (k + approxedIndexOffset) % activeCandidates.size();
                 allParticlesProposals[k] = activeCandidates.get(idx).iProposal;
             }
-            candidatesProposalsDistr =  new IndexedDiscreteDistribution(iDistrRng, allParticlesProposals);
+            iProposalsDistr.refill(allParticlesProposals, size);
+            candidatesProposalsDistr = iProposalsDistr;
         }
 
         // ------------------------------ Find particle(s) A and udpate its proposals / canndidateToMove / currentLabel containers
         for (int i = 0; i < iMcmcStepSize; ++i) {
             int particleIndex;
-            if (iSettings.useBiasedProposal && !particleAisFloating && candidatesProposalsDistr != null) {
+            if (sampleExactBiasedProposal) {
+                particleIndex = activeCandidates.sampleIndexByProposal(iDistrRng);
+                Q_A[i] = activeCandidates.get(particleIndex).iProposal;
+            }
+            else if (iSettings.useBiasedProposal && !particleAisFloating && candidatesProposalsDistr != null) {
                 particleIndex = candidatesProposalsDistr.sample();
                 // calculate real index if proposal was calculated from subset of all particles
                 particleIndex = (particleIndex + approxedIndexOffset) % activeCandidates.size();
@@ -366,14 +429,14 @@ public class AlgorithmDRS {
                 ParticleSet particles_Q_B_A = getPartnerParticles(vA);
                 // Choose B from Q(B|A) and calculate Q(B|A).
                 if (iSettings.useBiasedProposal) {
-                    double[] proposals_Q_B_A = new double[particles_Q_B_A.size()];
+                    double[] proposals_Q_B_A = proposalsBuffer(particles_Q_B_A.size());
                     float normalizer_Q_B_A = 0;
                     for (int k = 0; k < particles_Q_B_A.size(); ++k) {
                         proposals_Q_B_A[k] = particles_Q_B_A.get(k).iProposal;
                         normalizer_Q_B_A += proposals_Q_B_A[k];
                     }
-                    IndexedDiscreteDistribution vQ_B_A = new IndexedDiscreteDistribution(iDistrRng, proposals_Q_B_A);
-                    vB = particles_Q_B_A.get(vQ_B_A.sample());
+                    iProposalsDistr.refill(proposals_Q_B_A, particles_Q_B_A.size());
+                    vB = particles_Q_B_A.get(iProposalsDistr.sample());
                     Q_B_A[i] = vB.iProposal / normalizer_Q_B_A;
                 }
                 else {
@@ -420,8 +483,9 @@ public class AlgorithmDRS {
         }
 
         // Currently it is possible that the same candidate is in the move set. Hence we store the applied moves to avoid duplicates.
-        ParticleSet appliedParticles = new ParticleSet();
-        ArrayList<Integer> appliedParticleOrigLabels = new ArrayList<>();
+        ParticleSet appliedParticles = cleared(iAppliedParticles);
+        ArrayList<Integer> appliedParticleOrigLabels = iAppliedParticleOrigLabels;
+        appliedParticleOrigLabels.clear();
 
         // Iterate the candidates, calculate the energy and perform the moves.
         float energyDiff = 0;
@@ -597,6 +661,7 @@ public class AlgorithmDRS {
             rejectParticles(appliedParticles, appliedParticleOrigLabels);
         }
         else {
+            iEnergy += energyDiff;
             for (int i = 0; i < appliedParticles.size(); ++i) {
                 storeResult(appliedParticles.get(i).iIndex, appliedParticleOrigLabels.get(i), iIterationCounter);
             }
@@ -662,12 +727,7 @@ public class AlgorithmDRS {
      * Stores new mcmc result for candidateIndex
      */
     private void storeResult(int aCandidateIndex, int aLabelBefore, int aIteration) {
-        List<McmcResult> resultsForIndex = iMcmcResults.get(aCandidateIndex);
-        if (resultsForIndex == null) {
-            resultsForIndex = new ArrayList<>();
-            iMcmcResults.put(aCandidateIndex, resultsForIndex);
-        }
-        resultsForIndex.add(new McmcResult(aIteration, aLabelBefore));
+        iLabelMarginals.labelChanged(aCandidateIndex, aLabelBefore, aIteration);
     }
 
     /**
@@ -858,8 +918,8 @@ public class AlgorithmDRS {
      */
     private float getProposalNormalizer(int aCurrentLabel, int aCandidateLabel) {
         return (aCandidateLabel == 0) ? 
-                    iParentsProposalNormalizer.get(aCurrentLabel) : 
-                    iChildrenProposalNormalizer.get(aCandidateLabel);
+                    iParentsProposalNormalizer[aCurrentLabel] : 
+                    iChildrenProposalNormalizer[aCandidateLabel];
     }
 
     /**
@@ -867,8 +927,8 @@ public class AlgorithmDRS {
      */
     private boolean isRegularParticle(Particle aParticle, int aCurrentLabel) {
         return (aParticle.iCandidateLabel == LabelImage.BGLabel) ? 
-                    iParents.get(aCurrentLabel).contains(aParticle) : 
-                    iChildren.get(aParticle.iCandidateLabel).contains(aParticle);
+                    iParents[aCurrentLabel].contains(aParticle) : 
+                    iChildren[aParticle.iCandidateLabel].contains(aParticle);
     }
     
     /**
@@ -876,7 +936,9 @@ public class AlgorithmDRS {
      */
     private void resetLabelsToParents() {
         iLabels.clear();
-        iLabels.addAll(iParents.keySet());
+        for (int label = 0; label < iParents.length; ++label) {
+            if (iParents[label] != null) iLabels.add(label);
+        }
     }
 
     /**
@@ -898,7 +960,7 @@ public class AlgorithmDRS {
             // for -1 use 0 offset (position of particle itself)
             int offset = (i >= 0) ? iBgNeighborsIndices[i] : 0;
 
-            for (Particle particle : getRegularParticles(aParticle.iIndex + offset, new ParticleSet())) {
+            for (Particle particle : getRegularParticles(aParticle.iIndex + offset, cleared(iScratchParticles))) {
                 int label = (particle.iCandidateLabel == 0) ? iLabelImage.getLabelAbs(particle.iIndex) : particle.iCandidateLabel;
 
                 if (isParticleTopoValid(particle)) {
@@ -954,13 +1016,29 @@ public class AlgorithmDRS {
         return true;
     }
     
+    /**
+     * @return aSet after removing all its particles (used for reusable containers)
+     */
+    private static ParticleSet cleared(ParticleSet aSet) {
+        aSet.clear();
+        return aSet;
+    }
+    
+    /**
+     * @return buffer for at least aSize proposals
+     */
+    private double[] proposalsBuffer(int aSize) {
+        if (iProposalsBuffer.length < aSize) iProposalsBuffer = new double[Math.max(aSize, 2 * iProposalsBuffer.length)];
+        return iProposalsBuffer;
+    }
+    
     /**
      * Gets regular particles into aList for BG neighborhood of aIndex
      * @param aIndex
      * @param aList
      */
     private ParticleSet getRegularParticlesInBgNeighborhood(int aIndex) {
-        ParticleSet aList = new ParticleSet();
+        ParticleSet aList = cleared(iBgNeighborhoodParticles);
         for (int offset : iBgNeighborsIndices) {
             getRegularParticles(aIndex + offset, aList);
         }
@@ -973,7 +1051,7 @@ public class AlgorithmDRS {
      * @param aList
      */
     private ParticleSet getRegularParticlesInFgNeighborhood(int aIndex) {
-        ParticleSet aList = new ParticleSet();
+        ParticleSet aList = cleared(iFgNeighborhoodParticles);
         for (int offset : iFgNeighborsIndices) {
             getRegularParticles(aIndex + offset, aList);
         }
@@ -987,7 +1065,7 @@ public class AlgorithmDRS {
      */
     private ParticleSet getPartnerParticles(Particle aParticle) {
         // Get all correct particles in BG neighborhood
-        ParticleSet aSet = new ParticleSet();
+        ParticleSet aSet = cleared(iPartnerParticles);
         ParticleSet conditionalParticles = getRegularParticlesInBgNeighborhood(aParticle.iIndex);
         for (Particle p : conditionalParticles) {
             if (p.iCandidateLabel != aParticle.iCandidateLabel) {
@@ -1075,19 +1153,20 @@ public class AlgorithmDRS {
      * @return true if new particle was added, false if replaced
      */
     private boolean insertCandidatesToContainers(Particle aParticle, int aCurrentLabel, boolean aDoRecord) {
-        Map<Integer, ParticleSet> container = (aParticle.iCandidateLabel == 0) ? iParents : iChildren;
-        Map<Integer, Float> containerNormalizer = (aParticle.iCandidateLabel == 0) ? iParentsProposalNormalizer : iChildrenProposalNormalizer;
+        ParticleSet[] container = (aParticle.iCandidateLabel == 0) ? iParents : iChildren;
+        float[] containerNormalizer = (aParticle.iCandidateLabel == 0) ? iParentsProposalNormalizer : iChildrenProposalNormalizer;
         int label = (aParticle.iCandidateLabel == 0) ? aCurrentLabel : aParticle.iCandidateLabel;
         
-        ParticleSet particles = container.get(label);
+        ParticleSet particles = container[label];
         if (particles == null) {
-            particles = new ParticleSet();
-            container.put(label, particles);
+            particles = new ParticleSet(iSettings.useBiasedProposal && iSettings.useExactBiasedProposal);
+            container[label] = particles;
         }
         Particle replacedParticle = particles.insert(aParticle);
 
         float diff = (replacedParticle == null) ? aParticle.iProposal : aParticle.iProposal - replacedParticle.iProposal;
-        containerNormalizer.replace(label, containerNormalizer.getOrDefault(label, 0f) + diff);
+        // normalizer of not registered label is not updated (it is set when label is registered)
+        if (!Float.isNaN(containerNormalizer[label])) containerNormalizer[label] += diff;
         iTotalNormalizer += diff;
 
         if (aDoRecord) {
@@ -1110,14 +1189,14 @@ public class AlgorithmDRS {
      * @return true if particle existed
      */
     private boolean eraseCandidatesFromContainers(Particle aParticle, int aCurrentLabel, boolean aDoRecord) {
-        Map<Integer, ParticleSet> container = (aParticle.iCandidateLabel == 0) ? iParents : iChildren;
-        Map<Integer, Float> containerNormalizer = (aParticle.iCandidateLabel == 0) ? iParentsProposalNormalizer : iChildrenProposalNormalizer;
+        ParticleSet[] container = (aParticle.iCandidateLabel == 0) ? iParents : iChildren;
+        float[] containerNormalizer = (aParticle.iCandidateLabel == 0) ? iParentsProposalNormalizer : iChildrenProposalNormalizer;
         int label = (aParticle.iCandidateLabel == 0) ? aCurrentLabel : aParticle.iCandidateLabel;
 
-        ParticleSet particles = container.get(label);
+        ParticleSet particles = container[label];
         Particle replacedParticle = particles.erase(aParticle);
         if (replacedParticle != null) {
-            containerNormalizer.put(label, containerNormalizer.get(label) - replacedParticle.iProposal);
+            containerNormalizer[label] -= replacedParticle.iProposal;
             iTotalNormalizer -= replacedParticle.iProposal;
         }
 
@@ -1244,46 +1323,58 @@ public class AlgorithmDRS {
      * @return 
      */
     public ImagePlus createProbabilityImage() {
+        return createProbabilityImage(Collections.singletonList(this));
+    }
+    
+    /**
+     * Creates output probability image with slice for every label from pooled histories of all provided chains.
+     * All chains must work on label images of same dimensions. Only iterations after burn-in phase 
+     * (burnInFactor * number of iterations run so far) are taken into account.
+     */
+    static ImagePlus createProbabilityImage(List<AlgorithmDRS> aChains) {
         // Create output stack image
-        int[] dims = iLabelImage.getDimensions();
+        LabelImage firstLabelImage = aChains.get(0).iLabelImage;
+        int[] dims = firstLabelImage.getDimensions();
         SegmentationProcessWindow resultImg = new SegmentationProcessWindow(dims[0], dims[1], true);
 
-        int numOfBurnInIterations = (int) (iSettings.burnInFactor * iIterationCounter);
-        int numOfCountableIterations = iIterationCounter - numOfBurnInIterations;
+        Set<Integer> labels = new LinkedHashSet<>();
+        for (AlgorithmDRS chain : aChains) labels.addAll(chain.iLabels);
+        labels.remove(LabelImage.BGLabel);
         
-        for (int currentLabel : iLabels) {
-            if (currentLabel == LabelImage.BGLabel) continue;
-
-            // Create initial image for current label
-            IntensityImage img = new IntensityImage(iLabelImage.getDimensions());
-            for (int i = 0; i < iLabelImage.getSize(); ++i) {
-                img.set(i, iLabelImage.getLabelAbs(i) == currentLabel ? 1f : 0f);
-            }
-            
-            for (Entry<Integer, List<McmcResult>> e : iMcmcResults.entrySet()) {
-                int index = e.getKey();
-                List<McmcResult> results = e.getValue();
-
-                int labelAtIndex = iLabelImage.getLabelAbs(index);
-
-                // Calculate for how many iterations currentLabel was a result during countable iterations.
-                long iterationsInLabel = (labelAtIndex == currentLabel) ? numOfCountableIterations : 0;
-                for (int i = results.size() - 1; i >= 0; --i) {
-                    McmcResult result = results.get(i);
-                    
-                    // Check if we are in the burn-in phase
-                    if (result.iteration < numOfBurnInIterations) break;
-
-                    if (currentLabel == labelAtIndex) {
-                        iterationsInLabel -= (result.iteration - numOfBurnInIterations);
-                    }
-                    else if (currentLabel == result.previousLabel) {
-                        iterationsInLabel += (result.iteration - numOfBurnInIterations);
-                    }
-                    labelAtIndex = result.previousLabel;
+        // Map labels to slices of output image
+        int maxLabel = 0;
+        for (int label : labels) maxLabel = Math.max(maxLabel, label);
+        final int[] labelToSlice = new int[maxLabel + 1];
+        Arrays.fill(labelToSlice, -1);
+        int numOfSlices = 0;
+        for (int label : labels) {
+            if (label >= 0) labelToSlice[label] = numOfSlices; 
+            ++numOfSlices;
+        }
+        
+        long[][] iterationsInLabel = new long[numOfSlices][firstLabelImage.getSize()];
+        long numOfCountableIterations = 0;
+        for (AlgorithmDRS chain : aChains) {
+            final int numOfBurnInIterations = chain.iSettings.numOfBurnInIterations(chain.iIterationCounter);
+            chain.iLabelMarginals.accumulate(chain.iLabelImage, aLabel -> (aLabel >= 0 && aLabel < labelToSlice.length) ? labelToSlice[aLabel] : -1, iterationsInLabel, chain.iIterationCounter, numOfBurnInIterations);
+            numOfCountableIterations += chain.iLabelMarginals.numOfCountableIterations(chain.iIterationCounter, numOfBurnInIterations);
+        }
+        if (numOfCountableIterations == 0) {
+            logger.warn("No iterations run - probability image created from current labels");
+        }
+        
+        int slice = 0;
+        for (int currentLabel : labels) {
+            long[] counts = iterationsInLabel[slice++];
+            IntensityImage img = new IntensityImage(dims);
+            for (int i = 0; i < counts.length; ++i) {
+                if (numOfCountableIterations > 0) {
+                    img.set(i, (float) ( (double)counts[i] / numOfCountableIterations));
+                }
+                else {
+                    // Nothing sampled (no iterations run) - use current state
+                    img.set(i, firstLabelImage.getLabelAbs(i) == currentLabel ? 1f : 0f);
                 }
-
-                img.set(index, (float) ( (double)iterationsInLabel / numOfCountableIterations));
             }
 
             resultImg.addSliceToStack(img, "label_" + currentLabel, false);
@@ -1292,7 +1383,7 @@ public class AlgorithmDRS {
         resultImg.setImageTitle("Probability");
         
         return resultImg.getImage();
-    }    
+    }
     
     /**
      * Generates distribution from input image.ds 
@@ -0,0 +1,180 @@
+package mosaic.regions.DRS;
+
+
+import java.util.Arrays;
+
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+/**
+ * Per-pixel label marginals of MCMC chain collected after burn-in phase.
+ * For every pair (pixel, label) number of countable iterations spent by pixel in that label is kept in
+ * open addressing hash map (linear probing) with primitive keys (label in upper and pixel index in lower 32 bits).
+ * Time spent in current label is not stored but added when counts are read, so only label changes have to be
+ * recorded. Memory depends only on number of distinct (pixel, label) pairs visited, not on number of iterations.
+ *
+ * Burn-in phase is chosen when marginals are read (so chain stopped before planned burn-in phase is over still
+ * gives samples). To make it possible planned burn-in phase is divided into buckets with separate counts and
+ * burn-in is rounded down to the bucket boundary.
+ */
+class LabelMarginals {
+    private static final long EMPTY = -1;
+    private static final float LoadFactor = 0.5f;
+    private static final int MinCapacity = 16;
+    private static final int MaxNumOfBurnInBuckets = 16;
+
+    // Iteration in which pixel got its current label
+    private final int[] iLastChange;
+    // First iteration of each bucket, last bucket starts with planned burn-in and has no end
+    private final int[] iBucketStarts;
+    private final PairCounts[] iBuckets;
+
+    /**
+     * @param aNumOfPixels - number of pixels in label image
+     * @param aNumOfBurnInIterations - number of burn-in iterations of whole planned run
+     */
+    LabelMarginals(int aNumOfPixels, int aNumOfBurnInIterations) {
+        iLastChange = new int[aNumOfPixels];
+        final int numOfBurnInBuckets = Math.min(MaxNumOfBurnInBuckets, aNumOfBurnInIterations);
+        iBucketStarts = new int[numOfBurnInBuckets + 1];
+        iBuckets = new PairCounts[numOfBurnInBuckets + 1];
+        for (int b = 0; b <= numOfBurnInBuckets; ++b) {
+            iBucketStarts[b] = (b == 0) ? 0 : (int) ((long) aNumOfBurnInIterations * b / numOfBurnInBuckets);
+            iBuckets[b] = new PairCounts();
+        }
+    }
+
+    /**
+     * Registers change of pixel label in given iteration (pixel had aPreviousLabel until aIteration)
+     */
+    void labelChanged(int aIndex, int aPreviousLabel, int aIteration) {
+        final long key = key(aIndex, aPreviousLabel);
+        final int from = iLastChange[aIndex];
+        for (int b = iBuckets.length - 1; b >= 0; --b) {
+            final int end = (b == iBuckets.length - 1) ? aIteration : Math.min(aIteration, iBucketStarts[b + 1]);
+            final int countable = end - Math.max(from, iBucketStarts[b]);
+            if (countable > 0) iBuckets[b].add(key, countable);
+            if (from >= iBucketStarts[b]) break;
+        }
+        iLastChange[aIndex] = aIteration;
+    }
+
+    private static long key(int aIndex, int aLabel) {
+        return ((long) aLabel << 32) | (aIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return first bucket counted when aNumOfBurnInIterations are skipped (burn-in rounded down to bucket start)
+     */
+    private int firstCountableBucket(int aNumOfBurnInIterations) {
+        int b = iBucketStarts.length - 1;
+        while (b > 0 && iBucketStarts[b] > aNumOfBurnInIterations) --b;
+        return b;
+    }
+
+    /**
+     * @return first iteration counted when aNumOfBurnInIterations are skipped (never later than requested)
+     */
+    int firstCountableIteration(int aNumOfBurnInIterations) {
+        return iBucketStarts[firstCountableBucket(aNumOfBurnInIterations)];
+    }
+
+    /**
+     * @return number of countable iterations from burn-in up to aIteration
+     */
+    int numOfCountableIterations(int aIteration, int aNumOfBurnInIterations) {
+        return Math.max(0, aIteration - firstCountableIteration(aNumOfBurnInIterations));
+    }
+
+    /**
+     * Adds (in one pass over all pixels and stored counts) number of countable iterations up to aIteration
+     * spent by each pixel in each label.
+     * @param aLabelImage - label image with current labels of pixels
+     * @param aLabelToSlice - maps label to the index of output array in aIterationsInLabel (labels not present are skipped)
+     * @param aIterationsInLabel - output, one array (of pixel length) for each label
+     * @param aNumOfBurnInIterations - number of iterations not taken into account (see {@link #firstCountableIteration(int)})
+     */
+    void accumulate(LabelImage aLabelImage, LabelToSlice aLabelToSlice, long[][] aIterationsInLabel, int aIteration, int aNumOfBurnInIterations) {
+        final int firstBucket = firstCountableBucket(aNumOfBurnInIterations);
+        final int firstCountableIteration = iBucketStarts[firstBucket];
+        if (aIteration <= firstCountableIteration) return;
+
+        for (int i = 0; i < iLastChange.length; ++i) {
+            final int slice = aLabelToSlice.slice(aLabelImage.getLabelAbs(i));
+            if (slice >= 0) aIterationsInLabel[slice][i] += aIteration - Math.max(iLastChange[i], firstCountableIteration);
+        }
+        for (int b = firstBucket; b < iBuckets.length; ++b) {
+            iBuckets[b].accumulate(aLabelToSlice, aIterationsInLabel);
+        }
+    }
+
+    /**
+     * Number of iterations for each (pixel, label) pair
+     */
+    private static class PairCounts {
+        private long[] iKeys;
+        private int[] iCounts;
+        private int iSize = 0;
+        private int iThreshold;
+
+        PairCounts() {
+            allocate(MinCapacity);
+        }
+
+        private void allocate(int aCapacity) {
+            iKeys = new long[aCapacity];
+            Arrays.fill(iKeys, EMPTY);
+            iCounts = new int[aCapacity];
+            iThreshold = (int) (aCapacity * LoadFactor);
+            iSize = 0;
+        }
+
+        private static int hash(long aKey) {
+            final long h = aKey * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        void add(long aKey, int aCount) {
+            final int mask = iKeys.length - 1;
+            int slot = hash(aKey) & mask;
+            while (true) {
+                final long key = iKeys[slot];
+                if (key == aKey) {
+                    iCounts[slot] += aCount;
+                    return;
+                }
+                if (key == EMPTY) break;
+                slot = (slot + 1) & mask;
+            }
+            iKeys[slot] = aKey;
+            iCounts[slot] = aCount;
+            if (++iSize > iThreshold) rehash(iKeys.length * 2);
+        }
+
+        private void rehash(int aCapacity) {
+            final long[] keys = iKeys;
+            final int[] counts = iCounts;
+            allocate(aCapacity);
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != EMPTY) add(keys[i], counts[i]);
+            }
+        }
+
+        void accumulate(LabelToSlice aLabelToSlice, long[][] aIterationsInLabel) {
+            for (int s = 0; s < iKeys.length; ++s) {
+                final long key = iKeys[s];
+                if (key == EMPTY) continue;
+                final int slice = aLabelToSlice.slice((int) (key >>> 32));
+                if (slice >= 0) aIterationsInLabel[slice][(int) key] += iCounts[s];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface LabelToSlice {
+        /**
+         * @return index of output slice for given label or -1 if label is not collected
+         */
+        int slice(int aLabel);
+    }
+}
@@ -0,0 +1,222 @@
+package mosaic.regions.DRS;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import ij.ImagePlus;
+import mosaic.core.imageUtils.images.IntensityImage;
+import mosaic.core.imageUtils.images.LabelImage;
+import mosaic.regions.energies.ImageModel;
+
+
+/**
+ * Runs several independent DRS chains concurrently. Each chain has its own label image, particle containers,
+ * energies and random number generators. Per-pixel histories of all chains are pooled into one probability image
+ * and Gelman-Rubin diagnostics (on number of regions and on energy) are provided so sampling can be stopped
+ * when chains agree.
+ * First chain works on provided label image and uses same generators as single AlgorithmDRS so with one chain
+ * results are exactly the same as running AlgorithmDRS directly.
+ */
+public class MultiChainDRS {
+    private static final Logger logger = Logger.getLogger(MultiChainDRS.class);
+
+    // Maximum number of samples kept in traces used for convergence diagnostics (traces are thinned to fit)
+    private static final int MaxNumOfTraceSamples = 1000;
+
+    private final List<AlgorithmDRS> iChains = new ArrayList<>();
+    private final SettingsDRS iSettings;
+    private final int iTraceInterval;
+    private final double[][] iNumOfRegionsTraces;
+    private final double[][] iEnergyTraces;
+    private int iNumOfTraceSamples;
+
+    /**
+     * @param aIntensityImage - input image (shared by all chains, it is not modified)
+     * @param aLabelImage - initial label image, used by first chain (other chains work on its copies)
+     * @param aModelFactory - creates energies for chain's label image
+     * @param aSettings - settings common for all chains
+     * @param aNumOfChains - number of chains
+     * @param aSeed - seed for generators of all chains but first one
+     */
+    public MultiChainDRS(IntensityImage aIntensityImage, LabelImage aLabelImage, Function<LabelImage, ImageModel> aModelFactory, SettingsDRS aSettings, int aNumOfChains, long aSeed) {
+        if (aNumOfChains < 1) throw new IllegalArgumentException("Number of chains must be >= 1, got: " + aNumOfChains);
+        iSettings = aSettings;
+
+        // Copies must be created before first chain initializes (and modifies) label image
+        List<LabelImage> labelImages = new ArrayList<>();
+        labelImages.add(aLabelImage);
+        for (int i = 1; i < aNumOfChains; ++i) labelImages.add(new LabelImage(aLabelImage));
+
+        // Every chain gets its own stream, streams are split in chain order so results are reproducible for given seed
+        SplittableRandom random = new SplittableRandom(aSeed);
+        for (int i = 0; i < aNumOfChains; ++i) {
+            LabelImage labelImage = labelImages.get(i);
+            if (i == 0) {
+                iChains.add(new AlgorithmDRS(aIntensityImage, labelImage, aModelFactory.apply(labelImage), aSettings));
+            }
+            else {
+                SplittableRandom chainRandom = random.split();
+                iChains.add(new AlgorithmDRS(aIntensityImage, labelImage, aModelFactory.apply(labelImage), aSettings, new Rng(chainRandom.nextInt()), new Rng(chainRandom.nextInt())));
+            }
+        }
+
+        iTraceInterval = Math.max(1, (aSettings.maxNumOfIterations + MaxNumOfTraceSamples - 1) / MaxNumOfTraceSamples);
+        int traceLength = aSettings.maxNumOfIterations / iTraceInterval + 1;
+        iNumOfRegionsTraces = new double[aNumOfChains][traceLength];
+        iEnergyTraces = new double[aNumOfChains][traceLength];
+        for (int c = 0; c < aNumOfChains; ++c) {
+            iNumOfRegionsTraces[c][0] = iChains.get(c).getNumOfRegions();
+        }
+        iNumOfTraceSamples = 1;
+    }
+
+    /**
+     * Runs aNumOfIterations iterations in every chain. Chains are run concurrently.
+     */
+    public void runIterations(int aNumOfIterations) {
+        final int numOfThreads = Math.min(iChains.size(), Runtime.getRuntime().availableProcessors());
+        if (numOfThreads <= 1) {
+            for (int c = 0; c < iChains.size(); ++c) runChain(c, aNumOfIterations);
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            final List<Future<?>> runs = new ArrayList<Future<?>>(iChains.size());
+            for (int c = 0; c < iChains.size(); ++c) {
+                final int chain = c;
+                runs.add(executor.submit(() -> runChain(chain, aNumOfIterations)));
+            }
+            for (Future<?> run : runs) run.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("DRS chains interrupted", e);
+        }
+        catch (ExecutionException e) {
+            // keep original exception type (e.g. IllegalStateException when chain has no active region)
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException("DRS chain failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runChain(int aChainIndex, int aNumOfIterations) {
+        AlgorithmDRS chain = iChains.get(aChainIndex);
+        for (int i = 0; i < aNumOfIterations; ++i) {
+            chain.runOneIteration();
+            int iteration = chain.getIterationCounter();
+            if (iteration % iTraceInterval == 0 && iteration / iTraceInterval < iNumOfRegionsTraces[aChainIndex].length) {
+                // all chains run same number of iterations so they write same trace positions
+                int sample = iteration / iTraceInterval;
+                iNumOfRegionsTraces[aChainIndex][sample] = chain.getNumOfRegions();
+                iEnergyTraces[aChainIndex][sample] = chain.getEnergy();
+            }
+        }
+        if (aChainIndex == 0) {
+            iNumOfTraceSamples = Math.min(iNumOfRegionsTraces[0].length, chain.getIterationCounter() / iTraceInterval + 1);
+        }
+    }
+
+    /**
+     * @return number of chains
+     */
+    public int getNumOfChains() {
+        return iChains.size();
+    }
+
+    /**
+     * @return chain with given index
+     */
+    public AlgorithmDRS getChain(int aIndex) {
+        return iChains.get(aIndex);
+    }
+
+    /**
+     * @return probability image created from pooled histories of all chains
+     */
+    public ImagePlus createProbabilityImage() {
+        return AlgorithmDRS.createProbabilityImage(iChains);
+    }
+
+    /**
+     * @return Gelman-Rubin potential scale reduction factor of number of regions (NaN if not enough chains or samples)
+     */
+    public double getNumOfRegionsPotentialScaleReduction() {
+        return potentialScaleReduction(iNumOfRegionsTraces);
+    }
+
+    /**
+     * @return Gelman-Rubin potential scale reduction factor of energy (NaN if not enough chains or samples)
+     */
+    public double getEnergyPotentialScaleReduction() {
+        return potentialScaleReduction(iEnergyTraces);
+    }
+
+    /**
+     * @return true if potential scale reduction of both number of regions and energy is not bigger than aThreshold
+     *         (typically 1.1 or 1.2). It is never true for single chain nor before burn-in phase is over.
+     */
+    public boolean hasConverged(double aThreshold) {
+        // Marginals are collected only after burn-in phase so stopping earlier would give no samples
+        if (iChains.get(0).getIterationCounter() <= iSettings.numOfBurnInIterations()) return false;
+        double rRegions = getNumOfRegionsPotentialScaleReduction();
+        double rEnergy = getEnergyPotentialScaleReduction();
+        logger.debug("Potential scale reduction (regions/energy): " + rRegions + " / " + rEnergy);
+        return rRegions <= aThreshold && rEnergy <= aThreshold;
+    }
+
+    /**
+     * Samples from burn-in phase are not taken into account (same as for probability image).
+     */
+    private double potentialScaleReduction(double[][] aTraces) {
+        // first sample taken after burn-in phase (sample 0 is initial state)
+        int from = Math.max(1, (iSettings.numOfBurnInIterations() + iTraceInterval - 1) / iTraceInterval);
+        return gelmanRubin(aTraces, from, iNumOfTraceSamples);
+    }
+
+    /**
+     * Gelman-Rubin potential scale reduction factor for samples [aFrom, aTo) of given traces (one trace per chain).
+     * @return R-hat, NaN if there is less than 2 chains or 2 samples, 1 if all samples are equal
+     */
+    static double gelmanRubin(double[][] aTraces, int aFrom, int aTo) {
+        int m = aTraces.length;
+        int n = aTo - aFrom;
+        if (m < 2 || n < 2) return Double.NaN;
+
+        double[] means = new double[m];
+        double meanOfMeans = 0;
+        double withinVariance = 0;
+        for (int c = 0; c < m; ++c) {
+            double mean = 0;
+            for (int i = aFrom; i < aTo; ++i) mean += aTraces[c][i];
+            mean /= n;
+            double variance = 0;
+            for (int i = aFrom; i < aTo; ++i) variance += (aTraces[c][i] - mean) * (aTraces[c][i] - mean);
+            withinVariance += variance / (n - 1);
+            means[c] = mean;
+            meanOfMeans += mean;
+        }
+        withinVariance /= m;
+        meanOfMeans /= m;
+
+        double betweenVariance = 0;
+        for (int c = 0; c < m; ++c) betweenVariance += (means[c] - meanOfMeans) * (means[c] - meanOfMeans);
+        betweenVariance *= (double) n / (m - 1);
+
+        if (withinVariance == 0) return (betweenVariance == 0) ? 1 : Double.POSITIVE_INFINITY;
+        double pooledVariance = (n - 1) * withinVariance / n + betweenVariance / n;
+        return Math.sqrt(pooledVariance / withinVariance);
+    }
+}
@@ -1,103 +1,244 @@
 package mosaic.regions.DRS;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 
+import org.apache.commons.math3.random.RandomGenerator;
+
+import mosaic.utils.math.DynamicDiscreteDistribution;
+
+/**
+ * Indexed set of particles. Particles are equal if they have same index and candidate label.
+ * Particles are kept in array (continuous indices, removed particle is replaced by last one) and their positions
+ * are found with open addressing hash map (linear probing) with primitive keys (pixel index in upper and
+ * candidate label in lower 32 bits) so no boxing or map entries are created.
+ * Optionally proposals of particles are tracked in dynamic distribution so particle can be sampled (exactly)
+ * proportionally to its proposal in O(log n). Proposal of particle in such container must not be changed in place 
+ * (particle must be re-inserted instead).
+ */
 public class ParticleSet implements Iterable<Particle> {
-    private HashMap<Particle, Integer> iMap = new HashMap<>();
-    protected ArrayList<Particle> iParticles = new ArrayList<>();
+    private static final int EMPTY = -1;
+    private static final float LoadFactor = 0.5f;
+    private static final int MinCapacity = 16;
+
+    // hash map: key -> position of particle in iParticles (EMPTY if slot is free)
+    private long[] iKeys;
+    private int[] iPositions;
+    private int iThreshold;
+
+    private Particle[] iParticles = new Particle[MinCapacity / 2];
+    private int iSize = 0;
     
+    // Proposals of particles (same order as iParticles), null if not tracked
+    private final DynamicDiscreteDistribution iProposals;
+
+    public ParticleSet() {
+        this(false);
+    }
+    
+    /**
+     * @param aTrackProposals - if true particles can be sampled by their proposals
+     */
+    public ParticleSet(boolean aTrackProposals) {
+        allocate(MinCapacity);
+        iProposals = aTrackProposals ? new DynamicDiscreteDistribution() : null;
+    }
+
+    private void allocate(int aCapacity) {
+        iKeys = new long[aCapacity];
+        iPositions = new int[aCapacity];
+        Arrays.fill(iPositions, EMPTY);
+        iThreshold = (int) (aCapacity * LoadFactor);
+    }
+
+    private static long key(Particle aParticle) {
+        return ((long) aParticle.iIndex << 32) | (aParticle.iCandidateLabel & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long aKey) {
+        final long h = aKey * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return slot of given key or -1 if not found
+     */
+    private int findSlot(long aKey) {
+        final int mask = iKeys.length - 1;
+        int slot = hash(aKey) & mask;
+        while (iPositions[slot] != EMPTY) {
+            if (iKeys[slot] == aKey) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Puts key into first free slot (key must not be in map).
+     */
+    private void putKey(long aKey, int aPosition) {
+        final int mask = iKeys.length - 1;
+        int slot = hash(aKey) & mask;
+        while (iPositions[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        iKeys[slot] = aKey;
+        iPositions[slot] = aPosition;
+    }
+
+    /**
+     * Removes key from given slot and shifts back following keys of probe sequence (no deleted markers needed).
+     */
+    private void removeSlot(int aSlot) {
+        final int mask = iKeys.length - 1;
+        int hole = aSlot;
+        int slot = aSlot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (iPositions[slot] == EMPTY) break;
+            final int home = hash(iKeys[slot]) & mask;
+            // move entry to the hole if its home slot is not in cyclic range (hole, slot]
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                iKeys[hole] = iKeys[slot];
+                iPositions[hole] = iPositions[slot];
+                hole = slot;
+            }
+        }
+        iPositions[hole] = EMPTY;
+    }
+
+    private void rehash(int aCapacity) {
+        allocate(aCapacity);
+        for (int i = 0; i < iSize; ++i) {
+            putKey(key(iParticles[i]), i);
+        }
+    }
+
     /**
      * @return size of container
      */
-    int size() { return iMap.size(); }
-    
+    int size() { return iSize; }
+
     /**
      * @return index of aParticle or if not found -1
      */
     int getIndex(Particle aParticle) {
-        Integer index = iMap.get(aParticle);
-        if (index == null) { return -1; }
-        return index;
+        int slot = findSlot(key(aParticle));
+        return (slot < 0) ? -1 : iPositions[slot];
     }
-    
+
     /**
      * @return true if aParticle is in container
      */
     boolean contains(Particle aParticle) {
-        return iMap.containsKey(aParticle);
+        return findSlot(key(aParticle)) >= 0;
     }
-    
+
     /**
      * Inserts particle into container
      * @param aParticle - particle to be inserted
-     * @return index of inserted particle
+     * @return replaced particle (equal to aParticle) or null if there was no such particle
      */
     Particle insert(Particle aParticle) {
-        Integer index = iMap.get(aParticle);
-        Particle lastRemovedElement = null;
-        if (index == null) {
-            iParticles.add(aParticle);
-            iMap.put(aParticle, iMap.size());
+        long key = key(aParticle);
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            int index = iPositions[slot];
+            Particle lastRemovedElement = iParticles[index];
+            iParticles[index] = aParticle;
+            if (iProposals != null) iProposals.set(index, aParticle.iProposal);
+            return lastRemovedElement;
         }
-        else {
-            lastRemovedElement = iParticles.set(index, aParticle);
-            iMap.replace(aParticle, index);
+
+        if (iSize == iParticles.length) {
+            iParticles = Arrays.copyOf(iParticles, iSize * 2);
         }
-        return lastRemovedElement;
+        iParticles[iSize] = aParticle;
+        if (iProposals != null) iProposals.add(aParticle.iProposal);
+        putKey(key, iSize);
+        ++iSize;
+        if (iSize > iThreshold) rehash(iKeys.length * 2);
+
+        return null;
     }
-    
+
     /**
      * @return particle at aIndex
      */
     Particle get(int aIndex) {
-        return iParticles.get(aIndex);
+        if (aIndex >= iSize) throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + iSize);
+        return iParticles[aIndex];
     }
-    
+
     /**
      * Removes aParticle. Change indices to keep them continues so may invalidate previous index to particle.
      * @return removed MinimalParticle if existed or null otherwise
      */
     Particle erase(Particle aParticle) {
-        Integer index = iMap.get(aParticle);
-        if (index == null) {
+        int slot = findSlot(key(aParticle));
+        if (slot < 0) {
             return null;
         }
-        Particle lastRemovedElement = iParticles.get(index);
-        int lastElementIndex = iParticles.size() - 1;
+        int index = iPositions[slot];
+        removeSlot(slot);
+
+        Particle lastRemovedElement = iParticles[index];
+        int lastElementIndex = iSize - 1;
         if (lastElementIndex != index) {
             // Move last element in a place of removed one.
-            Particle lastParticle = iParticles.get(lastElementIndex);
-            iParticles.set(index, lastParticle);
-            iMap.replace(lastParticle, index);
+            Particle lastParticle = iParticles[lastElementIndex];
+            iParticles[index] = lastParticle;
+            iPositions[findSlot(key(lastParticle))] = index;
+            if (iProposals != null) iProposals.set(index, iProposals.get(lastElementIndex));
         }
-        iParticles.remove(lastElementIndex);
-        iMap.remove(aParticle);
+        iParticles[lastElementIndex] = null;
+        if (iProposals != null) iProposals.removeLast();
+        --iSize;
 
         return lastRemovedElement;
     }
+
+    /**
+     * Removes all particles (allocated memory is kept so container can be reused)
+     */
+    void clear() {
+        Arrays.fill(iPositions, EMPTY);
+        Arrays.fill(iParticles, 0, iSize, null);
+        iSize = 0;
+        if (iProposals != null) iProposals.clear();
+    }
     
+    /**
+     * Samples particle with probability proportional to its proposal (container must track proposals).
+     * @return index of sampled particle
+     */
+    int sampleIndexByProposal(RandomGenerator aRng) {
+        if (iProposals == null) throw new IllegalStateException("Proposals are not tracked in this container");
+        return iProposals.sample(aRng);
+    }
+
     @Override
     public String toString() {
-        return " MAP/VECsize: " + iMap.size() +"/" + iParticles.size() + " mapElements:\n" + iMap;
+        StringBuilder sb = new StringBuilder(" size: " + iSize + " elements:\n");
+        for (int i = 0; i < iSize; ++i) sb.append(iParticles[i]).append("=").append(i).append(" ");
+        return sb.toString();
     }
 
     @Override
     public Iterator<Particle> iterator() {
         return new Iterator<Particle>() {
             private int idx = 0;
-            
+
             @Override
             public boolean hasNext() {
-                return idx < iParticles.size();
+                return idx < iSize;
             }
 
             @Override
             public Particle next() {
-                return iParticles.get(idx++);
+                return iParticles[idx++];
             }
-            
+
             @Override
             public void remove() {
                 throw new UnsupportedOperationException();
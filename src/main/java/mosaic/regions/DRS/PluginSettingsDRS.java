@@ -9,8 +9,14 @@ public class PluginSettingsDRS extends Settings {
     public float offBoundarySampleProbability = 0.00f;
     public boolean useBiasedProposal = false;
     public boolean usePairProposal = false;
+    public boolean useExactBiasedProposal = false;
     public float burnInFactor = 0.3f;
     
+    // Number of independent chains sampled concurrently (their histories are pooled in probability image)
+    public int numOfChains = 1;
+    // Sampling stops when Gelman-Rubin potential scale reduction drops below this value (0 - never stop early)
+    public float maxPotentialScaleReduction = 0f;
+    
     // Input settings 
     public String initFileName = null;
     
@@ -25,7 +31,10 @@ public class PluginSettingsDRS extends Settings {
         offBoundarySampleProbability = s.offBoundarySampleProbability;
         useBiasedProposal = s.useBiasedProposal;
         usePairProposal = s.usePairProposal;
+        useExactBiasedProposal = s.useExactBiasedProposal;
         burnInFactor = s.burnInFactor;
+        numOfChains = s.numOfChains;
+        maxPotentialScaleReduction = s.maxPotentialScaleReduction;
     }
 
     public PluginSettingsDRS() {}
@@ -14,6 +14,9 @@ public class SettingsDRS {
     boolean useBiasedProposal = false;
     boolean usePairProposal = false;
     float burnInFactor = 0.3f;
+    // Sample biased proposals exactly (dynamic distribution over all particles of region) instead of 
+    // approximating them from a window of particles as C++ implementation does
+    public boolean useExactBiasedProposal = false;
 
     public SettingsDRS(boolean aAllowFusion,
                        boolean aAllowFission,
@@ -33,4 +36,19 @@ public class SettingsDRS {
         usePairProposal = aUsePairProporsal;
         burnInFactor = aBurnInFactor;
     }
+
+    /**
+     * @return number of burn-in iterations (samples from them are not taken into account) of run with
+     *         maxNumOfIterations iterations
+     */
+    int numOfBurnInIterations() {
+        return numOfBurnInIterations(maxNumOfIterations);
+    }
+
+    /**
+     * @return number of burn-in iterations of run stopped after aNumOfIterations iterations
+     */
+    int numOfBurnInIterations(int aNumOfIterations) {
+        return (int) (burnInFactor * aNumOfIterations);
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package mosaic.regions.RC;
 
 import static mosaic.core.imageUtils.images.LabelImage.BGLabel;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,6 +13,9 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 import org.apache.log4j.Logger;
 
@@ -41,14 +45,20 @@ public class AlgorithmRC {
     private final ImageModel iImageModel;
     private final SettingsRC iSettings;
 
-    private final HashMap<Point, ContourParticle> iContourParticles = new HashMap<Point, ContourParticle>();
+    // Containers keyed by index of point in label image
+    private final IndexedMap<ContourParticle> iContourParticles;
     private final HashMap<Integer, LabelStatistics> iLabelStatistics = new HashMap<Integer, LabelStatistics>();
-    private final HashMap<Point, LabelPair> iCompetingRegions = new HashMap<Point, LabelPair>();
-    private final HashMap<Point, ContourParticle> iCandidates = new HashMap<Point, ContourParticle>();
+    private final IndexedMap<LabelPair> iCompetingRegions;
+    private final IndexedMap<ContourParticle> iCandidates;
+    private final ContourParticlePool iParticlePool;
 
     private final LabelDispenser labelDispenser = new LabelDispenser();
     private final OscillationDetection oscillationDetection;
     private final TopologicalNumber iTopologicalNumber;
+    
+    // Pool for calculating energies of candidates concurrently (null if only one thread is used)
+    private final ForkJoinPool iEnergyPool;
+    private static final int ChunksPerThread = 4;
 
     // Settings
     private static final float AcceptedPointsFactor = 1;
@@ -56,6 +66,7 @@ public class AlgorithmRC {
     private static final int MinimumAreaSize = 1;
     private boolean shrinkFirst = false;
     private float acceptedPointsFactor = AcceptedPointsFactor;
+    private int iIterationsSinceDeconvolutionRenewal = 0;
 
     private class Seed {
         private final Point iPoint;
@@ -98,8 +109,15 @@ public class AlgorithmRC {
         iImageModel = aModel;
         iSettings = aSettings;
 
+        iContourParticles = IndexedMap.create(iSettings.useIndexedContainers, iLabelImage);
+        iCompetingRegions = iContourParticles.newMap();
+        iCandidates = iContourParticles.newMap();
+        // Reusing particles is done only with indexed containers, original implementation is kept untouched
+        iParticlePool = new ContourParticlePool(iSettings.useIndexedContainers);
+
         oscillationDetection = new OscillationDetection(iSettings.oscillationThreshold, iSettings.maxNumOfIterations);
         iTopologicalNumber = new TopologicalNumber(iLabelImage);
+        iEnergyPool = (iSettings.numOfThreads > 1) ? new ForkJoinPool(iSettings.numOfThreads) : null;
 
         // Initialize label image
         iLabelImage.initBorder();
@@ -121,8 +139,9 @@ public class AlgorithmRC {
      */
     private void initContourContainer(List<Point> aContourPoints) {
         for (Point point : aContourPoints) {
-            final ContourParticle particle = new ContourParticle(iLabelImage.getLabelAbs(point), iIntensityImage.get(point));
-            iContourParticles.put(point, particle);
+            final int index = iLabelImage.pointToIndex(point);
+            final ContourParticle particle = iParticlePool.getParticle(iLabelImage.getLabelAbs(index), iIntensityImage.get(index));
+            iContourParticles.put(index, particle);
         }
     }
 
@@ -138,6 +157,15 @@ public class AlgorithmRC {
         return labelDispenser.getHighestLabelEverUsed();
     }
 
+    /**
+     * Releases threads used for calculating energies. Should be called when segmentation is finished.
+     */
+    public void close() {
+        if (iEnergyPool != null) {
+            iEnergyPool.shutdown();
+        }
+    }
+
     /**
      * @return container with statistics per each label
      */
@@ -203,19 +231,19 @@ public class AlgorithmRC {
      * @param aPoint changing point
      * @param aAbsLabel old label of this point
      */
-    private void changeNeighboursOfParticleToCountour(int aAbsLabel, Point aPoint) {
+    private void changeNeighboursOfParticleToCountour(int aAbsLabel, int aIndex) {
         if (iLabelImage.isContourLabel(aAbsLabel)) {
-            logger.error("AddNeighborsAtRemove. one label is not absLabel " + aAbsLabel + " at " + aPoint);
+            logger.error("AddNeighborsAtRemove. one label is not absLabel " + aAbsLabel + " at " + iLabelImage.indexToPoint(aIndex));
         }
 
-        for (final Integer p : iLabelImage.iterateNeighbours(aPoint)) {
+        for (final int p : iLabelImage.iterateNeighbours(aIndex)) {
             final int label = iLabelImage.getLabel(p);
             if (iLabelImage.isInnerLabel(label) && label == aAbsLabel) {
                 // q is a inner point with the same label as p
-                final ContourParticle q = new ContourParticle(aAbsLabel, iIntensityImage.get(p));
+                final ContourParticle q = iParticlePool.getParticle(aAbsLabel, iIntensityImage.get(p));
                 q.candidateLabel = BGLabel;
                 iLabelImage.setLabel(p, iLabelImage.labelToNeg(aAbsLabel));
-                iContourParticles.put(iLabelImage.indexToPoint(p), q);
+                iContourParticles.put(p, q);
             }
         }
     }
@@ -224,18 +252,18 @@ public class AlgorithmRC {
      * If neighbors of changed particle are enclosed, remove them from ContourParticles container and change their
      * type to interior.
      */
-    private void removeEnclosedNeighboursFromContour(int aLabelAbs, Point aPoint) {
-        for (final int qIndex : iLabelImage.iterateNeighbours(aPoint)) {
+    private void removeEnclosedNeighboursFromContour(int aLabelAbs, int aIndex) {
+        for (final int qIndex : iLabelImage.iterateNeighbours(aIndex)) {
             if (iLabelImage.getLabel(qIndex) == iLabelImage.labelToNeg(aLabelAbs) && iLabelImage.isEnclosedByLabel(qIndex, aLabelAbs)) {
-                iContourParticles.remove(iLabelImage.indexToPoint(qIndex));
+                iContourParticles.remove(qIndex);
                 iLabelImage.setLabel(qIndex, aLabelAbs);
             }
         }
 
         // TODO: Investigate cases it might happen and put comment
-        if (iLabelImage.isEnclosedByLabel(aPoint, aLabelAbs)) {
-            iContourParticles.remove(aPoint);
-            iLabelImage.setLabel(aPoint, aLabelAbs);
+        if (iLabelImage.isEnclosedByLabel(aIndex, aLabelAbs)) {
+            iContourParticles.remove(aIndex);
+            iLabelImage.setLabel(aIndex, aLabelAbs);
         }
     }
 
@@ -243,19 +271,19 @@ public class AlgorithmRC {
      * Change CountourPoint label to candidate label. Perform needed cleanup around like changing neighbor particles
      * to inner or to contour points if needed.
      */
-    private void changeContourPointLabelToCandidateLabelAndUpdateNeighbours(Point aPoint, ContourParticle aContourParticle) {
+    private void changeContourPointLabelToCandidateLabelAndUpdateNeighbours(int aIndex, ContourParticle aContourParticle) {
         final int fromLabel = aContourParticle.label;
         final int toLabel = aContourParticle.candidateLabel;
         float intensity = aContourParticle.intensity;
 
         // Update the label image. The new point is either a contour point or 0,
         // therefore the negative label value is set.
-        iLabelImage.setLabel(aPoint, iLabelImage.labelToNeg(toLabel));
+        iLabelImage.setLabel(aIndex, iLabelImage.labelToNeg(toLabel));
 
         // Update the statistics of the propagating and the loser region.
         LabelStatisticToolbox.updateLabelStatistics(intensity, fromLabel, toLabel, iLabelStatistics);
         if (iSettings.usingDeconvolutionPcEnergy) {
-            ((E_Deconvolution) iImageModel.getEdata()).UpdateConvolvedImage(aPoint, fromLabel, toLabel, iLabelStatistics);
+            ((E_Deconvolution) iImageModel.getEdata()).UpdateConvolvedImage(iLabelImage.indexToPoint(aIndex), fromLabel, toLabel, iLabelStatistics);
         }
 
         // TODO: A bit a dirty hack: we store the old label for the relabeling procedure later on...
@@ -267,22 +295,22 @@ public class AlgorithmRC {
         // The loser region (if it is not the BG region) has to add the
         // neighbors of the lost point to the contour list.
         if (fromLabel != BGLabel) {
-            changeNeighboursOfParticleToCountour(fromLabel, aPoint);
+            changeNeighboursOfParticleToCountour(fromLabel, aIndex);
         }
 
         // Erase the point from the surface container in case it now belongs to the background.
         // Otherwise add the point to the container (or replace it in case it has been there already).
         if (toLabel == BGLabel) {
-            iContourParticles.remove(aPoint);
+            iContourParticles.remove(aIndex);
         }
         else {
             aContourParticle.label = toLabel;
             // The point may or may not exist already in the m_InnerContainer.
             // The old value, if it exist, is just overwritten with the new contour point (with a new label).
-            iContourParticles.put(aPoint, aContourParticle);
+            iContourParticles.put(aIndex, aContourParticle);
 
             // Remove 'enclosed' contour points from the container. For the BG this makes no sense.
-            removeEnclosedNeighboursFromContour(toLabel, aPoint);
+            removeEnclosedNeighboursFromContour(toLabel, aIndex);
         }
     }
     
@@ -297,23 +325,28 @@ public class AlgorithmRC {
         // exists searching for the point.
         // but atm, im happy that it detects "orphan"-contourPoints (without attached labelInfo)
 
-        // TODO: It must be converted to array since later code modifies HashMap (!) by adding/removing
+        // TODO: It must be copied since later code modifies container (!) by adding/removing
         // entries in ChangeContourPointLabelToCandidateLabel.
         // Without such "hack" it generates ConcurrentModificationException. Anyway.. this
         // "solution" must be revisited.
-        Object[] array = iContourParticles.entrySet().toArray();
-        for (Object o : array) {
-            @SuppressWarnings("unchecked")
-            Entry<Point, ContourParticle> vIt = (Entry<Point, ContourParticle>) o;
-            final ContourParticle contourParticle = vIt.getValue();
+        final int numOfParticles = iContourParticles.size();
+        final int[] indices = new int[numOfParticles];
+        final ContourParticle[] particles = new ContourParticle[numOfParticles];
+        final IndexedMap.Cursor<ContourParticle> cursor = iContourParticles.cursor();
+        for (int i = 0; cursor.next(); i++) {
+            indices[i] = cursor.index();
+            particles[i] = cursor.value();
+        }
+        for (int i = 0; i < numOfParticles; i++) {
+            final ContourParticle contourParticle = particles[i];
             final LabelStatistics labelStat = iLabelStatistics.get(contourParticle.label);
             if (labelStat == null) {
-                logger.error("There is not label statistics for label: " + contourParticle.label + " at " + vIt.getKey());
+                logger.error("There is not label statistics for label: " + contourParticle.label + " at " + iLabelImage.indexToPoint(indices[i]));
                 continue;
             }
             else if (labelStat.iLabelCount == 1) {
                 contourParticle.candidateLabel = BGLabel;
-                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(vIt.getKey(), vIt.getValue());
+                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(indices[i], contourParticle);
             }
         }
         LabelStatisticToolbox.removeEmptyStatistics(iLabelStatistics);
@@ -344,30 +377,30 @@ public class AlgorithmRC {
      */
     private void removeRegion(int aLabel) {
         // Find all the element with this label and store them in a tentative container
-        final HashMap<Point, ContourParticle> labelParticles = new HashMap<Point, ContourParticle>();
-        for (final Entry<Point, ContourParticle> particleIt : iContourParticles.entrySet()) {
-            if (particleIt.getValue().label == aLabel) {
-                labelParticles.put(particleIt.getKey(), particleIt.getValue());
-            }
-        }
+        final IndexedMap<ContourParticle> labelParticles = iContourParticles.newMap();
+        collectParticlesWithLabel(aLabel, labelParticles);
 
         // Successively remove the points from the contour
         while (!labelParticles.isEmpty()) {
-            final Iterator<Entry<Point, ContourParticle>> iter = labelParticles.entrySet().iterator();
-            while (iter.hasNext()) {
-                final Entry<Point, ContourParticle> tmp = iter.next();
-                tmp.getValue().candidateLabel = BGLabel;
-                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(tmp.getKey(), tmp.getValue());
+            final IndexedMap.Cursor<ContourParticle> iter = labelParticles.cursor();
+            while (iter.next()) {
+                iter.value().candidateLabel = BGLabel;
+                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(iter.index(), iter.value());
                 iter.remove();
             }
 
             // After above loop only outside "layer" of region was removed. Proceed until all stuff is removed.
             if (iLabelStatistics.get(aLabel).iLabelCount > 0) {
-                for (final Entry<Point, ContourParticle> particleIt : iContourParticles.entrySet()) {
-                    if (particleIt.getValue().label == aLabel) {
-                        labelParticles.put(particleIt.getKey(), particleIt.getValue());
-                    }
-                }
+                collectParticlesWithLabel(aLabel, labelParticles);
+            }
+        }
+    }
+
+    private void collectParticlesWithLabel(int aLabel, IndexedMap<ContourParticle> aOutput) {
+        final IndexedMap.Cursor<ContourParticle> particleIt = iContourParticles.cursor();
+        while (particleIt.next()) {
+            if (particleIt.value().label == aLabel) {
+                aOutput.put(particleIt.index(), particleIt.value());
             }
         }
     }
@@ -385,8 +418,9 @@ public class AlgorithmRC {
         // Copy the candidates to a set (of ContourPointWithIndex). This
         // will sort them according to their energy gradients.
         final List<ContourParticleWithIndex> sortedCandidates = new LinkedList<ContourParticleWithIndex>();
-        for (final Entry<Point, ContourParticle> iter : iCandidates.entrySet()) {
-            final ContourParticleWithIndex candidate = new ContourParticleWithIndex(iter.getKey(), iter.getValue());
+        final IndexedMap.Cursor<ContourParticle> iter = iCandidates.cursor();
+        while (iter.next()) {
+            final ContourParticleWithIndex candidate = new ContourParticleWithIndex(iter.index(), iter.value());
             sortedCandidates.add(candidate);
         }
         Collections.sort(sortedCandidates);
@@ -400,7 +434,7 @@ public class AlgorithmRC {
                 break;
             }
             // This candidate passed the test and is added to the TempRemoveCotainer:
-            iCandidates.put(vSortedListIterator.iPoint, vSortedListIterator.iContourParticle);
+            iCandidates.put(vSortedListIterator.iIndex, vSortedListIterator.iContourParticle);
         }
     }
     
@@ -412,7 +446,8 @@ public class AlgorithmRC {
      */
     private void relabelRegionAtPoint(Point aPoint, int aNewLabel, BinarizedImage aAreaWithOldLabels) {
         final Set<Integer> oldLabels = new HashSet<Integer>();
-        final Set<Point> oldContours = new HashSet<Point>();
+        // Flood fill visits each point once so there are no duplicates
+        final IntList oldContours = new IntList();
         final FloodFill ff = new FloodFill(iLabelImage, aAreaWithOldLabels, aPoint);
         
         double sumOfVal = 0;
@@ -427,7 +462,7 @@ public class AlgorithmRC {
             // the visited labels statistics will be removed later.
             oldLabels.add(iLabelImage.labelToAbs(oldLabel));
             if (iLabelImage.isContourLabel(oldLabel)) {
-                oldContours.add(iLabelImage.indexToPoint(currentPoint));
+                oldContours.add(currentPoint);
             }
 
             final float val = iIntensityImage.get(currentPoint);
@@ -438,7 +473,8 @@ public class AlgorithmRC {
 
         // Delete the contour points that are not needed anymore (they are now internal points) 
         // or relabel them to the new label value if they should be kept.
-        for (final Point p : oldContours) {
+        for (int i = 0; i < oldContours.size(); i++) {
+            final int p = oldContours.get(i);
             if (iLabelImage.isBoundaryPoint(p)) {
                 final ContourParticle contourPoint = iContourParticles.get(p);
                 contourPoint.label = aNewLabel;
@@ -528,10 +564,9 @@ public class AlgorithmRC {
      * Removes from candidate list particles which have energyDifference >= 0
      */
     private void removeCandidatesWithNonNegativeDeltaEnergy() {
-        final Iterator<Entry<Point, ContourParticle>> iter = iCandidates.entrySet().iterator();
-        while (iter.hasNext()) {
-            Entry<Point, ContourParticle> next = iter.next();
-            ContourParticle particle = next.getValue();
+        final IndexedMap.Cursor<ContourParticle> iter = iCandidates.cursor();
+        while (iter.next()) {
+            ContourParticle particle = iter.value();
             if (particle.energyDifference >= 0) {
                 iter.remove();
             }
@@ -539,8 +574,9 @@ public class AlgorithmRC {
     }
     
     public boolean performIteration() {
-        if (iSettings.usingDeconvolutionPcEnergy) {
-            ((E_Deconvolution) iImageModel.getEdata()).RenewDeconvolution(iLabelImage, iLabelStatistics);
+        if (iSettings.usingDeconvolutionPcEnergy && ++iIterationsSinceDeconvolutionRenewal >= iSettings.deconvolutionRenewalInterval) {
+            // Between renewals model image is kept up to date by UpdateConvolvedImage (only points with changed labels)
+            renewDeconvolution();
         }
         
         if (RemoveNonSignificantRegions) {
@@ -567,6 +603,11 @@ public class AlgorithmRC {
         return convergence;
     }
 
+    private void renewDeconvolution() {
+        ((E_Deconvolution) iImageModel.getEdata()).RenewDeconvolution(iLabelImage, iLabelStatistics);
+        iIterationsSinceDeconvolutionRenewal = 0;
+    }
+
     /**
      * Iterates through ContourParticles in iContourParticles container. Calculates energies for shrinking (contour particle becoming BG) 
      * and growing scenarios (contour particle expands on nearby BG region or on other region contour)
@@ -575,15 +616,15 @@ public class AlgorithmRC {
         // Put all current contour particles into candidates
         initiateCandidateList();
         
+        if (iEnergyPool != null) {
+            buildCandidateListConcurrently();
+            return;
+        }
+        
         // Calculate energy for change to BG (shrinking)
-        for (final Entry<Point, ContourParticle> iter : iCandidates.entrySet()) {
-            final Point point = iter.getKey();
-            final ContourParticle contour = iter.getValue();
-
-            contour.candidateLabel = BGLabel;
-            contour.referenceCount = 0; // doesn't matter for the BG
-            contour.energyDifference = iImageModel.calculateDeltaEnergy(point, contour, BGLabel, iLabelStatistics).energyDifference;
-            contour.setTestedLabel(BGLabel);
+        final IndexedMap.Cursor<ContourParticle> iter = iCandidates.cursor();
+        while (iter.next()) {
+            calculateShrinkingEnergy(iter.point(), iter.value());
         }
 
         if (shrinkFirst) {
@@ -594,46 +635,24 @@ public class AlgorithmRC {
         // Calculate energy for expanding into neighborhood (growing)
         // Until that point iContourParticles = iCandidates, we keep iterating on first one since iCandidates will grow (possibly)
         iCompetingRegions.clear();
-        for (final Entry<Point, ContourParticle> iter : iContourParticles.entrySet()) {
-            final Point propagatingPoint = iter.getKey();
-            ContourParticle propagatingContour = iter.getValue();
+        final IndexedMap.Cursor<ContourParticle> contourIter = iContourParticles.cursor();
+        while (contourIter.next()) {
+            final int propagatingPoint = contourIter.index();
+            ContourParticle propagatingContour = contourIter.value();
             final int propagatingRegionLabel = propagatingContour.label;
 
-            for (final Integer neighbor : iLabelImage.iterateNeighbours(propagatingPoint)) {
-                final int labelOfDefender = iLabelImage.getLabelAbs(neighbor);
-                if (iLabelImage.isBorderLabel(labelOfDefender) || labelOfDefender == propagatingRegionLabel) {
-                    // Skip forbidden border and same region labels
-                    continue;
-                }
-                final Point neighbourPoint = iLabelImage.indexToPoint(neighbor);
-                propagatingContour.addDaughter(neighbourPoint);
-                
-                // Get contour candidate, if it does not exist it is a background point (create), otherwise
-                // it is another region contour.
-                ContourParticle contourCandidate = iCandidates.get(neighbourPoint);
+            for (final int neighbor : iLabelImage.iterateNeighbours(propagatingPoint)) {
+                final ContourParticle contourCandidate = getGrowingCandidate(propagatingPoint, propagatingContour, neighbor);
                 if (contourCandidate == null) {
-                    contourCandidate = new ContourParticle(labelOfDefender, iIntensityImage.get(neighbor));
-                    iCandidates.put(neighbourPoint, contourCandidate);
+                    continue;
                 }
-                
-                contourCandidate.isDaughter = true;
-                contourCandidate.addMother(propagatingPoint);
 
                 // Check if the energy difference for this candidate label has not yet been calculated.
                 if (!contourCandidate.hasLabelBeenTested((propagatingRegionLabel))) {
                     contourCandidate.setTestedLabel(propagatingRegionLabel);
 
-                    final EnergyResult energyResult = iImageModel.calculateDeltaEnergy(neighbourPoint, contourCandidate, propagatingRegionLabel, iLabelStatistics);
-                    if (energyResult.energyDifference < contourCandidate.energyDifference) {
-
-                        contourCandidate.candidateLabel = propagatingRegionLabel;
-                        contourCandidate.referenceCount = 1;
-                        contourCandidate.energyDifference = energyResult.energyDifference;
-
-                        if (energyResult.merge && contourCandidate.label != BGLabel && contourCandidate.candidateLabel != BGLabel) {
-                            iCompetingRegions.put(propagatingPoint, new LabelPair(contourCandidate.candidateLabel, contourCandidate.label));
-                        }
-                    }
+                    final EnergyResult energyResult = iImageModel.calculateDeltaEnergy(iLabelImage.indexToPoint(neighbor), contourCandidate, propagatingRegionLabel, iLabelStatistics);
+                    updateGrowingCandidate(propagatingPoint, contourCandidate, propagatingRegionLabel, energyResult);
                 }
                 else {
                     // If the propagatingRegionLabel is the same as the candidateLabel, we have found 2 or more mothers of for this contour point.
@@ -645,16 +664,176 @@ public class AlgorithmRC {
         }
     }
 
+    /**
+     * Same as serial part of {@link #buildCandidateList()} but energies are calculated concurrently. Growing candidates
+     * are visited serially and all evaluations are recorded in order. Then independent parts of energies are calculated
+     * concurrently and finally evaluations are replayed in recorded order (completing energies which depend on candidate
+     * state), so result is exactly the same as in serial version.
+     */
+    private void buildCandidateListConcurrently() {
+        // Calculate energy for change to BG (shrinking) - it is independent for each particle
+        final int numOfCandidates = iCandidates.size();
+        final Point[] points = new Point[numOfCandidates];
+        final ContourParticle[] particles = new ContourParticle[numOfCandidates];
+        final IndexedMap.Cursor<ContourParticle> iter = iCandidates.cursor();
+        for (int i = 0; iter.next(); i++) {
+            // cursor's point is valid only until next entry
+            points[i] = iLabelImage.indexToPoint(iter.index());
+            particles[i] = iter.value();
+        }
+        runConcurrently(numOfCandidates, i -> calculateShrinkingEnergy(points[i], particles[i]));
+
+        if (shrinkFirst) {
+            return;
+        }
+
+        // Record evaluations of growing candidates in the same order as serial version does
+        iCompetingRegions.clear();
+        final List<GrowingEvaluation> evaluations = new ArrayList<GrowingEvaluation>();
+        final IndexedMap.Cursor<ContourParticle> contourIter = iContourParticles.cursor();
+        while (contourIter.next()) {
+            final int propagatingPoint = contourIter.index();
+            ContourParticle propagatingContour = contourIter.value();
+            final int propagatingRegionLabel = propagatingContour.label;
+
+            for (final int neighbor : iLabelImage.iterateNeighbours(propagatingPoint)) {
+                final ContourParticle contourCandidate = getGrowingCandidate(propagatingPoint, propagatingContour, neighbor);
+                if (contourCandidate == null) {
+                    continue;
+                }
+
+                final boolean isLabelTested = contourCandidate.hasLabelBeenTested((propagatingRegionLabel));
+                if (!isLabelTested) {
+                    contourCandidate.setTestedLabel(propagatingRegionLabel);
+                }
+                evaluations.add(new GrowingEvaluation(propagatingPoint, neighbor, contourCandidate, propagatingRegionLabel, !isLabelTested));
+            }
+        }
+
+        // Calculate independent parts of energies
+        runConcurrently(evaluations.size(), i -> {
+            final GrowingEvaluation evaluation = evaluations.get(i);
+            if (evaluation.iIsEnergyNeeded) {
+                evaluation.iPoint = iLabelImage.indexToPoint(evaluation.iIndex);
+                evaluation.iEnergy = iImageModel.calculateIndependentDeltaEnergy(evaluation.iPoint, evaluation.iCandidate, evaluation.iLabel, iLabelStatistics);
+            }
+        });
+
+        // Replay evaluations in recorded order
+        for (final GrowingEvaluation evaluation : evaluations) {
+            final ContourParticle contourCandidate = evaluation.iCandidate;
+            if (evaluation.iIsEnergyNeeded) {
+                final EnergyResult energyResult = iImageModel.completeDeltaEnergy(evaluation.iEnergy, evaluation.iPoint, contourCandidate, evaluation.iLabel, iLabelStatistics);
+                updateGrowingCandidate(evaluation.iPropagatingPoint, contourCandidate, evaluation.iLabel, energyResult);
+            }
+            else if (contourCandidate.candidateLabel == evaluation.iLabel) {
+                contourCandidate.referenceCount++;
+            }
+        }
+    }
+
+    /**
+     * Energy evaluation of candidate growing from propagating point
+     */
+    private static class GrowingEvaluation {
+        final int iPropagatingPoint;
+        final int iIndex;
+        final ContourParticle iCandidate;
+        final int iLabel;
+        // false if label was already tested for candidate (only reference count is updated)
+        final boolean iIsEnergyNeeded;
+        
+        Point iPoint;
+        EnergyResult iEnergy;
+
+        GrowingEvaluation(int aPropagatingPoint, int aIndex, ContourParticle aCandidate, int aLabel, boolean aIsEnergyNeeded) {
+            iPropagatingPoint = aPropagatingPoint;
+            iIndex = aIndex;
+            iCandidate = aCandidate;
+            iLabel = aLabel;
+            iIsEnergyNeeded = aIsEnergyNeeded;
+        }
+    }
+
+    /**
+     * Runs aTask for all elements [0, aNumOfElements) using energy pool. Elements are split into chunks, each chunk is
+     * processed by one task.
+     */
+    private void runConcurrently(int aNumOfElements, IntConsumer aTask) {
+        final int numOfChunks = Math.min(aNumOfElements, iSettings.numOfThreads * ChunksPerThread);
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(numOfChunks);
+        for (int c = 0; c < numOfChunks; c++) {
+            final int from = (int) ((long) aNumOfElements * c / numOfChunks);
+            final int to = (int) ((long) aNumOfElements * (c + 1) / numOfChunks);
+            tasks.add(iEnergyPool.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    aTask.accept(i);
+                }
+            }));
+        }
+        for (final ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    private void calculateShrinkingEnergy(Point aPoint, ContourParticle aContour) {
+        aContour.candidateLabel = BGLabel;
+        aContour.referenceCount = 0; // doesn't matter for the BG
+        aContour.energyDifference = iImageModel.calculateDeltaEnergy(aPoint, aContour, BGLabel, iLabelStatistics).energyDifference;
+        aContour.setTestedLabel(BGLabel);
+    }
+
+    /**
+     * Gets (or creates if not existing) candidate at aNeighbor for propagating contour and updates mother/daughter relations.
+     * @return candidate or null if propagating contour cannot grow into aNeighbor
+     */
+    private ContourParticle getGrowingCandidate(int aPropagatingPoint, ContourParticle aPropagatingContour, int aNeighbor) {
+        final int labelOfDefender = iLabelImage.getLabelAbs(aNeighbor);
+        if (iLabelImage.isBorderLabel(labelOfDefender) || labelOfDefender == aPropagatingContour.label) {
+            // Skip forbidden border and same region labels
+            return null;
+        }
+        aPropagatingContour.addDaughter(aNeighbor);
+        
+        // Get contour candidate, if it does not exist it is a background point (create), otherwise
+        // it is another region contour.
+        ContourParticle contourCandidate = iCandidates.get(aNeighbor);
+        if (contourCandidate == null) {
+            contourCandidate = iParticlePool.getCandidate(aNeighbor, labelOfDefender, iIntensityImage.get(aNeighbor));
+            iCandidates.put(aNeighbor, contourCandidate);
+        }
+        
+        contourCandidate.isDaughter = true;
+        contourCandidate.addMother(aPropagatingPoint);
+        
+        return contourCandidate;
+    }
+
+    private void updateGrowingCandidate(int aPropagatingPoint, ContourParticle aCandidate, int aPropagatingRegionLabel, EnergyResult aEnergyResult) {
+        if (aEnergyResult.energyDifference < aCandidate.energyDifference) {
+
+            aCandidate.candidateLabel = aPropagatingRegionLabel;
+            aCandidate.referenceCount = 1;
+            aCandidate.energyDifference = aEnergyResult.energyDifference;
+
+            if (aEnergyResult.merge && aCandidate.label != BGLabel && aCandidate.candidateLabel != BGLabel) {
+                iCompetingRegions.put(aPropagatingPoint, new LabelPair(aCandidate.candidateLabel, aCandidate.label));
+            }
+        }
+    }
+
     /**
      * Initiates candidate list. Every current contour point is a new candidate mother without any other mother/daughter in her lists.
      */
     private void initiateCandidateList() {
         iCandidates.clear();
+        iParticlePool.recycleCandidates(iContourParticles);
         iCandidates.putAll(iContourParticles);
         for (ContourParticle contour : iCandidates.values()) {
             contour.isMother = true;
             contour.isDaughter = false;
             contour.isProcessed = false;
+            contour.isAccepted = false;
             contour.clearLists();
         }
     }
@@ -665,10 +844,11 @@ public class AlgorithmRC {
     private void filterCandidates() {
         if (!shrinkFirst) {
             //Find topologically compatible candidates
-            final List<Point> illegalPoints = new LinkedList<Point>();
-            for (final Entry<Point, ContourParticle> e : iCandidates.entrySet()) {
-                final Point point = e.getKey();
-                final ContourParticle contour = e.getValue();
+            final IntList illegalPoints = new IntList();
+            final IndexedMap.Cursor<ContourParticle> e = iCandidates.cursor();
+            while (e.next()) {
+                final int point = e.index();
+                final ContourParticle contour = e.value();
 
                 // Check if this point already was processed and if it is a mother: 
                 // Only mothers can be seed points of topological networks. Daughters are always part of a topological network of a mother.
@@ -679,7 +859,7 @@ public class AlgorithmRC {
                     final List<ContourParticleWithIndex> networkMembers = buildDependencyNetwork(point);
 
                     // Filtering: Accept all members in ascending order that are compatible with the already selected members in the network.
-                    final HashSet<Point> selectedCandidatesPoints = new HashSet<Point>();
+                    // (selected members are marked with isAccepted flag, networks are disjoint so flag of each particle is set only once)
 
                     for (final ContourParticleWithIndex networkPoint : networkMembers) {
                         // Rules: a candidate in the network is a legal candidate if:
@@ -687,7 +867,7 @@ public class AlgorithmRC {
                         // - If ( mother ): All daughters (with the same 'old' label) in the accepted list have still a reference count > 1.
                         boolean isMoveLegal = true;
                         ContourParticle currentContour = networkPoint.iContourParticle;
-                        Point currentPoint = networkPoint.iPoint;
+                        int currentPoint = networkPoint.iIndex;
 
                         // RULE 1: If networkPoint is a daughter point, the reference count is > 0 (if not BG label).
                         if (currentContour.isDaughter) {
@@ -702,11 +882,12 @@ public class AlgorithmRC {
                             // Iterate the daughters and check their reference count
                             boolean rule3Fulfilled = false;
 
-                            for (final Point daughter : currentContour.getDaughterList()) {
-                                final ContourParticle daughterContour = iCandidates.get(daughter);
+                            final IntList daughters = currentContour.getDaughterList();
+                            for (int d = 0; d < daughters.size(); d++) {
+                                final ContourParticle daughterContour = iCandidates.get(daughters.get(d));
 
                                 // rule 2:
-                                final boolean alreadyAccepted = selectedCandidatesPoints.contains(daughter);
+                                final boolean alreadyAccepted = daughterContour.isAccepted;
                                 if (alreadyAccepted) {
                                     // This daughter has been accepted and needs a reference count > 1, else the move is invalid.
                                     if (daughterContour.candidateLabel == currentContour.label && daughterContour.referenceCount <= 1) {
@@ -736,10 +917,11 @@ public class AlgorithmRC {
                         }
 
                         if (isMoveLegal) {
-                            selectedCandidatesPoints.add(currentPoint);
+                            currentContour.isAccepted = true;
                             // If a mother is accepted, the reference count of all the daughters (with the same label) has to be decreased.
-                            for (final Point daughter : currentContour.getDaughterList()) {
-                                final ContourParticle daughterContour = iCandidates.get(daughter);
+                            final IntList daughters = currentContour.getDaughterList();
+                            for (int d = 0; d < daughters.size(); d++) {
+                                final ContourParticle daughterContour = iCandidates.get(daughters.get(d));
                                 if (daughterContour.candidateLabel == currentContour.label) {
                                     daughterContour.referenceCount--;
                                 }
@@ -753,8 +935,8 @@ public class AlgorithmRC {
             }
 
             //Filter all candidates with the illegal indices
-            for (final Point illegalPoint : illegalPoints) {
-                iCandidates.remove(illegalPoint);
+            for (int i = 0; i < illegalPoints.size(); i++) {
+                iCandidates.remove(illegalPoints.get(i));
             }
         }
 
@@ -767,38 +949,42 @@ public class AlgorithmRC {
      * @param aMotherPoint - input mother point for which network is going to be build
      * @return maximum connected subgraph Gk with input mother as a part of it
      */
-    private List<ContourParticleWithIndex> buildDependencyNetwork(final Point aMotherPoint) {
-        final List<ContourParticleWithIndex> networkMembers = new LinkedList<ContourParticleWithIndex>();
+    private List<ContourParticleWithIndex> buildDependencyNetwork(final int aMotherPoint) {
+        final List<ContourParticleWithIndex> networkMembers = new ArrayList<ContourParticleWithIndex>();
         
-        final Stack<Point> pointsToVisit = new Stack<Point>();
-        pointsToVisit.push(aMotherPoint);
-        while (!pointsToVisit.empty()) {
-            final Point motherPoint = pointsToVisit.pop();
+        final IntList pointsToVisit = new IntList();
+        pointsToVisit.add(aMotherPoint);
+        while (!pointsToVisit.isEmpty()) {
+            final int motherPoint = pointsToVisit.pop();
             final ContourParticle motherContour = iCandidates.get(motherPoint);
             
             // Add the seed point to the network
             networkMembers.add(new ContourParticleWithIndex(motherPoint, motherContour));
 
             // Iterate all children of the seed, push to the stack if there is a mother.
-            for (final Point daughterPoint : motherContour.getDaughterList()) {
+            final IntList daughters = motherContour.getDaughterList();
+            for (int d = 0; d < daughters.size(); d++) {
+                final int daughterPoint = daughters.get(d);
                 final ContourParticle daughterContour = iCandidates.get(daughterPoint);
 
                 if (!daughterContour.isProcessed) {
                     daughterContour.isProcessed = true;
 
                     if (daughterContour.isMother) {
-                        pointsToVisit.push(daughterPoint);
+                        pointsToVisit.add(daughterPoint);
                     }
                     else {
                         networkMembers.add(new ContourParticleWithIndex(daughterPoint, daughterContour));
                     }
 
                     // Push all the non-processed mothers of this daughter to the stack
-                    for (final Point mother : daughterContour.getMotherList()) {
+                    final IntList mothers = daughterContour.getMotherList();
+                    for (int m = 0; m < mothers.size(); m++) {
+                        final int mother = mothers.get(m);
                         final ContourParticle motherContourPoint = iCandidates.get(mother);
                         if (!motherContourPoint.isProcessed) {
                             motherContourPoint.isProcessed = true;
-                            pointsToVisit.push(mother);
+                            pointsToVisit.add(mother);
                         }
                     }
                 }
@@ -822,13 +1008,12 @@ public class AlgorithmRC {
         boolean candidateWereMoved = true;
         while (!iCandidates.isEmpty() && candidateWereMoved) {
             candidateWereMoved = false;
-            final Iterator<Entry<Point, ContourParticle>> candidateIter = iCandidates.entrySet().iterator();
-            while (candidateIter.hasNext()) {
-                final Entry<Point, ContourParticle> entry = candidateIter.next();
-                final Point currentPoint = entry.getKey();
-                final ContourParticle currentContour = entry.getValue();
+            final IndexedMap.Cursor<ContourParticle> candidateIter = iCandidates.cursor();
+            while (candidateIter.next()) {
+                final int currentPoint = candidateIter.index();
+                final ContourParticle currentContour = candidateIter.value();
                 
-                if (iTopologicalNumber.isPointFgSimple(currentPoint)) {
+                if (iTopologicalNumber.isPointFgSimple(candidateIter.point())) {
                     changeContourPointLabelToCandidateLabelAndUpdateNeighbours(currentPoint, currentContour);
                     candidateIter.remove();
                     candidateWereMoved = true;
@@ -915,9 +1100,10 @@ public class AlgorithmRC {
         boolean didMerge = false;
         if (iSettings.allowFusion) {
             final Set<Integer> checkedLabels = new HashSet<Integer>();
-            for (final Entry<Point, LabelPair> iter : iCompetingRegions.entrySet()) {
-                final Point point = iter.getKey();
-                final int firstLabel = iter.getValue().first;
+            final IndexedMap.Cursor<LabelPair> iter = iCompetingRegions.cursor();
+            while (iter.next()) {
+                final Point point = iter.point();
+                final int firstLabel = iter.value().first;
                 relabelMergedRegions(point, firstLabel, checkedLabels);
                 didMerge = true;
             }
@@ -953,12 +1139,12 @@ public class AlgorithmRC {
         // change. The seed will be ignored later on if the corresponding FG region is not present in the neighborhood anymore.
         // TODO: The following code is dependent on the iteration order if splits/handles are not allowed. 
         // A solution would be to sort the candidates beforehand.
-        final Iterator<Entry<Point, ContourParticle>> pointIterator = iCandidates.entrySet().iterator();
+        final IndexedMap.Cursor<ContourParticle> pointIterator = iCandidates.cursor();
         final Set<Seed> seeds = new HashSet<Seed>();
-        while (pointIterator.hasNext()) {
-            final Entry<Point, ContourParticle> e = pointIterator.next();
-            final Point currentPoint = e.getKey();
-            final ContourParticle currentParticle = e.getValue();
+        while (pointIterator.next()) {
+            final int currentIndex = pointIterator.index();
+            final Point currentPoint = pointIterator.point();
+            final ContourParticle currentParticle = pointIterator.value();
             final int currentLabel = currentParticle.label;
             final int currentCandidateLabel = currentParticle.candidateLabel;
             
@@ -974,7 +1160,7 @@ public class AlgorithmRC {
             if (validPoint) {
                 // If the move doesn't change topology or is allowed (and registered as seed) to change the topology, 
                 // perform the move (in the second iteration; in the first iteration seed points need to be collected):
-                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(currentPoint, currentParticle);
+                changeContourPointLabelToCandidateLabelAndUpdateNeighbours(currentIndex, currentParticle);
                 convergenceResult = false;
                 
                 if (currentParticle.isProcessed) {
@@ -985,7 +1171,7 @@ public class AlgorithmRC {
                 }
             }
             
-            if (iCandidates.containsKey(currentPoint)) {
+            if (iCandidates.containsKey(currentIndex)) {
                 // TODO: is this check needed? Can this point be removed somewhere else?
                 pointIterator.remove();
             }
@@ -997,7 +1183,8 @@ public class AlgorithmRC {
         
         if (didSplitOrMerge) {
             if (iSettings.usingDeconvolutionPcEnergy) {
-                ((E_Deconvolution) iImageModel.getEdata()).RenewDeconvolution(iLabelImage, iLabelStatistics);
+                // New/merged regions need fitted intensities, renew model image immediately
+                renewDeconvolution();
             }
         }
         
@@ -1005,7 +1192,7 @@ public class AlgorithmRC {
     }
     
     private void registerNeighbourSeedsWithSameLabel(Set<Seed> aSeeds, Point aPoint, int aLabel) {
-        for (final Integer neighbour : iLabelImage.iterateNeighbours(aPoint)) {
+        for (final int neighbour : iLabelImage.iterateNeighbours(aPoint)) {
             final int label = iLabelImage.getLabelAbs(neighbour);
             
             if (label == aLabel) {
@@ -1016,7 +1203,7 @@ public class AlgorithmRC {
                 // is a particle at all at this spot; else we don't have a problem
                 // because the label will not move at the spot and therefore
                 // the seed will be effective).
-                final ContourParticle contourParticle = iCandidates.get(neighbourPoint);
+                final ContourParticle contourParticle = iCandidates.get(neighbour);
                 if (contourParticle != null) {
                     contourParticle.isProcessed = true;
                 }
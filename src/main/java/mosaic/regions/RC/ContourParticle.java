@@ -1,13 +1,8 @@
 package mosaic.regions.RC;
 
 
-import java.util.LinkedList;
-import java.util.List;
-
-import mosaic.core.imageUtils.Point;
-
 /**
- * Class representing countour particle. 
+ * Class representing countour particle.
  */
 public class ContourParticle {
     // absolute label
@@ -18,37 +13,56 @@ public class ContourParticle {
 
     // mother - daughter indicators
     // Particle can have any combination of both.
-    boolean isMother = false; 
+    boolean isMother = false;
     boolean isDaughter = false;
-    
+
     int referenceCount = 0;
     boolean isProcessed = false;
+    // Used when filtering candidates, true if particle was accepted in its dependency network
+    boolean isAccepted = false;
 
-    private final List<Point> motherList = new LinkedList<Point>();
-    private final List<Point> daughterList = new LinkedList<Point>();
-    private final List<Integer> testedList = new LinkedList<Integer>();
+    // Mothers and daughters are kept as indices of points in label image
+    private final IntList motherList = new IntList();
+    private final IntList daughterList = new IntList();
+    private final IntList testedList = new IntList();
 
     public ContourParticle(int aLabel, float aIntensity) {
         label = aLabel;
         intensity = aIntensity;
     }
-    
-    List<Point> getMotherList() {
+
+    /**
+     * Resets particle to state of newly created one (used when particles are reused)
+     */
+    void reset(int aLabel, float aIntensity) {
+        label = aLabel;
+        candidateLabel = 0;
+        intensity = aIntensity;
+        energyDifference = Double.MAX_VALUE;
+        isMother = false;
+        isDaughter = false;
+        referenceCount = 0;
+        isProcessed = false;
+        isAccepted = false;
+        clearLists();
+    }
+
+    IntList getMotherList() {
         return motherList;
     }
 
-    void addMother(Point aMother) {
+    void addMother(int aMother) {
         motherList.add(aMother);
     }
-    
-    List<Point> getDaughterList() {
+
+    IntList getDaughterList() {
         return daughterList;
     }
 
-    void addDaughter(Point aDaughter) {
+    void addDaughter(int aDaughter) {
         daughterList.add(aDaughter);
     }
-    
+
     boolean hasLabelBeenTested(int aLabel) {
         return testedList.contains(aLabel);
     }
@@ -58,11 +72,11 @@ public class ContourParticle {
     }
 
     void clearLists() {
-        motherList.clear(); 
+        motherList.clear();
         daughterList.clear();
         testedList.clear();
     }
-    
+
     @Override
     public String toString() {
         return "[L=" + label + " val=" + intensity + " L'=" + candidateLabel + "]";
@@ -0,0 +1,64 @@
+package mosaic.regions.RC;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pool of contour particles. Candidates created in one iteration of RC which have not become contour
+ * particles are given back to pool at the beginning of next iteration and reused.
+ * If pool is disabled new particle is created for each request.
+ */
+class ContourParticlePool {
+    private final boolean iEnabled;
+    private final ArrayDeque<ContourParticle> iFreeParticles = new ArrayDeque<ContourParticle>();
+    // Candidates given in current iteration with their indices
+    private final List<ContourParticle> iCandidates = new ArrayList<ContourParticle>();
+    private final IntList iCandidatesIndices = new IntList(64);
+
+    ContourParticlePool(boolean aEnabled) {
+        iEnabled = aEnabled;
+    }
+
+    /**
+     * @return particle which will be owned by caller (it will never go back to pool)
+     */
+    ContourParticle getParticle(int aLabel, float aIntensity) {
+        final ContourParticle particle = iFreeParticles.poll();
+        if (particle == null) {
+            return new ContourParticle(aLabel, aIntensity);
+        }
+        particle.reset(aLabel, aIntensity);
+        return particle;
+    }
+
+    /**
+     * @return particle for candidate at aIndex, it will be recycled in {@link #recycleCandidates(IndexedMap)}
+     *         if it will not become a contour particle.
+     */
+    ContourParticle getCandidate(int aIndex, int aLabel, float aIntensity) {
+        final ContourParticle particle = getParticle(aLabel, aIntensity);
+        if (iEnabled) {
+            iCandidates.add(particle);
+            iCandidatesIndices.add(aIndex);
+        }
+        return particle;
+    }
+
+    /**
+     * Gives back to pool all candidates that are not contour particles. Must be called only when
+     * candidates are not referenced anymore (before new candidate list is built).
+     */
+    void recycleCandidates(IndexedMap<ContourParticle> aContourParticles) {
+        for (int i = 0; i < iCandidates.size(); i++) {
+            final ContourParticle particle = iCandidates.get(i);
+            if (aContourParticles.get(iCandidatesIndices.get(i)) != particle) {
+                iFreeParticles.push(particle);
+            }
+        }
+        iCandidates.clear();
+        iCandidatesIndices.clear();
+    }
+}
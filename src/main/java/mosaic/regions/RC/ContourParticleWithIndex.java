@@ -1,16 +1,13 @@
 package mosaic.regions.RC;
 
 
-import mosaic.core.imageUtils.Point;
-
-
 class ContourParticleWithIndex implements Comparable<ContourParticleWithIndex> {
 
-    final Point iPoint;
+    final int iIndex;
     final ContourParticle iContourParticle;
 
-    public ContourParticleWithIndex(final Point aPoint, final ContourParticle aParticle) {
-        iPoint = aPoint;
+    public ContourParticleWithIndex(final int aIndex, final ContourParticle aParticle) {
+        iIndex = aIndex;
         iContourParticle = aParticle;
     }
 
@@ -0,0 +1,68 @@
+package mosaic.regions.RC;
+
+
+import java.util.Collection;
+
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+/**
+ * Map with keys being a linear index of pixel in label image. Used by RC to keep contour particles,
+ * candidates and competing regions.
+ *
+ * Two implementations exist: {@link PointKeyedMap} keeping data in HashMap<Point, V> (original
+ * implementation, iteration order is same as it always was) and {@link IntKeyedHashMap} which is an
+ * open addressing map with primitive keys (no Point hashing and no boxing).
+ */
+interface IndexedMap<V> {
+
+    /**
+     * Cursor iterating over all entries of map. Current entry can be removed during iteration,
+     * other modifications of map are not allowed until iteration is finished.
+     */
+    interface Cursor<V> {
+        boolean next();
+        int index();
+
+        /**
+         * @return point of current entry in label image (must not be modified). Cursor can reuse returned
+         *         instance for next entries, so it is valid only until next call of {@link #next()}; copy it if
+         *         it has to be kept longer.
+         */
+        Point point();
+        V value();
+        void remove();
+    }
+
+    V get(int aIndex);
+    V put(int aIndex, V aValue);
+    V remove(int aIndex);
+    boolean containsKey(int aIndex);
+    int size();
+    boolean isEmpty();
+    void clear();
+
+    /**
+     * Puts all entries from aMap (which must be of same type as this map) into this map
+     */
+    void putAll(IndexedMap<V> aMap);
+
+    /**
+     * Creates a new empty map of same type
+     */
+    <T> IndexedMap<T> newMap();
+
+    Collection<V> values();
+    Cursor<V> cursor();
+
+    /**
+     * @param aUseIndexedContainers if true map with primitive keys is created, otherwise HashMap<Point, V> based one
+     */
+    static <V> IndexedMap<V> create(boolean aUseIndexedContainers, LabelImage aLabelImage) {
+        if (aUseIndexedContainers) {
+            return new IntKeyedHashMap<V>(aLabelImage);
+        }
+        return new PointKeyedMap<V>(aLabelImage);
+    }
+}
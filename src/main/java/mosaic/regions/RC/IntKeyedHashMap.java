@@ -0,0 +1,263 @@
+package mosaic.regions.RC;
+
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+/**
+ * {@link IndexedMap} implemented as open addressing hash map (linear probing) with primitive int keys.
+ * Removed entries are marked as deleted (not moved) so entries can be safely removed during iteration.
+ * Deleted slots are reused by next insertions and dropped when map is rehashed.
+ */
+class IntKeyedHashMap<V> implements IndexedMap<V> {
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+    private static final float LoadFactor = 0.5f;
+    private static final int MinCapacity = 16;
+
+    private int[] iKeys;
+    private Object[] iValues;
+    private int iSize = 0;
+    // Number of slots that are not EMPTY (occupied + deleted)
+    private int iUsedSlots = 0;
+    private int iThreshold;
+    // Used only to convert keys to points, may be null
+    private final LabelImage iLabelImage;
+
+    IntKeyedHashMap() {
+        this(null);
+    }
+
+    /**
+     * @param aLabelImage - label image which indices are used as keys (needed by {@link Cursor#point()})
+     */
+    IntKeyedHashMap(LabelImage aLabelImage) {
+        iLabelImage = aLabelImage;
+        allocate(MinCapacity);
+    }
+
+    private void allocate(int aCapacity) {
+        iKeys = new int[aCapacity];
+        Arrays.fill(iKeys, EMPTY);
+        iValues = new Object[aCapacity];
+        iThreshold = (int) (aCapacity * LoadFactor);
+        iSize = 0;
+        iUsedSlots = 0;
+    }
+
+    private static int hash(int aKey) {
+        final int h = aKey * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return slot with given key or -1 if not found
+     */
+    private int findSlot(int aKey) {
+        final int mask = iKeys.length - 1;
+        int slot = hash(aKey) & mask;
+        while (true) {
+            final int key = iKeys[slot];
+            if (key == aKey) return slot;
+            if (key == EMPTY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(int aIndex) {
+        final int slot = findSlot(aIndex);
+        return (slot < 0) ? null : (V) iValues[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(int aIndex, V aValue) {
+        if (aIndex < 0) {
+            throw new IllegalArgumentException("Index must be non-negative: " + aIndex);
+        }
+        final int mask = iKeys.length - 1;
+        int slot = hash(aIndex) & mask;
+        int firstDeleted = -1;
+        while (true) {
+            final int key = iKeys[slot];
+            if (key == aIndex) {
+                final V old = (V) iValues[slot];
+                iValues[slot] = aValue;
+                return old;
+            }
+            if (key == EMPTY) break;
+            if (key == DELETED && firstDeleted < 0) firstDeleted = slot;
+            slot = (slot + 1) & mask;
+        }
+
+        if (firstDeleted >= 0) {
+            slot = firstDeleted;
+        }
+        else {
+            iUsedSlots++;
+        }
+        iKeys[slot] = aIndex;
+        iValues[slot] = aValue;
+        iSize++;
+        if (iUsedSlots > iThreshold) {
+            rehash();
+        }
+
+        return null;
+    }
+
+    private void rehash() {
+        final int[] oldKeys = iKeys;
+        final Object[] oldValues = iValues;
+        // Grow only if map is really full, otherwise just get rid of deleted slots
+        final int capacity = (iSize * 2 > iThreshold) ? oldKeys.length * 2 : oldKeys.length;
+        allocate(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            final int key = oldKeys[i];
+            if (key >= 0) {
+                int slot = hash(key) & mask;
+                while (iKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                iKeys[slot] = key;
+                iValues[slot] = oldValues[i];
+                iSize++;
+                iUsedSlots++;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(int aIndex) {
+        final int slot = findSlot(aIndex);
+        if (slot < 0) return null;
+        final V old = (V) iValues[slot];
+        removeSlot(slot);
+        return old;
+    }
+
+    private void removeSlot(int aSlot) {
+        iKeys[aSlot] = DELETED;
+        iValues[aSlot] = null;
+        iSize--;
+    }
+
+    @Override
+    public boolean containsKey(int aIndex) {
+        return findSlot(aIndex) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return iSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return iSize == 0;
+    }
+
+    @Override
+    public void clear() {
+        if (iUsedSlots == 0) return;
+        Arrays.fill(iKeys, EMPTY);
+        Arrays.fill(iValues, null);
+        iSize = 0;
+        iUsedSlots = 0;
+    }
+
+    @Override
+    public void putAll(IndexedMap<V> aMap) {
+        final Cursor<V> cursor = aMap.cursor();
+        while (cursor.next()) {
+            put(cursor.index(), cursor.value());
+        }
+    }
+
+    @Override
+    public <T> IndexedMap<T> newMap() {
+        return new IntKeyedHashMap<T>(iLabelImage);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                final Cursor<V> cursor = cursor();
+                return new Iterator<V>() {
+                    private boolean iHasNext = cursor.next();
+
+                    @Override
+                    public boolean hasNext() {
+                        return iHasNext;
+                    }
+
+                    @Override
+                    public V next() {
+                        if (!iHasNext) throw new NoSuchElementException();
+                        final V value = cursor.value();
+                        iHasNext = cursor.next();
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return iSize;
+            }
+        };
+    }
+
+    @Override
+    public Cursor<V> cursor() {
+        return new Cursor<V>() {
+            private int iSlot = -1;
+            // Reused by point() so iteration with points does not allocate
+            private Point iPoint;
+
+            @Override
+            public boolean next() {
+                while (++iSlot < iKeys.length) {
+                    if (iKeys[iSlot] >= 0) return true;
+                }
+                return false;
+            }
+
+            @Override
+            public int index() {
+                return iKeys[iSlot];
+            }
+
+            @Override
+            public Point point() {
+                if (iPoint == null) iPoint = new Point(new int[iLabelImage.getNumOfDimensions()]);
+                iLabelImage.indexToPoint(iKeys[iSlot], iPoint);
+                return iPoint;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public V value() {
+                return (V) iValues[iSlot];
+            }
+
+            @Override
+            public void remove() {
+                removeSlot(iSlot);
+            }
+        };
+    }
+}
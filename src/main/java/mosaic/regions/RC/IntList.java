@@ -0,0 +1,63 @@
+package mosaic.regions.RC;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Simple growable list of primitive ints (used instead of List<Integer> / List<Point> to avoid boxing).
+ */
+class IntList {
+    private int[] iData;
+    private int iSize = 0;
+
+    IntList() {
+        this(4);
+    }
+
+    IntList(int aInitialCapacity) {
+        iData = new int[Math.max(1, aInitialCapacity)];
+    }
+
+    void add(int aValue) {
+        if (iSize == iData.length) {
+            iData = Arrays.copyOf(iData, iSize * 2);
+        }
+        iData[iSize++] = aValue;
+    }
+
+    /**
+     * Removes and returns last element (list can be used as a stack)
+     */
+    int pop() {
+        return iData[--iSize];
+    }
+
+    int get(int aIdx) {
+        return iData[aIdx];
+    }
+
+    int size() {
+        return iSize;
+    }
+
+    boolean isEmpty() {
+        return iSize == 0;
+    }
+
+    boolean contains(int aValue) {
+        for (int i = 0; i < iSize; i++) {
+            if (iData[i] == aValue) return true;
+        }
+        return false;
+    }
+
+    void clear() {
+        iSize = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(iData, iSize));
+    }
+}
@@ -7,6 +7,9 @@ public class PluginSettingsRC extends Settings {
 
     //General -------------------------------------------------------------------------------------
     public double oscillationThreshold = 0.02;
+    public boolean useIndexedContainers = false;
+    public int numOfThreads = 1;
+    public int deconvolutionRenewalInterval = 1;
     
     // Init Energies ------------------------------------------------------------------------------
     public float energyRegionMergingThreshold = 0.02f;
@@ -16,6 +19,9 @@ public class PluginSettingsRC extends Settings {
         super.copy(s);
         oscillationThreshold = s.oscillationThreshold;
         oscillationThreshold = s.oscillationThreshold;
+        useIndexedContainers = s.useIndexedContainers;
+        numOfThreads = s.numOfThreads;
+        deconvolutionRenewalInterval = s.deconvolutionRenewalInterval;
     }
     
     public PluginSettingsRC() {}
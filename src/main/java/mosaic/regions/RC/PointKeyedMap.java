@@ -0,0 +1,130 @@
+package mosaic.regions.RC;
+
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+/**
+ * {@link IndexedMap} backed by HashMap<Point, V>. Keys are same Points as in original implementation so
+ * iteration order (and results of RC) is not changed. Lookups use one reusable key, new Point is created only
+ * when new entry is added, so map is not thread safe (even for reading).
+ * Null values are not allowed.
+ */
+class PointKeyedMap<V> implements IndexedMap<V> {
+    private final HashMap<Point, V> iMap = new HashMap<Point, V>();
+    private final LabelImage iLabelImage;
+    private final int[] iDimensions;
+    private final Point iLookupKey;
+
+    PointKeyedMap(LabelImage aLabelImage) {
+        iLabelImage = aLabelImage;
+        iDimensions = aLabelImage.getDimensions();
+        iLookupKey = new Point(new int[iDimensions.length]);
+    }
+
+    /**
+     * @return reusable key set to point with given index
+     */
+    private Point lookupKey(int aIndex) {
+        int index = aIndex;
+        for (int i = 0; i < iDimensions.length; ++i) {
+            iLookupKey.iCoords[i] = index % iDimensions[i];
+            index /= iDimensions[i];
+        }
+        return iLookupKey;
+    }
+
+    @Override
+    public V get(int aIndex) {
+        return iMap.get(lookupKey(aIndex));
+    }
+
+    @Override
+    public V put(int aIndex, V aValue) {
+        // Existing entry keeps its key, new Point is stored only for new entry
+        final V old = iMap.replace(lookupKey(aIndex), aValue);
+        if (old != null) return old;
+        return iMap.put(iLabelImage.indexToPoint(aIndex), aValue);
+    }
+
+    @Override
+    public V remove(int aIndex) {
+        return iMap.remove(lookupKey(aIndex));
+    }
+
+    @Override
+    public boolean containsKey(int aIndex) {
+        return iMap.containsKey(lookupKey(aIndex));
+    }
+
+    @Override
+    public int size() {
+        return iMap.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return iMap.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        iMap.clear();
+    }
+
+    @Override
+    public void putAll(IndexedMap<V> aMap) {
+        iMap.putAll(((PointKeyedMap<V>) aMap).iMap);
+    }
+
+    @Override
+    public <T> IndexedMap<T> newMap() {
+        return new PointKeyedMap<T>(iLabelImage);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return iMap.values();
+    }
+
+    @Override
+    public Cursor<V> cursor() {
+        final Iterator<Entry<Point, V>> iter = iMap.entrySet().iterator();
+        return new Cursor<V>() {
+            private Entry<Point, V> iEntry;
+
+            @Override
+            public boolean next() {
+                if (!iter.hasNext()) return false;
+                iEntry = iter.next();
+                return true;
+            }
+
+            @Override
+            public int index() {
+                return iLabelImage.pointToIndex(iEntry.getKey());
+            }
+
+            @Override
+            public Point point() {
+                return iEntry.getKey();
+            }
+
+            @Override
+            public V value() {
+                return iEntry.getValue();
+            }
+
+            @Override
+            public void remove() {
+                iter.remove();
+            }
+        };
+    }
+}
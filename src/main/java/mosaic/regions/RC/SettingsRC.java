@@ -12,9 +12,19 @@ public class SettingsRC {
     public int maxNumOfIterations = 300;
     public double oscillationThreshold = 0.02;
     
+    // Containers used by algorithm: false - HashMaps with Point keys, true - primitive maps with pixel index keys
+    public boolean useIndexedContainers = false;
+    
+    // Number of threads used for calculating energy differences of candidates (1 - no additional threads)
+    public int numOfThreads = 1;
+    
     // TODO: This should be gone soon
     boolean usingDeconvolutionPcEnergy = false;
     
+    // Deconvolution: model image is fully regenerated (with refitting of region intensities) every given number of iterations.
+    // In between it is only updated around points which changed label (1 - regenerate in every iteration).
+    public int deconvolutionRenewalInterval = 1;
+    
     
     public SettingsRC(boolean aAllowFusion,
                       boolean aAllowFission,
@@ -22,6 +32,17 @@ public class SettingsRC {
                       int aMaxNumOfIterations,
                       double aOscillationThreshold,
                       boolean aUsingDeconvolutionPcEnergy)
+    {
+        this(aAllowFusion, aAllowFission, aAllowHandles, aMaxNumOfIterations, aOscillationThreshold, aUsingDeconvolutionPcEnergy, false);
+    }
+    
+    public SettingsRC(boolean aAllowFusion,
+                      boolean aAllowFission,
+                      boolean aAllowHandles,
+                      int aMaxNumOfIterations,
+                      double aOscillationThreshold,
+                      boolean aUsingDeconvolutionPcEnergy,
+                      boolean aUseIndexedContainers)
     {
         allowFusion = aAllowFusion;
         allowFission = aAllowFission;
@@ -31,5 +52,6 @@ public class SettingsRC {
         oscillationThreshold = aOscillationThreshold;
         
         usingDeconvolutionPcEnergy = aUsingDeconvolutionPcEnergy;
+        useIndexedContainers = aUseIndexedContainers;
     }
 }
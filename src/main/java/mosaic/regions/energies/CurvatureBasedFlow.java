@@ -10,7 +10,8 @@ import mosaic.core.imageUtils.masks.BallMask;
 
 public class CurvatureBasedFlow {
 
-    private final MaskOnSpaceMapper sphereIt;
+    // Mapper keeps iteration state - each thread calculating energies needs its own one
+    private final ThreadLocal<MaskOnSpaceMapper> sphereIt;
     private final LabelImage labelImage;
 
     private final int dim;
@@ -47,7 +48,7 @@ public class CurvatureBasedFlow {
         else {
             sphere = new BallMask(rad, dim);
         }
-        sphereIt = new MaskOnSpaceMapper(sphere, inputDims);
+        sphereIt = ThreadLocal.withInitial(() -> new MaskOnSpaceMapper(sphere, inputDims));
         
         if (dim == 2) {
             vVolume = 3.141592f * rad * rad;
@@ -68,10 +69,11 @@ public class CurvatureBasedFlow {
         int vNto = 0;
         int vNFrom = 0;
 
-        sphereIt.setMiddlePoint(origin);
+        final MaskOnSpaceMapper it = sphereIt.get();
+        it.setMiddlePoint(origin);
 
-        while (sphereIt.hasNext()) {
-            final int idx = sphereIt.next();
+        while (it.hasNext()) {
+            final int idx = it.next();
             final int absLabel = labelImage.getLabelAbs(idx);
 
             if (absLabel == aTo) {
@@ -15,32 +15,72 @@ import mosaic.regions.RC.ContourParticle;
 import mosaic.regions.energies.Energy.ExternalEnergy;
 import mosaic.regions.utils.LabelStatistics;
 import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
 import net.imglib2.algorithm.fft2.FFTConvolution;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.view.Views;
 
 
 public class E_Deconvolution extends ExternalEnergy {
 
     final private Img<FloatType> DevImage;
-    final private RandomAccess<FloatType> infDevAccessIt;
+    // Data of DevImage, it has same layout as intensity/label image so can be accessed with their indices
+    final private float[] iDevData;
     final private IntensityImage iImage;
     final private Img<FloatType> iPsf;
-    final private Point iMiddlePointPsf;
+    final private int[] iDims;
+    
+    // Flat PSF table (in PSF iteration order): values of PSF, offsets of PSF points in respect to PSF middle point 
+    // (iNumOfDims coordinates per point) and corresponding offsets of indices in image
+    final private int iNumOfDims;
+    final private float[] iPsfValues;
+    final private int[] iPsfOffsets;
+    final private int[] iPsfIndexOffsets;
+    final private int[] iPsfMinOffset;
+    final private int[] iPsfMaxOffset;
 
     public E_Deconvolution(IntensityImage aImage, Img<FloatType> aPsf) {
-        DevImage = new ArrayImgFactory<FloatType>().create(aImage.getDimensions(), new FloatType());
-        infDevAccessIt = Views.extendPeriodic(DevImage).randomAccess();
+        iDims = aImage.getDimensions();
+        iNumOfDims = iDims.length;
+        final long[] dims = new long[iNumOfDims];
+        for (int d = 0; d < iNumOfDims; ++d) {
+            dims[d] = iDims[d];
+        }
+        iDevData = new float[aImage.getSize()];
+        DevImage = ArrayImgs.floats(iDevData, dims);
         iImage = aImage;
         iPsf = aPsf;
         int[] psfDims = MosaicUtils.getImageIntDimensions(iPsf);
         for (int i = 0; i < psfDims.length; ++i) {
             psfDims[i] = psfDims[i] / 2;
         }
-        iMiddlePointPsf = new Point(psfDims);
+        final Point middlePointPsf = new Point(psfDims);
+
+        // Generate flat PSF table
+        final int numOfPsfPoints = (int) iPsf.size();
+        iPsfValues = new float[numOfPsfPoints];
+        iPsfOffsets = new int[numOfPsfPoints * iNumOfDims];
+        iPsfIndexOffsets = new int[numOfPsfPoints];
+        iPsfMinOffset = new int[iNumOfDims];
+        iPsfMaxOffset = new int[iNumOfDims];
+        final int loc[] = new int[iPsf.numDimensions()];
+        final Cursor<FloatType> vPSF = iPsf.localizingCursor();
+        for (int k = 0; vPSF.hasNext(); k++) {
+            vPSF.fwd();
+            vPSF.localize(loc);
+            iPsfValues[k] = vPSF.get().get();
+            int indexOffset = 0;
+            int stride = 1;
+            for (int d = 0; d < iNumOfDims; ++d) {
+                final int offset = loc[d] - middlePointPsf.iCoords[d];
+                iPsfOffsets[k * iNumOfDims + d] = offset;
+                iPsfMinOffset[d] = Math.min(iPsfMinOffset[d], offset);
+                iPsfMaxOffset[d] = Math.max(iPsfMaxOffset[d], offset);
+                indexOffset += offset * stride;
+                stride *= iDims[d];
+            }
+            iPsfIndexOffsets[k] = indexOffset;
+        }
     }
 
     @Override
@@ -48,25 +88,77 @@ public class E_Deconvolution extends ExternalEnergy {
         final int aFromLabel = contourParticle.label;
         final float intensityDelta = (float)(labelMap.get(aToLabel).iMedianIntensity - labelMap.get(aFromLabel).iMedianIntensity);
         
-        final Point LowerCorner = aIndex.sub(iMiddlePointPsf);
-    
-        final int loc[] = new int[iPsf.numDimensions()];
-        final Cursor<FloatType> vPSF = iPsf.localizingCursor();
         double energyDifference = 0.0;
-        while (vPSF.hasNext()) {
-            vPSF.fwd();
-            vPSF.localize(loc);
-            Point pos = LowerCorner.add(loc);
-            infDevAccessIt.setPosition(pos.iCoords);
-    
-            float vEOld = infDevAccessIt.get().get() - iImage.getSafe(pos);
-            float vENew = vEOld + intensityDelta * vPSF.get().get();
-            energyDifference += vENew * vENew - vEOld * vEOld;
+        if (isPsfInsideImage(aIndex)) {
+            final int index = iImage.pointToIndex(aIndex);
+            for (int k = 0; k < iPsfValues.length; ++k) {
+                final int idx = index + iPsfIndexOffsets[k];
+                float vEOld = iDevData[idx] - iImage.get(idx);
+                float vENew = vEOld + intensityDelta * iPsfValues[k];
+                energyDifference += vENew * vENew - vEOld * vEOld;
+            }
+        }
+        else {
+            // Close to image border: model image is extended periodically and input image with zeros
+            final int[] pos = new int[iNumOfDims];
+            for (int k = 0; k < iPsfValues.length; ++k) {
+                final boolean isInside = psfPointPosition(aIndex, k, pos);
+                float vEOld = iDevData[periodicIndex(pos)] - (isInside ? iImage.get(index(pos)) : 0.0f);
+                float vENew = vEOld + intensityDelta * iPsfValues[k];
+                energyDifference += vENew * vENew - vEOld * vEOld;
+            }
         }
     
         return new EnergyResult(energyDifference, false);
     }
 
+    /**
+     * @return true if PSF centered at aPoint lies completely inside image
+     */
+    private boolean isPsfInsideImage(Point aPoint) {
+        for (int d = 0; d < iNumOfDims; ++d) {
+            final int coord = aPoint.iCoords[d];
+            if (coord + iPsfMinOffset[d] < 0 || coord + iPsfMaxOffset[d] >= iDims[d]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calculates position of k-th PSF point centered at aPoint.
+     * @return true if position is inside image
+     */
+    private boolean psfPointPosition(Point aPoint, int aPsfPoint, int[] aPosition) {
+        boolean isInside = true;
+        for (int d = 0; d < iNumOfDims; ++d) {
+            final int coord = aPoint.iCoords[d] + iPsfOffsets[aPsfPoint * iNumOfDims + d];
+            aPosition[d] = coord;
+            if (coord < 0 || coord >= iDims[d]) isInside = false;
+        }
+        return isInside;
+    }
+
+    private int index(int[] aPosition) {
+        int idx = 0;
+        int stride = 1;
+        for (int d = 0; d < iNumOfDims; ++d) {
+            idx += aPosition[d] * stride;
+            stride *= iDims[d];
+        }
+        return idx;
+    }
+
+    private int periodicIndex(int[] aPosition) {
+        int idx = 0;
+        int stride = 1;
+        for (int d = 0; d < iNumOfDims; ++d) {
+            int coord = aPosition[d] % iDims[d];
+            if (coord < 0) coord += iDims[d];
+            idx += coord * stride;
+            stride *= iDims[d];
+        }
+        return idx;
+    }
+
     private static float Median(ArrayList<Float> values) {
         Collections.sort(values);
 
@@ -223,32 +315,38 @@ public class E_Deconvolution extends ExternalEnergy {
         GenerateModelImage(aInitImage, aLabelMap);
     }
 
+    /**
+     * Updates model image after change of label at aIndex. Only area covered by PSF centered at aIndex is updated.
+     */
     public void UpdateConvolvedImage(Point aIndex, int aFromLabel, int aToLabel, HashMap<Integer, LabelStatistics> aLabelMap) {
-        Point currentPos = aIndex.sub(iMiddlePointPsf);
-        
         if (aToLabel == 0) { 
             // ...the point is removed and set to BG To avoid the operator map::[] in the loop:
             final float vIntensity_FromLabel = (float) aLabelMap.get(aFromLabel).iMedianIntensity;
             final float vIntensity_BGLabel = (float) aLabelMap.get(aToLabel).iMedianIntensity;
-            subtractPsfFromConvImage(currentPos, vIntensity_FromLabel, vIntensity_BGLabel);
+            subtractPsfFromConvImage(aIndex, vIntensity_FromLabel, vIntensity_BGLabel);
         }
         else {
             final float vIntensity_ToLabel = (float) aLabelMap.get(aToLabel).iMedianIntensity;
             final float vIntensity_BGLabel = (float) aLabelMap.get(0).iMedianIntensity;
-            subtractPsfFromConvImage(currentPos, vIntensity_BGLabel, vIntensity_ToLabel);
+            subtractPsfFromConvImage(aIndex, vIntensity_BGLabel, vIntensity_ToLabel);
         }
     }
     
-    private void subtractPsfFromConvImage(Point currentPos, final float fromLabel, final float toLabel) {
-        final int loc[] = new int[iPsf.numDimensions()];
-        final Cursor<FloatType> vPSF = iPsf.localizingCursor();
-
-        while (vPSF.hasNext()) {
-            vPSF.fwd();
-            vPSF.localize(loc);
-            Point pos = new Point(loc).add(currentPos);
-            infDevAccessIt.setPosition(pos.iCoords);
-            infDevAccessIt.get().set(infDevAccessIt.get().get() - (fromLabel - toLabel) * vPSF.get().get());
+    private void subtractPsfFromConvImage(Point aCenter, final float fromLabel, final float toLabel) {
+        if (isPsfInsideImage(aCenter)) {
+            final int index = iImage.pointToIndex(aCenter);
+            for (int k = 0; k < iPsfValues.length; ++k) {
+                final int idx = index + iPsfIndexOffsets[k];
+                iDevData[idx] = iDevData[idx] - (fromLabel - toLabel) * iPsfValues[k];
+            }
+        }
+        else {
+            final int[] pos = new int[iNumOfDims];
+            for (int k = 0; k < iPsfValues.length; ++k) {
+                psfPointPosition(aCenter, k, pos);
+                final int idx = periodicIndex(pos);
+                iDevData[idx] = iDevData[idx] - (fromLabel - toLabel) * iPsfValues[k];
+            }
         }
     }
 }
@@ -39,4 +39,10 @@ public class E_Gamma extends InternalEnergy {
         return new EnergyResult(dGamma, false);
     }
 
+    @Override
+    public boolean dependsOnCandidateState() {
+        // Energy is calculated in respect to currently best candidate label
+        return true;
+    }
+
 }
@@ -22,7 +22,8 @@ public class E_PS extends ExternalEnergy {
 
     private final float iBalloonForceCoeff;
     private final float iRegionMergingThreshold;
-    private final MaskOnSpaceMapper iSphereIt;
+    // Mapper keeps iteration state - each thread calculating energies needs its own one
+    private final ThreadLocal<MaskOnSpaceMapper> iSphereIt;
     
     public E_PS(LabelImage aLabelImage, IntensityImage aIntensityImage, int aPsEnergyRadius, float aBalloonForceCoeff, float aRegionMergingThreshold) {
         iBgLabel = LabelImage.BGLabel;
@@ -30,7 +31,9 @@ public class E_PS extends ExternalEnergy {
         iLabelImage = aLabelImage;
         iBalloonForceCoeff = aBalloonForceCoeff;
         iRegionMergingThreshold = aRegionMergingThreshold;
-        iSphereIt = new MaskOnSpaceMapper(new BallMask(aPsEnergyRadius, iLabelImage.getNumOfDimensions()), iLabelImage.getDimensions());
+        final BallMask sphere = new BallMask(aPsEnergyRadius, iLabelImage.getNumOfDimensions());
+        final int[] dims = iLabelImage.getDimensions();
+        iSphereIt = ThreadLocal.withInitial(() -> new MaskOnSpaceMapper(sphere, dims));
     }
 
     /**
@@ -48,7 +51,8 @@ public class E_PS extends ExternalEnergy {
         final double value = aContourParticle.intensity;
         final int fromLabel = aContourParticle.label;
 
-        iSphereIt.setMiddlePoint(aContourPoint);
+        final MaskOnSpaceMapper sphereIt = iSphereIt.get();
+        sphereIt.setMiddlePoint(aContourPoint);
 
         double sumFrom = -value; // we ignore the value of the center point
         double sumSquaredFrom = -value * value; // ignore the value of the center point.
@@ -58,8 +62,8 @@ public class E_PS extends ExternalEnergy {
         double sumSquaredTo = 0.0;
         int cntTo = 0;
 
-        while (iSphereIt.hasNext()) {
-            final int labelIdx = iSphereIt.next();
+        while (sphereIt.hasNext()) {
+            final int labelIdx = sphereIt.next();
             final int absLabel = iLabelImage.getLabelAbs(labelIdx);
             
             if (absLabel == fromLabel) {
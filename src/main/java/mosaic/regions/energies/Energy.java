@@ -19,6 +19,12 @@ public abstract class Energy {
     public void initEnergy() { /* override if needed */}
     public void updateEnergy() { /*override if needed */}
     
+    /**
+     * @return true if energy difference depends on candidate state of contour particle (like candidateLabel) which
+     *         is changed while candidates are evaluated. Such energy must be calculated in order of evaluation.
+     */
+    public boolean dependsOnCandidateState() { return false; }
+    
     public static class EnergyResult {
         EnergyResult(Double energy, Boolean merge) {
             this.energyDifference = energy;
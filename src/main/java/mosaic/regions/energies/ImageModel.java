@@ -35,6 +35,16 @@ public class ImageModel {
     }
 
     public EnergyResult calculateDeltaEnergy(Point aContourIndex, ContourParticle aContourPointPtr, int aToLabel, HashMap<Integer, LabelStatistics> aLabelMap) {
+        final EnergyResult independentPart = calculateIndependentDeltaEnergy(aContourIndex, aContourPointPtr, aToLabel, aLabelMap);
+        return completeDeltaEnergy(independentPart, aContourIndex, aContourPointPtr, aToLabel, aLabelMap);
+    }
+
+    /**
+     * Calculates part of energy difference which does not depend on candidate state of contour particle. It
+     * can be calculated concurrently for many particles. Full energy difference is returned by
+     * {@link #completeDeltaEnergy(EnergyResult, Point, ContourParticle, int, HashMap)}.
+     */
+    public EnergyResult calculateIndependentDeltaEnergy(Point aContourIndex, ContourParticle aContourPointPtr, int aToLabel, HashMap<Integer, LabelStatistics> aLabelMap) {
         Double energyChange = 0.0;
         Boolean shouldMerge = false;
 
@@ -45,14 +55,11 @@ public class ImageModel {
         shouldMerge = e.merge;
 
         // Contour Length (Regularization)
-        if (iEnergyContourLengthCoeff != 0 && iEnergyLength != null) {
+        if (isLengthEnergyUsed() && !iEnergyLength.dependsOnCandidateState()) {
             e = iEnergyLength.CalculateEnergyDifference(aContourIndex, aContourPointPtr, aToLabel, aLabelMap);
             energyChange += iEnergyContourLengthCoeff * e.energyDifference;
         }
 
-        // add a balloon force and a constant outward flow. If fronts were touching, no constant flow is imposed (cancels out).
-        energyChange -= (aContourPointPtr.label == 0) ? ConstantOutwardFlow : -ConstantOutwardFlow;
-
         // For the full-region based energy models, register competing regions undergo a merge and use e_merge explicitly
         if (iEnergyMerge != null) {
             e = iEnergyMerge.CalculateEnergyDifference(aContourIndex, aContourPointPtr, aToLabel, aLabelMap);
@@ -61,4 +68,29 @@ public class ImageModel {
 
         return new EnergyResult(energyChange, shouldMerge);
     }
+
+    /**
+     * Completes energy difference calculated by {@link #calculateIndependentDeltaEnergy(Point, ContourParticle, int, HashMap)}
+     * with energies depending on current candidate state of contour particle. Must be called in order of evaluation of candidates.
+     * Terms are always summed in same order (data, length, outward flow) no matter which of them were calculated
+     * in independent part, so result is bit-identical to non split calculation.
+     */
+    public EnergyResult completeDeltaEnergy(EnergyResult aIndependentPart, Point aContourIndex, ContourParticle aContourPointPtr, int aToLabel, HashMap<Integer, LabelStatistics> aLabelMap) {
+        Double energyChange = aIndependentPart.energyDifference;
+
+        // Contour Length (Regularization)
+        if (isLengthEnergyUsed() && iEnergyLength.dependsOnCandidateState()) {
+            EnergyResult e = iEnergyLength.CalculateEnergyDifference(aContourIndex, aContourPointPtr, aToLabel, aLabelMap);
+            energyChange += iEnergyContourLengthCoeff * e.energyDifference;
+        }
+
+        // add a balloon force and a constant outward flow. If fronts were touching, no constant flow is imposed (cancels out).
+        energyChange -= (aContourPointPtr.label == 0) ? ConstantOutwardFlow : -ConstantOutwardFlow;
+
+        return new EnergyResult(energyChange, aIndependentPart.merge);
+    }
+
+    private boolean isLengthEnergyUsed() {
+        return iEnergyContourLengthCoeff != 0 && iEnergyLength != null;
+    }
 }
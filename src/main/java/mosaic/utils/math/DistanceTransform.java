@@ -0,0 +1,125 @@
+package mosaic.utils.math;
+
+
+import java.util.stream.IntStream;
+
+
+/**
+ * Exact squared Euclidean distance transform of a regular 3D grid, based on lower envelope of parabolas
+ * computed separately in each dimension (P. Felzenszwalb, D. Huttenlocher, "Distance Transforms of Sampled Functions").
+ * Runs in time linear with number of grid points (independently of number of seeds).
+ * Grid is stored in flat array with index (x * ny + y) * nz + z.
+ */
+public class DistanceTransform {
+
+    /**
+     * Calculates squared distances (in grid units) of every grid point to nearest seed point.
+     * @param aGrid input: 0 for seed points and Float.POSITIVE_INFINITY for all other points,
+     *              output: squared distances to nearest seed (stays infinite if there is no seed)
+     * @param aNx number of points in x direction
+     * @param aNy number of points in y direction
+     * @param aNz number of points in z direction
+     */
+    public static void squaredDistances(float[] aGrid, int aNx, int aNy, int aNz) {
+        squaredDistances(aGrid, null, aNx, aNy, aNz);
+    }
+
+    /**
+     * Calculates squared distances (in grid units) of every grid point to nearest seed point together with
+     * nearest seed (feature transform). If more than one seed is nearest any of them is chosen.
+     * @param aGrid input: 0 for seed points and Float.POSITIVE_INFINITY for all other points,
+     *              output: squared distances to nearest seed (stays infinite if there is no seed)
+     * @param aNearestSeed input: seed label (any value) for seed points, output: label of nearest seed 
+     *              (undefined if there is no seed). Can be null if only distances are needed.
+     * @param aNx number of points in x direction
+     * @param aNy number of points in y direction
+     * @param aNz number of points in z direction
+     */
+    public static void squaredDistances(float[] aGrid, int[] aNearestSeed, int aNx, int aNy, int aNz) {
+        if ((long) aNx * aNy * aNz != aGrid.length) {
+            throw new IllegalArgumentException("Grid size " + aGrid.length + " does not match dimensions " + aNx + "x" + aNy + "x" + aNz);
+        }
+        if (aNearestSeed != null && aNearestSeed.length != aGrid.length) {
+            throw new IllegalArgumentException("Nearest seed array size " + aNearestSeed.length + " does not match grid size " + aGrid.length);
+        }
+        final int yzSize = aNy * aNz;
+        transformLines(aGrid, aNearestSeed, aNz, 1, aNx, yzSize, aNy, aNz);
+        transformLines(aGrid, aNearestSeed, aNy, aNz, aNx, yzSize, aNz, 1);
+        transformLines(aGrid, aNearestSeed, aNx, yzSize, aNy, aNz, aNz, 1);
+    }
+
+    /**
+     * Transforms all lines of given length and stride. Line starts are aOuterStride * o + aInnerStride * i.
+     */
+    private static void transformLines(float[] aGrid, int[] aNearestSeed, int aLength, int aStride, int aNumOfOuter, int aOuterStride, int aNumOfInner, int aInnerStride) {
+        if (aLength < 2) return;
+
+        IntStream.range(0, aNumOfOuter).parallel().forEach(o -> {
+            final double[] f = new double[aLength];
+            final double[] d = new double[aLength];
+            final int[] v = new int[aLength];
+            final double[] z = new double[aLength + 1];
+            final int[] source = (aNearestSeed != null) ? new int[aLength] : null;
+            final int[] seeds = (aNearestSeed != null) ? new int[aLength] : null;
+            for (int i = 0; i < aNumOfInner; ++i) {
+                final int start = o * aOuterStride + i * aInnerStride;
+                for (int q = 0; q < aLength; ++q) f[q] = aGrid[start + q * aStride];
+                transform1d(f, d, v, z, source, aLength);
+                for (int q = 0; q < aLength; ++q) aGrid[start + q * aStride] = (float) d[q];
+                if (aNearestSeed != null && d[0] != Double.POSITIVE_INFINITY) {
+                    for (int q = 0; q < aLength; ++q) seeds[q] = aNearestSeed[start + q * aStride];
+                    for (int q = 0; q < aLength; ++q) aNearestSeed[start + q * aStride] = seeds[source[q]];
+                }
+            }
+        });
+    }
+
+    /**
+     * 1D distance transform of sampled function f: d(q) = min_p ((q - p)^2 + f(p)). Infinite samples are not
+     * taken into account when lower envelope is built.
+     * @param v, z - work buffers (locations of parabolas in envelope and boundaries between them)
+     * @param aSource - output: sample p giving minimum for each q (not set if there are no finite samples), can be null
+     */
+    static void transform1d(double[] f, double[] d, int[] v, double[] z, int[] aSource, int aLength) {
+        int k = -1;
+        for (int q = 0; q < aLength; ++q) {
+            if (f[q] == Double.POSITIVE_INFINITY) continue;
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Double.NEGATIVE_INFINITY;
+                z[1] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double s = intersection(f, v[k], q);
+            while (s <= z[k]) {
+                --k;
+                s = intersection(f, v[k], q);
+            }
+            ++k;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        if (k < 0) {
+            // no finite samples - nothing to propagate
+            for (int q = 0; q < aLength; ++q) d[q] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        k = 0;
+        for (int q = 0; q < aLength; ++q) {
+            while (z[k + 1] < q) ++k;
+            final double dq = q - v[k];
+            d[q] = dq * dq + f[v[k]];
+            if (aSource != null) aSource[q] = v[k];
+        }
+    }
+
+    /**
+     * @return horizontal position of intersection of parabolas rooted at p and q
+     */
+    private static double intersection(double[] f, int p, int q) {
+        return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+    }
+}
@@ -0,0 +1,152 @@
+package mosaic.utils.math;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+
+/**
+ * Discrete distribution over indices 0..size-1 with weights which can be changed (and indices appended/removed at
+ * the end) in O(log n) time. Weights are kept in Fenwick (binary indexed) tree and sampling descends the tree,
+ * so it is exact and also O(log n). Weights do not need to be normalized.
+ */
+public class DynamicDiscreteDistribution {
+    // Number of updates after which tree is rebuilt from weights to get rid of accumulated rounding errors
+    private static final int RebuildInterval = 1 << 20;
+
+    private double[] iWeights;
+    // Fenwick tree (1-based), its length - 1 is always power of two
+    private double[] iTree;
+    private int iSize = 0;
+    private int iNumOfUpdates = 0;
+
+    public DynamicDiscreteDistribution() {
+        this(16);
+    }
+
+    /**
+     * @param aCapacity - initial capacity
+     */
+    public DynamicDiscreteDistribution(int aCapacity) {
+        allocate(Integer.highestOneBit(Math.max(1, aCapacity - 1)) << 1);
+    }
+
+    private void allocate(int aCapacity) {
+        iWeights = (iWeights == null) ? new double[aCapacity] : Arrays.copyOf(iWeights, aCapacity);
+        iTree = new double[aCapacity + 1];
+        rebuild();
+    }
+
+    /**
+     * Builds tree from weights in O(n)
+     */
+    private void rebuild() {
+        final int n = iTree.length - 1;
+        Arrays.fill(iTree, 0);
+        for (int i = 1; i <= n; ++i) {
+            iTree[i] += iWeights[i - 1];
+            final int parent = i + (i & -i);
+            if (parent <= n) iTree[parent] += iTree[i];
+        }
+        iNumOfUpdates = 0;
+    }
+
+    /**
+     * @return number of elements
+     */
+    public int size() {
+        return iSize;
+    }
+
+    /**
+     * @return weight of element aIndex
+     */
+    public double get(int aIndex) {
+        checkIndex(aIndex);
+        return iWeights[aIndex];
+    }
+
+    /**
+     * Sets weight of element aIndex (must be non-negative)
+     */
+    public void set(int aIndex, double aWeight) {
+        checkIndex(aIndex);
+        update(aIndex, aWeight);
+    }
+
+    private void update(int aIndex, double aWeight) {
+        final double delta = aWeight - iWeights[aIndex];
+        iWeights[aIndex] = aWeight;
+        if (++iNumOfUpdates > RebuildInterval) {
+            rebuild();
+            return;
+        }
+        final int n = iTree.length - 1;
+        for (int i = aIndex + 1; i <= n; i += (i & -i)) {
+            iTree[i] += delta;
+        }
+    }
+
+    /**
+     * Appends new element with given weight
+     */
+    public void add(double aWeight) {
+        if (iSize == iWeights.length) allocate(2 * iWeights.length);
+        update(iSize++, aWeight);
+    }
+
+    /**
+     * Removes last element
+     */
+    public void removeLast() {
+        checkIndex(iSize - 1);
+        update(--iSize, 0);
+    }
+
+    /**
+     * Removes all elements
+     */
+    public void clear() {
+        Arrays.fill(iWeights, 0, iSize, 0);
+        Arrays.fill(iTree, 0);
+        iSize = 0;
+        iNumOfUpdates = 0;
+    }
+
+    /**
+     * @return sum of all weights
+     */
+    public double getTotal() {
+        return iTree[iTree.length - 1];
+    }
+
+    /**
+     * Samples index with probability proportional to its weight
+     */
+    public int sample(RandomGenerator aRng) {
+        final double total = getTotal();
+        if (iSize == 0 || !(total > 0)) {
+            throw new IllegalStateException("Cannot sample from distribution with total weight: " + total + " (size: " + iSize + ")");
+        }
+        double value = aRng.nextDouble() * total;
+
+        // Find smallest index with prefix sum bigger than value
+        int pos = 0;
+        for (int step = iTree.length - 1; step > 0; step >>= 1) {
+            final int next = pos + step;
+            if (next < iTree.length && iTree[next] <= value) {
+                pos = next;
+                value -= iTree[next];
+            }
+        }
+
+        // Guard against rounding errors (could point past the last element or to element with zero weight)
+        if (pos >= iSize) pos = iSize - 1;
+        while (pos > 0 && iWeights[pos] <= 0) --pos;
+        return pos;
+    }
+
+    private void checkIndex(int aIndex) {
+        if (aIndex < 0 || aIndex >= iSize) throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + iSize);
+    }
+}
@@ -13,11 +13,33 @@ import org.apache.commons.math3.random.RandomGenerator;
  */
 public class IndexedDiscreteDistribution {
     protected final RandomGenerator iRng;
-    private final double[] iCdf;
+    private double[] iCdf;
+    private int iSize;
 
     public IndexedDiscreteDistribution(final RandomGenerator rng, double[] pmf) {
+        this(rng, pmf.length);
+        refill(pmf, pmf.length);
+    }
+    
+    /**
+     * Creates empty distribution which must be filled with {@link #refill(double[], int)} before sampling.
+     * @param aCapacity - initial capacity (number of elements of pmf)
+     */
+    public IndexedDiscreteDistribution(final RandomGenerator rng, int aCapacity) {
         iRng = rng;
-        iCdf = StatisticsUtils.calculateCdfFromPmf(pmf, true);
+        iCdf = new double[aCapacity];
+        iSize = 0;
+    }
+    
+    /**
+     * Replaces distribution with first aLength elements of provided pmf. Internal buffer is reused 
+     * (and grows if needed) so distribution can be refilled without allocations.
+     */
+    public void refill(double[] aPmf, int aLength) {
+        if (iCdf.length < aLength) iCdf = new double[Math.max(aLength, 2 * iCdf.length)];
+        
+        StatisticsUtils.calculateCdfFromPmf(aPmf, iCdf, aLength, true);
+        iSize = aLength;
     }
 
     /**
@@ -26,7 +48,7 @@ public class IndexedDiscreteDistribution {
     public int sample() {
         final double val = iRng.nextDouble();
 
-        int idx = Arrays.binarySearch(iCdf, val);
+        int idx = Arrays.binarySearch(iCdf, 0, iSize, val);
         if (idx < 0) {
             // When not exact value is found -idx - 1 is returned pointing to possible inserting
             // location => convert it back
@@ -1,52 +1,72 @@
 package mosaic.utils.math;
 
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import org.scijava.vecmath.Point3d;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.EuclideanDistance;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.core.neighboursearch.KDTree;
 
 
 /**
- * This class implements Nearest Neighbor tree. It calculates nearest distance(s) of given point(s) 
+ * This class implements Nearest Neighbor tree. It calculates nearest distance(s) of given point(s)
  * to provided in constructor base points.
+ *
+ * It is a balanced k-d tree over 3D points kept in flat arrays (points are reordered so each subtree is
+ * a continuous range with its splitting point in the middle). Single queries do not allocate any memory,
+ * batch queries are run in parallel for bigger inputs. 2D data should be given with z = 0.
  */
 public class NearestNeighborTree {
+    // Subtrees with not more points than that are searched linearly
+    private static final int LeafSize = 8;
+    // Minimum number of queries to run batch query in parallel
+    private static final int MinNumOfQueriesForParallel = 1 << 12;
 
-    private KDTree iTree;
-    private Instances iBasePoints;
+    private final int iNumOfPoints;
+    // coordinates (x, y, z) of reordered points
+    private final double[] iCoords;
+    // original index of each reordered point
+    private final int[] iIndices;
+    // split dimension of subtree with splitting point at given position
+    private final byte[] iSplitDims;
 
     /**
      * @param aPoints Input base points to which distances will be calculated
      */
     public NearestNeighborTree(Point3d[] aPoints) {
-        final ArrayList<Attribute> attributes = new ArrayList<Attribute>(3);
-        attributes.add(new Attribute("x"));
-        attributes.add(new Attribute("y"));
-        attributes.add(new Attribute("z"));
-        iBasePoints = new Instances("Y", attributes, 0);
-        for (int i = 0; i < aPoints.length; i++) {
-            final double[] coordinates = new double[3];
-            aPoints[i].get(coordinates);
-            final Instance inst = new DenseInstance(1, coordinates);
-            inst.setDataset(iBasePoints);
-            iBasePoints.add(inst);
-        }
+        this(toFlatCoordinates(aPoints));
+    }
 
-        try {
-            iTree = new KDTree();
-            iTree.setInstances(iBasePoints);
-            final EuclideanDistance df = (EuclideanDistance) iTree.getDistanceFunction();
-            df.setDontNormalize(true);
+    /**
+     * @param aCoordinates Input base points as flat array {x0, y0, z0, x1, y1, z1, ...}
+     */
+    public NearestNeighborTree(double[] aCoordinates) {
+        if (aCoordinates.length % 3 != 0) {
+            throw new IllegalArgumentException("Number of coordinates (" + aCoordinates.length + ") must be multiple of 3");
         }
-        catch (final Exception e) {
-            e.printStackTrace();
+        iNumOfPoints = aCoordinates.length / 3;
+        iCoords = aCoordinates.clone();
+        iIndices = new int[iNumOfPoints];
+        for (int i = 0; i < iNumOfPoints; ++i) iIndices[i] = i;
+        iSplitDims = new byte[iNumOfPoints];
+        build(0, iNumOfPoints);
+    }
+
+    private static double[] toFlatCoordinates(Point3d[] aPoints) {
+        final double[] coordinates = new double[3 * aPoints.length];
+        for (int i = 0; i < aPoints.length; ++i) {
+            coordinates[3 * i] = aPoints[i].x;
+            coordinates[3 * i + 1] = aPoints[i].y;
+            coordinates[3 * i + 2] = aPoints[i].z;
         }
+        return coordinates;
+    }
+
+    /**
+     * @return number of base points
+     */
+    public int size() {
+        return iNumOfPoints;
     }
 
     /**
@@ -55,32 +75,284 @@ public class NearestNeighborTree {
      */
     public double[] getDistancesToNearestNeighbors(Point3d[] aPoints) {
         final double[] distances = new double[aPoints.length];
-
-        for (int i = 0; i < aPoints.length; i++) {
-            distances[i] = getDistanceToNearestNeighbor(aPoints[i]);
-        }
-        
+        forEachQuery(aPoints.length, i -> distances[i] = getDistanceToNearestNeighbor(aPoints[i].x, aPoints[i].y, aPoints[i].z));
         return distances;
     }
-    
+
+    /**
+     * @param aQueryCoordinates Points for which nearest neighbor distances should be calculated as flat array {x0, y0, z0, x1, ...}
+     * @param aDistances output array (at least aQueryCoordinates.length / 3 long) for distances of each input point
+     */
+    public void getDistancesToNearestNeighbors(double[] aQueryCoordinates, double[] aDistances) {
+        forEachQuery(aQueryCoordinates.length / 3, i -> aDistances[i] = getDistanceToNearestNeighbor(aQueryCoordinates[3 * i], aQueryCoordinates[3 * i + 1], aQueryCoordinates[3 * i + 2]));
+    }
+
+    private static void forEachQuery(int aNumOfQueries, IntConsumer aQuery) {
+        final IntStream queries = IntStream.range(0, aNumOfQueries);
+        (aNumOfQueries >= MinNumOfQueriesForParallel ? queries.parallel() : queries).forEach(aQuery);
+    }
+
     /**
      * @param aPoint Point for which nearest neighbor distance should be calculated
-     * @return array of distances for each input point
+     * @return distance to nearest neighbor (Double.MAX_VALUE if there are no base points)
      */
     public double getDistanceToNearestNeighbor(Point3d aPoint) {
-        final double[] coordinates = new double[3];
-        aPoint.get(coordinates);
-        final Instance inst = new DenseInstance(1, coordinates);
-        inst.setDataset(iBasePoints);
-        
-        double distance = Double.MAX_VALUE;
-        try {
-            iTree.nearestNeighbour(inst);
-            distance = iTree.getDistances()[0];
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-        return distance;
+        return getDistanceToNearestNeighbor(aPoint.x, aPoint.y, aPoint.z);
+    }
+
+    /**
+     * @return distance of point (aX, aY, aZ) to nearest neighbor (Double.MAX_VALUE if there are no base points)
+     */
+    public double getDistanceToNearestNeighbor(double aX, double aY, double aZ) {
+        if (iNumOfPoints == 0) return Double.MAX_VALUE;
+        final int nearest = nearest(aX, aY, aZ, 0, iNumOfPoints, -1, Double.POSITIVE_INFINITY);
+        return Math.sqrt(squaredDistance(nearest, aX, aY, aZ));
+    }
+
+    /**
+     * @return index (in input order) of base point nearest to (aX, aY, aZ) or -1 if there are no base points
+     */
+    public int getNearestNeighborIndex(double aX, double aY, double aZ) {
+        if (iNumOfPoints == 0) return -1;
+        return iIndices[nearest(aX, aY, aZ, 0, iNumOfPoints, -1, Double.POSITIVE_INFINITY)];
+    }
+
+    /**
+     * @return indices (in input order) of min(aK, number of base points) base points nearest to (aX, aY, aZ),
+     *         sorted by increasing distance
+     */
+    public int[] getKNearestNeighbors(double aX, double aY, double aZ, int aK) {
+        final KnnHeap heap = new KnnHeap(Math.min(aK, iNumOfPoints));
+        if (heap.iCapacity > 0) kNearest(aX, aY, aZ, 0, iNumOfPoints, heap);
+        return heap.sortedIndices();
+    }
+
+    /**
+     * @return indices (in input order, sorted ascending) of all base points with distance to (aX, aY, aZ) not bigger than aRadius
+     */
+    public int[] getNeighborsWithinRadius(double aX, double aY, double aZ, double aRadius) {
+        final int[][] result = {new int[16]};
+        final int numOfFound = withinRadius(aX, aY, aZ, aRadius * aRadius, 0, iNumOfPoints, result, 0);
+        final int[] indices = Arrays.copyOf(result[0], numOfFound);
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private double squaredDistance(int aPos, double aX, double aY, double aZ) {
+        final double dx = iCoords[3 * aPos] - aX;
+        final double dy = iCoords[3 * aPos + 1] - aY;
+        final double dz = iCoords[3 * aPos + 2] - aZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double coordinate(double aX, double aY, double aZ, int aDim) {
+        return aDim == 0 ? aX : (aDim == 1 ? aY : aZ);
+    }
+
+    /**
+     * @return position of point nearest to query in subtree [aLo, aHi) or aBest if none is closer than aBestDist (squared)
+     */
+    private int nearest(double aX, double aY, double aZ, int aLo, int aHi, int aBest, double aBestDist) {
+        if (aHi - aLo <= LeafSize) {
+            for (int p = aLo; p < aHi; ++p) {
+                final double d = squaredDistance(p, aX, aY, aZ);
+                if (d < aBestDist) {
+                    aBestDist = d;
+                    aBest = p;
+                }
+            }
+            return aBest;
+        }
+        final int mid = (aLo + aHi) >>> 1;
+        final double d = squaredDistance(mid, aX, aY, aZ);
+        if (d < aBestDist) {
+            aBestDist = d;
+            aBest = mid;
+        }
+        final int dim = iSplitDims[mid];
+        final double diff = coordinate(aX, aY, aZ, dim) - iCoords[3 * mid + dim];
+        final int nearBest = (diff < 0) ? nearest(aX, aY, aZ, aLo, mid, aBest, aBestDist) : nearest(aX, aY, aZ, mid + 1, aHi, aBest, aBestDist);
+        if (nearBest != aBest) {
+            aBest = nearBest;
+            aBestDist = squaredDistance(aBest, aX, aY, aZ);
+        }
+        if (diff * diff < aBestDist) {
+            aBest = (diff < 0) ? nearest(aX, aY, aZ, mid + 1, aHi, aBest, aBestDist) : nearest(aX, aY, aZ, aLo, mid, aBest, aBestDist);
+        }
+        return aBest;
+    }
+
+    private void kNearest(double aX, double aY, double aZ, int aLo, int aHi, KnnHeap aHeap) {
+        if (aHi - aLo <= LeafSize) {
+            for (int p = aLo; p < aHi; ++p) aHeap.offer(iIndices[p], squaredDistance(p, aX, aY, aZ));
+            return;
+        }
+        final int mid = (aLo + aHi) >>> 1;
+        aHeap.offer(iIndices[mid], squaredDistance(mid, aX, aY, aZ));
+        final int dim = iSplitDims[mid];
+        final double diff = coordinate(aX, aY, aZ, dim) - iCoords[3 * mid + dim];
+        if (diff < 0) kNearest(aX, aY, aZ, aLo, mid, aHeap); else kNearest(aX, aY, aZ, mid + 1, aHi, aHeap);
+        if (diff * diff < aHeap.worstDistance()) {
+            if (diff < 0) kNearest(aX, aY, aZ, mid + 1, aHi, aHeap); else kNearest(aX, aY, aZ, aLo, mid, aHeap);
+        }
+    }
+
+    /**
+     * Adds indices of points from subtree [aLo, aHi) within radius to aResult[0] (grown if needed) starting at aNumOfFound.
+     * @return updated number of found points
+     */
+    private int withinRadius(double aX, double aY, double aZ, double aRadius2, int aLo, int aHi, int[][] aResult, int aNumOfFound) {
+        if (aHi - aLo <= LeafSize) {
+            for (int p = aLo; p < aHi; ++p) {
+                if (squaredDistance(p, aX, aY, aZ) <= aRadius2) aNumOfFound = add(aResult, aNumOfFound, iIndices[p]);
+            }
+            return aNumOfFound;
+        }
+        final int mid = (aLo + aHi) >>> 1;
+        if (squaredDistance(mid, aX, aY, aZ) <= aRadius2) aNumOfFound = add(aResult, aNumOfFound, iIndices[mid]);
+        final int dim = iSplitDims[mid];
+        final double diff = coordinate(aX, aY, aZ, dim) - iCoords[3 * mid + dim];
+        if (diff <= 0 || diff * diff <= aRadius2) aNumOfFound = withinRadius(aX, aY, aZ, aRadius2, aLo, mid, aResult, aNumOfFound);
+        if (diff >= 0 || diff * diff <= aRadius2) aNumOfFound = withinRadius(aX, aY, aZ, aRadius2, mid + 1, aHi, aResult, aNumOfFound);
+        return aNumOfFound;
+    }
+
+    private static int add(int[][] aResult, int aNumOfFound, int aIndex) {
+        if (aNumOfFound == aResult[0].length) aResult[0] = Arrays.copyOf(aResult[0], 2 * aNumOfFound);
+        aResult[0][aNumOfFound] = aIndex;
+        return aNumOfFound + 1;
+    }
+
+    /**
+     * Builds subtree [aLo, aHi): median point (in dimension with biggest spread) goes to the middle of range,
+     * smaller ones before and bigger ones after it.
+     */
+    private void build(int aLo, int aHi) {
+        if (aHi - aLo <= LeafSize) return;
+
+        final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int p = aLo; p < aHi; ++p) {
+            for (int d = 0; d < 3; ++d) {
+                final double v = iCoords[3 * p + d];
+                if (v < min[d]) min[d] = v;
+                if (v > max[d]) max[d] = v;
+            }
+        }
+        int dim = 0;
+        for (int d = 1; d < 3; ++d) {
+            if (max[d] - min[d] > max[dim] - min[dim]) dim = d;
+        }
+
+        final int mid = (aLo + aHi) >>> 1;
+        select(aLo, aHi - 1, mid, dim);
+        iSplitDims[mid] = (byte) dim;
+        build(aLo, mid);
+        build(mid + 1, aHi);
+    }
+
+    /**
+     * Quickselect: reorders points in [aLeft, aRight] so point at aNth has its final (sorted in aDim) position.
+     */
+    private void select(int aLeft, int aRight, int aNth, int aDim) {
+        while (aRight > aLeft) {
+            // median of three as a pivot
+            final int center = (aLeft + aRight) >>> 1;
+            if (value(center, aDim) < value(aLeft, aDim)) swap(center, aLeft);
+            if (value(aRight, aDim) < value(aLeft, aDim)) swap(aRight, aLeft);
+            if (value(aRight, aDim) < value(center, aDim)) swap(aRight, center);
+            final double pivot = value(center, aDim);
+
+            int i = aLeft;
+            int j = aRight;
+            while (i <= j) {
+                while (value(i, aDim) < pivot) ++i;
+                while (value(j, aDim) > pivot) --j;
+                if (i <= j) swap(i++, j--);
+            }
+            if (aNth <= j) aRight = j;
+            else if (aNth >= i) aLeft = i;
+            else return;
+        }
+    }
+
+    private double value(int aPos, int aDim) {
+        return iCoords[3 * aPos + aDim];
+    }
+
+    private void swap(int aPos1, int aPos2) {
+        for (int d = 0; d < 3; ++d) {
+            final double tmp = iCoords[3 * aPos1 + d];
+            iCoords[3 * aPos1 + d] = iCoords[3 * aPos2 + d];
+            iCoords[3 * aPos2 + d] = tmp;
+        }
+        final int tmp = iIndices[aPos1];
+        iIndices[aPos1] = iIndices[aPos2];
+        iIndices[aPos2] = tmp;
+    }
+
+    /**
+     * Bounded max-heap (by distance) of k nearest points found so far.
+     */
+    private static class KnnHeap {
+        final int iCapacity;
+        final int[] iIdx;
+        final double[] iDist;
+        int iSize = 0;
+
+        KnnHeap(int aCapacity) {
+            iCapacity = Math.max(aCapacity, 0);
+            iIdx = new int[iCapacity];
+            iDist = new double[iCapacity];
+        }
+
+        double worstDistance() {
+            return iSize < iCapacity ? Double.POSITIVE_INFINITY : iDist[0];
+        }
+
+        void offer(int aIndex, double aDist) {
+            if (iSize < iCapacity) {
+                int i = iSize++;
+                while (i > 0) {
+                    final int parent = (i - 1) / 2;
+                    if (iDist[parent] >= aDist) break;
+                    iIdx[i] = iIdx[parent];
+                    iDist[i] = iDist[parent];
+                    i = parent;
+                }
+                iIdx[i] = aIndex;
+                iDist[i] = aDist;
+            }
+            else if (aDist < iDist[0]) {
+                siftDown(0, aIndex, aDist, iSize);
+            }
+        }
+
+        private void siftDown(int aPos, int aIndex, double aDist, int aSize) {
+            int i = aPos;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= aSize) break;
+                if (child + 1 < aSize && iDist[child + 1] > iDist[child]) child++;
+                if (iDist[child] <= aDist) break;
+                iIdx[i] = iIdx[child];
+                iDist[i] = iDist[child];
+                i = child;
+            }
+            iIdx[i] = aIndex;
+            iDist[i] = aDist;
+        }
+
+        int[] sortedIndices() {
+            // heap sort in place - biggest distances go to the end
+            for (int size = iSize - 1; size > 0; --size) {
+                final int idx = iIdx[size];
+                final double dist = iDist[size];
+                iIdx[size] = iIdx[0];
+                iDist[size] = iDist[0];
+                siftDown(0, idx, dist, size);
+            }
+            return Arrays.copyOf(iIdx, iSize);
+        }
     }
 }
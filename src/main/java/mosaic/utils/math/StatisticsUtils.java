@@ -41,19 +41,29 @@ public class StatisticsUtils {
      * @return CDF
      */
     public static double[] calculateCdfFromPmf(double[] aPmf, boolean aNormalize) {
-        final double[] cdf = new double[aPmf.length];
-        
+        return calculateCdfFromPmf(aPmf, new double[aPmf.length], aPmf.length, aNormalize);
+    }
+
+    /**
+     * Calculates a CDF from first aLength values of given PDF into provided container (no allocation)
+     * @param aPmf - input PMF
+     * @param aCdf - output CDF with at least aLength elements (can be same as aPmf)
+     * @param aLength - number of values to use
+     * @param aNormalize - should values be normalized?
+     * @return aCdf
+     */
+    public static double[] calculateCdfFromPmf(double[] aPmf, double[] aCdf, int aLength, boolean aNormalize) {
         double sum = 0;
-        for (int i = 0; i < aPmf.length; i++) {
+        for (int i = 0; i < aLength; i++) {
             sum += aPmf[i];
-            cdf[i] = sum;
+            aCdf[i] = sum;
         }
 
         if (aNormalize) {
-            normalizeDiscreteCdf(cdf, false);
+            normalizeDiscreteCdf(aCdf, aLength);
         }
         
-        return cdf;
+        return aCdf;
     }
 
     /**
@@ -63,14 +73,23 @@ public class StatisticsUtils {
      * @return normalized CDF
      */
     public static double[] normalizeDiscreteCdf(final double[] aCdf,  boolean aGenerateNewContainer) {
-        final double[] result = aGenerateNewContainer ? new double[aCdf.length] : aCdf;
-        
-        double maximumValue = aCdf[aCdf.length - 1];
-        for (int i = 0; i < aCdf.length; i++) {
-            result[i] = aCdf[i] / maximumValue;
+        final double[] result = aGenerateNewContainer ? aCdf.clone() : aCdf;
+        return normalizeDiscreteCdf(result, aCdf.length);
+    }
+    
+    /**
+     * Normalizes "in place" first aLength values of CDF distribution (value with index aLength - 1 will be 1.0)
+     * @param aCdf - input distribution 
+     * @param aLength - number of values to normalize
+     * @return aCdf
+     */
+    public static double[] normalizeDiscreteCdf(final double[] aCdf, int aLength) {
+        final double maximumValue = aCdf[aLength - 1];
+        for (int i = 0; i < aLength; i++) {
+            aCdf[i] /= maximumValue;
         }
         
-        return result;
+        return aCdf;
     }
     
     /**
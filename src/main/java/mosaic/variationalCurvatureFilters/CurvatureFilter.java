@@ -9,6 +9,7 @@ public interface CurvatureFilter {
      * Implementations of this filter can be passed to runFilter method in order to
      * process only specific pixels of image. If shouldBeProcessed returns true then
      * pixel with coordinates (aX, aY) will be processed.
+     * Notice: it may be called concurrently from many threads.
      */
     interface Mask {
         boolean shouldBeProcessed(int aX, int aY);
@@ -27,4 +27,25 @@ public interface FilterKernel {
      * @return Middle pixel change delta value
      */
     float filterKernel(float lu, float u, float ru, float l, float m, float r, float ld, float d, float rd);
+
+    /**
+     * Applies filter to every second pixel of aCurrentRow with index from range [aFirstCol, aEndCol).
+     * Kernels should override it with a loop calling their kernel directly, so the JIT does not have to
+     * inline an interface call for every pixel.
+     * All accessed pixels from aPreviousRow, aNextRow and neighbours in aCurrentRow must exist
+     * (aFirstCol >= 1 and aEndCol <= aCurrentRow.length - 1).
+     *
+     * @param aPreviousRow row above processed one
+     * @param aCurrentRow processed row
+     * @param aNextRow row below processed one
+     * @param aFirstCol first processed pixel
+     * @param aEndCol end of processed range (exclusive)
+     */
+    default void filterRow(float[] aPreviousRow, float[] aCurrentRow, float[] aNextRow, int aFirstCol, int aEndCol) {
+        for (int j = aFirstCol; j < aEndCol; j += 2) {
+            aCurrentRow[j] += filterKernel(aPreviousRow[j - 1], aPreviousRow[j], aPreviousRow[j + 1],
+                                           aCurrentRow[j - 1], aCurrentRow[j], aCurrentRow[j + 1],
+                                           aNextRow[j - 1], aNextRow[j], aNextRow[j + 1]);
+        }
+    }
 }
@@ -13,4 +13,16 @@ interface FilterKernel3D {
      * @param aZ - coordinate of processed point
      */
     float filterKernel(float[][][] aImage, int aX, int aY, int aZ);
+
+    /**
+     * Applies filter to every second pixel of row (aY, aZ) with x coordinate from range [aFirstX, aEndX).
+     * Kernels should override it with a loop calling their kernel directly, so the JIT does not have to
+     * inline an interface call for every pixel.
+     * @param aImage should be in format [Z][Y][X]
+     */
+    default void filterRow(float[][][] aImage, int aY, int aZ, int aFirstX, int aEndX) {
+        for (int x = aFirstX; x < aEndX; x += 2) {
+            aImage[aZ][aY][x] += filterKernel(aImage, x, aY, aZ);
+        }
+    }
 }
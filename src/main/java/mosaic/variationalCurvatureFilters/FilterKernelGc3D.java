@@ -7,69 +7,80 @@ package mosaic.variationalCurvatureFilters;
 public class FilterKernelGc3D implements FilterKernel3D {
     @Override
     public float filterKernel(float[][][] aImage, int aX, int aY, int aZ) {
-        final float[] d = new float[50];
-        final int i=aX, j=aY , k=aZ;
+        return delta(aImage[aZ - 1][aY - 1], aImage[aZ - 1][aY], aImage[aZ - 1][aY + 1],
+                     aImage[aZ][aY - 1], aImage[aZ][aY], aImage[aZ][aY + 1],
+                     aImage[aZ + 1][aY - 1], aImage[aZ + 1][aY], aImage[aZ + 1][aY + 1], aX);
+    }
 
-        // Calculating minimum distances (taken from Fortran code "ppm_rc_gc.f")
-        d[1] = (aImage[k - 1][j][i] + aImage[k + 1][j][i]) / 2.0f - aImage[k][j][i];
-        d[2] = (aImage[k][j - 1][i] + aImage[k][j + 1][i]) / 2.0f - aImage[k][j][i];
-        d[3] = (aImage[k][j][i - 1] + aImage[k][j][i + 1]) / 2.0f - aImage[k][j][i];
-        d[4] = (aImage[k - 1][j - 1][i - 1] + aImage[k + 1][j + 1][i + 1]) / 2.0f - aImage[k][j][i];
-        d[5] = (aImage[k - 1][j - 1][ i] + aImage[k + 1][j + 1][i]) / 2.0f - aImage[k][j][i];
-        d[6] = (aImage[k - 1][j - 1][i + 1] + aImage[k + 1][j + 1][i - 1]) / 2.0f - aImage[k][j][i];
-        d[7] = (aImage[k - 1][j][i - 1] + aImage[k + 1][j][i + 1]) / 2.0f - aImage[k][j][i];
-        d[8] = (aImage[k - 1][j][i + 1] + aImage[k + 1][j][i - 1]) / 2.0f - aImage[k][j][i];
-        d[9] = (aImage[k - 1][j + 1][i - 1] + aImage[k + 1][j - 1][i + 1]) / 2.0f - aImage[k][j][i];
-        d[10] = (aImage[k - 1][j + 1][i] + aImage[k + 1][j - 1][i]) / 2.0f - aImage[k][j][i];
-        d[11] = (aImage[k - 1][j + 1][i + 1] + aImage[k + 1][j - 1][i - 1]) / 2.0f - aImage[k][j][i];
-        d[12] = (aImage[k][j - 1][i - 1] + aImage[k][j + 1][i + 1]) / 2.0f - aImage[k][j][i];
-        d[13] = (aImage[k][j - 1][i + 1] + aImage[k][j + 1][i - 1]) / 2.0f - aImage[k][j][i];
+    @Override
+    public void filterRow(float[][][] aImage, int aY, int aZ, int aFirstX, int aEndX) {
+        final float[] zmym = aImage[aZ - 1][aY - 1], zmy0 = aImage[aZ - 1][aY], zmyp = aImage[aZ - 1][aY + 1];
+        final float[] z0ym = aImage[aZ][aY - 1], z0y0 = aImage[aZ][aY], z0yp = aImage[aZ][aY + 1];
+        final float[] zpym = aImage[aZ + 1][aY - 1], zpy0 = aImage[aZ + 1][aY], zpyp = aImage[aZ + 1][aY + 1];
+        for (int x = aFirstX; x < aEndX; x += 2) {
+            z0y0[x] += delta(zmym, zmy0, zmyp, z0ym, z0y0, z0yp, zpym, zpy0, zpyp, x);
+        }
+    }
 
-        d[14] = (aImage[k + 1][j][i] + aImage[k][j - 1][i - 1] + aImage[k + 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[15] = (aImage[k + 1][j][i] + aImage[k][j - 1][i] + aImage[k + 1][j - 1][i]) / 3.0f - aImage[k][j][i];
-        d[16] = (aImage[k + 1][j][i] + aImage[k][j - 1][i + 1] + aImage[k + 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[17] = (aImage[k + 1][j][i] + aImage[k][j][i - 1] + aImage[k + 1][j][i - 1]) / 3.0f - aImage[k][j][i];
-        d[18] = (aImage[k + 1][j][i] + aImage[k][j][i + 1] + aImage[k + 1][j][i + 1]) / 3.0f - aImage[k][j][i];
-        d[19] = (aImage[k + 1][j][i] + aImage[k][j + 1][i - 1] + aImage[k + 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[20] = (aImage[k + 1][j][i] + aImage[k][j + 1][i] + aImage[k + 1][j + 1][i]) / 3.0f - aImage[k][j][i];
-        d[21] = (aImage[k + 1][j][i] + aImage[k][j + 1][i + 1] + aImage[k + 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[22] = (aImage[k - 1][j][i] + aImage[k][j - 1][i - 1] + aImage[k - 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[23] = (aImage[k - 1][j][i] + aImage[k][j - 1][i] + aImage[k - 1][j - 1][i]) / 3.0f - aImage[k][j][i];
-        d[24] = (aImage[k - 1][j][i] + aImage[k][j - 1][i + 1] + aImage[k - 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[25] = (aImage[k - 1][j][i] + aImage[k][j][i - 1] + aImage[k - 1][j][i - 1]) / 3.0f - aImage[k][j][i];
-        d[26] = (aImage[k - 1][j][i] + aImage[k][j][i + 1] + aImage[k - 1][j][i + 1]) / 3.0f - aImage[k][j][i];
-        d[27] = (aImage[k - 1][j][i] + aImage[k][j + 1][i - 1] + aImage[k - 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[28] = (aImage[k - 1][j][i] + aImage[k][j + 1][i] + aImage[k - 1][j + 1][i]) / 3.0f - aImage[k][j][i];
-        d[29] = (aImage[k - 1][j][i] + aImage[k][j + 1][i + 1] + aImage[k - 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[30] = (aImage[k + 1][j][i - 1] + aImage[k][j + 1][i] + aImage[k + 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[31] = (aImage[k + 1][j][i - 1] + aImage[k][j - 1][i] + aImage[k + 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[32] = (aImage[k + 1][j][i + 1] + aImage[k][j + 1][i] + aImage[k + 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[33] = (aImage[k + 1][j][i + 1] + aImage[k][j - 1][i] + aImage[k + 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[34] = (aImage[k - 1][j][i - 1] + aImage[k][j + 1][i] + aImage[k - 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[35] = (aImage[k - 1][j][i - 1] + aImage[k][j - 1][i] + aImage[k - 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[36] = (aImage[k - 1][j][i + 1] + aImage[k][j + 1][i] + aImage[k - 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[37] = (aImage[k - 1][j][i + 1] + aImage[k][j - 1][i] + aImage[k - 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[38] = (aImage[k][j][i - 1] + aImage[k][j - 1][i] + aImage[k][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[39] = (aImage[k][j][i - 1] + aImage[k][j + 1][i] + aImage[k][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[40] = (aImage[k][j][i + 1] + aImage[k][j - 1][i] + aImage[k][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[41] = (aImage[k][j][i + 1] + aImage[k][j + 1][i] + aImage[k][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[42] = (aImage[k + 1][j - 1][i] + aImage[k][j][i - 1] + aImage[k + 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[43] = (aImage[k + 1][j - 1][i] + aImage[k][j][i + 1] + aImage[k + 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[44] = (aImage[k + 1][j + 1][i] + aImage[k][j][i - 1] + aImage[k + 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[45] = (aImage[k + 1][j + 1][i] + aImage[k][j][i + 1] + aImage[k + 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[46] = (aImage[k - 1][j - 1][i] + aImage[k][j][i - 1] + aImage[k - 1][j - 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[47] = (aImage[k - 1][j - 1][i] + aImage[k][j][i + 1] + aImage[k - 1][j - 1][i + 1]) / 3.0f - aImage[k][j][i];
-        d[48] = (aImage[k - 1][j + 1][i] + aImage[k][j][i - 1] + aImage[k - 1][j + 1][i - 1]) / 3.0f - aImage[k][j][i];
-        d[49] = (aImage[k - 1][j + 1][i] + aImage[k][j][i + 1] + aImage[k - 1][j + 1][i + 1]) / 3.0f - aImage[k][j][i];
+    /**
+     * Calculates change of pixel i of row z0y0. Rows are named by their offsets in z and y
+     * (m: -1, 0: 0, p: +1), for example zmyp is row (z - 1, y + 1).
+     */
+    private static float delta(float[] zmym, float[] zmy0, float[] zmyp, float[] z0ym, float[] z0y0, float[] z0yp, float[] zpym, float[] zpy0, float[] zpyp, int i) {
+        // Calculating minimum distances (taken from Fortran code "ppm_rc_gc.f") and finding minimum absolute change
+        float d0 = (zmy0[i] + zpy0[i]) / 2.0f - z0y0[i];
+        float d;
+        d = (z0ym[i] + z0yp[i]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0y0[i - 1] + z0y0[i + 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmym[i - 1] + zpyp[i + 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmym[i] + zpyp[i]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmym[i + 1] + zpyp[i - 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i - 1] + zpy0[i + 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i + 1] + zpy0[i - 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmyp[i - 1] + zpym[i + 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmyp[i] + zpym[i]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmyp[i + 1] + zpym[i - 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0ym[i - 1] + z0yp[i + 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0ym[i + 1] + z0yp[i - 1]) / 2.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
 
-        // Find minimum absolute change
-        d[0] = d[1];
-        for (int idx = 2; idx <= 49; ++idx) {
-            final float da = Math.abs(d[idx]);
-            if (da < Math.abs(d[0])) {d[0] = d[idx];}
-        }
+        d = (zpy0[i] + z0ym[i - 1] + zpym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0ym[i] + zpym[i]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0ym[i + 1] + zpym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0y0[i - 1] + zpy0[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0y0[i + 1] + zpy0[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0yp[i - 1] + zpyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0yp[i] + zpyp[i]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i] + z0yp[i + 1] + zpyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0ym[i - 1] + zmym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0ym[i] + zmym[i]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0ym[i + 1] + zmym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0y0[i - 1] + zmy0[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0y0[i + 1] + zmy0[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0yp[i - 1] + zmyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0yp[i] + zmyp[i]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i] + z0yp[i + 1] + zmyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i - 1] + z0yp[i] + zpyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i - 1] + z0ym[i] + zpym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i + 1] + z0yp[i] + zpyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpy0[i + 1] + z0ym[i] + zpym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i - 1] + z0yp[i] + zmyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i - 1] + z0ym[i] + zmym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i + 1] + z0yp[i] + zmyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmy0[i + 1] + z0ym[i] + zmym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0y0[i - 1] + z0ym[i] + z0ym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0y0[i - 1] + z0yp[i] + z0yp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0y0[i + 1] + z0ym[i] + z0ym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (z0y0[i + 1] + z0yp[i] + z0yp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpym[i] + z0y0[i - 1] + zpym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpym[i] + z0y0[i + 1] + zpym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpyp[i] + z0y0[i - 1] + zpyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zpyp[i] + z0y0[i + 1] + zpyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmym[i] + z0y0[i - 1] + zmym[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmym[i] + z0y0[i + 1] + zmym[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmyp[i] + z0y0[i - 1] + zmyp[i - 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
+        d = (zmyp[i] + z0y0[i + 1] + zmyp[i + 1]) / 3.0f - z0y0[i]; if (Math.abs(d) < Math.abs(d0)) {d0 = d;}
 
         // Finally return minimum change
-        return d[0];
+        return d0;
     }
 }
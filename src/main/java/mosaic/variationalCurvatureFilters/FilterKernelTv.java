@@ -7,6 +7,19 @@ package mosaic.variationalCurvatureFilters;
 public class FilterKernelTv implements FilterKernel {
     @Override
     public float filterKernel(float lu, float u, float ru, float l, float m, float r, float ld, float d, float rd) {
+        return delta(lu, u, ru, l, m, r, ld, d, rd);
+    }
+
+    @Override
+    public void filterRow(float[] aPreviousRow, float[] aCurrentRow, float[] aNextRow, int aFirstCol, int aEndCol) {
+        for (int j = aFirstCol; j < aEndCol; j += 2) {
+            aCurrentRow[j] += delta(aPreviousRow[j - 1], aPreviousRow[j], aPreviousRow[j + 1],
+                                    aCurrentRow[j - 1], aCurrentRow[j], aCurrentRow[j + 1],
+                                    aNextRow[j - 1], aNextRow[j], aNextRow[j + 1]);
+        }
+    }
+
+    private static float delta(float lu, float u, float ru, float l, float m, float r, float ld, float d, float rd) {
         /*
          * Naming:
          *
@@ -3,20 +3,34 @@ package mosaic.variationalCurvatureFilters;
 /**
  * This class implements filter running in "no split" mode. (Image is not divided into 4 subsets)
  * It requires proper filter kernel (GC, MC, TV...)
+ * Each subset pass can be run in parallel on bands of rows (result is same as with one thread).
  * @author Krzysztof Gonciarz
  */
 public class NoSplitFilter implements CurvatureFilter {
     final private FilterKernel iFk;
+    final private int iNumOfThreads;
 
     public NoSplitFilter(FilterKernel aFilterKernel) {
+        this(aFilterKernel, 1);
+    }
+
+    /**
+     * @param aNumOfThreads - number of bands of rows processed concurrently in each pass (1 - single threaded)
+     */
+    public NoSplitFilter(FilterKernel aFilterKernel, int aNumOfThreads) {
         iFk = aFilterKernel;
+        iNumOfThreads = aNumOfThreads;
     }
 
     @Override
     public void runFilter(float[][] aImg, int aNumOfIterations) {
+        runFilter(aImg, aNumOfIterations, null);
+    }
+
+    @Override
+    public void runFilter(float[][] aImg, int aNumOfIterations, Mask aMask) {
         final int M = aImg.length - 1;
-        final int N = aImg[0].length - 1;
-        float[] pCurrentRow, pNextRow, pPreviousRow;
+        final SubsetPassRunner runner = new SubsetPassRunner(iNumOfThreads, (long) aImg.length * aImg[0].length);
 
         for (int it = 0; it < aNumOfIterations; ++it) {
             for (int seq = 0; seq <= 3; ++seq) {
@@ -30,67 +44,46 @@ public class NoSplitFilter implements CurvatureFilter {
                 final int col = seq/2 + 1;
                 final int row = seq%2 + 1;
 
-                for (int i = row; i < M; i += 2) {
-                    pPreviousRow = aImg[i - 1];
-                    pCurrentRow = aImg[i];
-                    pNextRow = aImg[i + 1];
-
-                    for (int j = col; j < N; j += 2) {
-                        final float m = pCurrentRow[j];
-                        final float u = pPreviousRow[j];
-                        final float d = pNextRow[j];
-                        final float l = pCurrentRow[j - 1];
-                        final float r = pCurrentRow[j + 1];
-                        final float ld = pNextRow[j - 1];
-                        final float rd = pNextRow[j + 1];
-                        final float lu = pPreviousRow[j - 1];
-                        final float ru = pPreviousRow[j + 1];
-
-                        pCurrentRow[j] += iFk.filterKernel(lu, u, ru, l, m, r, ld, d, rd);
-                    }
-                }
+                // Rows row, row + 2, ... < M are processed
+                runner.run(Math.max(0, (M - row + 1) / 2), (aFirstRow, aEndRow) -> {
+                    processRows(aImg, row + 2 * aFirstRow, row + 2 * aEndRow, col, aMask);
+                });
             }
         }
     }
 
-    @Override
-    public void runFilter(float[][] aImg, int aNumOfIterations, Mask aMask) {
-        final int M = aImg.length - 1;
+    /**
+     * Processes pixels of one subset in every second row from [aFirstRow, aEndRow) starting from aCol column.
+     * @param aMask - if not null only pixels chosen by mask are processed
+     */
+    private void processRows(float[][] aImg, int aFirstRow, int aEndRow, int aCol, Mask aMask) {
         final int N = aImg[0].length - 1;
         float[] pCurrentRow, pNextRow, pPreviousRow;
 
-        for (int it = 0; it < aNumOfIterations; ++it) {
-            for (int seq = 0; seq <= 3; ++seq) {
-                // Sequence:
-                // col | row | set corresponding to split filter
-                // ---------------------------------------------
-                // 1     1     BC
-                // 1     2     WT
-                // 2     1     WC
-                // 2     2     BT
-                final int col = seq/2 + 1;
-                final int row = seq%2 + 1;
+        for (int i = aFirstRow; i < aEndRow; i += 2) {
+            pPreviousRow = aImg[i - 1];
+            pCurrentRow = aImg[i];
+            pNextRow = aImg[i + 1];
 
-                for (int i = row; i < M; i += 2) {
-                    pPreviousRow = aImg[i - 1];
-                    pCurrentRow = aImg[i];
-                    pNextRow = aImg[i + 1];
+            if (aMask == null) {
+                // Whole row segment is processed by kernel itself (no interface call per pixel)
+                iFk.filterRow(pPreviousRow, pCurrentRow, pNextRow, aCol, N);
+                continue;
+            }
 
-                    for (int j = col; j < N; j += 2) {
-                        if (aMask.shouldBeProcessed(j,i)) {
-                            final float m = pCurrentRow[j];
-                            final float u = pPreviousRow[j];
-                            final float d = pNextRow[j];
-                            final float l = pCurrentRow[j - 1];
-                            final float r = pCurrentRow[j + 1];
-                            final float ld = pNextRow[j - 1];
-                            final float rd = pNextRow[j + 1];
-                            final float lu = pPreviousRow[j - 1];
-                            final float ru = pPreviousRow[j + 1];
+            for (int j = aCol; j < N; j += 2) {
+                if (aMask.shouldBeProcessed(j,i)) {
+                    final float m = pCurrentRow[j];
+                    final float u = pPreviousRow[j];
+                    final float d = pNextRow[j];
+                    final float l = pCurrentRow[j - 1];
+                    final float r = pCurrentRow[j + 1];
+                    final float ld = pNextRow[j - 1];
+                    final float rd = pNextRow[j + 1];
+                    final float lu = pPreviousRow[j - 1];
+                    final float ru = pPreviousRow[j + 1];
 
-                            pCurrentRow[j] += iFk.filterKernel(lu, u, ru, l, m, r, ld, d, rd);
-                        }
-                    }
+                    pCurrentRow[j] += iFk.filterKernel(lu, u, ru, l, m, r, ld, d, rd);
                 }
             }
         }
@@ -4,13 +4,23 @@ package mosaic.variationalCurvatureFilters;
 /**
  * This class implements filter running in "no split" mode. (Image is not divided into subsets)
  * It requires proper filter kernel (GC, ...)
+ * Each subset pass can be run in parallel on bands of rows (result is same as with one thread).
  * @author Krzysztof Gonciarz
  */
 public class NoSplitFilter3D implements CurvatureFilter3D {
     final private FilterKernel3D iFk3D;
+    final private int iNumOfThreads;
 
     public NoSplitFilter3D(FilterKernel3D aFilterKernel) {
+        this(aFilterKernel, 1);
+    }
+
+    /**
+     * @param aNumOfThreads - number of bands of rows processed concurrently in each pass (1 - single threaded)
+     */
+    public NoSplitFilter3D(FilterKernel3D aFilterKernel, int aNumOfThreads) {
         iFk3D = aFilterKernel;
+        iNumOfThreads = aNumOfThreads;
     }
 
     @Override
@@ -32,22 +42,25 @@ public class NoSplitFilter3D implements CurvatureFilter3D {
         // - WR - White Rectangle
         final int[] sequence = {0x111, 0x221, 0x212, 0x122, 0x121, 0x211, 0x112, 0x222};
 
+        final SubsetPassRunner runner = new SubsetPassRunner(iNumOfThreads, (long) aImg.length * aImg[0].length * aImg[0][0].length);
+
         for (int it = 0; it < aNumOfIterations; ++it) {
             for (int seq = 0; seq <= 7; ++seq) {
                 final int seqCode = sequence[seq];
                 final int dep = seqCode & 0x00f;
                 final int row = (seqCode & 0x0f0) >> 4;
                 final int col = (seqCode & 0xf00) >> 8;
-    
-                for (int z = dep; z < Z; z += 2) {
-                    for (int y = row; y < Y; y += 2) {
-                        for (int x = col; x < X; x += 2) {
-    
-                            aImg[z][y][x] += iFk3D.filterKernel(aImg, x, y, z);
-    
-                        }
+
+                // Rows (z, y) with z = dep, dep + 2, ... < Z and y = row, row + 2, ... < Y are processed
+                final int numOfRowsInSlice = Math.max(0, (Y - row + 1) / 2);
+                final int numOfSlices = Math.max(0, (Z - dep + 1) / 2);
+                runner.run(numOfSlices * numOfRowsInSlice, (aFirstRow, aEndRow) -> {
+                    for (int r = aFirstRow; r < aEndRow; ++r) {
+                        final int z = dep + 2 * (r / numOfRowsInSlice);
+                        final int y = row + 2 * (r % numOfRowsInSlice);
+                        iFk3D.filterRow(aImg, y, z, col, X);
                     }
-                }
+                });
             }
         }
     }
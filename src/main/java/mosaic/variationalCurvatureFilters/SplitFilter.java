@@ -4,6 +4,7 @@ package mosaic.variationalCurvatureFilters;
  * This class implements filter running in "split" mode.
  * Image is divided into 4 subsets called WC, WT, BC, BT
  * It requires proper filter kernel (GC, MC, TV...)
+ * Each subset pass can be run in parallel on bands of lines (result is same as with one thread).
  * @author Krzysztof Gonciarz
  */
 public class SplitFilter implements CurvatureFilter {
@@ -21,9 +22,18 @@ public class SplitFilter implements CurvatureFilter {
 
     // Keeps provided split filter kernel
     private final FilterKernel iFk;
+    private final int iNumOfThreads;
 
     public SplitFilter(FilterKernel aFk) {
+        this(aFk, 1);
+    }
+
+    /**
+     * @param aNumOfThreads - number of bands of rows processed concurrently in each pass (1 - single threaded)
+     */
+    public SplitFilter(FilterKernel aFk, int aNumOfThreads) {
         iFk = aFk;
+        iNumOfThreads = aNumOfThreads;
     }
 
     /**
@@ -145,6 +155,10 @@ public class SplitFilter implements CurvatureFilter {
      * @param aNumOfIterations Number of iteration to run filter
      */
     private void runFilter(float[][] WC, float[][] WT, float[][] BC, float[][] BT, final int aNumOfIterations) {
+        final SubsetPassRunner runner = new SubsetPassRunner(iNumOfThreads, (long) originalWidth * originalHeight);
+        final int numOfCircleLines = Math.max(0, halfHeight - 1);
+        final int numOfTriangleLines = Math.max(0, originalHeight/2 - 1);
+
         for (int i = 0; i < aNumOfIterations; ++i) {
 
             /*
@@ -155,18 +169,26 @@ public class SplitFilter implements CurvatureFilter {
              * For WT and BT index range is 1..n-1 if original img is divisible by 2
              * and 1..n-2 if original image is not divisible by 2.
              */
-            for (int y = 0; y < halfHeight - 1; ++y) {
-                processOneImageLine(BC[y], WC[y], WT[y+1], BT[y+1], WT[y], BT[y], true);
-            }
-            for (int y = 1; y < originalHeight/2; ++y) {
-                processOneImageLine(WT[y], BT[y], BC[y], WC[y], BC[y-1], WC[y-1], true);
-            }
-            for (int y = 0; y < halfHeight - 1; ++y) {
-                processOneImageLine(WC[y], BC[y], BT[y+1], WT[y+1], BT[y], WT[y], false);
-            }
-            for (int y = 1; y < originalHeight/2; ++y) {
-                processOneImageLine(BT[y], WT[y], WC[y], BC[y], WC[y-1], BC[y-1], false);
-            }
+            runner.run(numOfCircleLines, (aFirst, aEnd) -> {
+                for (int y = aFirst; y < aEnd; ++y) {
+                    processOneImageLine(BC[y], WC[y], WT[y+1], BT[y+1], WT[y], BT[y], true);
+                }
+            });
+            runner.run(numOfTriangleLines, (aFirst, aEnd) -> {
+                for (int y = aFirst + 1; y < aEnd + 1; ++y) {
+                    processOneImageLine(WT[y], BT[y], BC[y], WC[y], BC[y-1], WC[y-1], true);
+                }
+            });
+            runner.run(numOfCircleLines, (aFirst, aEnd) -> {
+                for (int y = aFirst; y < aEnd; ++y) {
+                    processOneImageLine(WC[y], BC[y], BT[y+1], WT[y+1], BT[y], WT[y], false);
+                }
+            });
+            runner.run(numOfTriangleLines, (aFirst, aEnd) -> {
+                for (int y = aFirst + 1; y < aEnd + 1; ++y) {
+                    processOneImageLine(BT[y], WT[y], WC[y], BC[y], WC[y-1], BC[y-1], false);
+                }
+            });
         }
     }
 
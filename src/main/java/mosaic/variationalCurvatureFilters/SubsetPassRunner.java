@@ -0,0 +1,57 @@
+package mosaic.variationalCurvatureFilters;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+
+/**
+ * Runs one pass of curvature filter over a subset of pixels (BC, WT, ...) divided into bands of rows.
+ * Pixel of a subset depends only on pixels of other subsets so bands can be processed in parallel and result
+ * is exactly same as for serial processing. Next pass can be run only when all bands of previous one are done,
+ * which is guaranteed since {@link #run(int, BandOperation)} returns after whole pass is finished.
+ * Bands are forked into fork-join pool of calling thread (common pool if called from outside of any pool) so
+ * no threads are created or destroyed by filters.
+ */
+class SubsetPassRunner {
+    // Minimum number of image pixels per thread for which running in parallel pays off
+    private static final long MinNumOfPixelsPerThread = 1 << 16;
+
+    interface BandOperation {
+        /**
+         * Processes rows of subset with indices [aFirstRow, aEndRow)
+         */
+        void process(int aFirstRow, int aEndRow);
+    }
+
+    private final int iNumOfThreads;
+
+    /**
+     * @param aNumOfThreads - requested number of threads (1 - all bands processed by calling thread)
+     * @param aNumOfPixels - number of pixels of filtered image (for small images less threads are used)
+     */
+    SubsetPassRunner(int aNumOfThreads, long aNumOfPixels) {
+        iNumOfThreads = (int) Math.max(1, Math.min(aNumOfThreads, aNumOfPixels / MinNumOfPixelsPerThread));
+    }
+
+    /**
+     * Runs aOperation on all aNumOfRows rows of subset. Band of rows is processed also by calling thread.
+     */
+    void run(int aNumOfRows, BandOperation aOperation) {
+        final int numOfBands = Math.min(iNumOfThreads, aNumOfRows);
+        if (numOfBands <= 1) {
+            aOperation.process(0, aNumOfRows);
+            return;
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(numOfBands - 1);
+        for (int band = 1; band < numOfBands; ++band) {
+            final int first = (int) ((long) band * aNumOfRows / numOfBands);
+            final int end = (int) ((long) (band + 1) * aNumOfRows / numOfBands);
+            tasks.add(ForkJoinTask.adapt(() -> aOperation.process(first, end)).fork());
+        }
+        aOperation.process(0, aNumOfRows / numOfBands);
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+}
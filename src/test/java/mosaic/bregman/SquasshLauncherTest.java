@@ -0,0 +1,104 @@
+package mosaic.bregman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import mosaic.bregman.Files.FileInfo;
+import mosaic.bregman.segmentation.SquasshTestImages;
+import mosaic.test.framework.CommonBase;
+
+
+public class SquasshLauncherTest extends CommonBase {
+
+    @Test
+    public void testMaxFramesInFlight() {
+        // Limited by requested number or by number of frame threads if not requested
+        assertEquals(3, SquasshLauncher.maxFramesInFlight(3, 8, 100, 10000));
+        assertEquals(4, SquasshLauncher.maxFramesInFlight(0, 4, 100, 10000));
+        // Limited by memory budget
+        assertEquals(2, SquasshLauncher.maxFramesInFlight(0, 4, 100, 250));
+        // Always at least one frame
+        assertEquals(1, SquasshLauncher.maxFramesInFlight(0, 4, 1000, 250));
+    }
+
+    @Test
+    public void testEstimateFrameMemory() {
+        final long frame2D = SquasshLauncher.estimateFrameMemory(100, 50, 1, 1, false);
+        assertTrue(frame2D > 100 * 50 * 8);
+        assertEquals(2 * frame2D, SquasshLauncher.estimateFrameMemory(100, 50, 1, 2, false));
+        // Oversampled labels need more memory
+        assertTrue(SquasshLauncher.estimateFrameMemory(100, 50, 1, 1, true) > frame2D);
+
+        // With tiling solver memory is bounded by tile size, image sized outputs are still counted
+        final long whole = SquasshLauncher.estimateFrameMemory(3000, 3000, 1, 1, false);
+        final long tiled = SquasshLauncher.estimateFrameMemory(3000, 3000, 1, 1, false, 256, true);
+        assertTrue(tiled < whole / 4);
+        assertTrue(tiled > 3000L * 3000 * (4 + 2 * 8));
+        assertTrue(SquasshLauncher.estimateFrameMemory(3000, 3000, 1, 1, false, 256, false) < tiled);
+        // tile bigger than image - no tiling
+        assertEquals(frame2D, SquasshLauncher.estimateFrameMemory(100, 50, 1, 1, false, 256, true));
+    }
+
+    @Test
+    public void testConcurrentFramesSameAsSerial() throws IOException {
+        // Frames with objects in different places
+        final int numOfFrames = 4;
+        final ImageStack stack = new ImageStack(48, 40);
+        for (int f = 0; f < numOfFrames; f++) {
+            final double[][][] img = SquasshTestImages.gaussianBlobs(48, 40, new int[][] {{8 + 4 * f, 10}, {30, 8 + 3 * f}, {20 + 2 * f, 30}});
+            final FloatProcessor fp = new FloatProcessor(48, 40);
+            for (int x = 0; x < 48; x++) {
+                for (int y = 0; y < 40; y++) {
+                    fp.setf(x, y, (float) (100 * img[0][x][y]));
+                }
+            }
+            stack.addSlice(fp);
+        }
+        final ImagePlus image = new ImagePlus("frames", stack);
+        image.setDimensions(1, 1, numOfFrames);
+
+        // Number of solver zones and patch threads must not depend on number of frame threads
+        final List<String> serial = runLauncher(image, 1, 1, tmpPath + "serial" + File.separator);
+        final List<String> concurrent = runLauncher(image, 3, 1, tmpPath + "concurrent" + File.separator);
+        final List<String> concurrentPatches = runLauncher(image, 3, 2, tmpPath + "concurrentPatches" + File.separator);
+        assertTrue(serial.size() > 0);
+        assertEquals(serial, concurrent);
+        assertEquals(serial, concurrentPatches);
+    }
+
+    /**
+     * Runs segmentation of all frames and returns names and content of all saved CSV files (without lines
+     * containing output directory)
+     */
+    private List<String> runLauncher(ImagePlus aImage, int aNumOfFrameThreads, int aNumOfPatchThreads, String aOutputDir) throws IOException {
+        new File(aOutputDir).mkdirs();
+        final Parameters params = new Parameters();
+        params.dispoutline = false;
+        params.nthreads = 4;
+        params.frameThreads = aNumOfFrameThreads;
+        params.patchThreads = aNumOfPatchThreads;
+
+        final SquasshLauncher launcher = new SquasshLauncher(aImage, params, aOutputDir, 0, 0, null);
+
+        final List<String> result = new ArrayList<String>();
+        for (FileInfo fi : launcher.getSavedFiles()) {
+            if (fi.name.endsWith(".csv")) {
+                result.add(new File(fi.name).getName());
+                for (String line : readLines(fi.name)) {
+                    if (!line.contains(aOutputDir)) result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -1,5 +1,10 @@
 package mosaic.bregman.segmentation;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
 import mosaic.test.framework.CommonBase;
@@ -128,4 +133,48 @@ public class SquasshSegmentationTest extends CommonBase {
 //          e.printStackTrace();
 //      }
     }
+
+    @Test
+    public void testParallelPatchesSameAsSerial() {
+        double[][][] img = SquasshTestImages.gaussianBlobs(64, 48, new int[][] {{10, 10}, {30, 12}, {50, 20}, {16, 36}, {40, 38}});
+
+        SquasshSegmentation serial = runSegmentation(img, 1);
+        assertSameSegmentation(serial, runSegmentation(img, 4));
+    }
+
+    @Test
+    public void testPatchesInCallerPoolSameAsSerial() throws Exception {
+        double[][][] img = SquasshTestImages.gaussianBlobs(64, 48, new int[][] {{10, 10}, {30, 12}, {50, 20}, {16, 36}, {40, 38}});
+        SquasshSegmentation serial = runSegmentation(img, 1);
+
+        // e.g. frames segmented concurrently - patches are forked into pool of caller (bounded by patch threads)
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertSameSegmentation(serial, pool.submit(() -> runSegmentation(img, 1)).get());
+            assertSameSegmentation(serial, pool.submit(() -> runSegmentation(img, 3)).get());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameSegmentation(SquasshSegmentation aExpected, SquasshSegmentation aResult) {
+        assertEquals(aExpected.iRegionsList.size(), aResult.iRegionsList.size());
+        for (int r = 0; r < aExpected.iRegionsList.size(); r++) {
+            assertEquals(aExpected.iRegionsList.get(r).iLabel, aResult.iRegionsList.get(r).iLabel);
+            assertEquals(aExpected.iRegionsList.get(r).intensity, aResult.iRegionsList.get(r).intensity, 0.0);
+            assertEquals(aExpected.iRegionsList.get(r).iPixels.size(), aResult.iRegionsList.get(r).iPixels.size());
+        }
+        for (int i = 0; i < aExpected.iLabeledRegions[0].length; i++) {
+            assertArrayEquals(aExpected.iLabeledRegions[0][i], aResult.iLabeledRegions[0][i]);
+        }
+    }
+
+    private SquasshSegmentation runSegmentation(double[][][] aImage, int aNumOfPatchThreads) {
+        SegmentationParameters sp = new SegmentationParameters(2, 1, 0.05, 0.15, true, SegmentationParameters.IntensityMode.AUTOMATIC, SegmentationParameters.NoiseModel.POISSON, 
+                                                               0.8, 0.8, 0, 2, false, aNumOfPatchThreads);
+        SquasshSegmentation ss = new SquasshSegmentation(aImage, sp, 0, 1.1);
+        ss.run();
+        return ss;
+    }
 }
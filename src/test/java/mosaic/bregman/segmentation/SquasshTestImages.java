@@ -0,0 +1,26 @@
+package mosaic.bregman.segmentation;
+
+
+/**
+ * Synthetic images used by Squassh segmentation tests.
+ */
+public class SquasshTestImages {
+
+    /**
+     * @return 2D image [1][ni][nj] with gaussian blobs (sigma = 2) at given centers {x, y} on low, structured background
+     */
+    public static double[][][] gaussianBlobs(int aNi, int aNj, int[][] aCenters) {
+        final double[][][] img = new double[1][aNi][aNj];
+        for (int i = 0; i < aNi; i++) {
+            for (int j = 0; j < aNj; j++) {
+                double v = 0.02 * ((i * 7 + j * 3) % 5);
+                for (int[] c : aCenters) {
+                    double d2 = (i - c[0]) * (i - c[0]) + (j - c[1]) * (j - c[1]);
+                    v += Math.exp(-d2 / 8);
+                }
+                img[0][i][j] = v;
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,161 @@
+package mosaic.bregman.segmentation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import mosaic.bregman.segmentation.TiledSquasshSegmentation.TileConsumer;
+import mosaic.bregman.segmentation.TiledSquasshSegmentation.TileResult;
+import mosaic.bregman.segmentation.TiledSquasshSegmentation.WholeImageCollector;
+import mosaic.test.framework.CommonBase;
+
+
+public class TiledSquasshSegmentationTest extends CommonBase {
+
+    @Test
+    public void testTileBorders() {
+        assertArrayEquals(new int[] {0, 50, 100}, TiledSquasshSegmentation.tileBorders(100, 50, 7));
+        assertArrayEquals(new int[] {0, 33, 66, 100}, TiledSquasshSegmentation.tileBorders(100, 40, 7));
+        assertArrayEquals(new int[] {0, 30}, TiledSquasshSegmentation.tileBorders(30, 40, 7));
+        // tiles are never smaller than halo
+        assertArrayEquals(new int[] {0, 10, 20}, TiledSquasshSegmentation.tileBorders(20, 5, 9));
+        assertArrayEquals(new int[] {0, 5}, TiledSquasshSegmentation.tileBorders(5, 2, 9));
+    }
+
+    @Test
+    public void testHaloSize() {
+        // Same as size of PSF kernel generated for given sigma
+        assertEquals(7, TiledSquasshSegmentation.haloSize(0.8));
+        assertEquals(9, TiledSquasshSegmentation.haloSize(1.0));
+    }
+
+    @Test
+    public void testTiledSameAsWholeImage() {
+        // Blobs placed inside tiles, on the seams between tiles (also in corner of 4 tiles), pair of blobs close to
+        // each other on both sides of seam and elongated one crossing seam
+        double[][][] img = SquasshTestImages.gaussianBlobs(96, 64, new int[][] {{12, 12}, {30, 40}, {48, 20}, {70, 10}, {80, 50}, {20, 31}, {48, 32}, {44, 52}, {51, 52}});
+        for (int i = 56; i <= 84; i++) {
+            for (int j = 30; j <= 33; j++) {
+                img[0][i][j] += 0.9;
+            }
+        }
+
+        // One tile covering whole image must give exactly same output
+        assertEquals(0, compareWithWholeImage(img, 100));
+
+        // Step one solver of each tile stops at iteration chosen by energy of that tile (not of whole image), so
+        // soft masks differ slightly. Found objects must be the same and only pixels on their borders may differ.
+        compareWithWholeImage(img, 32);
+        compareWithWholeImage(img, 48);
+    }
+
+    /**
+     * Compares tiled segmentation with whole image segmentation. Asserts that there is one-to-one mapping between
+     * found regions and that all different pixels are neighbours of pixels found in both segmentations.
+     * @return number of different pixels
+     */
+    private int compareWithWholeImage(double[][][] aImg, int aTileSize) {
+        final SquasshSegmentation whole = new SquasshSegmentation(aImg, createParameters(), 0, 1.1);
+        whole.run();
+        final WholeImageCollector tiled = new WholeImageCollector(aImg);
+        new TiledSquasshSegmentation(aImg, createParameters(), 0, 1.1, aTileSize, tiled).run();
+        final short[][] w = whole.iLabeledRegions[0];
+        final short[][] t = tiled.iLabeledRegions[0];
+
+        // Same objects - each region found in whole image has exactly one corresponding region in tiled output
+        assertEquals(whole.iRegionsList.size(), tiled.iRegionsList.size());
+        Map<Short, Short> wholeToTiled = new HashMap<Short, Short>();
+        Map<Short, Short> tiledToWhole = new HashMap<Short, Short>();
+        int numOfDifferentPixels = 0;
+        for (int i = 0; i < w.length; i++) {
+            for (int j = 0; j < w[0].length; j++) {
+                final short wl = w[i][j];
+                final short tl = t[i][j];
+                if ((wl == 0) != (tl == 0)) {
+                    numOfDifferentPixels++;
+                    assertTrue("Different pixel (" + i + ", " + j + ") not on object border", isNextToCommonForeground(w, t, i, j));
+                }
+                if (wl == 0 || tl == 0) continue;
+                assertEquals(tl, (short) wholeToTiled.computeIfAbsent(wl, k -> tl));
+                assertEquals(wl, (short) tiledToWhole.computeIfAbsent(tl, k -> wl));
+            }
+        }
+        assertEquals(whole.iRegionsList.size(), wholeToTiled.size());
+
+        // Regions list is consistent with labeled image
+        for (Region r : tiled.iRegionsList) {
+            for (Pix p : r.iPixels) {
+                assertEquals(r.iLabel, tiled.iLabeledRegions[p.pz][p.px][p.py]);
+            }
+        }
+
+        return numOfDifferentPixels;
+    }
+
+    private static boolean isNextToCommonForeground(short[][] aLabels1, short[][] aLabels2, int aX, int aY) {
+        for (int x = Math.max(0, aX - 1); x <= Math.min(aLabels1.length - 1, aX + 1); x++) {
+            for (int y = Math.max(0, aY - 1); y <= Math.min(aLabels1[0].length - 1, aY + 1); y++) {
+                if (aLabels1[x][y] != 0 && aLabels2[x][y] != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCollectorWithoutSoftMask() {
+        double[][][] img = SquasshTestImages.gaussianBlobs(64, 64, new int[][] {{12, 12}, {32, 32}, {50, 20}});
+        final WholeImageCollector withMask = new WholeImageCollector(img);
+        new TiledSquasshSegmentation(img, createParameters(), 0, 1.1, 32, withMask).run();
+        final WholeImageCollector withoutMask = new WholeImageCollector(img, false);
+        new TiledSquasshSegmentation(img, createParameters(), 0, 1.1, 32, withoutMask).run();
+
+        assertEquals(64, withMask.iSoftMask[0].length);
+        assertNull(withoutMask.iSoftMask);
+        assertEquals(withMask.iRegionsList.size(), withoutMask.iRegionsList.size());
+        for (int i = 0; i < withMask.iLabeledRegions[0].length; i++) {
+            assertArrayEquals(withMask.iLabeledRegions[0][i], withoutMask.iLabeledRegions[0][i]);
+        }
+    }
+
+    @Test
+    public void testTilesAreStreamed() {
+        double[][][] img = SquasshTestImages.gaussianBlobs(64, 64, new int[][] {{12, 12}, {32, 32}, {50, 20}});
+        final List<TileResult> tiles = new ArrayList<TileResult>();
+        final List<Region> regions = new ArrayList<Region>();
+        new TiledSquasshSegmentation(img, createParameters(), 0, 1.1, 32, new TileConsumer() {
+            @Override
+            public void tileSegmented(TileResult aTile) {
+                assertTrue("Tile results must not be image sized", aTile.iLabels[0].length <= 32 && aTile.iLabels[0][0].length <= 32);
+                assertTrue(regions.isEmpty());
+                tiles.add(aTile);
+            }
+
+            @Override
+            public void segmentationFinished(List<Region> aRegions) {
+                regions.addAll(aRegions);
+            }
+        }).run();
+
+        assertEquals(4, tiles.size());
+        assertEquals(3, regions.size());
+        int numOfPixels = 0;
+        for (TileResult t : tiles) {
+            for (Region part : t.iRegionParts) {
+                numOfPixels += part.iPixels.size();
+            }
+        }
+        assertTrue(numOfPixels > 0);
+    }
+
+    private SegmentationParameters createParameters() {
+        return new SegmentationParameters(2, 1, 0.05, 0.15, true, SegmentationParameters.IntensityMode.AUTOMATIC, SegmentationParameters.NoiseModel.POISSON, 0.8, 0.8, 0, 2);
+    }
+}
@@ -0,0 +1,125 @@
+package mosaic.bregman.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import mosaic.bregman.solver.SolverParameters.NoiseModel;
+import mosaic.core.psf.GaussPSF;
+import mosaic.test.framework.CommonBase;
+import net.imglib2.type.numeric.real.DoubleType;
+
+
+public class ASplitBregmanSolverTest extends CommonBase {
+
+    @Test
+    public void testPersistentWorkers2D() {
+        double[][][] image = generateImage(1, 37, 41);
+
+        double[][][] expected = runSolver(image, false, 2);
+        double[][][] result = runSolver(image, true, 2);
+
+        assertSame(expected, result, 1e-9);
+    }
+
+    @Test
+    public void testPersistentWorkers3D() {
+        double[][][] image = generateImage(6, 23, 19);
+
+        double[][][] expected = runSolver(image, false, 3);
+        double[][][] result = runSolver(image, true, 3);
+
+        assertSame(expected, result, 1e-9);
+    }
+
+    @Test(timeout = 20000)
+    public void testInterruptedIteration() {
+        double[][][] image = generateImage(1, 37, 41);
+        SolverParameters params = new SolverParameters(2, NoiseModel.POISSON, 1.0, 0.0003, 0.05, true);
+        ASplitBregmanSolver solver = ASplitBregmanSolver.create(params, image, createMask(image), generatePsf(2));
+        solver.performIteration(false);
+
+        Thread.currentThread().interrupt();
+        try {
+            solver.performIteration(false);
+            fail("Interrupted solver should not continue");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        // interrupt flag is restored (and cleared here)
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testFlatSize() {
+        assertEquals(6 * 23 * 19, ASplitBregmanSolver.flatSize(6, 23, 19));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFlatSizeTooBig() {
+        // 2048 * 2048 * 1024 overflows int
+        ASplitBregmanSolver.flatSize(1024, 2048, 2048);
+    }
+
+    private double[][][] runSolver(double[][][] aImage, boolean aPersistentWorkers, int aNumOfThreads) {
+        SolverParameters params = new SolverParameters(aNumOfThreads, NoiseModel.POISSON, 1.0, 0.0003, 0.05, aPersistentWorkers);
+        ASplitBregmanSolver solver = ASplitBregmanSolver.create(params, aImage, createMask(aImage), generatePsf(aImage.length > 1 ? 3 : 2));
+        for (int i = 0; i < 20; i++) {
+            solver.performIteration(i == 19);
+        }
+        solver.postprocess();
+
+        return solver.getBestMask();
+    }
+
+    private static double[][][] generateImage(int aDepth, int aWidth, int aHeight) {
+        double[][][] image = new double[aDepth][aWidth][aHeight];
+        for (int z = 0; z < aDepth; z++) {
+            for (int i = 0; i < aWidth; i++) {
+                for (int j = 0; j < aHeight; j++) {
+                    double dx = i - aWidth / 2.0;
+                    double dy = j - aHeight / 2.0;
+                    double dz = z - aDepth / 2.0;
+                    image[z][i][j] = Math.exp(-(dx * dx + dy * dy + dz * dz) / 20) + 0.05 * ((i * 7 + j * 13 + z * 5) % 11) / 11.0;
+                }
+            }
+        }
+        return image;
+    }
+
+    private static double[][][] createMask(double[][][] aImage) {
+        double[][][] mask = new double[aImage.length][aImage[0].length][aImage[0][0].length];
+        for (int z = 0; z < aImage.length; z++) {
+            for (int i = 0; i < aImage[0].length; i++) {
+                for (int j = 0; j < aImage[0][0].length; j++) {
+                    mask[z][i][j] = (aImage[z][i][j] >= 0.5) ? 1 : 0;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static GaussPSF<DoubleType> generatePsf(int aDims) {
+        final GaussPSF<DoubleType> psf = new GaussPSF<DoubleType>(aDims, DoubleType.class);
+        final DoubleType[] var = new DoubleType[aDims];
+        for (int d = 0; d < aDims; d++) {
+            var[d] = new DoubleType(0.8);
+        }
+        psf.setStdDeviation(var);
+        psf.getSeparableImageAsDoubleArray(0);
+        return psf;
+    }
+
+    private static void assertSame(double[][][] aExpected, double[][][] aResult, double aTolerance) {
+        for (int z = 0; z < aExpected.length; z++) {
+            for (int i = 0; i < aExpected[0].length; i++) {
+                for (int j = 0; j < aExpected[0][0].length; j++) {
+                    assertEquals("z/i/j: " + z + "/" + i + "/" + j, aExpected[z][i][j], aResult[z][i][j], aTolerance);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package mosaic.bregman.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class ZoneWorkersTest {
+
+    @Test(timeout = 10000)
+    public void testSteps() throws InterruptedException {
+        final int numOfZones = 3;
+        final ExecutorService executor = Executors.newFixedThreadPool(numOfZones);
+        final ZoneWorkers workers = new ZoneWorkers(numOfZones);
+        final SyncPoint sync = workers.getSyncPoint();
+        final AtomicInteger counter = new AtomicInteger();
+        final ZoneWorkers.Zone[] zones = new ZoneWorkers.Zone[numOfZones];
+        for (int z = 0; z < numOfZones; z++) {
+            zones[z] = aEvaluateEnergy -> { counter.incrementAndGet(); sync.sync(); counter.incrementAndGet(); };
+        }
+        workers.start(zones, executor);
+
+        for (int s = 1; s <= 5; s++) {
+            workers.step(false);
+            assertEquals(2 * numOfZones * s, counter.get());
+        }
+        workers.stop();
+        assertWorkersFinished(executor);
+    }
+
+    @Test(timeout = 10000)
+    public void testFailingZone() throws InterruptedException {
+        final int numOfZones = 3;
+        final ExecutorService executor = Executors.newFixedThreadPool(numOfZones);
+        final ZoneWorkers workers = new ZoneWorkers(numOfZones);
+        final SyncPoint sync = workers.getSyncPoint();
+        final AtomicInteger numOfSteps = new AtomicInteger();
+        final IllegalArgumentException failure = new IllegalArgumentException("zone failed");
+        final ZoneWorkers.Zone[] zones = new ZoneWorkers.Zone[numOfZones];
+        for (int z = 0; z < numOfZones; z++) {
+            final boolean isFailing = (z == 1);
+            // failing zone throws in third step while other zones wait for it on sync point
+            zones[z] = aEvaluateEnergy -> {
+                if (isFailing && numOfSteps.incrementAndGet() == 3) throw failure;
+                sync.sync();
+            };
+        }
+        workers.start(zones, executor);
+
+        workers.step(false);
+        workers.step(false);
+        try {
+            workers.step(false);
+            fail("Failure of zone should be rethrown");
+        }
+        catch (IllegalArgumentException e) {
+            assertSame(failure, e);
+        }
+        // workers are terminated, so next steps do not wait for them
+        try {
+            workers.step(false);
+            fail("Failure of zone should be rethrown");
+        }
+        catch (IllegalArgumentException e) {
+            assertSame(failure, e);
+        }
+        workers.stop();
+        assertWorkersFinished(executor);
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedStep() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final ZoneWorkers workers = new ZoneWorkers(2);
+        final SyncPoint sync = workers.getSyncPoint();
+        workers.start(new ZoneWorkers.Zone[] {aEvaluateEnergy -> sync.sync(), aEvaluateEnergy -> sync.sync()}, executor);
+
+        Thread.currentThread().interrupt();
+        try {
+            workers.step(false);
+            fail("Interrupted step should throw");
+        }
+        catch (InterruptedException e) {
+            // expected
+        }
+        assertWorkersFinished(executor);
+    }
+
+    private static void assertWorkersFinished(ExecutorService aExecutor) throws InterruptedException {
+        aExecutor.shutdown();
+        assertTrue("Zone workers are still running", aExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
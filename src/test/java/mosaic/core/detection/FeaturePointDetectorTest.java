@@ -0,0 +1,81 @@
+package mosaic.core.detection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+
+public class FeaturePointDetectorTest {
+
+    // sigma0 and sigma2 used in non particle discrimination
+    private static final double Sigma = 0.1;
+
+    @Test
+    public void testDiscriminationScoresWithCellsWithinEpsilon() {
+        for (double epsilon : new double[] {1e-2, 1e-4}) {
+            // Sparse, medium and dense (in m0/m2 space) sets of particles
+            compareWithExactScores(epsilon, 50, 10.0);
+            compareWithExactScores(epsilon, 500, 3.0);
+            compareWithExactScores(epsilon, 3000, 1.0);
+        }
+    }
+
+    private static void compareWithExactScores(double aEpsilon, int aNumOfParticles, double aMomentsRange) {
+        final Vector<Particle> exact = createParticles(aEpsilon, aNumOfParticles, aMomentsRange);
+        final Vector<Particle> withCells = createParticles(aEpsilon, aNumOfParticles, aMomentsRange);
+
+        createDetector(0).nonParticleDiscrimination(exact);
+        createDetector(aEpsilon).nonParticleDiscrimination(withCells);
+
+        for (int i = 0; i < exact.size(); i++) {
+            // Each skipped contribution is smaller than epsilon, rest differs only by rounding of float scores
+            assertEquals("Particle " + i + " epsilon " + aEpsilon + " particles " + aNumOfParticles, 
+                         exact.get(i).nonParticleDiscriminationScore, withCells.get(i).nonParticleDiscriminationScore, aEpsilon + 1e-5);
+        }
+    }
+
+    private static FeaturePointDetector createDetector(double aEpsilon) {
+        final FeaturePointDetector detector = new FeaturePointDetector(255, 0);
+        // cutoff = 0 - all particles are kept and scored
+        detector.setDetectionParameters(0, 0.005f, 3, 0, false, false);
+        detector.setDiscriminationEpsilon(aEpsilon);
+        return detector;
+    }
+
+    /**
+     * @return random particles with moments in [1, 1 + aMomentsRange) and particles placed just around borders of cells
+     *         used for given epsilon (also pairs in neighbour cells within cut off distance).
+     */
+    private static Vector<Particle> createParticles(double aEpsilon, int aNumOfParticles, double aMomentsRange) {
+        final Random rnd = new Random(aNumOfParticles);
+        final Vector<Particle> particles = new Vector<Particle>();
+        for (int i = 0; i < aNumOfParticles; i++) {
+            addParticle(particles, 1 + rnd.nextDouble() * aMomentsRange, 1 + rnd.nextDouble() * aMomentsRange);
+        }
+
+        final double cellSize = Math.sqrt(2 * Math.log(1 / aEpsilon)) * Sigma;
+        final double delta = 1e-6;
+        for (int k = 1; k <= 5; k++) {
+            final double border = k * cellSize;
+            addParticle(particles, border - delta, 1 + border);
+            addParticle(particles, border + delta, 1 + border);
+            // just within cut off distance in neighbour cell (horizontally and diagonally)
+            addParticle(particles, border - delta + 0.999 * cellSize, 1 + border);
+            addParticle(particles, border - delta, border - delta);
+            addParticle(particles, border - delta + 0.7 * cellSize, border - delta + 0.7 * cellSize);
+        }
+        return particles;
+    }
+
+    private static void addParticle(Vector<Particle> aParticles, double aM0, double aM2) {
+        // Positions are separated so particles are not taken as duplicates
+        final int i = aParticles.size();
+        final Particle p = new Particle(2 * (i % 100) + 1, 2 * (i / 100) + 1, 0, 0);
+        p.m0 = (float) aM0;
+        p.m2 = (float) aM2;
+        aParticles.add(p);
+    }
+}
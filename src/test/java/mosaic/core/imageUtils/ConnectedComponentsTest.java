@@ -0,0 +1,150 @@
+package mosaic.core.imageUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mosaic.core.imageUtils.images.LabelImage;
+import mosaic.core.imageUtils.iterators.SpaceIterator;
+
+
+public class ConnectedComponentsTest {
+
+    @Test
+    public void testLabel2D() {
+        boolean[] fg = toMask(new int[] { 1, 1, 0, 0, 1,
+                                          0, 0, 1, 0, 1,
+                                          1, 0, 1, 0, 0,
+                                          1, 0, 0, 1, 1});
+        int[] dims = new int[] {5, 4};
+
+        int[] expected4 = new int[] { 5, 5, 0, 0, 6,
+                                      0, 0, 7, 0, 6,
+                                      8, 0, 7, 0, 0,
+                                      8, 0, 0, 9, 9};
+        int[] labels = new int[fg.length];
+        assertEquals(5, new ConnectedComponents(dims, new Connectivity(2, 1)).label(fg, labels, 5));
+        assertArrayEquals(expected4, labels);
+
+        int[] expected8 = new int[] { 1, 1, 0, 0, 2,
+                                      0, 0, 1, 0, 2,
+                                      3, 0, 1, 0, 0,
+                                      3, 0, 0, 1, 1};
+        labels = new int[fg.length];
+        assertEquals(3, new ConnectedComponents(dims, new Connectivity(2, 0)).label(fg, labels, 1));
+        assertArrayEquals(expected8, labels);
+    }
+
+    @Test
+    public void testBackgroundNotModified() {
+        boolean[] fg = toMask(new int[] { 1, 0, 1,
+                                          0, 0, 1});
+        int[] labels = new int[] { 7, 8, 9,
+                                   10, 11, 12};
+        int[] expected = new int[] { 1, 8, 2,
+                                     10, 11, 2};
+
+        assertEquals(2, new ConnectedComponents(new int[] {3, 2}, new Connectivity(2, 1)).label(fg, labels, 1));
+        assertArrayEquals(expected, labels);
+    }
+
+    @Test
+    public void testRandom3D() {
+        Random rnd = new Random(1234);
+        int[] dims = new int[] {23, 17, 11};
+        for (int connectivity = 0; connectivity < 3; ++connectivity) {
+            Connectivity conn = new Connectivity(3, connectivity);
+            boolean[] fg = randomMask(rnd, dims, 0.4);
+            int[] labels = new int[fg.length];
+            int num = new ConnectedComponents(dims, conn).label(fg, labels, 1);
+            int[] expected = new int[fg.length];
+            assertEquals(floodFillLabel(dims, conn, fg, expected), num);
+            assertArrayEquals(expected, labels);
+        }
+    }
+
+    @Test
+    public void testConcurrentSlabs() {
+        // Big enough to be split into several slabs
+        Random rnd = new Random(4321);
+        int[] dims = new int[] {80, 80, 48};
+        Connectivity conn = new Connectivity(3, 1);
+        boolean[] fg = randomMask(rnd, dims, 0.3);
+
+        int[] expected = new int[fg.length];
+        int expectedNum = floodFillLabel(dims, conn, fg, expected);
+        for (int numOfThreads : new int[] {1, 3, 4}) {
+            int[] labels = new int[fg.length];
+            assertEquals(expectedNum, new ConnectedComponents(dims, conn).label(fg, labels, 1, numOfThreads));
+            assertArrayEquals(expected, labels);
+        }
+    }
+
+    @Test
+    public void testLabelImageConnectedComponents() {
+        int[] img = new int[] { 0, 0, 2, 2, 3, 3,
+                                0, 0, 2, 2, 0, 3,
+                                2, 2, 0, 0, 0, 0,
+                                2, 0, -3, 3, 3, 3};
+
+        int[] expected = new int[] { 0, 0, 4, 4, 4, 4,
+                                     0, 0, 4, 4, 0, 4,
+                                     5, 5, 0, 0, 0, 0,
+                                     5, 0, 6, 6, 6, 6};
+
+        LabelImage li = new LabelImage(img, new int[] {6, 4});
+        Set<Integer> newLabels = li.connectedComponents();
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(4, 5, 6)), newLabels);
+        for (Integer index : new SpaceIterator(li.getDimensions()).getIndexIterable() ) {
+            assertEquals(expected[index], li.getLabel(index));
+        }
+    }
+
+    private static boolean[] toMask(int[] aValues) {
+        boolean[] mask = new boolean[aValues.length];
+        for (int i = 0; i < aValues.length; ++i) mask[i] = aValues[i] != 0;
+        return mask;
+    }
+
+    private static boolean[] randomMask(Random aRnd, int[] aDims, double aProbability) {
+        boolean[] mask = new boolean[new SpaceIterator(aDims).getSize()];
+        for (int i = 0; i < mask.length; ++i) mask[i] = aRnd.nextDouble() < aProbability;
+        return mask;
+    }
+
+    /**
+     * Reference labeling - flood fill from seeds found in memory order
+     */
+    private static int floodFillLabel(int[] aDims, Connectivity aConn, boolean[] aFg, int[] aLabels) {
+        SpaceIterator si = new SpaceIterator(aDims);
+        int label = 0;
+        for (int seed = 0; seed < aFg.length; ++seed) {
+            if (!aFg[seed] || aLabels[seed] != 0) continue;
+            ++label;
+            Deque<Integer> stack = new ArrayDeque<Integer>();
+            aLabels[seed] = label;
+            stack.push(seed);
+            while (!stack.isEmpty()) {
+                Point p = si.indexToPoint(stack.pop());
+                for (Point n : aConn.iterateNeighbors(p)) {
+                    if (!si.isInBound(n)) continue;
+                    int idx = si.pointToIndex(n);
+                    if (aFg[idx] && aLabels[idx] == 0) {
+                        aLabels[idx] = label;
+                        stack.push(idx);
+                    }
+                }
+            }
+        }
+        return label;
+    }
+}
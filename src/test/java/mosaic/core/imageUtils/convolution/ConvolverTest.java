@@ -1,5 +1,11 @@
 package mosaic.core.imageUtils.convolution;
 
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 
 import ij.ImagePlus;
@@ -124,4 +130,103 @@ public class ConvolverTest extends CommonBase {
         
         CommonBase.compareArrays(c.getData(), ConvertArray.toDouble(sv.v));
     }
+    
+    @Test
+    public void testParallelSameAsSerial() throws InterruptedException, ExecutionException {
+        // Image big enough to have cost of each convolution above parallel threshold
+        final int width = 97, height = 61, depth = 23;
+        assertTrue((long) width * height * depth * 3 >= Convolver.ParallelCostThreshold);
+        final Random rnd = new Random(1234);
+        final double[][][] d = new double[depth][height][width];
+        for (double[][] plane : d) for (double[] row : plane) for (int x = 0; x < width; ++x) row[x] = rnd.nextDouble();
+        
+        final Kernel1D k1 = new Kernel1D() {{ k = new double[] {0.1, 0.2, 0.4, 0.2, 0.1}; iHalfWidth = 2; }};
+        final Kernel2D k2 = new Kernel2D() {{ k = new double[][] {{0.1, 0.2, 0.3}, {0.4, 0.5, 0.6}, {0.7, 0.8, 0.9}}; iHalfWidth = 1; }};
+        final Kernel3D k3 = new Kernel3D() {{ 
+            k = new double[3][3][3]; 
+            for (int i = 0; i < 27; ++i) k[i / 9][i / 3 % 3][i % 3] = (i + 1) / 27.0; 
+            iHalfWidth = 1;
+        }};
+        
+        // Run in dedicated pool to have convolution really split between several threads
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final Convolver src = new Convolver(d);
+            final Convolver c = new Convolver(width, height, depth);
+            pool.submit(() -> c.x1D(src, k1)).get();
+            compareArrays(serialConvolution(d, k1.k, 0), c.getData());
+            pool.submit(() -> c.y1D(src, k1)).get();
+            compareArrays(serialConvolution(d, k1.k, 1), c.getData());
+            pool.submit(() -> c.z1D(src, k1)).get();
+            compareArrays(serialConvolution(d, k1.k, 2), c.getData());
+            pool.submit(() -> c.xy2D(src, k2)).get();
+            compareArrays(serialConvolution(d, k2.k), c.getData());
+            pool.submit(() -> c.xyz3D(src, k3)).get();
+            compareArrays(serialConvolution(d, k3.k), c.getData());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Serial 1D convolution along aDim (0 - x, 1 - y, 2 - z) with extended edges. Terms are summed in same order as in 
+     * Convolver so results must be exactly same.
+     */
+    private static double[][][] serialConvolution(double[][][] aData, double[] aKernel, int aDim) {
+        final int depth = aData.length, height = aData[0].length, width = aData[0][0].length;
+        final int hw = aKernel.length / 2;
+        final double[][][] result = new double[depth][height][width];
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    double sum = 0;
+                    for (int k = -hw; k <= hw; ++k) {
+                        switch (aDim) {
+                            case 0: sum += aData[z][y][clamp(x + k, width)] * aKernel[k + hw]; break;
+                            case 1: sum += aData[z][clamp(y + k, height)][x] * aKernel[k + hw]; break;
+                            default: sum += aData[clamp(z + k, depth)][y][x] * aKernel[k + hw]; break;
+                        }
+                    }
+                    result[z][y][x] = sum;
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static double[][][] serialConvolution(double[][][] aData, double[][] aKernel) {
+        return serialConvolution(aData, new double[][][] {aKernel}, false);
+    }
+    
+    private static double[][][] serialConvolution(double[][][] aData, double[][][] aKernel) {
+        return serialConvolution(aData, aKernel, true);
+    }
+    
+    private static double[][][] serialConvolution(double[][][] aData, double[][][] aKernel, boolean aIs3D) {
+        final int depth = aData.length, height = aData[0].length, width = aData[0][0].length;
+        final int hw = aKernel[0].length / 2;
+        final int hwz = aIs3D ? hw : 0;
+        final double[][][] result = new double[depth][height][width];
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    double sum = 0;
+                    for (int n = -hwz; n <= hwz; ++n) {
+                        for (int m = -hw; m <= hw; ++m) {
+                            for (int k = -hw; k <= hw; ++k) {
+                                sum += aData[aIs3D ? clamp(z + n, depth) : z][clamp(y + m, height)][clamp(x + k, width)] * aKernel[n + hwz][m + hw][k + hw];
+                            }
+                        }
+                    }
+                    result[z][y][x] = sum;
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static int clamp(int aCoord, int aSize) {
+        return aCoord < 0 ? 0 : (aCoord >= aSize ? aSize - 1 : aCoord);
+    }
 }
@@ -0,0 +1,103 @@
+package mosaic.core.particleLinking;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mosaic.core.detection.Particle;
+
+
+public class ParticleLinkerSparseTest {
+
+    @Test
+    public void testGreedySameAsDense() {
+        for (int seed = 0; seed < 5; ++seed) {
+            compareLinking(new ParticleLinkerGreedy(), seed, false, false);
+        }
+        compareLinking(new ParticleLinkerGreedy(), 10, true, false);
+        compareLinking(new ParticleLinkerGreedy(), 11, false, true);
+    }
+
+    @Test
+    public void testHungarianSameAsDense() {
+        for (int seed = 0; seed < 5; ++seed) {
+            compareLinking(new ParticleLinkerHungarian(), seed, false, false);
+        }
+        compareLinking(new ParticleLinkerHungarian(), 10, true, false);
+        compareLinking(new ParticleLinkerHungarian(), 11, false, true);
+    }
+
+    @Test
+    public void testNoLinkablePairs() {
+        List<Vector<Particle>> frames = new ArrayList<Vector<Particle>>();
+        Vector<Particle> f1 = new Vector<Particle>();
+        f1.add(new Particle(0, 0, 0, 0));
+        Vector<Particle> f2 = new Vector<Particle>();
+        f2.add(new Particle(100, 100, 0, 1));
+        frames.add(f1);
+        frames.add(f2);
+
+        LinkerOptions lo = new LinkerOptions();
+        lo.sparseCosts = true;
+        new ParticleLinkerGreedy().linkParticles(frames, lo);
+        Assert.assertEquals(-1, f1.get(0).next[0]);
+        new ParticleLinkerHungarian().linkParticles(frames, lo);
+        Assert.assertEquals(-1, f1.get(0).next[0]);
+    }
+
+    private void compareLinking(ParticleLinker aLinker, int aSeed, boolean aForce, boolean aStraightLine) {
+        LinkerOptions lo = new LinkerOptions();
+        lo.linkRange = 2;
+        lo.maxDisplacement = 6;
+        lo.force = aForce;
+        lo.straightLine = aStraightLine;
+
+        List<Vector<Particle>> dense = generateFrames(aSeed);
+        aLinker.linkParticles(dense, lo);
+        lo.sparseCosts = true;
+        List<Vector<Particle>> sparse = generateFrames(aSeed);
+        aLinker.linkParticles(sparse, lo);
+
+        for (int f = 0; f < dense.size(); ++f) {
+            for (int i = 0; i < dense.get(f).size(); ++i) {
+                Assert.assertArrayEquals("frame " + f + " particle " + i, dense.get(f).get(i).next, sparse.get(f).get(i).next);
+            }
+        }
+    }
+
+    /**
+     * Particles moving randomly in 3D with some of them appearing/disappearing between frames
+     */
+    private List<Vector<Particle>> generateFrames(int aSeed) {
+        Random rnd = new Random(aSeed);
+        int numOfParticles = 60;
+        float[][] pos = new float[numOfParticles][3];
+        for (float[] p : pos) {
+            p[0] = rnd.nextFloat() * 80;
+            p[1] = rnd.nextFloat() * 80;
+            p[2] = rnd.nextFloat() * 10;
+        }
+        List<Vector<Particle>> frames = new ArrayList<Vector<Particle>>();
+        for (int f = 0; f < 5; ++f) {
+            Vector<Particle> frame = new Vector<Particle>();
+            for (float[] p : pos) {
+                for (int d = 0; d < 3; ++d) {
+                    p[d] += (float) rnd.nextGaussian() * 2.5f;
+                }
+                if (rnd.nextFloat() < 0.9f) {
+                    Particle particle = new Particle(p[0], p[1], p[2], f);
+                    particle.m0 = rnd.nextFloat();
+                    particle.m2 = rnd.nextFloat();
+                    frame.add(particle);
+                }
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
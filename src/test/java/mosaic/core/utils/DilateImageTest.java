@@ -13,11 +13,36 @@ import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij.CLIJ;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 
 public class DilateImageTest extends CommonBase  {
     private static final Logger logger = Logger.getLogger(DilateImageTest.class);
 
+    @Test
+    public void testDilateSameAsBruteForce() {
+        Random rnd = new Random(7);
+        int[][] dims = {{37, 23, 1}, {20, 17, 9}, {3, 30, 4}, {1, 1, 1}};
+        for (int[] d : dims) {
+            ImageStack ips = new ImageStack(d[0], d[1]);
+            for (int s = 0; s < d[2]; s++) {
+                float[] pixels = new float[d[0] * d[1]];
+                for (int i = 0; i < pixels.length; i++) {
+                    // some NaNs and many equal values to check plateaus
+                    pixels[i] = rnd.nextInt(50) == 0 ? Float.NaN : rnd.nextInt(20);
+                }
+                ips.addSlice(null, pixels);
+            }
+            for (int radius = 0; radius <= 6; radius++) {
+                ImageStack expected = DilateImage.dilateBruteForce(ips, radius, 2);
+                ImageStack result = DilateImage.dilate(ips, radius, 3);
+                for (int s = 1; s <= d[2]; s++) {
+                    assertArrayEquals((float[]) expected.getPixels(s), (float[]) result.getPixels(s), 0f);
+                }
+            }
+        }
+    }
+
     @Test
     public void testDilate() {
 
@@ -46,6 +46,37 @@ public class AnalysisTest extends CommonBase {
         assertArrayEquals(new double[] {2, 1, 0, 1, 2}, analysis.getNearestNeighborDistancesXtoY(), epsilon);
     }
 
+    @Test
+    public void testCmaReRunsRepetitive() {
+        Point3d[] x = new Point3d[40];
+        Point3d[] y = new Point3d[20];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = new Point3d((i * 7) % 20, (i * 13) % 20, 0);
+        }
+        for (int i = 0; i < x.length; i++) {
+            x[i] = new Point3d(y[i % y.length].x + 0.3 * (i % 3), y[i % y.length].y + 0.4 * (i % 4), 0);
+        }
+        
+        List<CmaResult> singleRun = runCma(x, y, 1);
+        List<CmaResult> reRuns = runCma(x, y, 3);
+        List<CmaResult> reRunsAgain = runCma(x, y, 3);
+        
+        // first run does not depend on number of reruns and all reruns are reproducible
+        assertEquals(singleRun.get(0).toString(), reRuns.get(0).toString());
+        assertEquals(3, reRuns.size());
+        for (int i = 0; i < reRuns.size(); i++) {
+            assertEquals(reRuns.get(i).toString(), reRunsAgain.get(i).toString());
+        }
+    }
+    
+    private List<CmaResult> runCma(Point3d[] aX, Point3d[] aY, int aNumOfRuns) {
+        Analysis analysis = new Analysis();
+        analysis.calcDist(0.5, 0.001, 2.0, null, aX, aY, 0, 20, 0, 20, 0, 0);
+        analysis.setPotentialType(Potentials.createPotential(PotentialType.HERNQUIST));
+        analysis.cmaOptimization(aNumOfRuns, true);
+        return analysis.getCmaResults();
+    }
+
     @Test
     public void testCmaOptimizationHernquitst() {
         Analysis analysis = prepereIaForTest();
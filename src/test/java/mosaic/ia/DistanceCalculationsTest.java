@@ -1,6 +1,9 @@
 package mosaic.ia;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
 
 import org.scijava.vecmath.Point3d;
 
@@ -8,6 +11,7 @@ import org.junit.Test;
 
 import mosaic.ia.DistanceCalculations;
 import mosaic.ia.DistanceCalculationsCoords;
+import weka.estimators.KernelEstimator;
 
 public class DistanceCalculationsTest {
 
@@ -78,4 +82,86 @@ public class DistanceCalculationsTest {
         assertArrayEquals(expectedDistrDistance, distnace.getContextQdDistancesGrid(), 0.001);
         assertArrayEquals(expectedDistrProbability, distnace.getContextQdPdf(), 0.001);
     }
+    
+    @Test
+    public void testContextWithMaskSameAsPerPointEstimation() {
+        // 3D mask with holes in every z column, context Q(d) should contain all grid points inside of mask
+        Random rnd = new Random(5);
+        Point3d[] x = new Point3d[20];
+        Point3d[] y = new Point3d[15];
+        for (int i = 0; i < x.length; ++i) x[i] = new Point3d(rnd.nextDouble() * 9, rnd.nextDouble() * 7, rnd.nextDouble() * 4);
+        for (int i = 0; i < y.length; ++i) y[i] = new Point3d(rnd.nextDouble() * 9, rnd.nextDouble() * 7, rnd.nextDouble() * 4);
+        float[][][] mask = new float[5][10][8];
+        for (int z = 0; z < 5; ++z) for (int i = 0; i < 10; ++i) for (int j = 0; j < 8; ++j) mask[z][i][j] = ((i + j + z) % 4 == 0) ? 0 : 1;
+        
+        DistanceCalculations distance = new DistanceCalculationsCoords(x, y, mask, 0, 0, 0, 9, 7, 4, 0.5, 0.1, 0.2, 100);
+        
+        // Expected context with distances of each grid point given to the kernel estimator one by one
+        Point3d[] filteredY = distance.getFilteredAndScaledCoordinates(y);
+        KernelEstimator expectedEstimator = new KernelEstimator(0.01);
+        for (int i = 0; i <= 18; ++i) for (int j = 0; j <= 14; ++j) for (int k = 0; k <= 8; ++k) {
+            Point3d p = new Point3d(i * 0.5, j * 0.5, k * 0.5);
+            if (mask[(int) p.z][(int) p.x][(int) p.y] == 0) continue;
+            double min = Double.MAX_VALUE;
+            for (Point3d py : filteredY) min = Math.min(min, p.distance(py));
+            expectedEstimator.addValue(min, 0.1);
+        }
+        double[] grid = distance.getContextQdDistancesGrid();
+        double[] expectedPdf = new double[grid.length];
+        for (int i = 0; i < grid.length; ++i) expectedPdf[i] = expectedEstimator.getProbability(grid[i]);
+        
+        assertArrayEquals(expectedPdf, distance.getContextQdPdf(), 1e-9);
+    }
+    
+    @Test
+    public void testDistanceTransformSameAsNearestNeighbor() {
+        // Y particles on grid points (spacing 0.5), some of them outside of the grid, 3D mask with holes
+        Random rnd = new Random(3);
+        Point3d[] x = new Point3d[20];
+        Point3d[] y = new Point3d[15];
+        for (int i = 0; i < x.length; ++i) x[i] = new Point3d(rnd.nextDouble() * 9, rnd.nextDouble() * 7, rnd.nextDouble() * 4);
+        for (int i = 0; i < y.length; ++i) y[i] = new Point3d(rnd.nextInt(24) * 0.5 - 1, rnd.nextInt(18) * 0.5 - 1, rnd.nextInt(10) * 0.5);
+        float[][][] mask = new float[5][10][8];
+        for (int z = 0; z < 5; ++z) for (int i = 0; i < 10; ++i) for (int j = 0; j < 8; ++j) mask[z][i][j] = ((i + j + z) % 4 == 0) ? 0 : 1;
+        
+        for (float[][][] m : new float[][][][] {null, mask}) {
+            DistanceCalculations nn = new DistanceCalculationsCoords(x, y, m, 0, 0, 0, 9, 7, 4, 0.5, 0.1, 0.2, 100, false);
+            DistanceCalculations dt = new DistanceCalculationsCoords(x, y, m, 0, 0, 0, 9, 7, 4, 0.5, 0.1, 0.2, 100, true);
+            
+            assertArrayEquals(nn.getNearestNeighborsDistancesXtoY(), dt.getNearestNeighborsDistancesXtoY(), 0);
+            assertArrayEquals(nn.getContextQdDistancesGrid(), dt.getContextQdDistancesGrid(), 1e-9);
+            assertArrayEquals(nn.getContextQdPdf(), dt.getContextQdPdf(), 1e-9);
+        }
+    }
+    
+    @Test
+    public void testDistanceTransformOffGridParticles() {
+        // Y particles off grid points (spacing 0.5), some of them outside of the grid
+        Random rnd = new Random(11);
+        Point3d[] x = new Point3d[20];
+        Point3d[] y = new Point3d[40];
+        for (int i = 0; i < x.length; ++i) x[i] = new Point3d(rnd.nextDouble() * 9, rnd.nextDouble() * 7, rnd.nextDouble() * 4);
+        for (int i = 0; i < y.length; ++i) y[i] = new Point3d(rnd.nextDouble() * 11 - 1, rnd.nextDouble() * 9 - 1, rnd.nextDouble() * 4);
+        double gridSpacing = 0.5;
+        // Distance can be overestimated only close to points equally distant from two particles
+        double tolerance = gridSpacing * Math.sqrt(3);
+        
+        DistanceCalculations dt = new DistanceCalculationsCoords(x, y, null, 0, 0, 0, 9, 7, 4, gridSpacing, 0.1, 0.2, 100, true);
+        DistanceCalculations.GridNearestParticles nearest = dt.gridNearestParticles(0, 0, 0, 19, 15, 9);
+        int numOfExact = 0;
+        for (int i = 0; i < 19; ++i) for (int j = 0; j < 15; ++j) for (int k = 0; k < 9; ++k) {
+            Point3d p = new Point3d(i * gridSpacing, j * gridSpacing, k * gridSpacing);
+            double expected = Double.MAX_VALUE;
+            for (Point3d py : dt.iParticlesY) expected = Math.min(expected, p.distance(py));
+            double distance = nearest.distance(i, j, k, p);
+            assertTrue(distance >= expected - 1e-12 && distance <= expected + tolerance);
+            if (distance <= expected + 1e-12) numOfExact++;
+        }
+        assertTrue("Exact distances: " + numOfExact, numOfExact >= 0.98 * 19 * 15 * 9);
+        
+        // Q(d) close to the one from nearest neighbor search (max value of pdf is ~0.007)
+        DistanceCalculations nn = new DistanceCalculationsCoords(x, y, null, 0, 0, 0, 9, 7, 4, gridSpacing, 0.1, 0.2, 100, false);
+        assertArrayEquals(nn.getContextQdDistancesGrid(), dt.getContextQdDistancesGrid(), 1e-9);
+        assertArrayEquals(nn.getContextQdPdf(), dt.getContextQdPdf(), 1e-4);
+    }
 }
@@ -0,0 +1,63 @@
+package mosaic.ia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.macro.Interpreter;
+import mosaic.ia.HypothesisTesting.TestResult;
+import mosaic.ia.Potentials.PotentialType;
+import mosaic.utils.math.StatisticsUtils;
+
+
+public class HypothesisTestingTest {
+
+    @Test
+    public void testFindDistanceForProbability() {
+        // CDF with flat parts
+        double[] grid = {0, 1, 2, 3, 4, 5, 6};
+        double[] cdf = {0, 0.1, 0.1, 0.5, 0.5, 0.9, 1.0};
+        Random rnd = new Random(1);
+        for (int n = 0; n < 10000; ++n) {
+            double r = (n < 4) ? new double[] {0, 0.1, 0.5, 0.9}[n] : rnd.nextDouble();
+            // Reference: linear search of interval cdf[i] <= r < cdf[i + 1]
+            int i = 0;
+            for (i = 0; i < cdf.length - 1; ++i) {
+                if (r >= cdf[i] && r < cdf[i + 1]) break;
+            }
+            double expected = grid[i] + (r - cdf[i]) / (cdf[i + 1] - cdf[i]) * (grid[i + 1] - grid[i]);
+            assertEquals(expected, HypothesisTesting.findDistanceForProbability(cdf, grid, r), 1e-12);
+        }
+    }
+    
+    @Test
+    public void testRankTestReproducibleWithSeed() {
+        Interpreter.batchMode = true;
+        
+        // Uniform context Q(d) and observed distances concentrated at small values (attraction)
+        double[] grid = new double[100];
+        double[] pdf = new double[100];
+        for (int i = 0; i < grid.length; ++i) {
+            grid[i] = i * 0.1;
+            pdf[i] = 1;
+        }
+        double[] cdf = StatisticsUtils.calculateCdfFromPdf(pdf, grid);
+        double[] observed = new double[50];
+        for (int i = 0; i < observed.length; ++i) observed[i] = 0.02 * i;
+        double[] params = {2, 1};
+        
+        TestResult r1 = new HypothesisTesting(cdf, grid, observed, params, Potentials.createPotential(PotentialType.HERNQUIST), 500, 0.01, 42).rankTest();
+        TestResult r2 = new HypothesisTesting(cdf, grid, observed, params, Potentials.createPotential(PotentialType.HERNQUIST), 500, 0.01, 42).rankTest();
+        assertEquals(r1.toString(), r2.toString());
+        assertEquals(500, r1.iRank);
+        assertEquals(true, r1.iNullHypothesisRejected);
+        
+        // Distances sampled from context itself should not reject null hypothesis
+        double[] sampledFromContext = new double[50];
+        for (int i = 0; i < sampledFromContext.length; ++i) sampledFromContext[i] = 9.9 * (i + 0.5) / sampledFromContext.length;
+        TestResult r3 = new HypothesisTesting(cdf, grid, sampledFromContext, params, Potentials.createPotential(PotentialType.HERNQUIST), 500, 0.01, 42).rankTest();
+        assertEquals(false, r3.iNullHypothesisRejected);
+    }
+}
@@ -3,9 +3,13 @@ package mosaic.ia;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import mosaic.ia.Potentials.Potential;
+import mosaic.ia.Potentials.PotentialOfDistances;
 import mosaic.ia.Potentials.PotentialType;
 
 
@@ -121,4 +125,62 @@ public class PotentialsTest {
             assertArrayEquals(new double[] {0.7788007830714049, 0.36787944117144233, 0.01831563888873418, 0.01831563888873418, 0.36787944117144233, 0.7788007830714049}, pc.getGibbsPotential(), epsilon);
         }
     }
+    
+    @Test
+    public void testCopy() {
+        Potential pc = Potentials.createPotential(PotentialType.NONPARAM, 0, 4, 5, 0.1);
+        Potential copy = pc.copy();
+        assertEquals(PotentialType.NONPARAM, copy.getType());
+        assertEquals(pc.numOfDimensions(), copy.numOfDimensions());
+        
+        double[] distances = new double[] {0, 0.5, 1.5, 2, 3.5};
+        double[] weights = new double[] {1, -2, 3, 0.5};
+        double[] expected = pc.calculate(distances, weights).getGibbsPotential().clone();
+        copy.calculate(distances, new double[] {5, 5, 5, 5});
+        copy.calculate(distances, weights);
+        
+        // copy has its own buffers and gives same results
+        assertArrayEquals(expected, pc.getGibbsPotential(), 0);
+        assertArrayEquals(expected, copy.getGibbsPotential(), 0);
+        assertEquals(pc.getSumPotential(), copy.getSumPotential(), 0);
+    }
+    
+    @Test
+    public void testCalculateIntoBuffersSameAsCalculate() {
+        double[] distances = new double[300];
+        for (int i = 0; i < distances.length; ++i) distances[i] = i * 0.037;
+        
+        List<Potential> potentials = new ArrayList<Potential>();
+        for (PotentialType type : PotentialType.values()) {
+            potentials.add(type == PotentialType.NONPARAM ? Potentials.createPotential(type, 0, 10, 21, 0.1) : Potentials.createPotential(type));
+        }
+        for (Potential pc : potentials) {
+            double[] params = new double[pc.numOfDimensions()];
+            for (int i = 0; i < params.length; ++i) params[i] = (i % 2 == 0) ? 1.5 + i : -0.7 * i;
+            
+            for (boolean withEpsilon : new boolean[] {true, false}) {
+                if (withEpsilon) pc.calculate(distances, params); else pc.calculateWithoutEpsilon(distances, params);
+                
+                // in chunks
+                double[] potential = new double[distances.length];
+                double[] gibbs = new double[distances.length];
+                double sum = 0;
+                for (int from = 0; from < distances.length; from += 64) {
+                    sum += pc.calculate(distances, from, Math.min(from + 64, distances.length), params, withEpsilon, potential, gibbs);
+                }
+                assertArrayEquals(pc.getType().toString(), pc.getPotential(), potential, 0);
+                assertArrayEquals(pc.getType().toString(), pc.getGibbsPotential(), gibbs, 0);
+                assertEquals(pc.getSumPotential(), sum, 1e-9 * Math.abs(sum));
+                
+                // prepared for distances
+                PotentialOfDistances pod = pc.forDistances(distances);
+                potential = new double[distances.length];
+                gibbs = new double[distances.length];
+                assertEquals(pc.getSumPotential(), pod.calculate(params, withEpsilon, potential, gibbs), 0);
+                assertArrayEquals(pc.getType().toString(), pc.getPotential(), potential, 0);
+                assertArrayEquals(pc.getType().toString(), pc.getGibbsPotential(), gibbs, 0);
+                assertEquals(pc.getSumPotential(), pod.calculate(params, withEpsilon, null, null), 0);
+            }
+        }
+    }
 }
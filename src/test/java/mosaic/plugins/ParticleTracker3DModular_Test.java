@@ -1,8 +1,16 @@
 package mosaic.plugins;
 
+import java.util.Random;
+import java.util.Vector;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import mosaic.core.detection.FeaturePointDetector;
+import mosaic.core.detection.MyFrame;
+import mosaic.core.detection.Particle;
 import mosaic.core.particleLinking.ParticleLinkerGreedy;
 import mosaic.test.framework.CommonBase;
 
@@ -287,4 +295,55 @@ public class ParticleTracker3DModular_Test extends CommonBase {
                    expectedImgFiles, referenceImgFiles,
                    expectedFiles, referenceFiles);
     }
+    
+    @Test
+    public void testConcurrentDetectionSameAsSequential() {
+        // 10 frames with 3 slices each, few gaussian spots (3D) with noise in each frame
+        final int width = 64, height = 48, numOfSlices = 3, numOfFrames = 10;
+        final Random rnd = new Random(1234);
+        final ImageStack stack = new ImageStack(width, height);
+        for (int f = 0; f < numOfFrames; f++) {
+            final float[][] slices = new float[numOfSlices][width * height];
+            for (int spot = 0; spot < 12; spot++) {
+                final double sx = 4 + rnd.nextDouble() * (width - 8), sy = 4 + rnd.nextDouble() * (height - 8), sz = rnd.nextDouble() * (numOfSlices - 1);
+                for (int z = 0; z < numOfSlices; z++) {
+                    for (int i = 0; i < width * height; i++) {
+                        final double dx = i % width - sx, dy = i / width - sy, dz = z - sz;
+                        slices[z][i] += 200 * Math.exp(-(dx * dx + dy * dy + dz * dz) / 4);
+                    }
+                }
+            }
+            for (int z = 0; z < numOfSlices; z++) {
+                for (int i = 0; i < width * height; i++) {
+                    slices[z][i] += 10 * rnd.nextFloat();
+                }
+                stack.addSlice(new FloatProcessor(width, height, slices[z]));
+            }
+        }
+
+        final MyFrame[] sequential = detect(stack, numOfSlices, numOfFrames, 1);
+        final MyFrame[] concurrent = detect(stack, numOfSlices, numOfFrames, 4);
+        for (int f = 0; f < numOfFrames; f++) {
+            final Vector<Particle> expected = sequential[f].getParticles();
+            final Vector<Particle> particles = concurrent[f].getParticles();
+            Assert.assertEquals(f, concurrent[f].iFrameNumber);
+            Assert.assertTrue(expected.size() > 0);
+            Assert.assertEquals(expected.size(), particles.size());
+            for (int i = 0; i < expected.size(); i++) {
+                final Particle e = expected.get(i);
+                final Particle p = particles.get(i);
+                Assert.assertEquals(f, p.getFrame());
+                Assert.assertArrayEquals(new float[] {e.iX, e.iY, e.iZ, e.m0, e.m2, e.nonParticleDiscriminationScore}, 
+                                         new float[] {p.iX, p.iY, p.iZ, p.m0, p.m2, p.nonParticleDiscriminationScore}, 0f);
+            }
+        }
+    }
+
+    private MyFrame[] detect(ImageStack aStack, int aNumOfSlices, int aNumOfFrames, int aNumOfThreads) {
+        final FeaturePointDetector detector = new FeaturePointDetector(250, 0);
+        detector.setDetectionParameters(0.001, 0.05f, 3, 0, false, false);
+        final MyFrame[] frames = new MyFrame[aNumOfFrames];
+        ParticleTracker3DModular_.detectParticlesInFrames(detector, aStack, aNumOfSlices, frames, aNumOfThreads);
+        return frames;
+    }
 }
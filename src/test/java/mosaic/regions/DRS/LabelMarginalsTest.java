@@ -0,0 +1,75 @@
+package mosaic.regions.DRS;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+public class LabelMarginalsTest {
+
+    @Test
+    public void testSameAsCountingEveryIteration() {
+        // whole run with planned burn-in
+        assertEquals(1500, compareWithCountingEveryIteration(5000, 1500, 5000, 1500));
+        // no burn-in
+        assertEquals(0, compareWithCountingEveryIteration(300, 0, 300, 0));
+    }
+
+    @Test
+    public void testStoppedDuringBurnIn() {
+        // Run stopped before planned burn-in is over - burn-in is rounded down to the start of bucket
+        int first = compareWithCountingEveryIteration(5000, 1500, 1000, 300);
+        assertTrue("First countable iteration " + first, first <= 300 && first > 300 - 1500 / 16);
+        first = compareWithCountingEveryIteration(5000, 1500, 7, 2);
+        assertEquals(0, first);
+    }
+
+    /**
+     * Runs random label changes for aNumOfIterations and compares marginals with counts taken in every iteration.
+     * @return first countable iteration
+     */
+    private static int compareWithCountingEveryIteration(int aMaxNumOfIterations, int aPlannedBurnIn, int aNumOfIterations, int aBurnIn) {
+        int[] dims = new int[] {7, 5};
+        int numOfLabels = 4;
+        Random rnd = new Random(3);
+
+        LabelImage li = new LabelImage(dims);
+        LabelMarginals marginals = new LabelMarginals(li.getSize(), aPlannedBurnIn);
+        int first = marginals.firstCountableIteration(aBurnIn);
+        long[][] expected = new long[numOfLabels][li.getSize()];
+        // initial labels are valid until first iteration
+        if (first == 0) {
+            for (int i = 0; i < li.getSize(); ++i) expected[li.getLabel(i)][i]++;
+        }
+
+        for (int iteration = 1; iteration <= aNumOfIterations; ++iteration) {
+            // few changes in some iterations (including multiple changes of the same pixel)
+            int numOfChanges = rnd.nextInt(3);
+            for (int c = 0; c < numOfChanges; ++c) {
+                int idx = rnd.nextInt(li.getSize());
+                int label = rnd.nextInt(numOfLabels);
+                if (label == li.getLabel(idx)) continue;
+                marginals.labelChanged(idx, li.getLabel(idx), iteration);
+                li.setLabel(idx, label);
+            }
+            // Label from iteration is valid until next iteration
+            if (iteration >= first && iteration < aNumOfIterations) {
+                for (int i = 0; i < li.getSize(); ++i) expected[li.getLabel(i)][i]++;
+            }
+        }
+
+        long[][] result = new long[numOfLabels][li.getSize()];
+        marginals.accumulate(li, aLabel -> aLabel, result, aNumOfIterations, aBurnIn);
+        for (int l = 0; l < numOfLabels; ++l) {
+            assertArrayEquals(expected[l], result[l]);
+        }
+        assertEquals(aNumOfIterations - first, marginals.numOfCountableIterations(aNumOfIterations, aBurnIn));
+        return first;
+    }
+}
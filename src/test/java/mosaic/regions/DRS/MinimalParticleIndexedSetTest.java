@@ -3,6 +3,11 @@ package mosaic.regions.DRS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.random.MersenneTwister;
 import org.junit.Test;
 
 import mosaic.regions.DRS.Particle;
@@ -82,4 +87,75 @@ public class MinimalParticleIndexedSetTest {
         
         assertEquals(2, s1.size());
     }
+    
+    @Test
+    public void testRandomOperationsSameAsList() {
+        Random rnd = new Random(11);
+        ParticleSet s = new ParticleSet();
+        // reference implementation: list with swap-remove
+        List<Particle> expected = new ArrayList<>();
+        
+        for (int i = 0; i < 20000; ++i) {
+            Particle p = new Particle(rnd.nextInt(300), rnd.nextInt(4), rnd.nextFloat());
+            int idx = expected.indexOf(p);
+            if (rnd.nextInt(3) == 0) {
+                Particle removed = s.erase(p);
+                if (idx < 0) {
+                    assertTrue(removed == null);
+                }
+                else {
+                    assertTrue(removed == expected.get(idx));
+                    Particle last = expected.remove(expected.size() - 1);
+                    if (idx < expected.size()) expected.set(idx, last);
+                }
+            }
+            else {
+                Particle replaced = s.insert(p);
+                if (idx < 0) {
+                    assertTrue(replaced == null);
+                    expected.add(p);
+                }
+                else {
+                    assertTrue(replaced == expected.get(idx));
+                    expected.set(idx, p);
+                }
+            }
+            
+            if (i % 5000 == 4999) {
+                assertEquals(expected.size(), s.size());
+                for (int k = 0; k < expected.size(); ++k) {
+                    assertTrue(expected.get(k) == s.get(k));
+                    assertEquals(k, s.getIndex(expected.get(k)));
+                }
+            }
+        }
+        
+        s.clear();
+        assertEquals(0, s.size());
+        assertEquals(-1, s.getIndex(expected.get(0)));
+        s.insert(expected.get(0));
+        assertEquals(0, s.getIndex(expected.get(0)));
+    }
+    
+    @Test
+    public void testSampleByProposal() {
+        ParticleSet s = new ParticleSet(true);
+        s.insert(new Particle(1, 1, 1));
+        s.insert(new Particle(2, 1, 5));
+        s.insert(new Particle(3, 1, 2));
+        s.insert(new Particle(4, 1, 2));
+        // replace proposal and remove particle from the middle (last particle is moved)
+        s.insert(new Particle(1, 1, 3));
+        s.erase(new Particle(2, 1, 0));
+        
+        MersenneTwister rng = new MersenneTwister(1);
+        int numOfSamples = 100000;
+        double[] counts = new double[s.size()];
+        for (int i = 0; i < numOfSamples; ++i) counts[s.sampleIndexByProposal(rng)]++;
+        
+        assertEquals(3, s.size());
+        for (int i = 0; i < s.size(); ++i) {
+            assertEquals(s.get(i).iProposal / 7.0, counts[i] / numOfSamples, 0.01);
+        }
+    }
 }
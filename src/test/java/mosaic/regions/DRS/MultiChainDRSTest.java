@@ -0,0 +1,201 @@
+package mosaic.regions.DRS;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.IntensityImage;
+import mosaic.core.imageUtils.images.LabelImage;
+import mosaic.regions.RegionsUtils;
+import mosaic.regions.RegionsUtils.EnergyFunctionalType;
+import mosaic.regions.RegionsUtils.RegularizationType;
+import mosaic.regions.energies.ImageModel;
+import mosaic.test.framework.CommonBase;
+
+
+public class MultiChainDRSTest extends CommonBase {
+
+    @Test
+    public void testGelmanRubin() {
+        // identical chains: B = 0 => R = sqrt((n - 1) / n)
+        assertEquals(Math.sqrt(0.75), MultiChainDRS.gelmanRubin(new double[][] {{1, 2, 3, 4}, {1, 2, 3, 4}}, 0, 4), 1e-12);
+        // constant chains
+        assertEquals(1.0, MultiChainDRS.gelmanRubin(new double[][] {{5, 5, 5}, {5, 5, 5}}, 0, 3), 0);
+        assertEquals(Double.POSITIVE_INFINITY, MultiChainDRS.gelmanRubin(new double[][] {{5, 5, 5}, {6, 6, 6}}, 0, 3), 0);
+        // W = 2, B = 2 / 2 * 8 = 8, V = 2 / 2 + 8 / 2 = 5 => R = sqrt(5 / 2) (first sample is skipped)
+        assertEquals(Math.sqrt(2.5), MultiChainDRS.gelmanRubin(new double[][] {{9, 0, 2}, {9, 2, 4}, {9, 4, 6}}, 1, 3), 1e-12);
+        // not enough data
+        assertTrue(Double.isNaN(MultiChainDRS.gelmanRubin(new double[][] {{1, 2, 3}}, 0, 3)));
+        assertTrue(Double.isNaN(MultiChainDRS.gelmanRubin(new double[][] {{1, 2, 3}, {1, 2, 3}}, 2, 3)));
+    }
+
+    @Test
+    public void testSingleChainSameAsAlgorithmDRS() {
+        SettingsDRS settings = new SettingsDRS(true, true, true, 3000, 0.0f, false, false, 0.3f);
+
+        IntensityImage ii = createImage();
+        LabelImage li = createInitialLabels();
+        AlgorithmDRS single = new AlgorithmDRS(ii, li, createModel(ii, li), settings);
+        for (int i = 0; i < settings.maxNumOfIterations; ++i) single.runOneIteration();
+
+        LabelImage liChains = createInitialLabels();
+        MultiChainDRS chains = new MultiChainDRS(ii, liChains, l -> createModel(ii, l), settings, 1, 7);
+        chains.runIterations(1000);
+        chains.runIterations(2000);
+
+        assertArrayEquals(li.getDataLabel(), liChains.getDataLabel());
+        assertEquals(single.getEnergy(), chains.getChain(0).getEnergy(), 0);
+        assertStacksEqual(single.createProbabilityImage(), chains.createProbabilityImage());
+        assertTrue(Double.isNaN(chains.getEnergyPotentialScaleReduction()));
+    }
+
+    @Test
+    public void testMultipleChains() {
+        SettingsDRS settings = new SettingsDRS(true, true, true, 2000, 0.0f, false, false, 0.3f);
+        IntensityImage ii = createImage();
+
+        MultiChainDRS chains1 = new MultiChainDRS(ii, createInitialLabels(), l -> createModel(ii, l), settings, 4, 7);
+        chains1.runIterations(settings.maxNumOfIterations);
+        MultiChainDRS chains2 = new MultiChainDRS(ii, createInitialLabels(), l -> createModel(ii, l), settings, 4, 7);
+        for (int i = 0; i < 4; ++i) chains2.runIterations(settings.maxNumOfIterations / 4);
+
+        // Same seed gives same results independently on number of blocks (and threads)
+        assertEquals(chains1.getEnergyPotentialScaleReduction(), chains2.getEnergyPotentialScaleReduction(), 0);
+        assertStacksEqual(chains1.createProbabilityImage(), chains2.createProbabilityImage());
+        
+        // Chains are independent
+        assertTrue(chains1.getChain(1).getEnergy() != chains1.getChain(2).getEnergy());
+        assertTrue(chains1.getEnergyPotentialScaleReduction() >= 0.9);
+
+        // Pooled probabilities are still probabilities
+        ImageStack stack = chains1.createProbabilityImage().getStack();
+        for (int s = 1; s <= stack.getSize(); ++s) {
+            float[] pixels = (float[]) stack.getProcessor(s).getPixels();
+            for (float p : pixels) assertTrue(p >= 0 && p <= 1);
+        }
+    }
+
+    @Test
+    public void testEarlyStopAfterBurnIn() {
+        SettingsDRS settings = new SettingsDRS(true, true, true, 2000, 0.0f, false, false, 0.3f);
+        IntensityImage ii = createImage();
+        MultiChainDRS chains = new MultiChainDRS(ii, createInitialLabels(), l -> createModel(ii, l), settings, 3, 11);
+
+        // Any finite R-hat passes infinite threshold so chains stop as soon as it is allowed
+        int iteration = 0;
+        while (!chains.hasConverged(Double.POSITIVE_INFINITY)) {
+            chains.runIterations(50);
+            iteration += 50;
+        }
+        assertTrue("Stopped in iteration " + iteration, iteration > settings.numOfBurnInIterations() && iteration < settings.maxNumOfIterations);
+
+        // Marginals are collected from samples after burn-in - not only 0/1 values of current state
+        ImageStack stack = chains.createProbabilityImage().getStack();
+        assertEquals(2, stack.getSize());
+        int numOfFractionalValues = 0;
+        for (int s = 1; s <= stack.getSize(); ++s) {
+            float[] pixels = (float[]) stack.getProcessor(s).getPixels();
+            float max = 0;
+            for (float p : pixels) {
+                assertTrue(p >= 0 && p <= 1);
+                if (p > 0 && p < 1) ++numOfFractionalValues;
+                max = Math.max(max, p);
+            }
+            assertTrue(max > 0.9);
+        }
+        assertTrue(numOfFractionalValues > 0);
+    }
+
+    @Test
+    public void testStoppedDuringBurnIn() {
+        SettingsDRS settings = new SettingsDRS(true, true, true, 2000, 0.0f, false, false, 0.3f);
+        IntensityImage ii = createImage();
+        MultiChainDRS chains = new MultiChainDRS(ii, createInitialLabels(), l -> createModel(ii, l), settings, 2, 5);
+
+        // e.g. aborted by user - burn-in is taken from iterations run so far, not from maxNumOfIterations
+        chains.runIterations(400);
+        assertTrue(400 < settings.numOfBurnInIterations());
+
+        ImageStack stack = chains.createProbabilityImage().getStack();
+        assertEquals(2, stack.getSize());
+        int numOfFractionalValues = 0;
+        for (int s = 1; s <= stack.getSize(); ++s) {
+            float[] pixels = (float[]) stack.getProcessor(s).getPixels();
+            float max = 0;
+            for (float p : pixels) {
+                assertTrue(p >= 0 && p <= 1);
+                if (p > 0 && p < 1) ++numOfFractionalValues;
+                max = Math.max(max, p);
+            }
+            assertTrue(max > 0.9);
+        }
+        assertTrue(numOfFractionalValues > 0);
+    }
+
+    @Test
+    public void testExactBiasedProposal() {
+        SettingsDRS settings = new SettingsDRS(true, true, true, 2000, 0.0f, true, false, 0.3f);
+        settings.useExactBiasedProposal = true;
+        IntensityImage ii = createImage();
+
+        MultiChainDRS chains = new MultiChainDRS(ii, createInitialLabels(), l -> createModel(ii, l), settings, 2, 3);
+        chains.runIterations(settings.maxNumOfIterations);
+
+        ImageStack stack = chains.createProbabilityImage().getStack();
+        assertEquals(2, stack.getSize());
+        for (int s = 1; s <= stack.getSize(); ++s) {
+            float[] pixels = (float[]) stack.getProcessor(s).getPixels();
+            float max = 0;
+            for (float p : pixels) {
+                assertTrue(p >= 0 && p <= 1);
+                max = Math.max(max, p);
+            }
+            // both regions are still there
+            assertTrue(max > 0.9);
+        }
+    }
+
+    private static void assertStacksEqual(ImagePlus aExpected, ImagePlus aActual) {
+        ImageStack expected = aExpected.getStack();
+        ImageStack actual = aActual.getStack();
+        assertEquals(expected.getSize(), actual.getSize());
+        for (int s = 1; s <= expected.getSize(); ++s) {
+            assertArrayEquals((float[]) expected.getProcessor(s).getPixels(), (float[]) actual.getProcessor(s).getPixels(), 0f);
+        }
+    }
+
+    private static IntensityImage createImage() {
+        int w = 40, h = 32;
+        IntensityImage ii = new IntensityImage(new int[] {w, h});
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                double d1 = (x - 12) * (x - 12) + (y - 12) * (y - 12);
+                double d2 = (x - 28) * (x - 28) + (y - 20) * (y - 20);
+                double v = 0.1 + (d1 < 36 ? 0.8 : 0) + (d2 < 25 ? 0.6 : 0) + 0.05 * ((x * 7 + y * 13) % 11) / 11.0;
+                ii.set(new Point(x, y), (float) v);
+            }
+        }
+        return ii;
+    }
+
+    private static LabelImage createInitialLabels() {
+        LabelImage li = new LabelImage(new int[] {40, 32});
+        for (int y = 0; y < 32; ++y) {
+            for (int x = 0; x < 40; ++x) {
+                if ((x - 12) * (x - 12) + (y - 12) * (y - 12) <= 9) li.setLabel(new Point(x, y), 1);
+                if ((x - 28) * (x - 28) + (y - 20) * (y - 20) <= 9) li.setLabel(new Point(x, y), 2);
+            }
+        }
+        return li;
+    }
+
+    private static ImageModel createModel(IntensityImage aImage, LabelImage aLabelImage) {
+        return RegionsUtils.initEnergies(aImage, aLabelImage, new Calibration(), EnergyFunctionalType.e_PC, 0, 8, 0, RegularizationType.Approximative, 8, 0.04f);
+    }
+}
@@ -0,0 +1,202 @@
+package mosaic.regions.RC;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import ij.measure.Calibration;
+import mosaic.core.imageUtils.images.IntensityImage;
+import mosaic.core.imageUtils.images.LabelImage;
+import mosaic.regions.RegionsUtils;
+import mosaic.regions.RegionsUtils.EnergyFunctionalType;
+import mosaic.regions.RegionsUtils.RegularizationType;
+import mosaic.regions.energies.E_Deconvolution;
+import mosaic.regions.energies.E_Gamma;
+import mosaic.regions.energies.ImageModel;
+import mosaic.regions.utils.LabelStatistics;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+
+public class AlgorithmRCTest {
+
+    @Test
+    public void testConcurrentEnergiesSameAsSerial() {
+        // Energies are split into independent part (calculated concurrently) and part depending on candidate state
+        // (E_Gamma) - both are summed in same order as serial calculation so results must be exactly the same.
+        compareSerialAndConcurrent(EnergyFunctionalType.e_PC_Gauss, RegularizationType.Approximative);
+        // Energies keeping state per thread
+        compareSerialAndConcurrent(EnergyFunctionalType.e_PS, RegularizationType.Approximative);
+        compareSerialAndConcurrent(EnergyFunctionalType.e_PC, RegularizationType.Sphere_Regularization);
+    }
+
+    private void compareSerialAndConcurrent(EnergyFunctionalType aEnergy, RegularizationType aRegularization) {
+        final RcResult serial = runRc(aEnergy, aRegularization, 1);
+        final RcResult concurrent = runRc(aEnergy, aRegularization, 4);
+
+        assertTrue("Segmentation should take a few iterations", serial.iNumOfIterations > 1);
+        assertEquals(serial.iNumOfIterations, concurrent.iNumOfIterations);
+        assertArrayEquals(serial.iLabels, concurrent.iLabels);
+        assertEquals(serial.iStatistics, concurrent.iStatistics);
+    }
+
+    @Test
+    public void testDeconvolutionRenewalInterval() {
+        final RcResult everyIteration = runDeconvolutionRc(1);
+        final RcResult everyFifthIteration = runDeconvolutionRc(5);
+
+        // Seeds lie in separated blobs so there are no splits/merges (which would force additional renewals).
+        // Model image is renewed once during initialization and then every 'interval' iterations.
+        assertEquals(1 + everyIteration.iNumOfIterations, everyIteration.iNumOfRenewals);
+        assertTrue("Interval should matter", everyFifthIteration.iNumOfIterations > 5);
+        assertEquals(1 + everyFifthIteration.iNumOfIterations / 5, everyFifthIteration.iNumOfRenewals);
+
+        // Between renewals model image is only updated incrementally - segmentation must be still the same
+        assertEquals(everyIteration.iStatistics.keySet(), everyFifthIteration.iStatistics.keySet());
+        int numOfDifferentPixels = 0;
+        for (int i = 0; i < everyIteration.iLabels.length; i++) {
+            if (Math.abs(everyIteration.iLabels[i]) != Math.abs(everyFifthIteration.iLabels[i])) numOfDifferentPixels++;
+        }
+        assertTrue("Different pixels: " + numOfDifferentPixels, numOfDifferentPixels <= everyIteration.iLabels.length / 100);
+    }
+
+    private static class RcResult {
+        int iNumOfIterations;
+        int iNumOfRenewals;
+        int[] iLabels;
+        // label -> "count mean" of each region (mean must be exactly same)
+        Map<Integer, String> iStatistics = new TreeMap<Integer, String>();
+    }
+
+    private static RcResult runRc(EnergyFunctionalType aEnergy, RegularizationType aRegularization, int aNumOfThreads) {
+        final int[] dims = new int[] {60, 48};
+        final IntensityImage image = createImage(dims);
+        final LabelImage labels = createInitialLabels(dims);
+
+        final ImageModel model = RegionsUtils.initEnergies(image, labels, new Calibration(), aEnergy, 0.02f, 8, 0.0f, aRegularization, 8, 0.04f);
+        final SettingsRC settings = new SettingsRC(true, true, true, 100, 0.02, false);
+        settings.numOfThreads = aNumOfThreads;
+        return runRc(image, labels, model, settings, new RcResult());
+    }
+
+    private static RcResult runDeconvolutionRc(int aRenewalInterval) {
+        final int[] dims = new int[] {60, 48};
+        final IntensityImage image = createImage(dims);
+        final LabelImage labels = createBlobSeedLabels(dims);
+        final RcResult result = new RcResult();
+
+        final E_Deconvolution deconvolution = new E_Deconvolution(image, createPsf(2)) {
+            @Override
+            public void RenewDeconvolution(LabelImage aInitImage, HashMap<Integer, LabelStatistics> aLabelMap) {
+                result.iNumOfRenewals++;
+                super.RenewDeconvolution(aInitImage, aLabelMap);
+            }
+        };
+        final ImageModel model = new ImageModel(deconvolution, new E_Gamma(labels), null, 0.04f);
+        final SettingsRC settings = new SettingsRC(true, true, true, 100, 0.02, true);
+        settings.deconvolutionRenewalInterval = aRenewalInterval;
+        return runRc(image, labels, model, settings, result);
+    }
+
+    private static RcResult runRc(IntensityImage aImage, LabelImage aLabels, ImageModel aModel, SettingsRC aSettings, RcResult aResult) {
+        final AlgorithmRC rc = new AlgorithmRC(aImage, aLabels, aModel, aSettings);
+        try {
+            boolean isDone = false;
+            while (aResult.iNumOfIterations < aSettings.maxNumOfIterations && !isDone) {
+                isDone = rc.performIteration();
+                aResult.iNumOfIterations++;
+            }
+        }
+        finally {
+            rc.close();
+        }
+
+        aResult.iLabels = aLabels.getDataLabel().clone();
+        for (LabelStatistics ls : rc.getLabelStatistics().values()) {
+            aResult.iStatistics.put(ls.iLabel, ls.iLabelCount + " " + ls.iMeanIntensity);
+        }
+        return aResult;
+    }
+
+    /**
+     * @return normalized 2D gaussian PSF (sum of values equal 1)
+     */
+    private static Img<FloatType> createPsf(double aSigma) {
+        final int radius = (int) Math.ceil(3 * aSigma);
+        final int size = 2 * radius + 1;
+        final Img<FloatType> psf = ArrayImgs.floats(size, size);
+        final Cursor<FloatType> c = psf.localizingCursor();
+        double sum = 0;
+        while (c.hasNext()) {
+            c.fwd();
+            final double x = c.getDoublePosition(0) - radius, y = c.getDoublePosition(1) - radius;
+            final float v = (float) Math.exp(-(x * x + y * y) / (2 * aSigma * aSigma));
+            c.get().set(v);
+            sum += v;
+        }
+        for (FloatType v : psf) {
+            v.set((float) (v.get() / sum));
+        }
+        return psf;
+    }
+
+    /**
+     * @return label image with one small seed region in the middle of each blob of {@link #createImage(int[])}
+     */
+    private static LabelImage createBlobSeedLabels(int[] aDims) {
+        final LabelImage labels = new LabelImage(aDims);
+        for (int b = 0; b < BLOBS.length; b++) {
+            for (int idx = 0; idx < labels.getSize(); idx++) {
+                final int x = idx % aDims[0], y = idx / aDims[0];
+                final double dx = x - BLOBS[b][0], dy = y - BLOBS[b][1];
+                if (dx * dx + dy * dy <= 5) labels.setLabel(idx, b + 1);
+            }
+        }
+        return labels;
+    }
+
+    // x, y, 2 * sigma^2 of blobs in test image
+    private static final double[][] BLOBS = {{15, 14, 7}, {38, 20, 9}, {22, 36, 6}, {48, 38, 8}};
+
+    /**
+     * @return image with a few gaussian blobs of different sizes on structured background
+     */
+    static IntensityImage createImage(int[] aDims) {
+        final IntensityImage image = new IntensityImage(aDims);
+        for (int idx = 0; idx < image.getSize(); idx++) {
+            final int x = idx % aDims[0], y = idx / aDims[0];
+            double v = 0.1 + 0.05 * ((x * 7 + y * 13) % 11) / 11.0;
+            for (double[] b : BLOBS) {
+                v += 0.8 * Math.exp(-((x - b[0]) * (x - b[0]) + (y - b[1]) * (y - b[1])) / (2 * b[2]));
+            }
+            image.set(idx, (float) v);
+        }
+        return image;
+    }
+
+    /**
+     * @return label image with grid of small circular regions ("bubbles" initialization)
+     */
+    static LabelImage createInitialLabels(int[] aDims) {
+        final LabelImage labels = new LabelImage(aDims);
+        int label = 1;
+        for (int cx = 8; cx < aDims[0] - 4; cx += 12) {
+            for (int cy = 8; cy < aDims[1] - 4; cy += 12) {
+                for (int idx = 0; idx < labels.getSize(); idx++) {
+                    final int x = idx % aDims[0], y = idx / aDims[0];
+                    if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= 12) labels.setLabel(idx, label);
+                }
+                label++;
+            }
+        }
+        return labels;
+    }
+}
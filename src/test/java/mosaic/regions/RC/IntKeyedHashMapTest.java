@@ -0,0 +1,113 @@
+package mosaic.regions.RC;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+public class IntKeyedHashMapTest {
+
+    @Test
+    public void testBasicOperations() {
+        IntKeyedHashMap<String> map = new IntKeyedHashMap<String>();
+        assertTrue(map.isEmpty());
+
+        assertNull(map.put(5, "a"));
+        assertNull(map.put(21, "b"));
+        assertEquals("a", map.put(5, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(5));
+        assertTrue(map.containsKey(21));
+        assertFalse(map.containsKey(6));
+
+        assertEquals("b", map.remove(21));
+        assertNull(map.remove(21));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(5));
+    }
+
+    @Test
+    public void testRandomOperationsComparedToHashMap() {
+        Random rnd = new Random(1234);
+        IntKeyedHashMap<Integer> map = new IntKeyedHashMap<Integer>();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 100000; i++) {
+            int key = rnd.nextInt(2000);
+            switch (rnd.nextInt(3)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                default:
+                    assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 2000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testRemoveDuringIteration() {
+        IntKeyedHashMap<Integer> map = new IntKeyedHashMap<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 7, i);
+        }
+
+        // Remove every odd value, all entries must be visited exactly once
+        int visited = 0;
+        IndexedMap.Cursor<Integer> cursor = map.cursor();
+        while (cursor.next()) {
+            assertEquals(cursor.index(), cursor.value() * 7);
+            if (cursor.value() % 2 == 1) cursor.remove();
+            visited++;
+        }
+        assertEquals(1000, visited);
+        assertEquals(500, map.size());
+        assertEquals(500, map.values().size());
+        for (int v : map.values()) {
+            assertEquals(0, v % 2);
+        }
+
+        // Removed slots must be reusable
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 7, i);
+        }
+        assertEquals(1000, map.size());
+    }
+
+    @Test
+    public void testCursorPoint() {
+        LabelImage labelImage = new LabelImage(new int[] {7, 5, 3});
+        IntKeyedHashMap<Integer> map = new IntKeyedHashMap<Integer>(labelImage);
+        for (int i = 0; i < labelImage.getSize(); i += 4) {
+            map.put(i, i);
+        }
+
+        // Point is correct for every entry and the same instance is reused (no allocation per entry)
+        IndexedMap.Cursor<Integer> cursor = map.cursor();
+        Point first = null;
+        while (cursor.next()) {
+            Point point = cursor.point();
+            assertEquals(labelImage.indexToPoint(cursor.index()), point);
+            if (first == null) first = point;
+            assertSame(first, point);
+        }
+    }
+}
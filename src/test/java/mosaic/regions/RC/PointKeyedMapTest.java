@@ -0,0 +1,128 @@
+package mosaic.regions.RC;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import mosaic.core.imageUtils.Point;
+import mosaic.core.imageUtils.images.LabelImage;
+
+
+public class PointKeyedMapTest {
+
+    @Test
+    public void testSameIterationOrderAsHashMapOfPoints() {
+        LabelImage labelImage = new LabelImage(new int[] {30, 20, 10});
+        PointKeyedMap<Integer> map = new PointKeyedMap<Integer>(labelImage);
+        Map<Point, Integer> expected = new HashMap<Point, Integer>();
+
+        Random rnd = new Random(1234);
+        for (int i = 0; i < 3000; i++) {
+            int index = rnd.nextInt(labelImage.getSize());
+            if (rnd.nextInt(4) == 0) {
+                assertEquals(expected.remove(labelImage.indexToPoint(index)), map.remove(index));
+            }
+            else {
+                assertEquals(expected.put(labelImage.indexToPoint(index), i), map.put(index, i));
+            }
+        }
+
+        Iterator<Map.Entry<Point, Integer>> expectedIter = expected.entrySet().iterator();
+        IndexedMap.Cursor<Integer> cursor = map.cursor();
+        while (cursor.next()) {
+            Map.Entry<Point, Integer> e = expectedIter.next();
+            assertEquals(e.getKey(), cursor.point());
+            assertEquals(labelImage.pointToIndex(e.getKey()), cursor.index());
+            assertEquals(e.getValue(), cursor.value());
+        }
+        assertFalse(expectedIter.hasNext());
+    }
+
+    @Test
+    public void testPutKeepsKeyOfExistingEntry() {
+        LabelImage labelImage = new LabelImage(new int[] {5, 4});
+        PointKeyedMap<String> map = new PointKeyedMap<String>(labelImage);
+        map.put(7, "a");
+        IndexedMap.Cursor<String> cursor = map.cursor();
+        cursor.next();
+        Point key = cursor.point();
+
+        assertEquals("a", map.put(7, "b"));
+        cursor = map.cursor();
+        cursor.next();
+        assertSame(key, cursor.point());
+        assertEquals("b", cursor.value());
+    }
+
+    @Test
+    public void testEquivalentToIntKeyedHashMap() {
+        LabelImage labelImage = new LabelImage(new int[] {40, 30});
+        IndexedMap<Integer> pointKeyed = IndexedMap.create(false, labelImage);
+        IndexedMap<Integer> intKeyed = IndexedMap.create(true, labelImage);
+
+        Random rnd = new Random(4321);
+        for (int i = 0; i < 50000; i++) {
+            int index = rnd.nextInt(labelImage.getSize());
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    assertEquals(pointKeyed.remove(index), intKeyed.remove(index));
+                    break;
+                case 1:
+                    assertEquals(pointKeyed.get(index), intKeyed.get(index));
+                    assertEquals(pointKeyed.containsKey(index), intKeyed.containsKey(index));
+                    break;
+                default:
+                    assertEquals(pointKeyed.put(index, i), intKeyed.put(index, i));
+            }
+            assertEquals(pointKeyed.size(), intKeyed.size());
+        }
+        assertEquals(contentOf(pointKeyed, labelImage), contentOf(intKeyed, labelImage));
+
+        // Remove during iteration (every even value) and copy to new maps of same type
+        removeEvenValues(pointKeyed);
+        removeEvenValues(intKeyed);
+        IndexedMap<Integer> pointKeyedCopy = pointKeyed.newMap();
+        pointKeyedCopy.putAll(pointKeyed);
+        IndexedMap<Integer> intKeyedCopy = intKeyed.newMap();
+        intKeyedCopy.putAll(intKeyed);
+        assertEquals(contentOf(pointKeyedCopy, labelImage), contentOf(intKeyedCopy, labelImage));
+        assertEquals(contentOf(pointKeyed, labelImage), contentOf(pointKeyedCopy, labelImage));
+
+        List<Integer> pointKeyedValues = new ArrayList<Integer>(pointKeyed.values());
+        List<Integer> intKeyedValues = new ArrayList<Integer>(intKeyed.values());
+        pointKeyedValues.sort(null);
+        intKeyedValues.sort(null);
+        assertEquals(pointKeyedValues, intKeyedValues);
+    }
+
+    private static void removeEvenValues(IndexedMap<Integer> aMap) {
+        IndexedMap.Cursor<Integer> cursor = aMap.cursor();
+        while (cursor.next()) {
+            if (cursor.value() % 2 == 0) cursor.remove();
+        }
+    }
+
+    /**
+     * @return content of map sorted by index, points of entries are checked against indices
+     */
+    private static Map<Integer, Integer> contentOf(IndexedMap<Integer> aMap, LabelImage aLabelImage) {
+        Map<Integer, Integer> result = new TreeMap<Integer, Integer>();
+        IndexedMap.Cursor<Integer> cursor = aMap.cursor();
+        while (cursor.next()) {
+            assertEquals(aLabelImage.indexToPoint(cursor.index()), cursor.point());
+            result.put(cursor.index(), cursor.value());
+        }
+        assertEquals(aMap.size(), result.size());
+        return result;
+    }
+}
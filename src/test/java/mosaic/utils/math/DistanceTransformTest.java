@@ -0,0 +1,84 @@
+package mosaic.utils.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class DistanceTransformTest {
+
+    @Test
+    public void testSquaredDistances1d() {
+        float[] grid = {Float.POSITIVE_INFINITY, 0, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, 0};
+        DistanceTransform.squaredDistances(grid, 1, 1, grid.length);
+        assertArrayEquals(new float[] {1, 0, 1, 4, 1, 0}, grid, 0f);
+    }
+    
+    @Test
+    public void testNoSeeds() {
+        float[] grid = new float[12];
+        Arrays.fill(grid, Float.POSITIVE_INFINITY);
+        DistanceTransform.squaredDistances(grid, 2, 3, 2);
+        for (float v : grid) assertEquals(Float.POSITIVE_INFINITY, v, 0f);
+    }
+
+    @Test
+    public void testSquaredDistancesVsBruteForce() {
+        Random rnd = new Random(7);
+        int[][] dims = {{17, 13, 1}, {9, 11, 7}, {1, 20, 5}};
+        for (int[] d : dims) {
+            int nx = d[0], ny = d[1], nz = d[2];
+            float[] grid = new float[nx * ny * nz];
+            Arrays.fill(grid, Float.POSITIVE_INFINITY);
+            int[][] seeds = new int[6][];
+            for (int s = 0; s < seeds.length; ++s) {
+                seeds[s] = new int[] {rnd.nextInt(nx), rnd.nextInt(ny), rnd.nextInt(nz)};
+                grid[(seeds[s][0] * ny + seeds[s][1]) * nz + seeds[s][2]] = 0;
+            }
+            DistanceTransform.squaredDistances(grid, nx, ny, nz);
+            
+            for (int x = 0; x < nx; ++x) {
+                for (int y = 0; y < ny; ++y) {
+                    for (int z = 0; z < nz; ++z) {
+                        int expected = Integer.MAX_VALUE;
+                        for (int[] s : seeds) {
+                            expected = Math.min(expected, (x - s[0]) * (x - s[0]) + (y - s[1]) * (y - s[1]) + (z - s[2]) * (z - s[2]));
+                        }
+                        assertEquals(expected, grid[(x * ny + y) * nz + z], 0f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNearestSeedsVsBruteForce() {
+        Random rnd = new Random(5);
+        int nx = 9, ny = 11, nz = 7;
+        float[] grid = new float[nx * ny * nz];
+        Arrays.fill(grid, Float.POSITIVE_INFINITY);
+        int[] nearest = new int[grid.length];
+        int[][] seeds = new int[8][];
+        for (int s = 0; s < seeds.length; ++s) {
+            seeds[s] = new int[] {rnd.nextInt(nx), rnd.nextInt(ny), rnd.nextInt(nz)};
+            grid[(seeds[s][0] * ny + seeds[s][1]) * nz + seeds[s][2]] = 0;
+            nearest[(seeds[s][0] * ny + seeds[s][1]) * nz + seeds[s][2]] = s;
+        }
+        DistanceTransform.squaredDistances(grid, nearest, nx, ny, nz);
+
+        for (int x = 0; x < nx; ++x) {
+            for (int y = 0; y < ny; ++y) {
+                for (int z = 0; z < nz; ++z) {
+                    int idx = (x * ny + y) * nz + z;
+                    int[] s = seeds[nearest[idx]];
+                    // nearest seed (any of them if more have the same distance)
+                    assertEquals(grid[idx], (x - s[0]) * (x - s[0]) + (y - s[1]) * (y - s[1]) + (z - s[2]) * (z - s[2]), 0f);
+                }
+            }
+        }
+    }
+}
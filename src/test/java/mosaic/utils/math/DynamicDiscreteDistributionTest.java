@@ -0,0 +1,73 @@
+package mosaic.utils.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.Test;
+
+
+public class DynamicDiscreteDistributionTest {
+
+    @Test
+    public void testUpdatesSameAsBruteForce() {
+        Random rnd = new Random(5);
+        DynamicDiscreteDistribution dd = new DynamicDiscreteDistribution(2);
+        List<Double> expected = new ArrayList<>();
+        
+        for (int i = 0; i < 5000; ++i) {
+            int op = rnd.nextInt(4);
+            if (op == 0 && expected.size() > 0) {
+                dd.removeLast();
+                expected.remove(expected.size() - 1);
+            }
+            else if (op == 1 && expected.size() > 0) {
+                int idx = rnd.nextInt(expected.size());
+                double w = rnd.nextDouble();
+                dd.set(idx, w);
+                expected.set(idx, w);
+            }
+            else {
+                double w = rnd.nextDouble();
+                dd.add(w);
+                expected.add(w);
+            }
+            
+            double total = 0;
+            for (double w : expected) total += w;
+            assertEquals(expected.size(), dd.size());
+            assertEquals(total, dd.getTotal(), 1e-9);
+        }
+        for (int i = 0; i < expected.size(); ++i) assertEquals(expected.get(i), dd.get(i), 0);
+        
+        dd.clear();
+        assertEquals(0, dd.size());
+        assertEquals(0, dd.getTotal(), 0);
+    }
+    
+    @Test
+    public void testSampling() {
+        DynamicDiscreteDistribution dd = new DynamicDiscreteDistribution();
+        double[] weights = {1, 0, 3, 0.5, 0, 2.5, 3};
+        for (double w : weights) dd.add(w);
+        dd.set(6, 0); // last element cannot be sampled anymore
+        
+        MersenneTwister rng = new MersenneTwister(3);
+        int numOfSamples = 200000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < numOfSamples; ++i) counts[dd.sample(rng)]++;
+        
+        double[] expected = {1 / 7.0, 0, 3 / 7.0, 0.5 / 7.0, 0, 2.5 / 7.0, 0};
+        for (int i = 0; i < weights.length; ++i) {
+            assertEquals(expected[i], (double) counts[i] / numOfSamples, 0.005);
+        }
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testSamplingEmpty() {
+        new DynamicDiscreteDistribution().sample(new MersenneTwister(3));
+    }
+}
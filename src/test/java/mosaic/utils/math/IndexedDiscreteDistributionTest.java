@@ -0,0 +1,29 @@
+package mosaic.utils.math;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.Test;
+
+
+public class IndexedDiscreteDistributionTest {
+
+    @Test
+    public void testRefillSameAsNewDistribution() {
+        double[][] pmfs = {{1, 2, 3}, {0, 0, 5, 0}, {0.5, 0.1, 0.1, 0.2, 0.7, 0.3, 0.9, 0.1}, {2}};
+        
+        IndexedDiscreteDistribution refilled = new IndexedDiscreteDistribution(new MersenneTwister(7), 2);
+        MersenneTwister rng = new MersenneTwister(7);
+        double[] buffer = new double[16];
+        for (double[] pmf : pmfs) {
+            IndexedDiscreteDistribution expected = new IndexedDiscreteDistribution(rng, pmf);
+            // buffer is longer than pmf, only first elements are used
+            System.arraycopy(pmf, 0, buffer, 0, pmf.length);
+            buffer[pmf.length] = 100;
+            refilled.refill(buffer, pmf.length);
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(expected.sample(), refilled.sample());
+            }
+        }
+    }
+}
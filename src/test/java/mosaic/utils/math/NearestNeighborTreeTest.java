@@ -3,6 +3,9 @@ package mosaic.utils.math;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.scijava.vecmath.Point3d;
 
 import org.junit.Test;
@@ -35,4 +38,62 @@ public class NearestNeighborTreeTest {
         assertEquals(1, nnt.getDistanceToNearestNeighbor(new Point3d(2, 2, 0)), 0.001);
         assertEquals(1, nnt.getDistanceToNearestNeighbor(new Point3d(2, 1, -1)), 0.001);
     }
+    
+    @Test
+    public void testQueriesVsBruteForce() {
+        Random rnd = new Random(5);
+        // some points duplicated and some on common plane to check ties
+        int numOfPoints = 500;
+        double[] base = new double[3 * numOfPoints];
+        for (int i = 0; i < base.length; ++i) base[i] = (i % 3 == 2 && i < base.length / 2) ? 0 : Math.floor(rnd.nextDouble() * 40) / 2;
+        System.arraycopy(base, 0, base, base.length - 30, 30);
+        NearestNeighborTree nnt = new NearestNeighborTree(base);
+        assertEquals(numOfPoints, nnt.size());
+        
+        int numOfQueries = 5000;
+        double[] queries = new double[3 * numOfQueries];
+        for (int i = 0; i < queries.length; ++i) queries[i] = rnd.nextDouble() * 24 - 2;
+        double[] distances = new double[numOfQueries];
+        nnt.getDistancesToNearestNeighbors(queries, distances);
+        
+        for (int q = 0; q < numOfQueries; ++q) {
+            double x = queries[3 * q], y = queries[3 * q + 1], z = queries[3 * q + 2];
+            double[] d = new double[numOfPoints];
+            Integer[] order = new Integer[numOfPoints];
+            for (int i = 0; i < numOfPoints; ++i) {
+                d[i] = Math.sqrt(Math.pow(base[3 * i] - x, 2) + Math.pow(base[3 * i + 1] - y, 2) + Math.pow(base[3 * i + 2] - z, 2));
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(d[a], d[b]));
+            
+            assertEquals(d[order[0]], distances[q], 0);
+            assertEquals(d[order[0]], nnt.getDistanceToNearestNeighbor(new Point3d(x, y, z)), 0);
+            assertEquals(d[order[0]], d[nnt.getNearestNeighborIndex(x, y, z)], 0);
+            
+            if (q % 10 == 0) {
+                int[] knn = nnt.getKNearestNeighbors(x, y, z, 7);
+                assertEquals(7, knn.length);
+                for (int k = 0; k < knn.length; ++k) assertEquals(d[order[k]], d[knn[k]], 0);
+                
+                double radius = 3;
+                int[] inRadius = nnt.getNeighborsWithinRadius(x, y, z, radius);
+                int expected = 0;
+                for (int i = 0; i < numOfPoints; ++i) {
+                    if (d[i] * d[i] <= radius * radius) {
+                        assertEquals(i, inRadius[expected++]);
+                    }
+                }
+                assertEquals(expected, inRadius.length);
+            }
+        }
+    }
+    
+    @Test
+    public void testEmptyTree() {
+        NearestNeighborTree nnt = new NearestNeighborTree(new Point3d[0]);
+        assertEquals(Double.MAX_VALUE, nnt.getDistanceToNearestNeighbor(new Point3d(1, 2, 3)), 0);
+        assertEquals(-1, nnt.getNearestNeighborIndex(1, 2, 3));
+        assertEquals(0, nnt.getKNearestNeighbors(1, 2, 3, 4).length);
+        assertEquals(0, nnt.getNeighborsWithinRadius(1, 2, 3, 10).length);
+    }
 }
@@ -2,6 +2,7 @@ package mosaic.utils.math;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
@@ -58,6 +59,36 @@ public class StatisticsUtilsTest {
         }
     }
     
+    @Test
+    public void testCalculateCdfInPlace() {
+        {
+            // only first aLength values are used, rest of output is untouched
+            double[] values = {0, 0.2, 1.0, 0.6, 0.2, 7, 7};
+            double[] cdf = {9, 9, 9, 9, 9, 9, 9, 9};
+            double[] expected = {0, 0.1, 0.6, 0.9, 1.0, 9, 9, 9};
+
+            assertSame(cdf, StatisticsUtils.calculateCdfFromPmf(values, cdf, 5, true));
+            assertArrayEquals(expected, cdf, 0.000001);
+        }
+        {
+            // same container for input and output
+            double[] values = {0, 0.1, 0.5, 0.3, 0.1, 7};
+            double[] expected = {0, 0.1, 0.6, 0.9, 1.0, 7};
+
+            StatisticsUtils.calculateCdfFromPmf(values, values, 5, false);
+            assertArrayEquals(expected, values, 0.000001);
+        }
+    }
+    
+    @Test
+    public void testNormalizeCdfInPlace() {
+        double[] values = {0, 0.3, 1.8, 2.7, 3.0, 5.0};
+        double[] expected = {0, 0.1, 0.6, 0.9, 1.0, 5.0};
+
+        assertSame(values, StatisticsUtils.normalizeDiscreteCdf(values, 5));
+        assertArrayEquals(expected, values, 0.000001);
+    }
+    
     @Test
     public void testNormalizePmf() {
         {
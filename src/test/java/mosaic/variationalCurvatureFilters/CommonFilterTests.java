@@ -24,6 +24,110 @@ public class CommonFilterTests extends CommonBase {
         testEqualitySplitVsNoSplit(new FilterKernelTv());
     }
 
+    @Test
+    public void testFilterRowSameAsFilterKernel() {
+        // Random values and values from small set (to have equal neighbours and ties between candidate deltas)
+        final Random rnd = new Random(7);
+        for (final FilterKernel fk : new FilterKernel[] {new FilterKernelGc(), new FilterKernelMc(), new FilterKernelTv(), new FilterKernelBernstein()}) {
+            for (int test = 0; test < 200; ++test) {
+                final int width = 3 + rnd.nextInt(40);
+                final float[][] rows = new float[3][width];
+                for (final float[] row : rows) {
+                    for (int x = 0; x < width; ++x) row[x] = (test % 2 == 0) ? rnd.nextFloat() * 255 : rnd.nextInt(3);
+                }
+                final float[] expected = rows[1].clone();
+                final int first = 1 + rnd.nextInt(2);
+                for (int x = first; x < width - 1; x += 2) {
+                    expected[x] += fk.filterKernel(rows[0][x - 1], rows[0][x], rows[0][x + 1], expected[x - 1], expected[x], expected[x + 1], rows[2][x - 1], rows[2][x], rows[2][x + 1]);
+                }
+
+                fk.filterRow(rows[0], rows[1], rows[2], first, width - 1);
+                Assert.assertArrayEquals(fk.getClass().getSimpleName(), expected, rows[1], 0f);
+            }
+        }
+
+        final FilterKernelGc3D fk3D = new FilterKernelGc3D();
+        for (int test = 0; test < 100; ++test) {
+            final int width = 3 + rnd.nextInt(40);
+            final float[][][] img = new float[3][3][width];
+            for (final float[][] plane : img) {
+                for (final float[] row : plane) {
+                    for (int x = 0; x < width; ++x) row[x] = (test % 2 == 0) ? rnd.nextFloat() * 255 : rnd.nextInt(3);
+                }
+            }
+            final float[][][] expected = new float[3][3][];
+            for (int z = 0; z < 3; ++z) for (int y = 0; y < 3; ++y) expected[z][y] = img[z][y].clone();
+            final int first = 1 + rnd.nextInt(2);
+            for (int x = first; x < width - 1; x += 2) {
+                expected[1][1][x] += fk3D.filterKernel(expected, x, 1, 1);
+            }
+
+            fk3D.filterRow(img, 1, 1, first, width - 1);
+            Assert.assertArrayEquals(expected[1][1], img[1][1], 0f);
+        }
+    }
+
+    @Test
+    public void testMultithreadedVsSingleThreaded() {
+        // Images big enough to be processed with many threads, odd and even dimensions
+        for (final FilterKernel fk : new FilterKernel[] {new FilterKernelGc(), new FilterKernelMc(), new FilterKernelTv()}) {
+            testEqualityOfThreads(new NoSplitFilter(fk, 1), new NoSplitFilter(fk, 4), 601, 523, null);
+            testEqualityOfThreads(new SplitFilter(fk, 1), new SplitFilter(fk, 4), 600, 523, null);
+            testEqualityOfThreads(new SplitFilter(fk, 1), new SplitFilter(fk, 3), 601, 522, null);
+        }
+        final CurvatureFilter.Mask mask = new CurvatureFilter.Mask() {
+            @Override
+            public boolean shouldBeProcessed(int aX, int aY) {
+                return (aX * 7 + aY * 3) % 5 != 0;
+            }
+        };
+        testEqualityOfThreads(new NoSplitFilter(new FilterKernelGc(), 1), new NoSplitFilter(new FilterKernelGc(), 4), 600, 522, mask);
+
+        final float[][][] img3D = new float[61][65][70];
+        final float[][][] img3DThreads = new float[61][65][70];
+        final Random randomGenerator = new Random(1);
+        for (int z = 0; z < img3D.length; ++z) {
+            for (int y = 0; y < img3D[0].length; ++y) {
+                for (int x = 0; x < img3D[0][0].length; ++x) {
+                    img3D[z][y][x] = img3DThreads[z][y][x] = randomGenerator.nextFloat();
+                }
+            }
+        }
+        new NoSplitFilter3D(new FilterKernelGc3D(), 1).runFilter(img3D, 3);
+        new NoSplitFilter3D(new FilterKernelGc3D(), 4).runFilter(img3DThreads, 3);
+        for (int z = 0; z < img3D.length; ++z) {
+            for (int y = 0; y < img3D[0].length; ++y) {
+                Assert.assertArrayEquals("Pixels should have same values!", img3D[z][y], img3DThreads[z][y], 0f);
+            }
+        }
+    }
+
+    /**
+     * Test helper. Checks if both filters give exactly same output for random image.
+     */
+    void testEqualityOfThreads(CurvatureFilter aFilter, CurvatureFilter aFilterThreads, int aWidth, int aHeight, CurvatureFilter.Mask aMask) {
+        final int numOfIterations = 3;
+        final Random randomGenerator = new Random(aWidth * aHeight);
+        final float[][] img = new float[aHeight][aWidth];
+        final float[][] imgThreads = new float[aHeight][aWidth];
+        for (int y = 0; y < aHeight; ++y) {
+            for (int x = 0; x < aWidth; ++x) {
+                img[y][x] = imgThreads[y][x] = randomGenerator.nextFloat();
+            }
+        }
+        if (aMask == null) {
+            aFilter.runFilter(img, numOfIterations);
+            aFilterThreads.runFilter(imgThreads, numOfIterations);
+        }
+        else {
+            aFilter.runFilter(img, numOfIterations, aMask);
+            aFilterThreads.runFilter(imgThreads, numOfIterations, aMask);
+        }
+        for (int y = 0; y < aHeight; ++y) {
+            Assert.assertArrayEquals("Pixels should have same values!", img[y], imgThreads[y], 0f);
+        }
+    }
+
     /**
      * Test helper. For given FilterKernel it tests equality between
      * split and non split version of filter. It compares different sizes of
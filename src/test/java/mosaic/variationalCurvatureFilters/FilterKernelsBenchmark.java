@@ -0,0 +1,151 @@
+package mosaic.variationalCurvatureFilters;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Timing of row level kernels (filterRow) against per pixel kernel calls (filterKernel) for every curvature
+ * filter type. It is not run by default (name does not match test patterns), run it with:
+ *   mvn test -Dtest=FilterKernelsBenchmark
+ * Number of measured iterations can be changed with -Dbenchmark.iterations=N. Both variants are run
+ * alternately few times in the same JVM and the best time of each is printed, results are checked to be
+ * bit-identical.
+ * Running whole class measures all kernel types in one JVM (per pixel call site sees many kernel types, as in
+ * a long ImageJ session), single type alone can be measured with -Dtest=FilterKernelsBenchmark#testTv.
+ */
+public class FilterKernelsBenchmark {
+    private static final int NumOfRounds = 5;
+    private static final int NumOfIterations = Integer.getInteger("benchmark.iterations", 20);
+
+    /**
+     * Hides filterRow of wrapped kernel, so default implementation calling filterKernel for every pixel is used.
+     */
+    private static class PerPixelKernel implements FilterKernel {
+        private final FilterKernel iKernel;
+
+        PerPixelKernel(FilterKernel aKernel) {
+            iKernel = aKernel;
+        }
+
+        @Override
+        public float filterKernel(float lu, float u, float ru, float l, float m, float r, float ld, float d, float rd) {
+            return iKernel.filterKernel(lu, u, ru, l, m, r, ld, d, rd);
+        }
+    }
+
+    private static class PerPixelKernel3D implements FilterKernel3D {
+        private final FilterKernel3D iKernel;
+
+        PerPixelKernel3D(FilterKernel3D aKernel) {
+            iKernel = aKernel;
+        }
+
+        @Override
+        public float filterKernel(float[][][] aImage, int aX, int aY, int aZ) {
+            return iKernel.filterKernel(aImage, aX, aY, aZ);
+        }
+    }
+
+    /**
+     * GC has no own row kernel (it did not gain anything), so both variants call filterKernel for every pixel
+     * and difference shows measurement noise.
+     */
+    @Test
+    public void testGc() {
+        benchmark("GC", new FilterKernelGc());
+    }
+
+    @Test
+    public void testMc() {
+        benchmark("MC", new FilterKernelMc());
+    }
+
+    @Test
+    public void testTv() {
+        benchmark("TV", new FilterKernelTv());
+    }
+
+    @Test
+    public void testBernstein() {
+        benchmark("Bernstein", new FilterKernelBernstein());
+    }
+
+    @Test
+    public void testGc3D() {
+        final float[][][] input = new float[60][128][128];
+        final Random rnd = new Random(1);
+        for (float[][] slice : input) for (float[] row : slice) for (int x = 0; x < row.length; ++x) row[x] = rnd.nextFloat();
+
+        final FilterKernel3D kernel = new FilterKernelGc3D();
+        final FilterKernel3D perPixelKernel = new PerPixelKernel3D(kernel);
+        long bestRow = Long.MAX_VALUE;
+        long bestPerPixel = Long.MAX_VALUE;
+        float[][][] rowResult = null;
+        float[][][] perPixelResult = null;
+        for (int round = 0; round < NumOfRounds; ++round) {
+            perPixelResult = copy(input);
+            long start = System.nanoTime();
+            new NoSplitFilter3D(perPixelKernel).runFilter(perPixelResult, NumOfIterations);
+            bestPerPixel = Math.min(bestPerPixel, System.nanoTime() - start);
+
+            rowResult = copy(input);
+            start = System.nanoTime();
+            new NoSplitFilter3D(kernel).runFilter(rowResult, NumOfIterations);
+            bestRow = Math.min(bestRow, System.nanoTime() - start);
+        }
+        report("GC 3D (128x128x60)", bestPerPixel, bestRow);
+        for (int z = 0; z < input.length; ++z) {
+            for (int y = 0; y < input[z].length; ++y) {
+                assertArrayEquals(perPixelResult[z][y], rowResult[z][y], 0f);
+            }
+        }
+    }
+
+    private static void benchmark(String aName, FilterKernel aKernel) {
+        final float[][] input = new float[1024][1024];
+        final Random rnd = new Random(1);
+        for (float[] row : input) for (int x = 0; x < row.length; ++x) row[x] = rnd.nextFloat();
+
+        final FilterKernel perPixelKernel = new PerPixelKernel(aKernel);
+        long bestRow = Long.MAX_VALUE;
+        long bestPerPixel = Long.MAX_VALUE;
+        float[][] rowResult = null;
+        float[][] perPixelResult = null;
+        for (int round = 0; round < NumOfRounds; ++round) {
+            perPixelResult = copy(input);
+            long start = System.nanoTime();
+            new NoSplitFilter(perPixelKernel).runFilter(perPixelResult, NumOfIterations);
+            bestPerPixel = Math.min(bestPerPixel, System.nanoTime() - start);
+
+            rowResult = copy(input);
+            start = System.nanoTime();
+            new NoSplitFilter(aKernel).runFilter(rowResult, NumOfIterations);
+            bestRow = Math.min(bestRow, System.nanoTime() - start);
+        }
+        report(aName + " (1024x1024)", bestPerPixel, bestRow);
+        for (int y = 0; y < input.length; ++y) {
+            assertArrayEquals(perPixelResult[y], rowResult[y], 0f);
+        }
+    }
+
+    private static void report(String aName, long aPerPixelNs, long aRowNs) {
+        System.out.println(String.format("%-20s %d iterations: per pixel %6d ms, row %6d ms, speedup %.2fx",
+                aName, NumOfIterations, aPerPixelNs / 1000000, aRowNs / 1000000, (double) aPerPixelNs / aRowNs));
+    }
+
+    private static float[][] copy(float[][] aImage) {
+        final float[][] result = new float[aImage.length][];
+        for (int i = 0; i < aImage.length; ++i) result[i] = aImage[i].clone();
+        return result;
+    }
+
+    private static float[][][] copy(float[][][] aImage) {
+        final float[][][] result = new float[aImage.length][][];
+        for (int i = 0; i < aImage.length; ++i) result[i] = copy(aImage[i]);
+        return result;
+    }
+}